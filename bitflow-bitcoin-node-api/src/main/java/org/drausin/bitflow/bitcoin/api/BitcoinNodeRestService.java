@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api;
+
+import java.util.List;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * BitcoinNode service for bulk reads from the underlying (external) bitcoind server's REST interface, which bitcoind
+ * serves alongside its RPCs when started with {@code -rest}. Blocks are read in their raw binary serialization and
+ * decoded with bitcoinj, which is much more compact than the verbose JSON of the equivalent RPCs.
+ *
+ * @author dwulsin
+ */
+@Path("/rest")
+@Produces(MediaType.APPLICATION_OCTET_STREAM)
+public interface BitcoinNodeRestService {
+
+    /**
+     * The max number of block headers bitcoind returns from a single call to {@link #getBlockHeaders(int, Sha256Hash)}.
+     */
+    int MAX_HEADERS = 2000;
+
+    /**
+     * Gets the block headers of consecutive blocks in the best chain, starting at a given block.
+     *
+     * @param count the max number of block headers, at most {@link #MAX_HEADERS}
+     * @param fromHash the header hash of the first block
+     * @return the block headers without transactions, in height order; fewer than the given count if the best chain
+     * ends first, or none if the first block isn't in the best chain
+     */
+    @GET
+    @Path("headers/{count}/{hash}.bin")
+    List<Block> getBlockHeaders(@PathParam("count") int count, @PathParam("hash") Sha256Hash fromHash);
+
+    /**
+     * Gets the full block for a given block hash, including its transactions.
+     *
+     * @param hash the header hash of the block
+     */
+    @GET
+    @Path("block/{hash}.bin")
+    Block getBlock(@PathParam("hash") Sha256Hash hash);
+}
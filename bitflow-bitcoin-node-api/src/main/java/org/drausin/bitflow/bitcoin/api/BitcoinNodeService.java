@@ -14,6 +14,7 @@
 
 package org.drausin.bitflow.bitcoin.api;
 
+import java.util.List;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -23,6 +24,7 @@ import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
 import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
 import org.drausin.bitflow.bitcoin.api.responses.StopResponse;
 
 /**
@@ -56,6 +58,40 @@ public interface BitcoinNodeService {
     @POST
     BlockHeaderResponse getBlockHeader(BitcoinNodeRequest request);
 
+    /**
+     * Gets the block headers for a batch of block hashes in a single JSON-RPC batch call.
+     *
+     * @param requests the batch of requests associated with the bitcoind RPC {@code getblock} method
+     * @return the RPC responses in {@link BlockHeaderResponse}s, one per request
+     * @see {@link org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory#
+     * createBlockHeaderRequests(List)}
+     */
+    @POST
+    List<BlockHeaderResponse> getBlockHeaders(List<BitcoinNodeRequest> requests);
+
+    /**
+     * Gets only the block header for a given block hash, without the size or transaction IDs of the block.
+     *
+     * @param request the request associated with the bitcoind RPC {@code getblockheader} method
+     * @return the RPC response in {@link BlockHeaderResponse}
+     * @see {@link org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory#
+     * createBlockHeaderOnlyRequest(Sha256Hash)}
+     */
+    @POST
+    BlockHeaderResponse getBlockHeaderOnly(BitcoinNodeRequest request);
+
+    /**
+     * Gets only the block headers for a batch of block hashes in a single JSON-RPC batch call, without the sizes or
+     * transaction IDs of the blocks.
+     *
+     * @param requests the batch of requests associated with the bitcoind RPC {@code getblockheader} method
+     * @return the RPC responses in {@link BlockHeaderResponse}s, one per request
+     * @see {@link org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory#
+     * createBlockHeaderOnlyRequests(List)}
+     */
+    @POST
+    List<BlockHeaderResponse> getBlockHeadersOnly(List<BitcoinNodeRequest> requests);
+
     /**
      * Gets the block header hash for the block at a given height.
      *
@@ -66,6 +102,28 @@ public interface BitcoinNodeService {
     @POST
     BlockHeaderHashResponse getBlockHeaderHash(BitcoinNodeRequest request);
 
+    /**
+     * Gets the block header hashes for the blocks at a batch of heights in a single JSON-RPC batch call.
+     *
+     * @param requests the batch of requests associated with the bitcoind RPC {@code getblockhash} method
+     * @return the RPC responses in {@link BlockHeaderHashResponse}s, one per request
+     * @see {@link org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory#
+     * createBlockHeaderHashRequests(long, long)}
+     */
+    @POST
+    List<BlockHeaderHashResponse> getBlockHeaderHashes(List<BitcoinNodeRequest> requests);
+
+    /**
+     * Gets the whole block, transactions included, for a given block hash as its hex-encoded serialization.
+     *
+     * @param request the request associated with the bitcoind RPC {@code getblock} method with verbosity off
+     * @return the RPC response in {@link RawBlockResponse}
+     * @see {@link org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory#
+     * createRawBlockRequest(Sha256Hash)}
+     */
+    @POST
+    RawBlockResponse getRawBlock(BitcoinNodeRequest request);
+
     /**
      * Stops the bitcoind server gracefully.
      *
@@ -14,7 +14,9 @@
 
 package org.drausin.bitflow.bitcoin.api.requests;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.bitcoinj.core.Sha256Hash;
 
 /**
@@ -27,6 +29,8 @@ public final class BitcoinNodeRequestFactory {
     private static final String BLOCKCHAIN_INFO_RPC_METHOD = "getblockchaininfo";
     private static final String BLOCK_HEADER_HASH_RPC_METHOD = "getblockhash";
     private static final String BLOCK_HEADER_RPC_METHOD = "getblock";
+    private static final String BLOCK_HEADER_ONLY_RPC_METHOD = "getblockheader";
+    private static final String RAW_BLOCK_RPC_METHOD = "getblock";
     private static final String STOP_RPC_METHOD = "stop";
 
     private BitcoinNodeRequestFactory() {}
@@ -69,6 +73,24 @@ public final class BitcoinNodeRequestFactory {
         return BitcoinNodeRequest.of(BLOCK_HEADER_HASH_RPC_METHOD, ImmutableList.of(blockHeight), id);
     }
 
+    /**
+     * Create a batch of BlockHeaderHash requests, one for each height in a range. Each request uses its block height as
+     * its RPC ID so responses can be matched back to their heights.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     * @return the batch of requests, in height order
+     */
+    public static List<BitcoinNodeRequest> createBlockHeaderHashRequests(long fromHeight, long toHeight) {
+        Preconditions.checkArgument(fromHeight <= toHeight, "fromHeight %s must not be greater than toHeight %s",
+                fromHeight, toHeight);
+        ImmutableList.Builder<BitcoinNodeRequest> requests = ImmutableList.builder();
+        for (long height = fromHeight; height <= toHeight; height++) {
+            requests.add(createBlockHeaderHashRequest(height, Long.toString(height)));
+        }
+        return requests.build();
+    }
+
     /**
      * Create a BlockHeader request.
      *
@@ -90,6 +112,80 @@ public final class BitcoinNodeRequestFactory {
         return BitcoinNodeRequest.of(BLOCK_HEADER_RPC_METHOD, ImmutableList.of(headerHash), id);
     }
 
+    /**
+     * Create a batch of BlockHeader requests, one for each header hash. Each request uses its header hash as its RPC ID
+     * so responses can be matched back to their hashes.
+     *
+     * @param headerHashes the header hashes of the blocks to get
+     * @return the batch of requests, in the same order as the header hashes
+     */
+    public static List<BitcoinNodeRequest> createBlockHeaderRequests(List<Sha256Hash> headerHashes) {
+        ImmutableList.Builder<BitcoinNodeRequest> requests = ImmutableList.builder();
+        for (Sha256Hash headerHash : headerHashes) {
+            requests.add(createBlockHeaderRequest(headerHash, headerHash.toString()));
+        }
+        return requests.build();
+    }
+
+    /**
+     * Create a BlockHeaderOnly request, which gets the block header without the size or transaction IDs of the block.
+     *
+     * @param headerHash the header hash of the block to get
+     * @return the request
+     */
+    public static BitcoinNodeRequest createBlockHeaderOnlyRequest(Sha256Hash headerHash) {
+        return BitcoinNodeRequest.of(BLOCK_HEADER_ONLY_RPC_METHOD, ImmutableList.of(headerHash));
+    }
+
+    /**
+     * Create a BlockHeaderOnly request, which gets the block header without the size or transaction IDs of the block.
+     *
+     * @param headerHash the header hash of the block to get
+     * @param id the RPC ID to use
+     * @return the request
+     */
+    public static BitcoinNodeRequest createBlockHeaderOnlyRequest(Sha256Hash headerHash, String id) {
+        return BitcoinNodeRequest.of(BLOCK_HEADER_ONLY_RPC_METHOD, ImmutableList.of(headerHash), id);
+    }
+
+    /**
+     * Create a batch of BlockHeaderOnly requests, one for each header hash. Each request uses its header hash as its
+     * RPC ID so responses can be matched back to their hashes.
+     *
+     * @param headerHashes the header hashes of the blocks to get
+     * @return the batch of requests, in the same order as the header hashes
+     */
+    public static List<BitcoinNodeRequest> createBlockHeaderOnlyRequests(List<Sha256Hash> headerHashes) {
+        ImmutableList.Builder<BitcoinNodeRequest> requests = ImmutableList.builder();
+        for (Sha256Hash headerHash : headerHashes) {
+            requests.add(createBlockHeaderOnlyRequest(headerHash, headerHash.toString()));
+        }
+        return requests.build();
+    }
+
+    /**
+     * Create a RawBlock request, which gets the whole block, transactions included, as serialized in the bitcoin wire
+     * format and hex-encoded rather than as verbose JSON.
+     *
+     * @param headerHash the header hash of the block to get
+     * @return the request
+     */
+    public static BitcoinNodeRequest createRawBlockRequest(Sha256Hash headerHash) {
+        return BitcoinNodeRequest.of(RAW_BLOCK_RPC_METHOD, ImmutableList.of(headerHash, false));
+    }
+
+    /**
+     * Create a RawBlock request, which gets the whole block, transactions included, as serialized in the bitcoin wire
+     * format and hex-encoded rather than as verbose JSON.
+     *
+     * @param headerHash the header hash of the block to get
+     * @param id the RPC ID to use
+     * @return the request
+     */
+    public static BitcoinNodeRequest createRawBlockRequest(Sha256Hash headerHash, String id) {
+        return BitcoinNodeRequest.of(RAW_BLOCK_RPC_METHOD, ImmutableList.of(headerHash, false), id);
+    }
+
     /**
      * Create a Stop request.
      * @return the request
@@ -136,6 +136,27 @@ public final class BitcoinNodeExampleResponses {
                 BlockHeaderHashResponse.class);
     }
 
+    public static String getRawBlockJsonResponse() {
+        return "{\n"
+                + "    \"result\": \"" + getRawBlockHex() + "\",\n"
+                + "    \"error\": null,\n"
+                + "    \"id\": \"foo\"\n"
+                + "}";
+    }
+
+    public static String getRawBlockHex() {
+        return "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e"
+                + "67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c01010000000100000000000000000000"
+                + "00000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054696d65732030332f"
+                + "4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f75742066"
+                + "6f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a6"
+                + "7962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+    }
+
+    public static RawBlockResponse getRawBlockResponse() throws IOException {
+        return BitflowMapperFactory.createMapper().readValue(getRawBlockJsonResponse(), RawBlockResponse.class);
+    }
+
     public static String getErrorJsonResponse() {
         return "{\n"
                 + "    \"result\": null,\n"
@@ -163,6 +184,10 @@ public final class BitcoinNodeExampleResponses {
                 BlockHeaderHashResponse.class);
     }
 
+    public static RawBlockResponse getRawBlockErrorResponse() throws IOException {
+        return BitflowMapperFactory.createMapper().readValue(getErrorJsonResponse(), RawBlockResponse.class);
+    }
+
     public static BitcoinNodeResponseError getError() throws IOException {
         return getBlockchainInfoErrorResponse().getError().get();
     }
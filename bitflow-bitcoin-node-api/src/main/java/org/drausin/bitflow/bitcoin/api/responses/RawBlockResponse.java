@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api.responses;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Optional;
+import org.immutables.value.Value;
+
+/**
+ * An RPC response with a raw block result, i.e., the hex-encoded serialization of the whole block.
+ *
+ * @see <a href="https://bitcoin.org/en/developer-reference#getblock">GetBlock RPC</a>
+ * @see <a href="https://bitcoin.org/en/developer-reference#serialized-blocks">Serialized Blocks</a>
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableRawBlockResponse.class)
+@JsonDeserialize(as = ImmutableRawBlockResponse.class)
+public abstract class RawBlockResponse extends BitcoinNodeResponse<String> {
+
+    public static RawBlockResponse of(Optional<String> result, Optional<BitcoinNodeResponseError> error,
+            Optional<String> id) {
+        return ImmutableRawBlockResponse.of(result, error, id);
+    }
+
+    public static RawBlockResponse of(Optional<String> result) {
+        return of(result, Optional.absent(), Optional.absent());
+    }
+
+    public static RawBlockResponse of(String result) {
+        return of(Optional.of(result));
+    }
+}
@@ -15,8 +15,11 @@
 package org.drausin.bitflow.bitcoin.api.responses.utils;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import feign.RequestInterceptor;
 import feign.auth.BasicAuthRequestInterceptor;
+import java.util.List;
+import java.util.Map;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.config.BitcoinNodeClientConfig;
 import org.drausin.bitflow.client.AbstractBitflowClientFactory;
@@ -30,6 +33,17 @@ public final class BitcoinNodeClientFactory extends AbstractBitflowClientFactory
         return createClient(BitcoinNodeService.class, config);
     }
 
+    /**
+     * Creates a client for each of the given bitcoin nodes, keyed by their URIs in the same order.
+     */
+    public Map<String, BitcoinNodeService> createClients(List<BitcoinNodeClientConfig> configs) {
+        ImmutableMap.Builder<String, BitcoinNodeService> clients = ImmutableMap.builder();
+        for (BitcoinNodeClientConfig config : configs) {
+            clients.put(config.getUri(), createClient(config));
+        }
+        return clients.build();
+    }
+
     protected String getUri(BitcoinNodeClientConfig config) {
         return config.getUri();
     }
@@ -39,14 +39,17 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Map;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeResponseError;
 import org.drausin.bitflow.serde.BitflowMapperFactory;
 
 /**
- * A feign {@link ErrorDecoder} that handles an error returned from a bitcoin RPC.
+ * A feign {@link ErrorDecoder} that handles an error returned from a bitcoin RPC. A 503 from a bitcoin node whose RPC
+ * work queue is full is decoded as a {@link ServiceUnavailableException}, so callers can tell it apart from RPC errors.
  */
 public enum BitcoinNodeErrorDecoder implements ErrorDecoder {
     INSTANCE;
@@ -54,6 +57,11 @@ public enum BitcoinNodeErrorDecoder implements ErrorDecoder {
     @Override
     public Exception decode(String methodKey, Response response) {
 
+        if (response.status() == Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+            return new ServiceUnavailableException(String.format("bitcoin node is overloaded, HTTP error: %s, "
+                    + "reason: %s", response.status(), response.reason()));
+        }
+
         Collection<String> contentType = response.headers().get(HttpHeaders.CONTENT_TYPE);
         if (!contentType.contains(MediaType.APPLICATION_JSON)) {
             return new RuntimeException(String.format("HTTP error: %s, reason: %s", response.status(),
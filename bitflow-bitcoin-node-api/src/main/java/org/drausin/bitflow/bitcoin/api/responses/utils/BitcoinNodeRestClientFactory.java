@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api.responses.utils;
+
+import com.google.common.base.Optional;
+import com.palantir.remoting.http.FeignClientFactory;
+import feign.Feign;
+import feign.Request;
+import feign.jaxrs.JAXRSContract;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.drausin.bitflow.bitcoin.api.config.BitcoinNodeClientConfig;
+
+/**
+ * Factory for creating {@link feign.Feign} {@link BitcoinNodeRestService} clients of a bitcoin node's REST interface,
+ * alongside the RPC clients from {@link BitcoinNodeClientFactory}. The REST interface is served on the same port as
+ * the RPCs but without authentication, so only the URI of the client config is used.
+ */
+public final class BitcoinNodeRestClientFactory {
+
+    public BitcoinNodeRestService createClient(BitcoinNodeClientConfig config) {
+        return createClient(config, MainNetParams.get());
+    }
+
+    /**
+     * Creates a client that decodes blocks for the given network's bitcoin node.
+     */
+    public BitcoinNodeRestService createClient(BitcoinNodeClientConfig config, NetworkParameters params) {
+        return Feign.builder()
+                .contract(new JAXRSContract())
+                .decoder(new BitcoinNodeRestDecoder(params))
+                .errorDecoder(BitcoinNodeErrorDecoder.INSTANCE)
+                .client(FeignClientFactory.okHttpClient().apply(Optional.absent()))
+                .options(new Request.Options())
+                .target(BitcoinNodeRestService.class, config.getUri());
+    }
+}
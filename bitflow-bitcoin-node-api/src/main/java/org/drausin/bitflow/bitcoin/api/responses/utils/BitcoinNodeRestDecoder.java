@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api.responses.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import feign.Response;
+import feign.codec.DecodeException;
+import feign.codec.Decoder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+
+/**
+ * A feign {@link Decoder} of the raw binary blocks returned from a bitcoin node's REST interface. A list of block
+ * headers is decoded one 80-byte header at a time straight from the response stream, and a full block once it has
+ * been read whole.
+ */
+public final class BitcoinNodeRestDecoder implements Decoder {
+
+    private final NetworkParameters params;
+    private final Context context;
+
+    public BitcoinNodeRestDecoder(NetworkParameters params) {
+        this.params = params;
+        this.context = new Context(params);
+    }
+
+    @Override
+    public Object decode(Response response, Type type) throws IOException {
+        Class<?> rawType = TypeToken.of(type).getRawType();
+        if (Block.class.equals(rawType)) {
+            return decodeBlock(response);
+        }
+        if (List.class.equals(rawType)) {
+            return decodeBlockHeaders(response);
+        }
+        throw new DecodeException(String.format("unable to decode %s from a raw binary response", type));
+    }
+
+    private Block decodeBlock(Response response) throws IOException {
+        if (response.body() == null) {
+            throw new DecodeException("missing raw block in empty response");
+        }
+        byte[] raw;
+        try (InputStream in = response.body().asInputStream()) {
+            raw = ByteStreams.toByteArray(in);
+        }
+        try {
+            // bitcoinj looks up the context of the thread parsing the block's transactions
+            Context.propagate(context);
+            return new Block(params, raw);
+        } catch (ProtocolException e) {
+            throw new DecodeException("unable to decode raw block", e);
+        }
+    }
+
+    private List<Block> decodeBlockHeaders(Response response) throws IOException {
+        ImmutableList.Builder<Block> headers = ImmutableList.builder();
+        if (response.body() == null) {
+            return headers.build();
+        }
+        try (InputStream in = response.body().asInputStream()) {
+            while (true) {
+                byte[] raw = new byte[Block.HEADER_SIZE];
+                int length = ByteStreams.read(in, raw, 0, raw.length);
+                if (length == 0) {
+                    return headers.build();
+                }
+                if (length < raw.length) {
+                    throw new DecodeException(String.format("truncated raw block header of %s bytes", length));
+                }
+                headers.add(decodeBlockHeader(raw));
+            }
+        }
+    }
+
+    private Block decodeBlockHeader(byte[] raw) {
+        try {
+            return new Block(params, raw);
+        } catch (ProtocolException e) {
+            throw new DecodeException("unable to decode raw block header", e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.bitcoinj.core.Sha256Hash;
 import org.junit.Test;
 
@@ -63,6 +64,22 @@ public final class BitcoinNodeRequestFactoryTest {
         assertEquals(id, request.getId().get());
     }
 
+    @Test
+    public void testCreateBlockHeaderHashRequests() throws Exception {
+        List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderHashRequests(blockHeight,
+                blockHeight + 2);
+        assertEquals(3, requests.size());
+        for (int c = 0; c < requests.size(); c++) {
+            assertEquals(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(blockHeight + c,
+                    Long.toString(blockHeight + c)), requests.get(c));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateBlockHeaderHashRequestsInvalidRange() throws Exception {
+        BitcoinNodeRequestFactory.createBlockHeaderHashRequests(blockHeight + 1, blockHeight);
+    }
+
     @Test
     public void testCreateBlockHeaderRequest() throws Exception {
         BitcoinNodeRequest request = BitcoinNodeRequestFactory.createBlockHeaderRequest(headerHash);
@@ -80,6 +97,49 @@ public final class BitcoinNodeRequestFactoryTest {
         assertEquals(id, request.getId().get());
     }
 
+    @Test
+    public void testCreateBlockHeaderRequests() throws Exception {
+        List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderRequests(
+                ImmutableList.of(headerHash));
+        assertEquals(1, requests.size());
+        assertEquals(ImmutableList.of(headerHash), requests.get(0).getParams());
+        assertEquals(headerHash.toString(), requests.get(0).getId().get());
+    }
+
+    @Test
+    public void testCreateBlockHeaderOnlyRequest() throws Exception {
+        BitcoinNodeRequest request = BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(headerHash);
+        assertEquals("getblockheader", request.getMethod());
+        assertEquals(ImmutableList.of(headerHash), request.getParams());
+        assertFalse(request.getId().isPresent());
+    }
+
+    @Test
+    public void testCreateBlockHeaderOnlyRequests() throws Exception {
+        List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderOnlyRequests(
+                ImmutableList.of(headerHash));
+        assertEquals(1, requests.size());
+        assertEquals("getblockheader", requests.get(0).getMethod());
+        assertEquals(ImmutableList.of(headerHash), requests.get(0).getParams());
+        assertEquals(headerHash.toString(), requests.get(0).getId().get());
+    }
+
+    @Test
+    public void testCreateRawBlockRequest() throws Exception {
+        BitcoinNodeRequest request = BitcoinNodeRequestFactory.createRawBlockRequest(headerHash);
+        assertEquals("getblock", request.getMethod());
+        assertEquals(ImmutableList.of(headerHash, false), request.getParams());
+        assertFalse(request.getId().isPresent());
+    }
+
+    @Test
+    public void testCreateRawBlockRequestWithId() throws Exception {
+        BitcoinNodeRequest request = BitcoinNodeRequestFactory.createRawBlockRequest(headerHash, id);
+        assertEquals("getblock", request.getMethod());
+        assertEquals(ImmutableList.of(headerHash, false), request.getParams());
+        assertEquals(id, request.getId().get());
+    }
+
     @Test
     public void testCreateStopRequest() throws Exception {
         BitcoinNodeRequest request = BitcoinNodeRequestFactory.createStopRequest();
@@ -26,6 +26,7 @@ import feign.codec.ErrorDecoder;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Map;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
@@ -74,6 +75,16 @@ public final class BitcoinNodeErrorDecoderTest {
         assertThat(errorDecoder.decode(getBlockchainInfoConfigKey, response), instanceOf(RuntimeException.class));
     }
 
+    @Test
+    public void testDecodeWorkQueueFullError() throws Exception {
+        Map<String, Collection<String>> headers = ImmutableMap.of(HttpHeaders.CONTENT_TYPE,
+                ImmutableList.of(MediaType.TEXT_HTML));
+        Response response = Response.create(503, "Service Unavailable", headers, "Work queue depth exceeded",
+                Charset.forName("UTF-8"));
+        assertThat(errorDecoder.decode(getBlockchainInfoConfigKey, response),
+                instanceOf(ServiceUnavailableException.class));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testDecodeBadResponseError() throws Exception {
         Map<String, Collection<String>> headers = ImmutableMap.of(HttpHeaders.CONTENT_TYPE,
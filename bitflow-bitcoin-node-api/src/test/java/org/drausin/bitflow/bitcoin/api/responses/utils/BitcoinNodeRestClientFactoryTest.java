@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api.responses.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import javax.ws.rs.core.MediaType;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.drausin.bitflow.bitcoin.api.config.BitcoinNodeClientConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public final class BitcoinNodeRestClientFactoryTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    @Rule
+    public final WireMockRule bitcoinNode = new WireMockRule(WireMockConfiguration.wireMockConfig().dynamicPort());
+
+    private BitcoinNodeRestService client;
+    private List<Block> chain;
+
+    @Before
+    public void setUp() {
+        client = new BitcoinNodeRestClientFactory().createClient(
+                BitcoinNodeClientConfig.of("http://localhost:" + bitcoinNode.port(), "user", "password"));
+        chain = createChain(5);
+    }
+
+    @Test
+    public void testGetBlockHeaders() {
+        String url = String.format("/rest/headers/5/%s.bin", chain.get(0).getHash());
+        stubGet(url, WireMock.aResponse()
+                .withStatus(200)
+                .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM)
+                .withBody(serializeHeaders(chain)));
+
+        List<Block> headers = client.getBlockHeaders(5, chain.get(0).getHash());
+        assertEquals(chain, headers);
+        for (int c = 1; c < headers.size(); c++) {
+            assertEquals(headers.get(c - 1).getHash(), headers.get(c).getPrevBlockHash());
+        }
+        bitcoinNode.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo(url)));
+    }
+
+    @Test
+    public void testGetBlockHeadersNotInBestChain() {
+        stubGet(String.format("/rest/headers/5/%s.bin", Sha256Hash.ZERO_HASH), WireMock.aResponse()
+                .withStatus(200)
+                .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM));
+
+        assertTrue(client.getBlockHeaders(5, Sha256Hash.ZERO_HASH).isEmpty());
+    }
+
+    @Test
+    public void testGetBlock() {
+        Block genesis = PARAMS.getGenesisBlock();
+        stubGet(String.format("/rest/block/%s.bin", genesis.getHash()), WireMock.aResponse()
+                .withStatus(200)
+                .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM)
+                .withBody(genesis.bitcoinSerialize()));
+
+        Block block = client.getBlock(genesis.getHash());
+        assertEquals(genesis.getHash(), block.getHash());
+        assertEquals(1, block.getTransactions().size());
+        assertEquals(genesis.getMerkleRoot(), block.getTransactions().get(0).getHash());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testGetBlockNotFound() {
+        stubGet(String.format("/rest/block/%s.bin", Sha256Hash.ZERO_HASH), WireMock.aResponse()
+                .withStatus(404)
+                .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN)
+                .withBody(Sha256Hash.ZERO_HASH + " not found"));
+
+        client.getBlock(Sha256Hash.ZERO_HASH);
+    }
+
+    private void stubGet(String url, ResponseDefinitionBuilder response) {
+        bitcoinNode.stubFor(WireMock.get(WireMock.urlEqualTo(url)).willReturn(response));
+    }
+
+    /**
+     * Creates a chain of block headers following the genesis block, which need not have valid proofs of work to be
+     * decoded.
+     */
+    static List<Block> createChain(int numBlocks) {
+        ImmutableList.Builder<Block> chain = ImmutableList.builder();
+        Block previous = PARAMS.getGenesisBlock().cloneAsHeader();
+        chain.add(previous);
+        for (int c = 1; c < numBlocks; c++) {
+            previous = new Block(PARAMS, 1, previous.getHash(), Sha256Hash.of(new byte[] {(byte) c}),
+                    previous.getTimeSeconds() + 600, previous.getDifficultyTarget(), c,
+                    ImmutableList.<Transaction>of()).cloneAsHeader();
+            chain.add(previous);
+        }
+        return chain.build();
+    }
+
+    static byte[] serializeHeaders(List<Block> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Block header : headers) {
+            byte[] raw = header.cloneAsHeader().bitcoinSerialize();
+            out.write(raw, 0, raw.length);
+        }
+        return out.toByteArray();
+    }
+}
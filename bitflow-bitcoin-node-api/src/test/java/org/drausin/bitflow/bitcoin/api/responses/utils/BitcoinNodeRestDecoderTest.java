@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.bitcoin.api.responses.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import feign.Response;
+import feign.codec.DecodeException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+public final class BitcoinNodeRestDecoderTest {
+
+    private static final Type BLOCK_HEADERS_TYPE = new TypeToken<List<Block>>() { }.getType();
+
+    private final BitcoinNodeRestDecoder decoder = new BitcoinNodeRestDecoder(MainNetParams.get());
+
+    @Test
+    public void testDecodeBlockHeaders() throws Exception {
+        List<Block> chain = BitcoinNodeRestClientFactoryTest.createChain(3);
+        Response response = Response.create(200, "OK", ImmutableMap.of(),
+                BitcoinNodeRestClientFactoryTest.serializeHeaders(chain));
+        assertEquals(chain, decoder.decode(response, BLOCK_HEADERS_TYPE));
+    }
+
+    @Test
+    public void testDecodeNoBlockHeaders() throws Exception {
+        Response response = Response.create(200, "OK", ImmutableMap.of(), new byte[0]);
+        assertTrue(((List<?>) decoder.decode(response, BLOCK_HEADERS_TYPE)).isEmpty());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeTruncatedBlockHeaders() throws Exception {
+        byte[] raw = BitcoinNodeRestClientFactoryTest.serializeHeaders(BitcoinNodeRestClientFactoryTest.createChain(2));
+        Response response = Response.create(200, "OK", ImmutableMap.of(), Arrays.copyOf(raw, raw.length - 1));
+        decoder.decode(response, BLOCK_HEADERS_TYPE);
+    }
+
+    @Test
+    public void testDecodeBlock() throws Exception {
+        Block genesis = MainNetParams.get().getGenesisBlock();
+        Response response = Response.create(200, "OK", ImmutableMap.of(), genesis.bitcoinSerialize());
+        Block block = (Block) decoder.decode(response, Block.class);
+        assertEquals(genesis.getHash(), block.getHash());
+        assertEquals(genesis.getTransactions().get(0).getHash(), block.getTransactions().get(0).getHash());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeUnsupportedType() throws Exception {
+        decoder.decode(Response.create(200, "OK", ImmutableMap.of(), new byte[0]), String.class);
+    }
+}
@@ -18,24 +18,58 @@ import io.dropwizard.jersey.params.DateTimeParam;
 import java.util.List;
 import javax.annotation.CheckForNull;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 import org.bitcoinj.core.Sha256Hash;
 import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookupResult;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderPage;
+import org.drausin.bitflow.blockchain.api.objects.BlockRangeStats;
 import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
 import org.drausin.bitflow.service.utils.BitflowService;
 
 @Path("/blockchain")
-@Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
+@Consumes({MediaType.APPLICATION_JSON, BitflowService.APPLICATION_SMILE})
+@Produces({MediaType.APPLICATION_JSON, BitflowService.APPLICATION_SMILE})
 public interface BlockchainService extends BitflowService {
 
+    /**
+     * Media type of newline-delimited JSON, with one JSON value per line.
+     */
+    String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Default for whether block headers include the IDs of the transactions in their blocks. These are omitted unless
+     * asked for, since a full block's thousands of transaction IDs dwarf the rest of its block header.
+     */
+    String DEFAULT_TX_IDS = "false";
+
+    /**
+     * Default max number of block headers in a page of a subchain.
+     */
+    String DEFAULT_PAGE_LIMIT = "1000";
+
+    /**
+     * Largest allowed max number of block headers in a page of a subchain.
+     */
+    int MAX_PAGE_LIMIT = 10000;
+
+    /**
+     * Max number of block header lookups in a bulk request.
+     */
+    int MAX_BULK_LOOKUPS = 10000;
+
     /**
      * Gets current information about the blockchain.
      */
@@ -48,21 +82,67 @@ public interface BlockchainService extends BitflowService {
      * Gets the block header for a given block hash.
      *
      * @param hash the hash of the block
+     * @param txIds whether to include the transaction IDs of each block
      */
     @GET
     @Path("/block/header/hash/{hash}")
     BlockHeader getBlockHeader(
             @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
-            @CheckForNull @PathParam("hash") Sha256Hash hash);
+            @CheckForNull @PathParam("hash") Sha256Hash hash,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
 
     /**
      * Gets the block header at a given block height.
      *
      * @param height the height of the block in the blockchain
+     * @param txIds whether to include the transaction IDs of each block
      */
     @GET
     @Path("/block/header/height/{height}")
     BlockHeader getBlockHeader(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("height") long height,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Gets the block headers for a list of lookups by block hash or block height in one call. Each lookup gets its own
+     * result, holding either its block header or the error that prevented getting it, so lookups of unknown hashes or
+     * heights beyond the tip don't fail the others.
+     *
+     * @param lookups the lookups, at most {@link #MAX_BULK_LOOKUPS}
+     * @param txIds whether to include the transaction IDs of each block
+     * @return the result of each lookup, in the same order as the lookups
+     */
+    @POST
+    @Path("/block/header/bulk")
+    List<BlockHeaderLookupResult> getBlockHeaders(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull List<BlockHeaderLookup> lookups,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Gets the whole block, with all of its transactions, for a given block hash. The block is fetched from the
+     * bitcoin node in its compact serialized form and decoded here, which is much faster than having the bitcoin node
+     * describe every transaction in verbose JSON; binary-heavy fields like scripts are best read as
+     * {@link BitflowService#APPLICATION_SMILE}.
+     *
+     * @param hash the hash of the block
+     */
+    @GET
+    @Path("/block/hash/{hash}")
+    FullBlock getBlock(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("hash") Sha256Hash hash);
+
+    /**
+     * Gets the whole block, with all of its transactions, at a given block height.
+     *
+     * @param height the height of the block in the blockchain
+     * @see #getBlock(String, Sha256Hash)
+     */
+    @GET
+    @Path("/block/height/{height}")
+    FullBlock getBlock(
             @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
             @CheckForNull @PathParam("height") long height);
 
@@ -72,23 +152,139 @@ public interface BlockchainService extends BitflowService {
      * @param from (optional) the time after (inclusive) which to get the first block; must be specified if to
      * parameter is not
      * @param to (optional) the time before (exclusive) which to get the last block
+     * @param txIds whether to include the transaction IDs of each block
      */
     @GET
     @Path("/block/header/subchain/time")
     List<BlockHeader> getBlockHeaderTimeSubchain(
             @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
             @CheckForNull @QueryParam("from") DateTimeParam from,
-            @CheckForNull @QueryParam("to") DateTimeParam to);
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
 
     /**
      * Gets the block header subchain of blocks created within a given height range, relative to the current best block.
      *
      * @param from the height above (inclusive) which to get the first block
      * @param to the height below (inclusive) which to get the last block
+     * @param txIds whether to include the transaction IDs of each block
      */
     @GET
     @Path("/block/header/subchain/height")
     List<BlockHeader> getBlockHeaderHeightSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Streams the block header subchain of blocks created within a given time window as newline-delimited JSON, with
+     * one block header per line. Block headers are written as soon as they are fetched rather than after the whole
+     * subchain has been, so the response ends early (without its last line) if the subchain changes while streaming.
+     *
+     * @param from (optional) the time after (inclusive) which to get the first block; must be specified if to
+     * parameter is not
+     * @param to (optional) the time before (exclusive) which to get the last block
+     * @param txIds whether to include the transaction IDs of each block
+     */
+    @GET
+    @Path("/block/header/subchain/time/stream")
+    @Produces(APPLICATION_NDJSON)
+    StreamingOutput streamBlockHeaderTimeSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Streams the block header subchain of blocks within a given height range as newline-delimited JSON, with one
+     * block header per line. Block headers are written as soon as they are fetched rather than after the whole
+     * subchain has been, so the response ends early (without its last line) if the subchain changes while streaming.
+     *
+     * @param from the height above (inclusive) which to get the first block
+     * @param to the height below (inclusive) which to get the last block
+     * @param txIds whether to include the transaction IDs of each block
+     */
+    @GET
+    @Path("/block/header/subchain/height/stream")
+    @Produces(APPLICATION_NDJSON)
+    StreamingOutput streamBlockHeaderHeightSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Gets a page of the block header subchain of blocks created within a given time window. The first page is given
+     * by the time window and each later page by the cursor returned with the previous page, which pins the pages to the
+     * best chain the first page was read from: if that chain reorganizes below the end of the previous page, getting
+     * the next page fails with 409 Conflict rather than mixing blocks from two chains. A cursor that wasn't returned
+     * with a page fails with 400 Bad Request.
+     *
+     * @param from (optional) the time after (inclusive) which to get the first block; ignored if cursor is given
+     * @param to (optional) the time before (exclusive) which to get the last block; ignored if cursor is given
+     * @param limit the max number of block headers in the page, at most {@link #MAX_PAGE_LIMIT}
+     * @param cursor (optional) the cursor returned with the previous page
+     * @param txIds whether to include the transaction IDs of each block
+     */
+    @GET
+    @Path("/block/header/subchain/time/page")
+    BlockHeaderPage getBlockHeaderTimeSubchainPage(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("limit") @DefaultValue(DEFAULT_PAGE_LIMIT) int limit,
+            @CheckForNull @QueryParam("cursor") String cursor,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Gets a page of the block header subchain of blocks within a given height range. The first page is given by the
+     * height range and each later page by the cursor returned with the previous page, which pins the pages to the best
+     * chain the first page was read from: if that chain reorganizes below the end of the previous page, getting the
+     * next page fails with 409 Conflict rather than mixing blocks from two chains. A cursor that wasn't returned with a
+     * page fails with 400 Bad Request.
+     *
+     * @param from the height above (inclusive) which to get the first block; ignored if cursor is given
+     * @param to the height below (inclusive) which to get the last block; ignored if cursor is given
+     * @param limit the max number of block headers in the page, at most {@link #MAX_PAGE_LIMIT}
+     * @param cursor (optional) the cursor returned with the previous page
+     * @param txIds whether to include the transaction IDs of each block
+     */
+    @GET
+    @Path("/block/header/subchain/height/page")
+    BlockHeaderPage getBlockHeaderHeightSubchainPage(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("limit") @DefaultValue(DEFAULT_PAGE_LIMIT) int limit,
+            @CheckForNull @QueryParam("cursor") String cursor,
+            @QueryParam("txIds") @DefaultValue(DEFAULT_TX_IDS) boolean txIds);
+
+    /**
+     * Gets aggregate statistics of the blocks created within a given time window, e.g. their total number of
+     * transactions and mean difficulty, without transferring the block headers themselves.
+     *
+     * @param from (optional) the time after (inclusive) which to get the first block; must be specified if to
+     * parameter is not
+     * @param to (optional) the time before (exclusive) which to get the last block
+     */
+    @GET
+    @Path("/block/stats/time")
+    BlockRangeStats getBlockTimeRangeStats(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to);
+
+    /**
+     * Gets aggregate statistics of the blocks within a given height range, e.g. their total number of transactions
+     * and mean difficulty, without transferring the block headers themselves.
+     *
+     * @param from the height above (inclusive) which to get the first block
+     * @param to the height below (inclusive) which to get the last block
+     */
+    @GET
+    @Path("/block/stats/height")
+    BlockRangeStats getBlockHeightRangeStats(
             @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
             @CheckForNull @QueryParam("from") long from,
             @CheckForNull @QueryParam("to") long to);
@@ -15,6 +15,7 @@
 package org.drausin.bitflow.blockchain.api.objects;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -36,6 +37,8 @@ import org.joda.time.DateTimeZone;
 @Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
 @JsonSerialize(as = ImmutableBlockHeader.class)
 @JsonDeserialize(as = ImmutableBlockHeader.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@SuppressWarnings("checkstyle:designforextension")
 public abstract class BlockHeader {
 
     /**
@@ -54,11 +57,15 @@ public abstract class BlockHeader {
     public abstract long getNumConfirmations();
 
     /**
-     * Get the number of bytes of this block in serialized block format.
+     * Get the number of bytes of this block in serialized block format, or -1 if only the block header was fetched
+     * (e.g., via the Bitcoind getblockheader RPC).
      */
+    @Value.Default
     @Value.Parameter
-    @JsonProperty(value = "size", required = true)
-    public abstract long getSizeBytes();
+    @JsonProperty(value = "size")
+    public long getSizeBytes() {
+        return -1;
+    }
 
     /**
      * Get the height of this block on its block chain.
@@ -92,6 +99,16 @@ public abstract class BlockHeader {
     @JsonProperty(value = "tx", required = true)
     public abstract List<Sha256Hash> getTransactionIds();
 
+    /**
+     * Get the number of transactions in this block, or -1 if unknown (e.g., from a Bitcoind version whose RPCs don't
+     * return it). Unlike {@link #getTransactionIds()}, this is known even when only the block header was fetched.
+     */
+    @Value.Default
+    @JsonProperty(value = "nTx")
+    public long getNumTransactions() {
+        return -1;
+    }
+
     /**
      * Get the approximate time when the block was created, stored as seconds since the the 1970 epoch.
      */
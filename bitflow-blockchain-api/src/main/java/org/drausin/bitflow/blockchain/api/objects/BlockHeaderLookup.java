@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Optional;
+import org.bitcoinj.core.Sha256Hash;
+import org.immutables.value.Value;
+
+/**
+ * A lookup of one block header in a bulk request, by either its block hash or its block height.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableBlockHeaderLookup.class)
+@JsonDeserialize(as = ImmutableBlockHeaderLookup.class)
+public abstract class BlockHeaderLookup {
+
+    /**
+     * Get the hash of the block, if looked up by hash.
+     */
+    @Value.Parameter
+    @JsonProperty("hash")
+    public abstract Optional<Sha256Hash> getHash();
+
+    /**
+     * Get the height of the block in the best chain, if looked up by height.
+     */
+    @Value.Parameter
+    @JsonProperty("height")
+    public abstract Optional<Long> getHeight();
+
+    @Value.Check
+    protected final void check() {
+        if (getHash().isPresent() == getHeight().isPresent()) {
+            throw new IllegalStateException("exactly one of hash and height must be given");
+        }
+    }
+
+    public static BlockHeaderLookup of(Sha256Hash hash) {
+        return ImmutableBlockHeaderLookup.of(Optional.of(hash), Optional.absent());
+    }
+
+    public static BlockHeaderLookup of(long height) {
+        return ImmutableBlockHeaderLookup.of(Optional.absent(), Optional.of(height));
+    }
+}
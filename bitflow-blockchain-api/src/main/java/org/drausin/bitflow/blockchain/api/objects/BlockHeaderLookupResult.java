@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Optional;
+import org.immutables.value.Value;
+
+/**
+ * The result of one lookup in a bulk request: either the block header looked up or the error that prevented getting
+ * it, so one bad lookup doesn't fail the others.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableBlockHeaderLookupResult.class)
+@JsonDeserialize(as = ImmutableBlockHeaderLookupResult.class)
+public abstract class BlockHeaderLookupResult {
+
+    /**
+     * Get the block header, if it was found.
+     */
+    @Value.Parameter
+    @JsonProperty("header")
+    public abstract Optional<BlockHeader> getBlockHeader();
+
+    /**
+     * Get the error message, if the block header wasn't found.
+     */
+    @Value.Parameter
+    @JsonProperty("error")
+    public abstract Optional<String> getError();
+
+    @Value.Check
+    protected final void check() {
+        if (getBlockHeader().isPresent() == getError().isPresent()) {
+            throw new IllegalStateException("exactly one of header and error must be given");
+        }
+    }
+
+    public static BlockHeaderLookupResult of(BlockHeader blockHeader) {
+        return ImmutableBlockHeaderLookupResult.of(Optional.of(blockHeader), Optional.absent());
+    }
+
+    public static BlockHeaderLookupResult ofError(String error) {
+        return ImmutableBlockHeaderLookupResult.of(Optional.absent(), Optional.of(error));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Optional;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * A page of consecutive block headers from a subchain, with the cursor for getting the next page, if any.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableBlockHeaderPage.class)
+@JsonDeserialize(as = ImmutableBlockHeaderPage.class)
+public abstract class BlockHeaderPage {
+
+    /**
+     * Get the block headers in this page, in height order.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "headers", required = true)
+    public abstract List<BlockHeader> getBlockHeaders();
+
+    /**
+     * Get the opaque cursor for getting the next page of the subchain, or absent if this is the last page.
+     */
+    @Value.Parameter
+    @JsonProperty("next")
+    public abstract Optional<String> getNextCursor();
+
+    public static BlockHeaderPage of(List<BlockHeader> blockHeaders, Optional<String> nextCursor) {
+        return ImmutableBlockHeaderPage.of(blockHeaders, nextCursor);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Optional;
+import java.math.BigInteger;
+import org.immutables.value.Value;
+
+/**
+ * Aggregate statistics of the blocks in a height range of the best chain.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableBlockRangeStats.class)
+@JsonDeserialize(as = ImmutableBlockRangeStats.class)
+public abstract class BlockRangeStats {
+
+    /**
+     * Get the height of the first block in the range.
+     */
+    @JsonProperty(value = "from", required = true)
+    public abstract long getFromHeight();
+
+    /**
+     * Get the height of the last block in the range.
+     */
+    @JsonProperty(value = "to", required = true)
+    public abstract long getToHeight();
+
+    /**
+     * Get the number of blocks in the range.
+     */
+    @JsonProperty(value = "numBlocks", required = true)
+    public abstract long getNumBlocks();
+
+    /**
+     * Get the total number of transactions in the blocks, or absent if unknown for any of them (e.g., from a Bitcoind
+     * version whose RPCs don't return it).
+     */
+    @JsonProperty("nTxTotal")
+    public abstract Optional<Long> getTotalTransactions();
+
+    /**
+     * Get the mean number of transactions per block, or absent if unknown for any of them.
+     */
+    @JsonProperty("nTxMean")
+    public abstract Optional<Double> getMeanTransactions();
+
+    /**
+     * Get the min number of transactions in a block, or absent if unknown for any of them.
+     */
+    @JsonProperty("nTxMin")
+    public abstract Optional<Long> getMinTransactions();
+
+    /**
+     * Get the max number of transactions in a block, or absent if unknown for any of them.
+     */
+    @JsonProperty("nTxMax")
+    public abstract Optional<Long> getMaxTransactions();
+
+    /**
+     * Get the mean difficulty of the blocks.
+     */
+    @JsonProperty(value = "difficultyMean", required = true)
+    public abstract double getMeanDifficulty();
+
+    /**
+     * Get the min difficulty of a block.
+     */
+    @JsonProperty(value = "difficultyMin", required = true)
+    public abstract double getMinDifficulty();
+
+    /**
+     * Get the max difficulty of a block.
+     */
+    @JsonProperty(value = "difficultyMax", required = true)
+    public abstract double getMaxDifficulty();
+
+    /**
+     * Get the expected number of hashes required to produce the blocks, i.e., the chainwork of the last block less
+     * that of the block before the first.
+     */
+    @JsonProperty(value = "chainworkDelta", required = true)
+    public abstract BigInteger getChainworkDelta();
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import org.bitcoinj.core.Sha256Hash;
+import org.immutables.value.Value;
+
+/**
+ * A transaction in a block, in the compact form of its serialization rather than that of the Bitcoind
+ * <a href="https://bitcoin.org/en/developer-reference#decoderawtransaction">DecodeRawTransaction() RPC</a>: scripts
+ * are left as raw bytes and values as satoshis.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableBlockTransaction.class)
+@JsonDeserialize(as = ImmutableBlockTransaction.class)
+public abstract class BlockTransaction {
+
+    /**
+     * Get the ID (i.e., hash) of the transaction.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "txid", required = true)
+    public abstract Sha256Hash getTransactionId();
+
+    /**
+     * Get the transaction format version number.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "version", required = true)
+    public abstract long getVersion();
+
+    /**
+     * Get the number of bytes of the transaction in serialized transaction format, including any segregated witness
+     * data.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "size", required = true)
+    public abstract long getSizeBytes();
+
+    /**
+     * Get the inputs of the transaction, in order.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "vin", required = true)
+    public abstract List<TransactionInput> getInputs();
+
+    /**
+     * Get the outputs of the transaction, in order, so that an output's index is its position in the list.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "vout", required = true)
+    public abstract List<TransactionOutput> getOutputs();
+
+    /**
+     * Get the block height or Unix epoch time before which the transaction can't be added to a block, or 0 if it
+     * can be added to any block.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "locktime", required = true)
+    public abstract long getLockTime();
+
+    public static BlockTransaction of(Sha256Hash transactionId, long version, long sizeBytes,
+            List<TransactionInput> inputs, List<TransactionOutput> outputs, long lockTime) {
+        return ImmutableBlockTransaction.of(transactionId, version, sizeBytes, inputs, outputs, lockTime);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * A whole block: its block header along with all of its transactions, decoded from the block's serialization.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableFullBlock.class)
+@JsonDeserialize(as = ImmutableFullBlock.class)
+public abstract class FullBlock {
+
+    /**
+     * Get the block header of the block, without transaction IDs since each of its transactions has its own.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "header", required = true)
+    public abstract BlockHeader getBlockHeader();
+
+    /**
+     * Get the transactions in the block, in block order, i.e., starting with its coinbase transaction.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "tx", required = true)
+    public abstract List<BlockTransaction> getTransactions();
+
+    public static FullBlock of(BlockHeader blockHeader, List<BlockTransaction> transactions) {
+        return ImmutableFullBlock.of(blockHeader, transactions);
+    }
+}
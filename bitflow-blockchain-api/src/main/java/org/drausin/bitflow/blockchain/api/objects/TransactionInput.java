@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.bitcoinj.core.Sha256Hash;
+import org.immutables.value.Value;
+
+/**
+ * An input of a {@link BlockTransaction}, spending an output of a previous transaction. The input of a coinbase
+ * transaction spends no output, so its previous transaction ID is all zeros and its previous output index is
+ * 0xffffffff.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableTransactionInput.class)
+@JsonDeserialize(as = ImmutableTransactionInput.class)
+public abstract class TransactionInput {
+
+    /**
+     * Get the ID of the transaction whose output this input spends.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "txid", required = true)
+    public abstract Sha256Hash getPreviousTransactionId();
+
+    /**
+     * Get the index of the output this input spends in its transaction's outputs.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "vout", required = true)
+    public abstract long getPreviousOutputIndex();
+
+    /**
+     * Get the raw bytes of the signature script satisfying the spent output's pubkey script, or of the coinbase data
+     * of a coinbase transaction.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "scriptSig", required = true)
+    public abstract byte[] getScript();
+
+    /**
+     * Get the sequence number of the input.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "sequence", required = true)
+    public abstract long getSequenceNumber();
+
+    public static TransactionInput of(Sha256Hash previousTransactionId, long previousOutputIndex, byte[] script,
+            long sequenceNumber) {
+        return ImmutableTransactionInput.of(previousTransactionId, previousOutputIndex, script, sequenceNumber);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.api.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * An output of a {@link BlockTransaction}, paying a value to whoever can satisfy its pubkey script.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableTransactionOutput.class)
+@JsonDeserialize(as = ImmutableTransactionOutput.class)
+public abstract class TransactionOutput {
+
+    /**
+     * Get the value paid by the output, in satoshis.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "value", required = true)
+    public abstract long getValue();
+
+    /**
+     * Get the raw bytes of the pubkey script, which sets the conditions for spending the output.
+     */
+    @Value.Parameter
+    @JsonProperty(value = "scriptPubKey", required = true)
+    public abstract byte[] getScript();
+
+    public static TransactionOutput of(long value, byte[] script) {
+        return ImmutableTransactionOutput.of(value, script);
+    }
+}
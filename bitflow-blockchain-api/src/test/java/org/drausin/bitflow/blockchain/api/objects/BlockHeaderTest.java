@@ -71,6 +71,7 @@
 package org.drausin.bitflow.blockchain.api.objects;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -82,6 +83,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.bitcoinj.core.Sha256Hash;
 import org.drausin.bitflow.serde.BigIntegerJsonDeserializer;
 import org.drausin.bitflow.serde.BigIntegerJsonSerializer;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
 import org.drausin.bitflow.serde.Sha256HashJsonSerializer;
 import org.junit.Before;
 import org.junit.Test;
@@ -154,6 +156,48 @@ public class BlockHeaderTest {
         assertEquals(blockHeader.getSizeBytes(), ((Integer) JsonPath.read(blockJson, "$.size")).longValue());
     }
 
+    @Test
+    public final void testHeaderOnly() throws Exception {
+        // from https://bitcoin.org/en/developer-reference#getblockheader, which has no size or tx
+        String rpcGetBlockHeaderJson = "{\n"
+                + "    \"hash\" : \"000000000fe549a89848c76070d4132872cfb6efe5315d01d7ef77e4900f2d39\",\n"
+                + "    \"confirmations\" : 88029,\n"
+                + "    \"height\" : 227252,\n"
+                + "    \"version\" : 2,\n"
+                + "    \"merkleroot\" : \"c738fb8e22750b6d3511ed0049a96558b0bc57046f3f77771ec825b22d6a6f4a\",\n"
+                + "    \"time\" : 1398824312,\n"
+                + "    \"mediantime\" : 1398822313,\n"
+                + "    \"nonce\" : 1883462912,\n"
+                + "    \"bits\" : \"1d00ffff\",\n"
+                + "    \"difficulty\" : 1.00000000,\n"
+                + "    \"chainwork\" : \"000000000000000000000000000000000000000000000000083ada4a4009841a\",\n"
+                + "    \"previousblockhash\" : \"00000000c7f4990e6ebf71ad7e21a47131dfeb22c759505b3998d7a814c011df\",\n"
+                + "    \"nextblockhash\" : \"00000000afe1928529ac766f1237657819a11cfcc8ca6d67f119e868ed5b6188\"\n"
+                + "}";
+        BlockHeader headerOnly = mapper.readValue(rpcGetBlockHeaderJson, ImmutableBlockHeader.class);
+        assertEquals(blockHeader.getHeaderHash(), headerOnly.getHeaderHash());
+        assertEquals(blockHeader.getCreatedTime(), headerOnly.getCreatedTime());
+        assertEquals(-1, headerOnly.getSizeBytes());
+        assertEquals(0, headerOnly.getTransactionIds().size());
+        assertEquals(-1, headerOnly.getNumTransactions());
+    }
+
+    @Test
+    public final void testNumTransactions() throws Exception {
+        String json = mapper.writeValueAsString(ImmutableBlockHeader.copyOf(blockHeader).withNumTransactions(3));
+        assertEquals(3, mapper.readValue(json, ImmutableBlockHeader.class).getNumTransactions());
+    }
+
+    @Test
+    public final void testSmile() throws Exception {
+        ObjectMapper smileMapper = BitflowMapperFactory.createSmileMapper();
+        byte[] smile = smileMapper.writeValueAsBytes(blockHeader);
+        assertEquals(blockHeader, smileMapper.readValue(smile, ImmutableBlockHeader.class));
+
+        // hashes and big integers are carried as raw bytes rather than hex strings
+        assertTrue(smile.length < BitflowMapperFactory.createMapper().writeValueAsBytes(blockHeader).length * 2 / 3);
+    }
+
     @Test
     public final void testGetHeight() throws Exception {
         assertEquals(((Integer) JsonPath.read(rpcGetBlockJson, "$.height")).longValue(), blockHeader.getHeight());
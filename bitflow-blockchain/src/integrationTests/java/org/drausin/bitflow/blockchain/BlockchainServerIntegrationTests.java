@@ -68,7 +68,8 @@ public final class BlockchainServerIntegrationTests extends AbstractIntegrationT
     public void testGetBlockHeaderUnpruned() {
 
         BlockchainInfo blockchainInfo = getBlockchain().getBlockchainInfo(authHeader);
-        BlockHeader blockHeader = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getBestBlockHash());
+        BlockHeader blockHeader = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getBestBlockHash(),
+                true);
 
         assertTrue(blockHeader.getTransactionIds().size() > 0);
 
@@ -79,7 +80,7 @@ public final class BlockchainServerIntegrationTests extends AbstractIntegrationT
 
         // make request for block that's probably not available, which should result in a RuntimeException
         Sha256Hash headerHash = Sha256Hash.wrap("000000000fe549a89848c76070d4132872cfb6efe5315d01d7ef77e4900f2d39");
-        getBlockchain().getBlockHeader(authHeader, headerHash);
+        getBlockchain().getBlockHeader(authHeader, headerHash, true);
     }
 
     @Test
@@ -89,7 +90,7 @@ public final class BlockchainServerIntegrationTests extends AbstractIntegrationT
         long toBlockHeight = blockchainInfo.getNumBlocks();
         long fromBlockHeight = toBlockHeight - 10;
         List<BlockHeader> subchain = getBlockchain().getBlockHeaderHeightSubchain(authHeader, fromBlockHeight,
-                toBlockHeight);
+                toBlockHeight, false);
 
         SubchainValidator.validateSubchain(subchain, toBlockHeight - fromBlockHeight + 1);
     }
@@ -98,14 +99,16 @@ public final class BlockchainServerIntegrationTests extends AbstractIntegrationT
     public void testGetBlockHeaderTimeSubchain() {
 
         BlockchainInfo blockchainInfo = getBlockchain().getBlockchainInfo(authHeader);
-        BlockHeader toBlock = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getNumBlocks());
-        BlockHeader fromBlock = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getNumBlocks() - 6 * 30);
+        BlockHeader toBlock = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getNumBlocks(), false);
+        BlockHeader fromBlock = getBlockchain().getBlockHeader(authHeader, blockchainInfo.getNumBlocks() - 6 * 30,
+                false);
         DateTimeParam toTimeParam = new DateTimeParam(
                 toBlock.getCreatedDateTime().toString(ISODateTimeFormat.dateTime()));
         DateTimeParam fromTimeParam = new DateTimeParam(
                 fromBlock.getCreatedDateTime().toString(ISODateTimeFormat.dateTime()));
 
-        List<BlockHeader> subchain = getBlockchain().getBlockHeaderTimeSubchain(authHeader, fromTimeParam, toTimeParam);
+        List<BlockHeader> subchain = getBlockchain().getBlockHeaderTimeSubchain(authHeader, fromTimeParam, toTimeParam,
+                false);
         SubchainValidator.validateSubchain(subchain, fromBlock.getCreatedDateTime(), toBlock.getCreatedDateTime());
     }
 }
@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain;
+
+import io.dropwizard.jersey.params.DateTimeParam;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.CheckForNull;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.BlockchainService;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.config.AsyncConfig;
+import org.drausin.bitflow.blockchain.fair.FairScheduler;
+import org.drausin.bitflow.service.utils.BitflowResource;
+import org.drausin.bitflow.service.utils.BitflowService;
+
+/**
+ * Serves the {@link BlockchainService} endpoints asynchronously, so server request threads are released while
+ * requests wait on bitcoin node RPCs. Each request is suspended and then handled by a {@link BlockchainService} on
+ * a bounded executor, and requests arriving when that executor is saturated fail fast as unavailable rather than
+ * queueing for server request threads, leaving those free for cheap requests like ping. Requests may also be rate
+ * limited and scheduled fairly per client by a {@link FairScheduler}, in which case those over a client's rate limit
+ * fail fast as too many requests. Only blockchain info is answered right away, without waiting its turn.
+ *
+ * @author dwulsin
+ */
+@Path("/blockchain")
+@Consumes({MediaType.APPLICATION_JSON, BitflowService.APPLICATION_SMILE})
+@Produces({MediaType.APPLICATION_JSON, BitflowService.APPLICATION_SMILE})
+public class AsyncBlockchainResource extends BitflowResource {
+
+    private final BlockchainService blockchainService;
+    private final Function<String, Executor> executors;
+    private final long timeoutMillis;
+
+    public AsyncBlockchainResource(BlockchainService blockchainService, Executor executor, AsyncConfig asyncConfig) {
+        this(blockchainService, (Function<String, Executor>) authHeader -> executor, asyncConfig);
+    }
+
+    /**
+     * Creates a resource whose requests are scheduled fairly between clients, told apart by their Authorization
+     * headers.
+     */
+    public AsyncBlockchainResource(BlockchainService blockchainService, FairScheduler fairScheduler,
+            AsyncConfig asyncConfig) {
+        this(blockchainService, fairScheduler::executorFor, asyncConfig);
+    }
+
+    private AsyncBlockchainResource(BlockchainService blockchainService, Function<String, Executor> executors,
+            AsyncConfig asyncConfig) {
+        this.blockchainService = blockchainService;
+        this.executors = executors;
+        this.timeoutMillis = asyncConfig.getTimeout().toMilliseconds();
+    }
+
+    /**
+     * Gets current information about the blockchain. This is answered right away on the request thread rather than
+     * waiting its turn on the executor, since it's normally served from the shared snapshot of the blockchain info, and
+     * clients poll it to see whether there is anything new to ask for.
+     *
+     * @see BlockchainService#getBlockchainInfo(String)
+     */
+    @GET
+    @Path("/info")
+    public final void getBlockchainInfo(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @Suspended AsyncResponse asyncResponse) {
+        resume(asyncResponse, () -> blockchainService.getBlockchainInfo(authHeader));
+    }
+
+    /**
+     * Gets the block header for a given block hash.
+     *
+     * @see BlockchainService#getBlockHeader(String, Sha256Hash, boolean)
+     */
+    @GET
+    @Path("/block/header/hash/{hash}")
+    public final void getBlockHeader(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("hash") Sha256Hash hash,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeader(authHeader, hash, txIds));
+    }
+
+    /**
+     * Gets the block header at a given block height.
+     *
+     * @see BlockchainService#getBlockHeader(String, long, boolean)
+     */
+    @GET
+    @Path("/block/header/height/{height}")
+    public final void getBlockHeader(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("height") long height,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeader(authHeader, height, txIds));
+    }
+
+    /**
+     * Gets the block headers for a list of lookups by block hash or block height in one call.
+     *
+     * @see BlockchainService#getBlockHeaders(String, List, boolean)
+     */
+    @POST
+    @Path("/block/header/bulk")
+    public final void getBlockHeaders(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull List<BlockHeaderLookup> lookups,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeaders(authHeader, lookups, txIds));
+    }
+
+    /**
+     * Gets the whole block, with all of its transactions, for a given block hash.
+     *
+     * @see BlockchainService#getBlock(String, Sha256Hash)
+     */
+    @GET
+    @Path("/block/hash/{hash}")
+    public final void getBlock(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("hash") Sha256Hash hash,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlock(authHeader, hash));
+    }
+
+    /**
+     * Gets the whole block, with all of its transactions, at a given block height.
+     *
+     * @see BlockchainService#getBlock(String, long)
+     */
+    @GET
+    @Path("/block/height/{height}")
+    public final void getBlock(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @PathParam("height") long height,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlock(authHeader, height));
+    }
+
+    /**
+     * Gets the block header subchain of blocks created within a given time window.
+     *
+     * @see BlockchainService#getBlockHeaderTimeSubchain(String, DateTimeParam, DateTimeParam, boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/time")
+    public final void getBlockHeaderTimeSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeaderTimeSubchain(authHeader, from, to,
+                txIds));
+    }
+
+    /**
+     * Gets the block header subchain of blocks created within a given height range.
+     *
+     * @see BlockchainService#getBlockHeaderHeightSubchain(String, long, long, boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/height")
+    public final void getBlockHeaderHeightSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeaderHeightSubchain(authHeader, from, to,
+                txIds));
+    }
+
+    /**
+     * Streams the block header subchain of blocks created within a given time window as newline-delimited JSON. The
+     * response is written by the executor thread that resumes it.
+     *
+     * @see BlockchainService#streamBlockHeaderTimeSubchain(String, DateTimeParam, DateTimeParam, boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/time/stream")
+    @Produces(BlockchainService.APPLICATION_NDJSON)
+    public final void streamBlockHeaderTimeSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.streamBlockHeaderTimeSubchain(authHeader, from, to,
+                txIds));
+    }
+
+    /**
+     * Streams the block header subchain of blocks within a given height range as newline-delimited JSON. The response
+     * is written by the executor thread that resumes it.
+     *
+     * @see BlockchainService#streamBlockHeaderHeightSubchain(String, long, long, boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/height/stream")
+    @Produces(BlockchainService.APPLICATION_NDJSON)
+    public final void streamBlockHeaderHeightSubchain(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.streamBlockHeaderHeightSubchain(authHeader, from, to,
+                txIds));
+    }
+
+    /**
+     * Gets a page of the block header subchain of blocks created within a given time window.
+     *
+     * @see BlockchainService#getBlockHeaderTimeSubchainPage(String, DateTimeParam, DateTimeParam, int, String,
+     * boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/time/page")
+    public final void getBlockHeaderTimeSubchainPage(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @QueryParam("limit") @DefaultValue(BlockchainService.DEFAULT_PAGE_LIMIT) int limit,
+            @CheckForNull @QueryParam("cursor") String cursor,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeaderTimeSubchainPage(authHeader, from, to,
+                limit, cursor, txIds));
+    }
+
+    /**
+     * Gets a page of the block header subchain of blocks within a given height range.
+     *
+     * @see BlockchainService#getBlockHeaderHeightSubchainPage(String, long, long, int, String, boolean)
+     */
+    @GET
+    @Path("/block/header/subchain/height/page")
+    public final void getBlockHeaderHeightSubchainPage(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @QueryParam("limit") @DefaultValue(BlockchainService.DEFAULT_PAGE_LIMIT) int limit,
+            @CheckForNull @QueryParam("cursor") String cursor,
+            @QueryParam("txIds") @DefaultValue(BlockchainService.DEFAULT_TX_IDS) boolean txIds,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeaderHeightSubchainPage(authHeader, from,
+                to, limit, cursor, txIds));
+    }
+
+    /**
+     * Gets aggregate statistics of the blocks created within a given time window.
+     *
+     * @see BlockchainService#getBlockTimeRangeStats(String, DateTimeParam, DateTimeParam)
+     */
+    @GET
+    @Path("/block/stats/time")
+    public final void getBlockTimeRangeStats(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") DateTimeParam from,
+            @CheckForNull @QueryParam("to") DateTimeParam to,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockTimeRangeStats(authHeader, from, to));
+    }
+
+    /**
+     * Gets aggregate statistics of the blocks within a given height range.
+     *
+     * @see BlockchainService#getBlockHeightRangeStats(String, long, long)
+     */
+    @GET
+    @Path("/block/stats/height")
+    public final void getBlockHeightRangeStats(
+            @HeaderParam(HttpHeaders.AUTHORIZATION) String authHeader,
+            @CheckForNull @QueryParam("from") long from,
+            @CheckForNull @QueryParam("to") long to,
+            @Suspended AsyncResponse asyncResponse) {
+        handle(authHeader, asyncResponse, () -> blockchainService.getBlockHeightRangeStats(authHeader, from, to));
+    }
+
+    /**
+     * Resumes the suspended response with the result of the given request once the executor has handled it, or with
+     * the exception it threw, which is then mapped to an error response as if it had been thrown synchronously.
+     */
+    private void handle(String authHeader, AsyncResponse asyncResponse, Supplier<?> request) {
+        asyncResponse.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(
+                new ServiceUnavailableException(String.format("request timed out after %s ms", timeoutMillis))));
+        try {
+            executors.apply(authHeader).execute(() -> resume(asyncResponse, request));
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(new ServiceUnavailableException("too many blockchain requests in progress"));
+        } catch (ClientErrorException e) {
+            asyncResponse.resume(e);
+        }
+    }
+
+    private static void resume(AsyncResponse asyncResponse, Supplier<?> request) {
+        try {
+            asyncResponse.resume(request.get());
+        } catch (RuntimeException e) {
+            asyncResponse.resume(e);
+        }
+    }
+}
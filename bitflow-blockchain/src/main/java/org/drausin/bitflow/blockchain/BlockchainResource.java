@@ -14,34 +14,92 @@
 
 package org.drausin.bitflow.blockchain;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import io.dropwizard.jersey.params.DateTimeParam;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
 import java.util.List;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.MainNetParams;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
-import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
-import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
 import org.drausin.bitflow.blockchain.api.BlockchainService;
 import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookupResult;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderPage;
+import org.drausin.bitflow.blockchain.api.objects.BlockRangeStats;
 import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
+import org.drausin.bitflow.blockchain.cache.BlockchainInfoCache;
+import org.drausin.bitflow.blockchain.config.DecodeConfig;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.decode.RawBlockDecoder;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.fetch.ReadAheadPrefetcher;
+import org.drausin.bitflow.blockchain.fetch.SubchainBounds;
+import org.drausin.bitflow.blockchain.fetch.SubchainCursor;
+import org.drausin.bitflow.blockchain.index.BlockStatsIndex;
+import org.drausin.bitflow.blockchain.index.BlockTimeIndex;
+import org.drausin.bitflow.blockchain.index.RangeStats;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
 import org.drausin.bitflow.service.utils.BitflowResource;
 import org.joda.time.DateTime;
 
 public class BlockchainResource extends BitflowResource implements BlockchainService {
 
-    private BitcoinNodeService bitcoinNodeService;
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final int NDJSON_DELIMITER = '\n';
+    private static final ObjectWriter NDJSON_WRITER = BitflowMapperFactory.createMapper().writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final BitcoinNodeService bitcoinNodeService;
+    private final BlockHeaderFetcher blockHeaderFetcher;
+    private final BlockTimeIndex blockTimeIndex;
+    private final Optional<BlockchainInfoCache> blockchainInfoCache;
+    private final Optional<ReadAheadPrefetcher> readAheadPrefetcher;
+    private final BlockStatsIndex blockStatsIndex;
+    private final RawBlockDecoder rawBlockDecoder;
 
     public BlockchainResource(BitcoinNodeService bitcoinNodeService) {
-        this.bitcoinNodeService = bitcoinNodeService;
+        this(builder(bitcoinNodeService));
+    }
+
+    private BlockchainResource(Builder builder) {
+        this.bitcoinNodeService = builder.bitcoinNodeService;
+        this.blockHeaderFetcher = builder.blockHeaderFetcher.or(
+                () -> BlockHeaderFetcher.builder(builder.bitcoinNodeService, FetchConfig.of()).build());
+        this.blockTimeIndex = builder.blockTimeIndex;
+        this.blockchainInfoCache = builder.blockchainInfoCache;
+        this.readAheadPrefetcher = builder.readAheadPrefetcher;
+        this.blockStatsIndex = builder.blockStatsIndex;
+        this.rawBlockDecoder = builder.rawBlockDecoder;
+    }
+
+    /**
+     * Starts building a resource that fetches everything from the given bitcoin node, with empty local indexes.
+     */
+    public static Builder builder(BitcoinNodeService bitcoinNodeService) {
+        return new Builder(bitcoinNodeService);
     }
 
     @Override
     public final BlockchainInfo getBlockchainInfo(String authHeader) {
         // TODO(dwulsin): what to do with authHeader?
+        if (blockchainInfoCache.isPresent()) {
+            return blockchainInfoCache.get().get();
+        }
         BlockchainInfoResponse blockchainInfoResponse = bitcoinNodeService.getBlockchainInfo(
                 BitcoinNodeRequestFactory.createBlockchainInfoRequest());
         blockchainInfoResponse.validateResult();
@@ -49,26 +107,122 @@ public class BlockchainResource extends BitflowResource implements BlockchainSer
     }
 
     @Override
-    public final BlockHeader getBlockHeader(String authHeader, Sha256Hash hash) {
+    public final BlockHeader getBlockHeader(String authHeader, Sha256Hash hash, boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        BlockHeader header = blockHeaderFetcher.getBlockHeader(hash, txIds);
+        if (readAheadPrefetcher.isPresent()) {
+            readAheadPrefetcher.get().onRead(header, txIds);
+        }
+        return header;
+    }
+
+    @Override
+    public final BlockHeader getBlockHeader(String authHeader, long height, boolean txIds) {
+        return getBlockHeader(authHeader, getBlockHeaderHashAtHeight(height), txIds);
+    }
+
+    @Override
+    public final List<BlockHeaderLookupResult> getBlockHeaders(String authHeader, List<BlockHeaderLookup> lookups,
+            boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        Preconditions.checkArgument(lookups != null, "lookups must be given");
+        Preconditions.checkArgument(lookups.size() <= MAX_BULK_LOOKUPS, "%s lookups must be at most %s",
+                lookups.size(), MAX_BULK_LOOKUPS);
+        return blockHeaderFetcher.lookUpBlockHeaders(lookups, txIds);
+    }
+
+    @Override
+    public final FullBlock getBlock(String authHeader, Sha256Hash hash) {
+        // the block header's height, confirmations, and chainwork aren't part of the serialized block
+        BlockHeader header = blockHeaderFetcher.getBlockHeader(hash, false);
+        RawBlockResponse rawBlockResponse = bitcoinNodeService.getRawBlock(
+                BitcoinNodeRequestFactory.createRawBlockRequest(hash));
+        rawBlockResponse.validateResult();
+        return rawBlockDecoder.decode(header, rawBlockResponse.getResult().get());
+    }
+
+    @Override
+    public final FullBlock getBlock(String authHeader, long height) {
+        return getBlock(authHeader, getBlockHeaderHashAtHeight(height));
+    }
+
+    @Override
+    public final List<BlockHeader> getBlockHeaderTimeSubchain(String authHeader, DateTimeParam from, DateTimeParam to,
+            boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        return blockHeaderFetcher.getBlockHeaderSubchain(getTimeSubchainBounds(authHeader,
+                getBlockchainInfo(authHeader), from, to), txIds);
+    }
+
+    @Override
+    public final List<BlockHeader> getBlockHeaderHeightSubchain(String authHeader, long from, long to,
+            boolean txIds) {
         // TODO(dwulsin): what to do with authHeader?
-        BlockHeaderResponse blockHeaderResponse = bitcoinNodeService.getBlockHeader(
-                BitcoinNodeRequestFactory.createBlockHeaderRequest(hash));
-        blockHeaderResponse.validateResult();
-        return blockHeaderResponse.getResult().get();
+        return blockHeaderFetcher.getBlockHeaderSubchain(getHeightSubchainBounds(getBlockchainInfo(authHeader), from,
+                to), txIds);
     }
 
     @Override
-    public final BlockHeader getBlockHeader(String authHeader, long height) {
-        return getBlockHeader(authHeader, getBlockHeaderHashAtHeight(height));
+    public final StreamingOutput streamBlockHeaderTimeSubchain(String authHeader, DateTimeParam from,
+            DateTimeParam to, boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        SubchainBounds bounds = getTimeSubchainBounds(authHeader, getBlockchainInfo(authHeader), from, to);
+        return output -> streamBlockHeaderSubchain(bounds, txIds, output);
     }
 
     @Override
-    public final List<BlockHeader> getBlockHeaderTimeSubchain(String authHeader, DateTimeParam from, DateTimeParam to) {
+    public final StreamingOutput streamBlockHeaderHeightSubchain(String authHeader, long from, long to,
+            boolean txIds) {
         // TODO(dwulsin): what to do with authHeader?
+        SubchainBounds bounds = getHeightSubchainBounds(getBlockchainInfo(authHeader), from, to);
+        return output -> streamBlockHeaderSubchain(bounds, txIds, output);
+    }
 
+    @Override
+    public final BlockHeaderPage getBlockHeaderTimeSubchainPage(String authHeader, DateTimeParam from,
+            DateTimeParam to, int limit, String cursor, boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        checkPageLimit(limit);
+        if (cursor != null) {
+            return getNextBlockHeaderSubchainPage(authHeader, decodeCursor(cursor), limit, txIds);
+        }
         BlockchainInfo blockchainInfo = getBlockchainInfo(authHeader);
-        BlockHeader earliest = getBlockHeader(authHeader, blockchainInfo.getPruneHeight());
-        BlockHeader latest = getBlockHeader(authHeader, blockchainInfo.getNumBlocks());
+        return getBlockHeaderSubchainPage(getTimeSubchainBounds(authHeader, blockchainInfo, from, to),
+                blockchainInfo.getBestBlockHash(), limit, txIds);
+    }
+
+    @Override
+    public final BlockHeaderPage getBlockHeaderHeightSubchainPage(String authHeader, long from, long to, int limit,
+            String cursor, boolean txIds) {
+        // TODO(dwulsin): what to do with authHeader?
+        checkPageLimit(limit);
+        if (cursor != null) {
+            return getNextBlockHeaderSubchainPage(authHeader, decodeCursor(cursor), limit, txIds);
+        }
+        BlockchainInfo blockchainInfo = getBlockchainInfo(authHeader);
+        return getBlockHeaderSubchainPage(getHeightSubchainBounds(blockchainInfo, from, to),
+                blockchainInfo.getBestBlockHash(), limit, txIds);
+    }
+
+    private SubchainBounds getTimeSubchainBounds(String authHeader, BlockchainInfo blockchainInfo, DateTimeParam from,
+            DateTimeParam to) {
+
+        // resolve the heights from the local time index when it covers the window, which needs no RPCs
+        Optional<Long> fromHeight = blockTimeIndex.getHeightAtOrBefore(
+                Math.floorDiv(from.get().getMillis(), MILLIS_PER_SECOND));
+        Optional<Long> toHeight = blockTimeIndex.getHeightAtOrAfter(
+                -Math.floorDiv(-to.get().getMillis(), MILLIS_PER_SECOND));
+        if (fromHeight.isPresent() && toHeight.isPresent()) {
+            Preconditions.checkArgument(fromHeight.get() >= blockchainInfo.getPruneHeight(),
+                    "time from=%s is before than lowest available (non-pruned) block at height %s", from.toString(),
+                    blockchainInfo.getPruneHeight());
+            return SubchainBounds.of(fromHeight.get(), getBlockHeaderHashAtHeight(fromHeight.get()), toHeight.get(),
+                    getBlockHeaderHashAtHeight(toHeight.get()));
+        }
+
+        // only the creation times are needed to find the bounds, so skip the transaction IDs
+        BlockHeader earliest = getBlockHeader(authHeader, blockchainInfo.getPruneHeight(), false);
+        BlockHeader latest = getBlockHeader(authHeader, blockchainInfo.getNumBlocks(), false);
 
         Preconditions.checkArgument(!from.get().isBefore(earliest.getCreatedDateTime().toInstant()),
                 "time from=%s is before than lowest available (non-pruned) block at time %s", from.toString(),
@@ -79,16 +233,12 @@ public class BlockchainResource extends BitflowResource implements BlockchainSer
 
         BlockHeader fromBlock = findBlockHeaderAtTime(from.get(), earliest, latest, true);
         BlockHeader toBlock = findBlockHeaderAtTime(to.get(), fromBlock, latest, false);
-        long numBlocks = toBlock.getHeight() - fromBlock.getHeight() + 1;
 
-        return getBlockHeaderSubchain(fromBlock.getHeaderHash(), toBlock.getHeaderHash(), numBlocks);
+        return SubchainBounds.of(fromBlock.getHeight(), fromBlock.getHeaderHash(), toBlock.getHeight(),
+                toBlock.getHeaderHash());
     }
 
-    @Override
-    public final List<BlockHeader> getBlockHeaderHeightSubchain(String authHeader, long from, long to) {
-        // TODO(dwulsin): what to do with authHeader?
-
-        BlockchainInfo blockchainInfo = getBlockchainInfo(authHeader);
+    private SubchainBounds getHeightSubchainBounds(BlockchainInfo blockchainInfo, long from, long to) {
 
         Preconditions.checkArgument(from >= blockchainInfo.getPruneHeight(),
                 "height from=%s is smaller than lowest available (non-pruned) block at height %s", from,
@@ -97,41 +247,124 @@ public class BlockchainResource extends BitflowResource implements BlockchainSer
                 "height to=%s is greater than highest available block at height %s", to, blockchainInfo.getNumBlocks());
 
         // get the block header hashes at the starting and ending heights
-        Sha256Hash fromHash = getBlockHeaderHashAtHeight(from);
-        Sha256Hash toHash = getBlockHeaderHashAtHeight(to);
+        return SubchainBounds.of(from, getBlockHeaderHashAtHeight(from), to, getBlockHeaderHashAtHeight(to));
+    }
+
+    private BlockHeaderPage getBlockHeaderSubchainPage(SubchainBounds bounds, Sha256Hash bestBlockHash, int limit,
+            boolean txIds) {
 
-        return getBlockHeaderSubchain(fromHash, toHash, to - from + 1);
+        long numBlocks = Math.min(limit, bounds.getNumBlocks());
+        List<BlockHeader> headers = blockHeaderFetcher.getBlockHeaderSubchain(bounds.getFromHeight(),
+                bounds.getFromHash(), numBlocks, txIds);
+        BlockHeader last = headers.get(headers.size() - 1);
+        if (numBlocks == bounds.getNumBlocks()) {
+            validateToHash(last, bounds);
+            return BlockHeaderPage.of(headers, Optional.absent());
+        }
+        SubchainCursor nextCursor = SubchainCursor.of(last.getHeight(), last.getHeaderHash(), bounds.getToHeight(),
+                bounds.getToHash(), bestBlockHash);
+        return BlockHeaderPage.of(headers, Optional.of(nextCursor.encode()));
+    }
+
+    private BlockHeaderPage getNextBlockHeaderSubchainPage(String authHeader, SubchainCursor cursor, int limit,
+            boolean txIds) {
+
+        // if the best chain has moved on since the first page, check that it still contains the last block returned
+        BlockchainInfo blockchainInfo = getBlockchainInfo(authHeader);
+        if (!blockchainInfo.getBestBlockHash().equals(cursor.getBestBlockHash())
+                && !getBlockHeaderHashAtHeight(cursor.getLastHeight()).equals(cursor.getLastHash())) {
+            throw new ClientErrorException(String.format(
+                    "best chain reorganized since cursor was issued: header hash %s at height %s is no longer in it",
+                    cursor.getLastHash().toString(), cursor.getLastHeight()), Response.Status.CONFLICT);
+        }
+
+        SubchainBounds bounds = cursor.getRemainingBounds(getBlockHeaderHashAtHeight(cursor.getLastHeight() + 1));
+        BlockHeaderPage page = getBlockHeaderSubchainPage(bounds, cursor.getBestBlockHash(), limit, txIds);
+
+        // check that the page follows on from the last block returned, in case of a reorganization since then
+        Sha256Hash previousHash = page.getBlockHeaders().get(0).getPreviousBlockHash().orNull();
+        if (!cursor.getLastHash().equals(previousHash)) {
+            throw new ClientErrorException(String.format(
+                    "best chain reorganized since cursor was issued: expected previous header hash %s but found %s",
+                    cursor.getLastHash().toString(), previousHash), Response.Status.CONFLICT);
+        }
+        return page;
+    }
+
+    @Override
+    public final BlockRangeStats getBlockTimeRangeStats(String authHeader, DateTimeParam from, DateTimeParam to) {
+        // TODO(dwulsin): what to do with authHeader?
+        return getBlockRangeStats(getTimeSubchainBounds(authHeader, getBlockchainInfo(authHeader), from, to));
+    }
+
+    @Override
+    public final BlockRangeStats getBlockHeightRangeStats(String authHeader, long from, long to) {
+        // TODO(dwulsin): what to do with authHeader?
+        return getBlockRangeStats(getHeightSubchainBounds(getBlockchainInfo(authHeader), from, to));
+    }
+
+    private BlockRangeStats getBlockRangeStats(SubchainBounds bounds) {
+
+        // aggregate from the stats index when it covers the range, which needs no RPCs, or else from the block headers
+        Optional<RangeStats> stats = blockStatsIndex.getStats(bounds.getFromHeight(), bounds.getToHeight());
+        if (!stats.isPresent()) {
+            stats = Optional.of(RangeStats.of(blockHeaderFetcher.getBlockHeaderSubchain(bounds, false)));
+        }
+
+        // the chainwork of each block is cumulative, so only the blocks at either end of the range are needed
+        BigInteger toChainwork = blockHeaderFetcher.getBlockHeader(bounds.getToHash(), false).getChainwork();
+        BigInteger fromChainwork = bounds.getFromHeight() == 0 ? BigInteger.ZERO : blockHeaderFetcher.getBlockHeader(
+                getBlockHeaderHashAtHeight(bounds.getFromHeight() - 1), false).getChainwork();
+        return stats.get().toBlockRangeStats(toChainwork.subtract(fromChainwork));
+    }
+
+    private static void checkPageLimit(int limit) {
+        Preconditions.checkArgument(limit >= 1 && limit <= MAX_PAGE_LIMIT, "limit=%s must be between 1 and %s",
+                limit, MAX_PAGE_LIMIT);
+    }
+
+    /**
+     * Decodes the cursor a client sent, which is a bad request if it isn't one returned with a page.
+     */
+    private static SubchainCursor decodeCursor(String cursor) {
+        try {
+            return SubchainCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
     }
 
-    private List<BlockHeader> getBlockHeaderSubchain(Sha256Hash fromHash, Sha256Hash toHash, long numBlocks) {
+    private void streamBlockHeaderSubchain(SubchainBounds bounds, boolean txIds, OutputStream output)
+            throws IOException {
+        try {
+            blockHeaderFetcher.forEachBlockHeaderInSubchain(bounds, txIds, header -> writeNdjson(header, output));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        output.flush();
+    }
 
-        List<BlockHeader> subchain = Lists.newArrayList();
-        Sha256Hash nextHash = fromHash;
-        for (int c = 0; c < numBlocks; c++) {
-            BlockHeaderResponse currentResponse = bitcoinNodeService.getBlockHeader(
-                    BitcoinNodeRequestFactory.createBlockHeaderRequest(nextHash));
-            currentResponse.validateResult();
-            BlockHeader currentBlockHeader = currentResponse.getResult().get();
-            subchain.add(currentBlockHeader);
-            nextHash = currentBlockHeader.getNextBlockHash().get();
+    private static void writeNdjson(BlockHeader header, OutputStream output) {
+        try {
+            NDJSON_WRITER.writeValue(output, header);
+            output.write(NDJSON_DELIMITER);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
+    private static void validateToHash(BlockHeader last, SubchainBounds bounds) {
         // check that the subchain hasn't changed during the call
-        Sha256Hash lastHash = subchain.get(subchain.size() - 1).getHeaderHash();
-        if (!lastHash.equals(toHash)) {
+        Sha256Hash lastHash = last.getHeaderHash();
+        if (!lastHash.equals(bounds.getToHash())) {
             throw new IllegalStateException(
                     String.format("'to' header hash changed from %s to %s during call", lastHash.toString(),
-                            toHash.toString()));
+                            bounds.getToHash().toString()));
         }
-
-        return ImmutableList.copyOf(subchain);
     }
 
     private Sha256Hash getBlockHeaderHashAtHeight(long height) {
-        BlockHeaderHashResponse response = bitcoinNodeService.getBlockHeaderHash(
-                BitcoinNodeRequestFactory.createBlockHeaderHashRequest(height));
-        response.validateResult();
-        return response.getResult().get();
+        return blockHeaderFetcher.getBlockHeaderHash(height);
     }
 
     private BlockHeader findBlockHeaderAtTime(DateTime time, BlockHeader lowerBound, BlockHeader upperBound,
@@ -143,7 +376,7 @@ public class BlockchainResource extends BitflowResource implements BlockchainSer
                 "time %s is above upper bound %s", time.toString(), upperBound.getCreatedDateTime().toString());
 
         long middleHeight = lowerBound.getHeight() + (upperBound.getHeight() - lowerBound.getHeight()) / 2;
-        BlockHeader middle = getBlockHeader("dummy header", middleHeight);
+        BlockHeader middle = getBlockHeader("dummy header", middleHeight, false);
 
         if (lowerBound.getHeight() + 1 == upperBound.getHeight()) {
             // base case
@@ -161,4 +394,53 @@ public class BlockchainResource extends BitflowResource implements BlockchainSer
         }
 
     }
+
+    public static final class Builder {
+
+        private final BitcoinNodeService bitcoinNodeService;
+        private Optional<BlockHeaderFetcher> blockHeaderFetcher = Optional.absent();
+        private BlockTimeIndex blockTimeIndex = new BlockTimeIndex();
+        private Optional<BlockchainInfoCache> blockchainInfoCache = Optional.absent();
+        private Optional<ReadAheadPrefetcher> readAheadPrefetcher = Optional.absent();
+        private BlockStatsIndex blockStatsIndex = new BlockStatsIndex();
+        private RawBlockDecoder rawBlockDecoder = new RawBlockDecoder(MainNetParams.get(), DecodeConfig.of());
+
+        private Builder(BitcoinNodeService bitcoinNodeService) {
+            this.bitcoinNodeService = bitcoinNodeService;
+        }
+
+        public Builder blockHeaderFetcher(BlockHeaderFetcher fetcher) {
+            this.blockHeaderFetcher = Optional.of(fetcher);
+            return this;
+        }
+
+        public Builder blockTimeIndex(BlockTimeIndex timeIndex) {
+            this.blockTimeIndex = timeIndex;
+            return this;
+        }
+
+        public Builder blockchainInfoCache(Optional<BlockchainInfoCache> infoCache) {
+            this.blockchainInfoCache = infoCache;
+            return this;
+        }
+
+        public Builder readAheadPrefetcher(Optional<ReadAheadPrefetcher> prefetcher) {
+            this.readAheadPrefetcher = prefetcher;
+            return this;
+        }
+
+        public Builder blockStatsIndex(BlockStatsIndex statsIndex) {
+            this.blockStatsIndex = statsIndex;
+            return this;
+        }
+
+        public Builder rawBlockDecoder(RawBlockDecoder decoder) {
+            this.rawBlockDecoder = decoder;
+            return this;
+        }
+
+        public BlockchainResource build() {
+            return new BlockchainResource(this);
+        }
+    }
 }
@@ -15,14 +15,60 @@
 package org.drausin.bitflow.blockchain;
 
 import com.codahale.metrics.health.HealthCheck;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import io.dropwizard.Application;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.config.BitcoinNodeClientConfig;
 import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
 import org.drausin.bitflow.bitcoin.api.responses.utils.BitcoinNodeClientFactory;
+import org.drausin.bitflow.bitcoin.api.responses.utils.BitcoinNodeRestClientFactory;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.cache.BlockHeaderCache;
+import org.drausin.bitflow.blockchain.cache.BlockchainInfoCache;
+import org.drausin.bitflow.blockchain.cache.CacheSnapshot;
+import org.drausin.bitflow.blockchain.cache.CacheWarmer;
+import org.drausin.bitflow.blockchain.cache.HttpCacheFilter;
+import org.drausin.bitflow.blockchain.config.AsyncConfig;
+import org.drausin.bitflow.blockchain.config.CacheConfig;
+import org.drausin.bitflow.blockchain.config.DecodeConfig;
+import org.drausin.bitflow.blockchain.config.FairnessConfig;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.HttpCacheConfig;
+import org.drausin.bitflow.blockchain.config.IndexConfig;
+import org.drausin.bitflow.blockchain.config.InfoConfig;
+import org.drausin.bitflow.blockchain.config.LimitConfig;
+import org.drausin.bitflow.blockchain.config.PoolConfig;
+import org.drausin.bitflow.blockchain.config.PrefetchConfig;
 import org.drausin.bitflow.blockchain.config.ServerConfig;
+import org.drausin.bitflow.blockchain.config.StoreConfig;
+import org.drausin.bitflow.blockchain.config.WarmupConfig;
+import org.drausin.bitflow.blockchain.decode.RawBlockDecoder;
+import org.drausin.bitflow.blockchain.fair.FairScheduler;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.fetch.CoalescingBitcoinNodeService;
+import org.drausin.bitflow.blockchain.fetch.LimitingBitcoinNodeService;
+import org.drausin.bitflow.blockchain.fetch.PooledBitcoinNodeService;
+import org.drausin.bitflow.blockchain.fetch.ReadAheadPrefetcher;
+import org.drausin.bitflow.blockchain.index.BlockHashIndex;
+import org.drausin.bitflow.blockchain.index.BlockStatsIndex;
+import org.drausin.bitflow.blockchain.index.BlockTimeIndex;
+import org.drausin.bitflow.blockchain.index.ChainIndexer;
+import org.drausin.bitflow.blockchain.store.HeaderStore;
 import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.drausin.bitflow.serde.SmileMessageBodyProvider;
 
 
 /**
@@ -40,12 +86,118 @@ public final class BlockchainServer extends Application<ServerConfig> {
     @Override
     public void run(ServerConfig config, Environment env) throws Exception {
 
-        BitcoinNodeService bitcoinNode = (new BitcoinNodeClientFactory()).createClient(config.getBitcoinNode());
+        BitcoinNodeService bitcoinNode = createBitcoinNodeService(config, env);
+        Optional<BitcoinNodeRestService> bitcoinNodeRest = createBitcoinNodeRestService(config);
 
-        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNode);
-        env.jersey().register(blockchainResource);
+        // bound the number of concurrent RPCs to the number of bitcoind RPC threads
+        FetchConfig fetchConfig = config.getFetch();
+        ExecutorService fetchExecutor = env.lifecycle().executorService("bitcoin-node-fetch-%d")
+                .minThreads(fetchConfig.getParallelism())
+                .maxThreads(fetchConfig.getParallelism())
+                .build();
 
-        env.healthChecks().register("bitcoinNode", createBitcoinNodeHealthCheck(bitcoinNode));
+        // keep a local index of the best chain so height and time lookups don't need RPCs
+        IndexConfig indexConfig = config.getIndex();
+        BlockHashIndex blockHashIndex = new BlockHashIndex();
+        BlockTimeIndex blockTimeIndex = new BlockTimeIndex();
+        BlockStatsIndex blockStatsIndex = new BlockStatsIndex();
+        Optional<BlockHeaderCache> blockHeaderCache = Optional.absent();
+        Optional<HeaderStore> headerStore = Optional.absent();
+        Optional<ChainIndexer> chainIndexer = Optional.absent();
+
+        // share one periodically refreshed snapshot of the blockchain info between requests and the health check
+        InfoConfig infoConfig = config.getInfo();
+        Optional<BlockchainInfoCache> blockchainInfoCache = Optional.absent();
+        if (infoConfig.getEnabled()) {
+            blockchainInfoCache = Optional.of(new BlockchainInfoCache(bitcoinNode, infoConfig,
+                    env.lifecycle().scheduledExecutorService("blockchain-info-%d").build()));
+            blockchainInfoCache.get().registerMetrics(env.metrics());
+            env.lifecycle().manage(blockchainInfoCache.get());
+        }
+        if (indexConfig.getEnabled()) {
+            ScheduledExecutorService indexScheduler = env.lifecycle().scheduledExecutorService("chain-indexer-%d")
+                    .build();
+
+            // keep a local store of block headers, synced along with the index and reopened on restart
+            StoreConfig storeConfig = config.getStore();
+            if (storeConfig.getEnabled()) {
+                headerStore = Optional.of(new HeaderStore(Paths.get(storeConfig.getDirectory())));
+                env.lifecycle().manage(headerStore.get());
+            }
+            // the indexer's fetcher doesn't read from the REST interface, whose headers lack numbers of transactions
+            chainIndexer = Optional.of(new ChainIndexer(bitcoinNode,
+                    BlockHeaderFetcher.builder(bitcoinNode, fetchConfig).executor(fetchExecutor).build(),
+                    blockHashIndex, blockTimeIndex, blockStatsIndex, headerStore, indexConfig, indexScheduler));
+
+            // the cache relies on the indexer to tell it when the best chain changes
+            CacheConfig cacheConfig = config.getCache();
+            if (cacheConfig.getEnabled()) {
+                blockHeaderCache = Optional.of(new BlockHeaderCache(cacheConfig));
+                blockHeaderCache.get().registerMetrics(env.metrics());
+                chainIndexer.get().addListener(blockHeaderCache.get());
+            }
+            if (blockchainInfoCache.isPresent()) {
+                chainIndexer.get().addListener(blockchainInfoCache.get());
+            }
+            env.lifecycle().manage(chainIndexer.get());
+        }
+        BlockHeaderFetcher blockHeaderFetcher = BlockHeaderFetcher.builder(bitcoinNode, fetchConfig)
+                .executor(fetchExecutor)
+                .blockHashIndex(blockHashIndex)
+                .blockHeaderCache(blockHeaderCache)
+                .headerStore(headerStore)
+                .bitcoinNodeRestService(bitcoinNodeRest)
+                .build();
+        registerCacheWarmer(config.getWarmup(), env, chainIndexer, blockHeaderCache, blockHeaderFetcher,
+                blockHashIndex, fetchExecutor);
+        Optional<ReadAheadPrefetcher> readAheadPrefetcher = createReadAheadPrefetcher(config.getPrefetch(), env,
+                blockHeaderFetcher, blockHeaderCache.isPresent());
+
+        // decode whole blocks with their transactions split across as many threads as there are cores to use
+        DecodeConfig decodeConfig = config.getDecode();
+        ExecutorService decodeExecutor = env.lifecycle().executorService("block-decode-%d")
+                .minThreads(decodeConfig.getParallelism())
+                .maxThreads(decodeConfig.getParallelism())
+                .build();
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNode)
+                .blockHeaderFetcher(blockHeaderFetcher)
+                .blockTimeIndex(blockTimeIndex)
+                .blockchainInfoCache(blockchainInfoCache)
+                .readAheadPrefetcher(readAheadPrefetcher)
+                .blockStatsIndex(blockStatsIndex)
+                .rawBlockDecoder(new RawBlockDecoder(MainNetParams.get(), decodeConfig, decodeExecutor))
+                .build();
+        // answer clients that ask for it, like other Bitflow services, in the binary Smile encoding instead of JSON
+        env.jersey().register(new SmileMessageBodyProvider(BitflowMapperFactory.createSmileMapper()));
+        registerHttpCacheFilter(config.getHttpCache(), env, blockchainInfoCache);
+        AsyncConfig asyncConfig = config.getAsync();
+        if (asyncConfig.getEnabled()) {
+            // hand requests off to a bounded executor so slow ones don't tie up the server's request threads
+            ExecutorService requestExecutor = env.lifecycle().executorService("blockchain-request-%d")
+                    .minThreads(asyncConfig.getThreads())
+                    .maxThreads(asyncConfig.getThreads())
+                    .workQueue(new ArrayBlockingQueue<>(asyncConfig.getQueueSize()))
+                    .build();
+            FairnessConfig fairnessConfig = config.getFairness();
+            if (fairnessConfig.getEnabled()) {
+                // rate limit each client and share the request threads between those with requests waiting, so a
+                // bulk client can't hold up interactive ones
+                FairScheduler fairScheduler = new FairScheduler(fairnessConfig, asyncConfig.getThreads(),
+                        asyncConfig.getQueueSize(), requestExecutor);
+                fairScheduler.registerMetrics(env.metrics());
+                env.jersey().register(new AsyncBlockchainResource(blockchainResource, fairScheduler, asyncConfig));
+            } else {
+                env.jersey().register(new AsyncBlockchainResource(blockchainResource, requestExecutor, asyncConfig));
+            }
+        } else {
+            env.jersey().register(blockchainResource);
+        }
+
+        if (blockchainInfoCache.isPresent()) {
+            env.healthChecks().register("bitcoinNode", createBitcoinNodeHealthCheck(blockchainInfoCache.get()));
+        } else {
+            env.healthChecks().register("bitcoinNode", createBitcoinNodeHealthCheck(bitcoinNode));
+        }
 
 
         //boolean includeStackTrace = config.getIncludeStackTraceInErrors().or(true);
@@ -56,6 +208,135 @@ public final class BlockchainServer extends Application<ServerConfig> {
         new BlockchainServer().run(args);
     }
 
+    /**
+     * Creates the client of the bitcoin node, which limits the concurrent RPCs to each node if limiting is enabled,
+     * pools and hedges RPCs over the other configured bitcoin nodes if there are any, and shares one RPC between
+     * concurrent identical requests if coalescing is enabled.
+     */
+    private static BitcoinNodeService createBitcoinNodeService(ServerConfig config, Environment env) {
+        PoolConfig poolConfig = config.getPool();
+        Map<String, BitcoinNodeService> nodes = limitBitcoinNodes(new BitcoinNodeClientFactory().createClients(
+                ImmutableList.<BitcoinNodeClientConfig>builder()
+                        .add(config.getBitcoinNode())
+                        .addAll(poolConfig.getNodes())
+                        .build()),
+                config.getLimit(), env);
+        BitcoinNodeService bitcoinNode;
+        if (poolConfig.getNodes().isEmpty()) {
+            bitcoinNode = Iterables.getOnlyElement(nodes.values());
+        } else {
+            // route each RPC to the synced node with the fewest in flight, so throughput scales with the nodes, and
+            // hedge slow single RPCs on a bounded pool of threads, which rejects calls rather than queueing them so
+            // that they run unhedged on their callers' threads instead
+            ExecutorService hedgeExecutor = env.lifecycle().executorService("bitcoin-node-hedge-%d")
+                    .minThreads(0)
+                    .maxThreads(config.getHedge().getMaxThreads())
+                    .workQueue(new SynchronousQueue<>())
+                    .build();
+            PooledBitcoinNodeService pooledBitcoinNode = new PooledBitcoinNodeService(nodes, poolConfig,
+                    config.getHedge(), env.lifecycle().scheduledExecutorService("bitcoin-node-pool-%d").build(),
+                    hedgeExecutor);
+            pooledBitcoinNode.registerMetrics(env.metrics());
+            env.lifecycle().manage(pooledBitcoinNode);
+            bitcoinNode = pooledBitcoinNode;
+        }
+
+        // share one RPC between concurrent identical requests, e.g. from many clients asking for a new tip block
+        if (config.getCoalesce().getEnabled()) {
+            CoalescingBitcoinNodeService coalescingBitcoinNode = new CoalescingBitcoinNodeService(bitcoinNode);
+            coalescingBitcoinNode.registerMetrics(env.metrics());
+            bitcoinNode = coalescingBitcoinNode;
+        }
+        return bitcoinNode;
+    }
+
+    /**
+     * Creates the client of the bitcoin node's REST interface, if enabled, for reading ranges of block headers in bulk.
+     * Unlike RPCs, these all go to the main bitcoin node rather than being pooled.
+     */
+    private static Optional<BitcoinNodeRestService> createBitcoinNodeRestService(ServerConfig config) {
+        if (!config.getRest().getEnabled()) {
+            return Optional.absent();
+        }
+        return Optional.of(new BitcoinNodeRestClientFactory().createClient(config.getBitcoinNode()));
+    }
+
+    /**
+     * Limits the concurrent RPCs to each bitcoin node by name to what it can keep up with, if limiting is enabled, so
+     * that RPCs beyond that wait briefly or are rejected early rather than overflowing the node's RPC work queue.
+     */
+    private static Map<String, BitcoinNodeService> limitBitcoinNodes(Map<String, BitcoinNodeService> nodes,
+            LimitConfig limitConfig, Environment env) {
+        if (!limitConfig.getEnabled()) {
+            return nodes;
+        }
+        ImmutableMap.Builder<String, BitcoinNodeService> limitedNodes = ImmutableMap.builder();
+        nodes.forEach((name, node) -> {
+            LimitingBitcoinNodeService limitedNode = new LimitingBitcoinNodeService(node, limitConfig);
+            limitedNode.registerMetrics(env.metrics(), name);
+            limitedNodes.put(name, limitedNode);
+        });
+        return limitedNodes.build();
+    }
+
+    /**
+     * Registers the warmer of the block header cache, if enabled and there is an indexed cache to warm, which reloads
+     * the cache from its last snapshot and fetches the most recent block headers into it once the indexer knows the
+     * tip, and a health check that is unhealthy until it's done, so a load balancer doesn't send traffic to a cold
+     * cache.
+     */
+    private static void registerCacheWarmer(WarmupConfig warmupConfig, Environment env,
+            Optional<ChainIndexer> chainIndexer, Optional<BlockHeaderCache> blockHeaderCache,
+            BlockHeaderFetcher blockHeaderFetcher, BlockHashIndex blockHashIndex, ExecutorService fetchExecutor) {
+        if (!warmupConfig.getEnabled() || !chainIndexer.isPresent() || !blockHeaderCache.isPresent()) {
+            return;
+        }
+        CacheWarmer cacheWarmer = new CacheWarmer(blockHeaderCache.get(), blockHeaderFetcher, blockHashIndex,
+                new CacheSnapshot(Paths.get(warmupConfig.getSnapshotFile())), warmupConfig,
+                env.lifecycle().scheduledExecutorService("cache-warmer-%d").build(), fetchExecutor);
+        cacheWarmer.registerMetrics(env.metrics());
+        chainIndexer.get().addListener(cacheWarmer);
+        env.lifecycle().manage(cacheWarmer);
+        env.healthChecks().register("cacheWarmup", createCacheWarmupHealthCheck(cacheWarmer));
+    }
+
+    /**
+     * Registers the filter that tags GET responses with ETags and HTTP cache lifetimes, if enabled. The ETags are keyed
+     * on the best block hash from the resource's blockchain info, which needs no RPC when that info is cached.
+     */
+    private static void registerHttpCacheFilter(HttpCacheConfig httpCacheConfig, Environment env,
+            Optional<BlockchainInfoCache> blockchainInfoCache) {
+        // tag responses with the best chain's tip from the cached snapshot, so revalidations never need RPCs
+        if (!httpCacheConfig.getEnabled() || !blockchainInfoCache.isPresent()) {
+            return;
+        }
+        HttpCacheFilter httpCacheFilter = new HttpCacheFilter(
+                () -> blockchainInfoCache.get().getSnapshot().transform(BlockchainInfo::getBestBlockHash),
+                httpCacheConfig);
+        httpCacheFilter.registerMetrics(env.metrics());
+        env.jersey().register(httpCacheFilter);
+    }
+
+    /**
+     * Creates a prefetcher of block headers into the cache ahead of clients reading forward along the chain one block
+     * header at a time, if prefetching is enabled and the fetcher caches the block headers it fetches.
+     */
+    private static Optional<ReadAheadPrefetcher> createReadAheadPrefetcher(PrefetchConfig prefetchConfig,
+            Environment env, BlockHeaderFetcher blockHeaderFetcher, boolean cached) {
+        if (!prefetchConfig.getEnabled() || !cached) {
+            return Optional.absent();
+        }
+        ExecutorService prefetchExecutor = env.lifecycle().executorService("block-header-prefetch-%d")
+                .minThreads(prefetchConfig.getThreads())
+                .maxThreads(prefetchConfig.getThreads())
+                .workQueue(new ArrayBlockingQueue<>(prefetchConfig.getMaxScans()))
+                .build();
+        ReadAheadPrefetcher readAheadPrefetcher = new ReadAheadPrefetcher(blockHeaderFetcher, prefetchConfig,
+                prefetchExecutor);
+        readAheadPrefetcher.registerMetrics(env.metrics());
+        return Optional.of(readAheadPrefetcher);
+    }
+
     protected static HealthCheck createBitcoinNodeHealthCheck(BitcoinNodeService bitcoinNode) {
         return new HealthCheck() {
             @Override
@@ -70,4 +351,37 @@ public final class BlockchainServer extends Application<ServerConfig> {
             }
         };
     }
+
+    /**
+     * Creates a health check that is healthy while the blockchain info snapshot is no staler than its max staleness,
+     * which it can only be while the bitcoin node is reachable.
+     */
+    protected static HealthCheck createBitcoinNodeHealthCheck(BlockchainInfoCache blockchainInfoCache) {
+        return new HealthCheck() {
+            @Override
+            protected Result check() throws Exception {
+                try {
+                    blockchainInfoCache.get();
+                    return Result.healthy();
+                } catch (RuntimeException e) {
+                    return Result.unhealthy(e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a health check that is healthy once the block header cache has been warmed up.
+     */
+    protected static HealthCheck createCacheWarmupHealthCheck(CacheWarmer cacheWarmer) {
+        return new HealthCheck() {
+            @Override
+            protected Result check() throws Exception {
+                if (!cacheWarmer.isWarmedUp()) {
+                    return Result.unhealthy("warming up block header cache");
+                }
+                return Result.healthy();
+            }
+        };
+    }
 }
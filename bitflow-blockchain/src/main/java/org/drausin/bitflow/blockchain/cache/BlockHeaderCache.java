@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.config.CacheConfig;
+import org.drausin.bitflow.blockchain.index.ChainListener;
+
+/**
+ * Cache of block headers by header hash with two tiers by confirmation depth. Headers with at least the configured
+ * immutable depth of confirmations are assumed to never change and are kept until evicted for size, least recently
+ * used first. Headers nearer the tip are kept only briefly and are dropped whenever the best chain changes, since
+ * their next block hash may change with it. The tip header itself is never cached because its next block hash is
+ * about to change.
+ *
+ * <p>Block headers fetched without their transaction IDs are kept in tiers of their own, so they are never served
+ * for reads that need the transaction IDs. Reads of block headers without their transaction IDs are also served from
+ * the full block headers cached, with the transaction IDs stripped.
+ *
+ * <p>Nothing is cached until the first best chain tip is known. Cached headers in the best chain have their number
+ * of confirmations recomputed from the current tip when read.
+ *
+ * @author dwulsin
+ */
+public final class BlockHeaderCache implements ChainListener {
+
+    private final int immutableDepth;
+    private final Cache<Sha256Hash, BlockHeader> deepHeaders;
+    private final Cache<Sha256Hash, BlockHeader> tipHeaders;
+    private final Cache<Sha256Hash, BlockHeader> deepHeadersOnly;
+    private final Cache<Sha256Hash, BlockHeader> tipHeadersOnly;
+    private volatile long tipHeight = -1;
+
+    public BlockHeaderCache(CacheConfig config) {
+        this.immutableDepth = config.getImmutableDepth();
+        this.deepHeaders = buildDeepTier(config);
+        this.tipHeaders = buildTipTier(config);
+        this.deepHeadersOnly = buildDeepTier(config);
+        this.tipHeadersOnly = buildTipTier(config);
+    }
+
+    private static Cache<Sha256Hash, BlockHeader> buildDeepTier(CacheConfig config) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(config.getDeepMaxSize())
+                .recordStats()
+                .build();
+    }
+
+    private static Cache<Sha256Hash, BlockHeader> buildTipTier(CacheConfig config) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(config.getTipMaxSize())
+                .expireAfterWrite(config.getTipTtl().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the cached block header for a given hash, if present.
+     */
+    public Optional<BlockHeader> get(Sha256Hash hash) {
+        return getFromTiers(hash, deepHeaders, tipHeaders);
+    }
+
+    /**
+     * Gets the cached block header for a given hash without its transaction IDs, if present, either from the full
+     * block headers cached or from those fetched without their transaction IDs. Full block headers are served without
+     * their sizes too, exactly as the getblockheader RPC returns them.
+     */
+    public Optional<BlockHeader> getHeaderOnly(Sha256Hash hash) {
+        Optional<BlockHeader> header = getFromTiers(hash, deepHeaders, tipHeaders);
+        if (header.isPresent()) {
+            return Optional.of(ImmutableBlockHeader.copyOf(header.get()).withTransactionIds().withSizeBytes(-1));
+        }
+        return getFromTiers(hash, deepHeadersOnly, tipHeadersOnly);
+    }
+
+    private Optional<BlockHeader> getFromTiers(Sha256Hash hash, Cache<Sha256Hash, BlockHeader> deepTier,
+            Cache<Sha256Hash, BlockHeader> tipTier) {
+        long currentTipHeight = tipHeight;
+        if (currentTipHeight < 0) {
+            return Optional.absent();
+        }
+        BlockHeader header = deepTier.getIfPresent(hash);
+        if (header == null) {
+            header = tipTier.getIfPresent(hash);
+        }
+        if (header == null) {
+            return Optional.absent();
+        }
+        if (header.getNumConfirmations() < 1) {
+            return Optional.of(header);
+        }
+        if (header.getHeight() > currentTipHeight) {
+            // the best chain has become shorter than this header's height since it was cached
+            invalidate(hash);
+            return Optional.absent();
+        }
+        return Optional.of(ImmutableBlockHeader.copyOf(header)
+                .withNumConfirmations(currentTipHeight - header.getHeight() + 1));
+    }
+
+    /**
+     * Caches a block header just fetched from the bitcoin node, in the tier given by its number of confirmations.
+     */
+    public void put(BlockHeader header) {
+        putInTiers(header, deepHeaders, tipHeaders);
+    }
+
+    /**
+     * Caches a block header just fetched from the bitcoin node without its transaction IDs, in the tier given by its
+     * number of confirmations.
+     */
+    public void putHeaderOnly(BlockHeader header) {
+        putInTiers(header, deepHeadersOnly, tipHeadersOnly);
+    }
+
+    private void putInTiers(BlockHeader header, Cache<Sha256Hash, BlockHeader> deepTier,
+            Cache<Sha256Hash, BlockHeader> tipTier) {
+        if (tipHeight < 0) {
+            return;
+        }
+        if (header.getNumConfirmations() >= immutableDepth) {
+            deepTier.put(header.getHeaderHash(), header);
+        } else if (header.getNextBlockHash().isPresent()) {
+            tipTier.put(header.getHeaderHash(), header);
+        }
+    }
+
+    /**
+     * Gets the block headers cached with at least the immutable depth of confirmations, e.g. to snapshot them.
+     */
+    public List<BlockHeader> getDeepHeaders() {
+        return ImmutableList.copyOf(deepHeaders.asMap().values());
+    }
+
+    /**
+     * Gets the block headers fetched without their transaction IDs cached with at least the immutable depth of
+     * confirmations, e.g. to snapshot them.
+     */
+    public List<BlockHeader> getDeepHeadersOnly() {
+        return ImmutableList.copyOf(deepHeadersOnly.asMap().values());
+    }
+
+    public void invalidate(Sha256Hash hash) {
+        deepHeaders.invalidate(hash);
+        tipHeaders.invalidate(hash);
+        deepHeadersOnly.invalidate(hash);
+        tipHeadersOnly.invalidate(hash);
+    }
+
+    public long getTipHeight() {
+        return tipHeight;
+    }
+
+    public CacheStats getDeepStats() {
+        return deepHeaders.stats();
+    }
+
+    public CacheStats getTipStats() {
+        return tipHeaders.stats();
+    }
+
+    @Override
+    public void onReorganization(long forkHeight) {
+        tipHeaders.invalidateAll();
+        tipHeadersOnly.invalidateAll();
+
+        // the header below the fork also changes, since its next block hash now points into the new branch
+        deepHeaders.asMap().values().removeIf(header -> header.getHeight() >= forkHeight - 1);
+        deepHeadersOnly.asMap().values().removeIf(header -> header.getHeight() >= forkHeight - 1);
+    }
+
+    @Override
+    public void onTipChanged(long newTipHeight) {
+        tipHeaders.invalidateAll();
+        tipHeadersOnly.invalidateAll();
+        tipHeight = newTipHeight;
+    }
+
+    /**
+     * Registers gauges for the hits, misses, evictions, and size of each tier with the given registry.
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        registerMetrics(metrics, "deep", deepHeaders);
+        registerMetrics(metrics, "tip", tipHeaders);
+        registerMetrics(metrics, "deepHeadersOnly", deepHeadersOnly);
+        registerMetrics(metrics, "tipHeadersOnly", tipHeadersOnly);
+    }
+
+    private static void registerMetrics(MetricRegistry metrics, String tier, Cache<?, ?> cache) {
+        metrics.register(MetricRegistry.name(BlockHeaderCache.class, tier, "hits"),
+                (Gauge<Long>) () -> cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(BlockHeaderCache.class, tier, "misses"),
+                (Gauge<Long>) () -> cache.stats().missCount());
+        metrics.register(MetricRegistry.name(BlockHeaderCache.class, tier, "evictions"),
+                (Gauge<Long>) () -> cache.stats().evictionCount());
+        metrics.register(MetricRegistry.name(BlockHeaderCache.class, tier, "size"),
+                (Gauge<Long>) cache::size);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import io.dropwizard.lifecycle.Managed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.config.InfoConfig;
+import org.drausin.bitflow.blockchain.index.ChainListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of the bitcoin node's blockchain info shared between requests, so they needn't each get it from the node.
+ * The snapshot is refreshed in the background at a fixed interval and whenever a {@link ChainListener} hears of a new
+ * best chain tip it doesn't yet reflect. Reading a snapshot older than the configured max staleness, say because
+ * background refreshes have been failing, refreshes it first, so reads never see blockchain info older than that.
+ *
+ * @author dwulsin
+ */
+public final class BlockchainInfoCache implements Managed, ChainListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockchainInfoCache.class);
+
+    private final BitcoinNodeService bitcoinNodeService;
+    private final ScheduledExecutorService scheduler;
+    private final long refreshIntervalNanos;
+    private final long maxStalenessNanos;
+    private final Ticker ticker;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Snapshot snapshot;
+    private ScheduledFuture<?> refreshFuture;
+
+    public BlockchainInfoCache(BitcoinNodeService bitcoinNodeService, InfoConfig config,
+            ScheduledExecutorService scheduler) {
+        this(bitcoinNodeService, config, scheduler, Ticker.systemTicker());
+    }
+
+    public BlockchainInfoCache(BitcoinNodeService bitcoinNodeService, InfoConfig config,
+            ScheduledExecutorService scheduler, Ticker ticker) {
+        this.bitcoinNodeService = bitcoinNodeService;
+        this.scheduler = scheduler;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getRefreshInterval().toMilliseconds());
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxStaleness().toMilliseconds());
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void start() throws Exception {
+        refreshFuture = scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (refreshFuture != null) {
+            refreshFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Gets the current snapshot of the blockchain info, first refreshing it from the bitcoin node if it is missing or
+     * older than the max staleness.
+     */
+    public BlockchainInfo get() {
+        Snapshot current = snapshot;
+        if (current != null && getAgeNanos(current) <= maxStalenessNanos) {
+            hits.incrementAndGet();
+            return current.info;
+        }
+        misses.incrementAndGet();
+        return refreshIfStale();
+    }
+
+    /**
+     * Gets the current snapshot of the blockchain info, if there is one yet, without refreshing it however stale it is.
+     */
+    public Optional<BlockchainInfo> getSnapshot() {
+        Snapshot current = snapshot;
+        return current == null ? Optional.absent() : Optional.of(current.info);
+    }
+
+    /**
+     * Refreshes the snapshot from the bitcoin node.
+     */
+    public BlockchainInfo refresh() {
+        BlockchainInfoResponse response = bitcoinNodeService.getBlockchainInfo(
+                BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+        response.validateResult();
+        BlockchainInfo info = response.getResult().get();
+        snapshot = new Snapshot(info, ticker.read());
+        return info;
+    }
+
+    /**
+     * Gets the milliseconds since the snapshot was last refreshed, or -1 if it never has been.
+     */
+    public long getStalenessMillis() {
+        Snapshot current = snapshot;
+        return current == null ? -1 : TimeUnit.NANOSECONDS.toMillis(getAgeNanos(current));
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public void onReorganization(long forkHeight) {
+        // the tip change that always follows is enough to refresh the snapshot
+    }
+
+    @Override
+    public void onTipChanged(long tipHeight) {
+        Snapshot current = snapshot;
+        if (current == null || current.info.getNumBlocks() != tipHeight) {
+            refreshQuietly();
+        }
+    }
+
+    /**
+     * Registers gauges for the staleness, hits, and misses of the snapshot with the given registry.
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(BlockchainInfoCache.class, "stalenessMillis"),
+                (Gauge<Long>) this::getStalenessMillis);
+        metrics.register(MetricRegistry.name(BlockchainInfoCache.class, "hits"), (Gauge<Long>) hits::get);
+        metrics.register(MetricRegistry.name(BlockchainInfoCache.class, "misses"), (Gauge<Long>) misses::get);
+    }
+
+    private synchronized BlockchainInfo refreshIfStale() {
+        // another reader may have refreshed the snapshot while this one waited
+        Snapshot current = snapshot;
+        if (current != null && getAgeNanos(current) <= maxStalenessNanos) {
+            return current.info;
+        }
+        return refresh();
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to refresh blockchain info, now {} ms stale: {}", getStalenessMillis(),
+                    e.getMessage());
+        }
+    }
+
+    private long getAgeNanos(Snapshot current) {
+        return ticker.read() - current.readNanos;
+    }
+
+    private static final class Snapshot {
+
+        private final BlockchainInfo info;
+        private final long readNanos;
+
+        private Snapshot(BlockchainInfo info, long readNanos) {
+            this.info = info;
+            this.readNanos = readNanos;
+        }
+    }
+}
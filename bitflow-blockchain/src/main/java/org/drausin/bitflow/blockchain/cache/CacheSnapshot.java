@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+
+/**
+ * Snapshot file of cached block headers, so the cache can be reloaded on restart rather than refilled from the bitcoin
+ * node. The file starts with a magic number ("BFCS"), format version, and number of block headers, followed by each
+ * block header as whether it has its transaction IDs, its length, and then its Smile encoding. Snapshots are written to
+ * a temporary file that then replaces the snapshot, so a crash while writing leaves the previous snapshot in place, and
+ * are memory-mapped when read.
+ *
+ * @author dwulsin
+ */
+public final class CacheSnapshot {
+
+    private static final int MAGIC = 0x42464353;
+    private static final int FORMAT_VERSION = 2;
+    private static final int FILE_HEADER_LENGTH = 12;
+
+    private final Path file;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    public CacheSnapshot(Path file) {
+        this.file = file;
+        ObjectMapper mapper = BitflowMapperFactory.createSmileMapper();
+        this.reader = mapper.readerFor(BlockHeader.class);
+        this.writer = mapper.writerFor(BlockHeader.class);
+    }
+
+    /**
+     * Replaces the snapshot with the given block headers, up to the most that fit in a file that can be memory-mapped
+     * whole.
+     *
+     * @return the number of block headers written
+     */
+    public int write(Collection<Entry> entries) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        int numWritten = 0;
+        try {
+            long length = FILE_HEADER_LENGTH;
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+                data.writeInt(MAGIC);
+                data.writeInt(FORMAT_VERSION);
+                data.writeInt(0);
+                for (Entry entry : entries) {
+                    byte[] encoded = writer.writeValueAsBytes(entry.header);
+                    length += 1 + Integer.BYTES + encoded.length;
+                    if (length > Integer.MAX_VALUE) {
+                        break;
+                    }
+                    data.writeBoolean(entry.transactionIds);
+                    data.writeInt(encoded.length);
+                    data.write(encoded);
+                    numWritten++;
+                }
+                data.flush();
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, numWritten), 2 * Integer.BYTES);
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return numWritten;
+    }
+
+    /**
+     * Reads the block headers in the snapshot, or none if there isn't one yet.
+     *
+     * @throws IllegalStateException if the file isn't a snapshot of this format version
+     */
+    public List<Entry> read() throws IOException {
+        if (!Files.exists(file)) {
+            return ImmutableList.of();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < FILE_HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException(String.format("%s is not a cache snapshot", file));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IllegalStateException(String.format("%s is not a version %s cache snapshot", file,
+                        FORMAT_VERSION));
+            }
+            int numHeaders = buffer.getInt();
+            ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+            byte[] encoded = new byte[0];
+            for (int c = 0; c < numHeaders; c++) {
+                boolean transactionIds = buffer.get() != 0;
+                int length = buffer.getInt();
+                if (encoded.length < length) {
+                    encoded = new byte[length];
+                }
+                buffer.get(encoded, 0, length);
+                entries.add(Entry.of(reader.<BlockHeader>readValue(encoded, 0, length), transactionIds));
+            }
+            return entries.build();
+        }
+    }
+
+    /**
+     * Block header in a snapshot, along with whether it has its transaction IDs or was fetched without them.
+     */
+    public static final class Entry {
+
+        private final BlockHeader header;
+        private final boolean transactionIds;
+
+        private Entry(BlockHeader header, boolean transactionIds) {
+            this.header = header;
+            this.transactionIds = transactionIds;
+        }
+
+        public static Entry of(BlockHeader header, boolean transactionIds) {
+            return new Entry(header, transactionIds);
+        }
+
+        public BlockHeader getHeader() {
+            return header;
+        }
+
+        public boolean hasTransactionIds() {
+            return transactionIds;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) other;
+            return header.equals(entry.header) && transactionIds == entry.transactionIds;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(header, transactionIds);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.config.WarmupConfig;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.index.BlockHashIndex;
+import org.drausin.bitflow.blockchain.index.ChainListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms the {@link BlockHeaderCache} up after a restart, so the bitcoin node isn't hit with the misses of a cold cache,
+ * and snapshots the cache periodically and on stop for the next restart to reload.
+ *
+ * <p>Warming up starts once the first best chain tip is known, since the cache holds nothing before then. The block
+ * headers in the last {@link CacheSnapshot} that are still in the best chain, as given by the hash index, are put back
+ * in the cache, with or without their transaction IDs as they were snapshotted, and then the most recent block headers
+ * not yet cached are fetched without their transaction IDs in parallel batches on the given executor. Until warming up
+ * is done, {@link #isWarmedUp()} is false, which the server's health check reports, and the cache isn't snapshotted, so
+ * a restart during warm-up doesn't replace a full snapshot with a partial one.
+ *
+ * @author dwulsin
+ */
+public final class CacheWarmer implements ChainListener, Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheWarmer.class);
+
+    private final BlockHeaderCache blockHeaderCache;
+    private final BlockHeaderFetcher blockHeaderFetcher;
+    private final BlockHashIndex blockHashIndex;
+    private final CacheSnapshot snapshot;
+    private final long snapshotIntervalMillis;
+    private final int recentHeaders;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService fetchExecutor;
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private final CountDownLatch warmedUp = new CountDownLatch(1);
+    private final AtomicLong restored = new AtomicLong();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong warmUpMillis = new AtomicLong(-1);
+    private final AtomicLong snapshotted = new AtomicLong();
+    private ScheduledFuture<?> snapshotFuture;
+
+    /**
+     * Creates a warmer of the cache filled by the given fetcher.
+     *
+     * @param scheduler the scheduler on which to warm up and take periodic snapshots
+     * @param fetchExecutor the executor on which to fetch batches of recent block headers in parallel
+     */
+    public CacheWarmer(BlockHeaderCache blockHeaderCache, BlockHeaderFetcher blockHeaderFetcher,
+            BlockHashIndex blockHashIndex, CacheSnapshot snapshot, WarmupConfig config,
+            ScheduledExecutorService scheduler, ExecutorService fetchExecutor) {
+        this.blockHeaderCache = blockHeaderCache;
+        this.blockHeaderFetcher = blockHeaderFetcher;
+        this.blockHashIndex = blockHashIndex;
+        this.snapshot = snapshot;
+        this.snapshotIntervalMillis = config.getSnapshotInterval().toMilliseconds();
+        this.recentHeaders = config.getRecentHeaders();
+        this.scheduler = scheduler;
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    @Override
+    public void start() throws Exception {
+        snapshotFuture = scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis,
+                snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (snapshotFuture != null) {
+            snapshotFuture.cancel(false);
+        }
+        snapshotQuietly();
+    }
+
+    @Override
+    public void onReorganization(long forkHeight) {
+        // the cache drops what the reorganization changed
+    }
+
+    @Override
+    public void onTipChanged(long newTipHeight) {
+        if (warmUpStarted.compareAndSet(false, true)) {
+            scheduler.execute(() -> warmUp(newTipHeight));
+        }
+    }
+
+    /**
+     * Reloads the snapshot into the cache and fetches the most recent block headers below the given tip into it.
+     * Warming up is done even if either step fails, in which case the cache just fills as usual.
+     */
+    public void warmUp(long tipHeight) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            restored.set(restore(tipHeight));
+            warmed.set(warmRecent(tipHeight));
+            LOGGER.info("warmed up block header cache with {} block headers from snapshot and {} recent ones in {}",
+                    restored.get(), warmed.get(), stopwatch);
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to warm up block header cache: {}", e.getMessage());
+        } finally {
+            warmUpMillis.set(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            warmedUp.countDown();
+        }
+    }
+
+    public boolean isWarmedUp() {
+        return warmedUp.getCount() == 0;
+    }
+
+    /**
+     * Waits up to the given time for warming up to be done.
+     *
+     * @return whether warming up is done
+     */
+    public boolean awaitWarmedUp(long timeout, TimeUnit unit) throws InterruptedException {
+        return warmedUp.await(timeout, unit);
+    }
+
+    /**
+     * Snapshots the cache, unless it hasn't been warmed up yet.
+     *
+     * @return the number of block headers snapshotted
+     */
+    public int snapshot() throws IOException {
+        if (!isWarmedUp()) {
+            return 0;
+        }
+        List<CacheSnapshot.Entry> entries = Lists.newArrayList();
+        for (BlockHeader header : blockHeaderCache.getDeepHeaders()) {
+            entries.add(CacheSnapshot.Entry.of(header, true));
+        }
+        for (BlockHeader header : blockHeaderCache.getDeepHeadersOnly()) {
+            entries.add(CacheSnapshot.Entry.of(header, false));
+        }
+        int numSnapshotted = snapshot.write(entries);
+        snapshotted.set(numSnapshotted);
+        return numSnapshotted;
+    }
+
+    public long getRestored() {
+        return restored.get();
+    }
+
+    public long getWarmed() {
+        return warmed.get();
+    }
+
+    /**
+     * Registers gauges for the number of block headers restored from the snapshot, fetched while warming up, and
+     * snapshotted last, along with how long warming up took (or -1 if it isn't done).
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(CacheWarmer.class, "restored"), (Gauge<Long>) restored::get);
+        metrics.register(MetricRegistry.name(CacheWarmer.class, "warmed"), (Gauge<Long>) warmed::get);
+        metrics.register(MetricRegistry.name(CacheWarmer.class, "warmUpMillis"), (Gauge<Long>) warmUpMillis::get);
+        metrics.register(MetricRegistry.name(CacheWarmer.class, "snapshotted"), (Gauge<Long>) snapshotted::get);
+    }
+
+    /**
+     * Puts the snapshotted block headers still in the best chain back in the cache.
+     */
+    private int restore(long tipHeight) {
+        List<CacheSnapshot.Entry> entries;
+        try {
+            entries = snapshot.read();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("unable to read block header cache snapshot: {}", e.getMessage());
+            return 0;
+        }
+        int numRestored = 0;
+        for (CacheSnapshot.Entry entry : entries) {
+            BlockHeader header = entry.getHeader();
+            Optional<Sha256Hash> indexHash = header.getHeight() <= tipHeight
+                    ? blockHashIndex.getHash(header.getHeight()) : Optional.absent();
+            if (indexHash.isPresent() && indexHash.get().equals(header.getHeaderHash())) {
+                if (entry.hasTransactionIds()) {
+                    blockHeaderCache.put(header);
+                } else {
+                    blockHeaderCache.putHeaderOnly(header);
+                }
+                numRestored++;
+            }
+        }
+        return numRestored;
+    }
+
+    /**
+     * Fetches the most recent block headers below the tip that aren't already cached, without their transaction IDs,
+     * in parallel batches.
+     */
+    private int warmRecent(long tipHeight) {
+        long fromHeight = Math.max(0, tipHeight - recentHeaders + 1);
+        if (recentHeaders == 0 || fromHeight >= tipHeight) {
+            return 0;
+        }
+        List<Sha256Hash> missHashes = Lists.newArrayList();
+        for (Sha256Hash hash : blockHashIndex.getHashes(fromHeight, tipHeight - 1).get()) {
+            if (!blockHeaderCache.getHeaderOnly(hash).isPresent()) {
+                missHashes.add(hash);
+            }
+        }
+        ImmutableList.Builder<Future<List<BlockHeader>>> batches = ImmutableList.builder();
+        for (List<Sha256Hash> batch : Lists.partition(missHashes, Math.max(1, blockHeaderFetcher.getBatchSize()))) {
+            batches.add(fetchExecutor.submit(() -> blockHeaderFetcher.getBlockHeadersOnly(batch)));
+        }
+        try {
+            for (Future<List<BlockHeader>> batch : batches.build()) {
+                batch.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while warming up block header cache", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        return missHashes.size();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("unable to snapshot block header cache: {}", e.getMessage());
+        }
+    }
+}
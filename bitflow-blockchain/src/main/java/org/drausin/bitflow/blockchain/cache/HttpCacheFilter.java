@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderPage;
+import org.drausin.bitflow.blockchain.config.HttpCacheConfig;
+
+/**
+ * Attaches HTTP cache validators and lifetimes to GET responses so that HTTP caches and clients can avoid re-fetching
+ * them. Every response is a function of its request URI, its negotiated encoding and the best chain, so its strong
+ * ETag is derived from those, with the best chain identified by its tip's block hash as of the latest cached snapshot
+ * of the blockchain info. A request whose If-None-Match matches is answered with a 304 before it reaches the resource,
+ * without any RPCs.
+ *
+ * <p>Responses whose block headers all have at least the configured immutable depth of confirmations may be cached
+ * for the deep max age, and all others only for the tip max age. Such a deep response stays the same as the best chain
+ * grows but for its numbers of confirmations, so it gets a weak ETag derived from its request alone, which later
+ * revalidations match whatever the tip. 304s carry no Cache-Control, so caches keep the lifetime of the response they
+ * revalidated.
+ *
+ * @author dwulsin
+ */
+public final class HttpCacheFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String DEEP_ENTITY_TAG_PROPERTY = HttpCacheFilter.class.getName() + ".deepEntityTag";
+    private static final String TIP_ENTITY_TAG_PROPERTY = HttpCacheFilter.class.getName() + ".tipEntityTag";
+    private static final String VARY = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+
+    private final Supplier<Optional<Sha256Hash>> bestBlockHash;
+    private final int immutableDepth;
+    private final CacheControl deepCacheControl;
+    private final CacheControl tipCacheControl;
+    private final AtomicLong taggedCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+    /**
+     * Creates a filter tagging responses near the tip with the given best block hash, if known yet, which must be
+     * read without any RPCs.
+     */
+    public HttpCacheFilter(Supplier<Optional<Sha256Hash>> bestBlockHash, HttpCacheConfig config) {
+        this.bestBlockHash = bestBlockHash;
+        this.immutableDepth = config.getImmutableDepth();
+        this.deepCacheControl = createCacheControl(config.getDeepMaxAge().toSeconds());
+        this.tipCacheControl = createCacheControl(config.getTipMaxAge().toSeconds());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            return;
+        }
+        EntityTag deepEntityTag = new EntityTag(hashRequest(request).hash().toString(), true);
+        request.setProperty(DEEP_ENTITY_TAG_PROPERTY, deepEntityTag);
+        if (abortIfNotModified(request, deepEntityTag)) {
+            return;
+        }
+        Optional<Sha256Hash> tipHash = bestBlockHash.get();
+        if (tipHash.isPresent()) {
+            EntityTag tipEntityTag = getEntityTag(request, tipHash.get());
+            request.setProperty(TIP_ENTITY_TAG_PROPERTY, tipEntityTag);
+            abortIfNotModified(request, tipEntityTag);
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (request.getProperty(DEEP_ENTITY_TAG_PROPERTY) == null
+                || response.getStatus() != Response.Status.OK.getStatusCode()) {
+            return;
+        }
+        response.getHeaders().putSingle(HttpHeaders.VARY, VARY);
+        Object entityTag;
+        if (getMinConfirmations(response.getEntity()) >= immutableDepth) {
+            entityTag = request.getProperty(DEEP_ENTITY_TAG_PROPERTY);
+            response.getHeaders().putSingle(HttpHeaders.CACHE_CONTROL, deepCacheControl);
+        } else {
+            entityTag = request.getProperty(TIP_ENTITY_TAG_PROPERTY);
+            response.getHeaders().putSingle(HttpHeaders.CACHE_CONTROL, tipCacheControl);
+        }
+        if (entityTag != null) {
+            taggedCount.incrementAndGet();
+            response.getHeaders().putSingle(HttpHeaders.ETAG, entityTag);
+        }
+    }
+
+    public long getTaggedCount() {
+        return taggedCount.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(HttpCacheFilter.class, "tagged"),
+                (Gauge<Long>) this::getTaggedCount);
+        metrics.register(MetricRegistry.name(HttpCacheFilter.class, "notModified"),
+                (Gauge<Long>) this::getNotModifiedCount);
+    }
+
+    static EntityTag getEntityTag(ContainerRequestContext request, Sha256Hash bestBlockHash) {
+        return new EntityTag(hashRequest(request).putBytes(bestBlockHash.getBytes()).hash().toString());
+    }
+
+    private static Hasher hashRequest(ContainerRequestContext request) {
+        return Hashing.sha256().newHasher()
+                .putString(request.getUriInfo().getRequestUri().getRawPath(), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(Strings.nullToEmpty(request.getUriInfo().getRequestUri().getRawQuery()),
+                        StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(Strings.nullToEmpty(request.getHeaderString(HttpHeaders.ACCEPT)), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(Strings.nullToEmpty(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING)),
+                        StandardCharsets.UTF_8)
+                .putByte((byte) 0);
+    }
+
+    private boolean abortIfNotModified(ContainerRequestContext request, EntityTag entityTag) {
+        Response.ResponseBuilder notModified = request.getRequest().evaluatePreconditions(entityTag);
+        if (notModified == null) {
+            return false;
+        }
+        notModifiedCount.incrementAndGet();
+        request.abortWith(notModified.tag(entityTag).header(HttpHeaders.VARY, VARY).build());
+        return true;
+    }
+
+    /**
+     * Gets the fewest confirmations of the block headers in a response entity, or -1 if it has none, e.g. since it's
+     * the blockchain info, which changes with every new tip.
+     */
+    static long getMinConfirmations(Object entity) {
+        if (entity instanceof BlockHeader) {
+            return ((BlockHeader) entity).getNumConfirmations();
+        }
+        if (entity instanceof BlockHeaderPage) {
+            return getMinConfirmations(((BlockHeaderPage) entity).getBlockHeaders());
+        }
+        if (!(entity instanceof Collection) || ((Collection<?>) entity).isEmpty()) {
+            return -1;
+        }
+        long minConfirmations = Long.MAX_VALUE;
+        for (Object element : (Collection<?>) entity) {
+            if (!(element instanceof BlockHeader)) {
+                return -1;
+            }
+            minConfirmations = Math.min(minConfirmations, ((BlockHeader) element).getNumConfirmations());
+        }
+        return minConfirmations;
+    }
+
+    private static CacheControl createCacheControl(long maxAgeSeconds) {
+        // public, since shared caches otherwise don't store responses to requests with Authorization headers
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.getCacheExtension().put("public", null);
+        cacheControl.setNoTransform(false);
+        cacheControl.setMaxAge((int) Math.min(maxAgeSeconds, Integer.MAX_VALUE));
+        return cacheControl;
+    }
+}
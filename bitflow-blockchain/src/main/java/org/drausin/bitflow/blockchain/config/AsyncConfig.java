@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for handling blockchain requests asynchronously, off of the server's request threads.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableAsyncConfig.class)
+@JsonDeserialize(as = ImmutableAsyncConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class AsyncConfig {
+
+    public static final int DEFAULT_THREADS = 32;
+    public static final int DEFAULT_QUEUE_SIZE = 5000;
+    public static final Duration DEFAULT_TIMEOUT = Duration.seconds(60);
+
+    /**
+     * Get whether to handle blockchain requests asynchronously. If not, each request holds a server request thread
+     * until its response has been written.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the max number of blockchain requests handled at once. Requests mostly wait on bitcoin node RPCs, whose
+     * concurrency is bounded separately by {@link FetchConfig#getParallelism()}.
+     */
+    @Value.Default
+    @JsonProperty("threads")
+    public int getThreads() {
+        return DEFAULT_THREADS;
+    }
+
+    /**
+     * Get the max number of blockchain requests waiting to be handled, beyond which new requests are rejected as
+     * unavailable.
+     */
+    @Value.Default
+    @JsonProperty("queueSize")
+    public int getQueueSize() {
+        return DEFAULT_QUEUE_SIZE;
+    }
+
+    /**
+     * Get how long a blockchain request may wait and be handled before its response is given up on as unavailable.
+     */
+    @Value.Default
+    @JsonProperty("timeout")
+    public Duration getTimeout() {
+        return DEFAULT_TIMEOUT;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getThreads() < 1) {
+            throw new IllegalStateException(String.format("threads %s must be positive", getThreads()));
+        }
+        if (getQueueSize() < 1) {
+            throw new IllegalStateException(String.format("queueSize %s must be positive", getQueueSize()));
+        }
+    }
+
+    public static AsyncConfig of() {
+        return ImmutableAsyncConfig.builder().build();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the cache of block headers fetched from the bitcoin node.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableCacheConfig.class)
+@JsonDeserialize(as = ImmutableCacheConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class CacheConfig {
+
+    public static final int DEFAULT_IMMUTABLE_DEPTH = 100;
+    public static final long DEFAULT_DEEP_MAX_SIZE = 10000;
+    public static final long DEFAULT_TIP_MAX_SIZE = 1000;
+    public static final Duration DEFAULT_TIP_TTL = Duration.seconds(10);
+
+    /**
+     * Get whether to cache block headers. Caching also requires the chain index to be enabled, since it is what tells
+     * the cache when the best chain changes.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the number of confirmations at and above which a block header is treated as immutable and cached until
+     * evicted for size.
+     */
+    @Value.Default
+    @JsonProperty("immutableDepth")
+    public int getImmutableDepth() {
+        return DEFAULT_IMMUTABLE_DEPTH;
+    }
+
+    /**
+     * Get the max number of block headers with at least {@link #getImmutableDepth()} confirmations to cache.
+     */
+    @Value.Default
+    @JsonProperty("deepMaxSize")
+    public long getDeepMaxSize() {
+        return DEFAULT_DEEP_MAX_SIZE;
+    }
+
+    /**
+     * Get the max number of block headers near the best chain tip to cache.
+     */
+    @Value.Default
+    @JsonProperty("tipMaxSize")
+    public long getTipMaxSize() {
+        return DEFAULT_TIP_MAX_SIZE;
+    }
+
+    /**
+     * Get how long a block header near the best chain tip stays cached, unless the best chain changes first.
+     */
+    @Value.Default
+    @JsonProperty("tipTtl")
+    public Duration getTipTtl() {
+        return DEFAULT_TIP_TTL;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getImmutableDepth() < 1) {
+            throw new IllegalStateException(String.format("immutableDepth %s must be positive",
+                    getImmutableDepth()));
+        }
+        if (getDeepMaxSize() < 0) {
+            throw new IllegalStateException(String.format("deepMaxSize %s must not be negative", getDeepMaxSize()));
+        }
+        if (getTipMaxSize() < 0) {
+            throw new IllegalStateException(String.format("tipMaxSize %s must not be negative", getTipMaxSize()));
+        }
+    }
+
+    public static CacheConfig of() {
+        return ImmutableCacheConfig.builder().build();
+    }
+}
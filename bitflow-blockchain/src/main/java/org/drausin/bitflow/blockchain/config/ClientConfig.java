@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the share of blockchain request handling given to one client, identified by the Authorization
+ * header it sends.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableClientConfig.class)
+@JsonDeserialize(as = ImmutableClientConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class ClientConfig {
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * Get the name of the client, used in its metrics.
+     */
+    @JsonProperty("name")
+    public abstract String getName();
+
+    /**
+     * Get the Authorization header the client sends with its requests.
+     */
+    @JsonProperty("authHeader")
+    public abstract String getAuthHeader();
+
+    /**
+     * Get the weight of the client's share of request handling when other clients' requests are also waiting, relative
+     * to the weight of 1 given to clients that aren't configured.
+     */
+    @Value.Default
+    @JsonProperty("weight")
+    public int getWeight() {
+        return DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Get the sustained number of requests per second the client may make.
+     */
+    @Value.Default
+    @JsonProperty("rate")
+    public double getRate() {
+        return FairnessConfig.DEFAULT_RATE;
+    }
+
+    /**
+     * Get the number of requests the client may make in a burst above its rate.
+     */
+    @Value.Default
+    @JsonProperty("burst")
+    public int getBurst() {
+        return FairnessConfig.DEFAULT_BURST;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getWeight() < 1) {
+            throw new IllegalStateException(String.format("weight %s must be positive", getWeight()));
+        }
+        if (getRate() <= 0 || getBurst() < 1) {
+            throw new IllegalStateException(String.format("rate %s and burst %s must be positive", getRate(),
+                    getBurst()));
+        }
+    }
+}
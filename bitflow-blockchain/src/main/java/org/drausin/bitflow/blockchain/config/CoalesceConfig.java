@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for coalescing concurrent identical bitcoin node RPCs.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableCoalesceConfig.class)
+@JsonDeserialize(as = ImmutableCoalesceConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class CoalesceConfig {
+
+    /**
+     * Get whether concurrent identical RPCs share one call to the bitcoin node and its response. If not, each makes
+     * its own call.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    public static CoalesceConfig of() {
+        return ImmutableCoalesceConfig.builder().build();
+    }
+}
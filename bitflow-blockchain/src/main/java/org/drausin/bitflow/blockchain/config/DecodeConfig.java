@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for decoding whole blocks from their raw serialization.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableDecodeConfig.class)
+@JsonDeserialize(as = ImmutableDecodeConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class DecodeConfig {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_MIN_TRANSACTIONS_PER_TASK = 250;
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 8;
+    public static final int DEFAULT_BUFFER_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Get the max number of threads a block's transactions are decoded on at once, usually the number of cores.
+     */
+    @Value.Default
+    @JsonProperty("parallelism")
+    public int getParallelism() {
+        return DEFAULT_PARALLELISM;
+    }
+
+    /**
+     * Get the min number of transactions decoded by each thread, so small blocks are decoded on one thread rather
+     * than paying to hand a few transactions to each of the others.
+     */
+    @Value.Default
+    @JsonProperty("minTransactionsPerTask")
+    public int getMinTransactionsPerTask() {
+        return DEFAULT_MIN_TRANSACTIONS_PER_TASK;
+    }
+
+    /**
+     * Get the max number of idle buffers kept for reuse by later blocks.
+     */
+    @Value.Default
+    @JsonProperty("bufferPoolSize")
+    public int getBufferPoolSize() {
+        return DEFAULT_BUFFER_POOL_SIZE;
+    }
+
+    /**
+     * Get the min size of each buffer that blocks are hex-decoded into, which should fit most blocks. Larger blocks
+     * get buffers of their own size.
+     */
+    @Value.Default
+    @JsonProperty("bufferBytes")
+    public int getBufferBytes() {
+        return DEFAULT_BUFFER_BYTES;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getParallelism() < 1) {
+            throw new IllegalStateException(String.format("parallelism %s must be positive", getParallelism()));
+        }
+        if (getMinTransactionsPerTask() < 1) {
+            throw new IllegalStateException(String.format("minTransactionsPerTask %s must be positive",
+                    getMinTransactionsPerTask()));
+        }
+        if (getBufferPoolSize() < 1) {
+            throw new IllegalStateException(String.format("bufferPoolSize %s must be positive", getBufferPoolSize()));
+        }
+        if (getBufferBytes() < 0) {
+            throw new IllegalStateException(String.format("bufferBytes %s must not be negative", getBufferBytes()));
+        }
+    }
+
+    public static DecodeConfig of() {
+        return ImmutableDecodeConfig.builder().build();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for rate limiting each client's blockchain requests and sharing request handling fairly between
+ * clients.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableFairnessConfig.class)
+@JsonDeserialize(as = ImmutableFairnessConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class FairnessConfig {
+
+    public static final double DEFAULT_RATE = 100;
+    public static final int DEFAULT_BURST = 200;
+    public static final int DEFAULT_MAX_QUEUED_PER_CLIENT = 1000;
+    public static final int DEFAULT_MAX_UNCONFIGURED_CLIENTS = 10000;
+    public static final Duration DEFAULT_UNCONFIGURED_CLIENT_IDLE_TIME = Duration.minutes(10);
+
+    /**
+     * Get whether asynchronously handled blockchain requests are rate limited and queued per client. Clients are told
+     * apart by the Authorization header they send.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the sustained number of requests per second each client that isn't configured may make.
+     */
+    @Value.Default
+    @JsonProperty("rate")
+    public double getRate() {
+        return DEFAULT_RATE;
+    }
+
+    /**
+     * Get the number of requests each client that isn't configured may make in a burst above its rate.
+     */
+    @Value.Default
+    @JsonProperty("burst")
+    public int getBurst() {
+        return DEFAULT_BURST;
+    }
+
+    /**
+     * Get the max number of requests from one client waiting to be handled, beyond which its new requests are
+     * rejected, so that one client can't fill the whole queue.
+     */
+    @Value.Default
+    @JsonProperty("maxQueuedPerClient")
+    public int getMaxQueuedPerClient() {
+        return DEFAULT_MAX_QUEUED_PER_CLIENT;
+    }
+
+    /**
+     * Get the max number of clients that aren't configured kept at once, each with its own bucket and queue, beyond
+     * which those that sent a request least recently are forgotten.
+     */
+    @Value.Default
+    @JsonProperty("maxUnconfiguredClients")
+    public int getMaxUnconfiguredClients() {
+        return DEFAULT_MAX_UNCONFIGURED_CLIENTS;
+    }
+
+    /**
+     * Get how long a client that isn't configured is kept after its last request. A forgotten client starts again with
+     * a full bucket, so this should be at least the time its bucket takes to refill.
+     */
+    @Value.Default
+    @JsonProperty("unconfiguredClientIdleTime")
+    public Duration getUnconfiguredClientIdleTime() {
+        return DEFAULT_UNCONFIGURED_CLIENT_IDLE_TIME;
+    }
+
+    /**
+     * Get the clients given their own weight, rate, or burst.
+     */
+    @JsonProperty("clients")
+    public abstract List<ClientConfig> getClients();
+
+    @Value.Check
+    protected void check() {
+        if (getRate() <= 0 || getBurst() < 1) {
+            throw new IllegalStateException(String.format("rate %s and burst %s must be positive", getRate(),
+                    getBurst()));
+        }
+        if (getMaxQueuedPerClient() < 1) {
+            throw new IllegalStateException(String.format("maxQueuedPerClient %s must be positive",
+                    getMaxQueuedPerClient()));
+        }
+        if (getMaxUnconfiguredClients() < 1) {
+            throw new IllegalStateException(String.format("maxUnconfiguredClients %s must be positive",
+                    getMaxUnconfiguredClients()));
+        }
+    }
+
+    public static FairnessConfig of() {
+        return ImmutableFairnessConfig.builder().build();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for how block headers are fetched from the bitcoin node.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableFetchConfig.class)
+@JsonDeserialize(as = ImmutableFetchConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class FetchConfig {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_PARTITION_SIZE = 500;
+    public static final int DEFAULT_MAX_REORG_REPAIRS = 3;
+    public static final int DEFAULT_REST_HEADERS_PER_CALL = BitcoinNodeRestService.MAX_HEADERS;
+
+    /**
+     * Get the max number of RPCs to send in a single JSON-RPC batch call. A batch size of 1 disables batching.
+     */
+    @Value.Default
+    @JsonProperty("batchSize")
+    public int getBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Get the max number of concurrent RPC calls to make to the bitcoin node, which should usually match the number of
+     * RPC threads (i.e., {@code rpcthreads}) bitcoind is configured with.
+     */
+    @Value.Default
+    @JsonProperty("parallelism")
+    public int getParallelism() {
+        return DEFAULT_PARALLELISM;
+    }
+
+    /**
+     * Get the min number of blocks in each height partition of a subchain fetched concurrently with the others.
+     */
+    @Value.Default
+    @JsonProperty("partitionSize")
+    public int getPartitionSize() {
+        return DEFAULT_PARTITION_SIZE;
+    }
+
+    /**
+     * Get the max number of times a subchain that changed while being fetched, because the best chain reorganized, is
+     * repaired by re-fetching only the part of it above the fork before giving up.
+     */
+    @Value.Default
+    @JsonProperty("maxReorgRepairs")
+    public int getMaxReorgRepairs() {
+        return DEFAULT_MAX_REORG_REPAIRS;
+    }
+
+    /**
+     * Get the max number of block headers read in a single call to the bitcoin node's REST interface, when enabled,
+     * which can be at most the {@value BitcoinNodeRestService#MAX_HEADERS} bitcoind returns. Each call after the first
+     * starts at the last block header of the one before, so this must be at least 2.
+     */
+    @Value.Default
+    @JsonProperty("restHeadersPerCall")
+    public int getRestHeadersPerCall() {
+        return DEFAULT_REST_HEADERS_PER_CALL;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getBatchSize() < 1) {
+            throw new IllegalStateException(String.format("batchSize %s must be positive", getBatchSize()));
+        }
+        if (getParallelism() < 1) {
+            throw new IllegalStateException(String.format("parallelism %s must be positive", getParallelism()));
+        }
+        if (getPartitionSize() < 1) {
+            throw new IllegalStateException(String.format("partitionSize %s must be positive", getPartitionSize()));
+        }
+        if (getMaxReorgRepairs() < 0) {
+            throw new IllegalStateException(String.format("maxReorgRepairs %s must not be negative",
+                    getMaxReorgRepairs()));
+        }
+        if (getRestHeadersPerCall() < 2 || getRestHeadersPerCall() > BitcoinNodeRestService.MAX_HEADERS) {
+            throw new IllegalStateException(String.format("restHeadersPerCall %s must be between 2 and %s",
+                    getRestHeadersPerCall(), BitcoinNodeRestService.MAX_HEADERS));
+        }
+    }
+
+    public static FetchConfig of() {
+        return ImmutableFetchConfig.builder().build();
+    }
+
+    public static FetchConfig of(int batchSize) {
+        return ImmutableFetchConfig.builder().batchSize(batchSize).build();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for hedging single RPCs to a second pooled bitcoin node when the first is slow to answer.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableHedgeConfig.class)
+@JsonDeserialize(as = ImmutableHedgeConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class HedgeConfig {
+
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final Duration DEFAULT_MIN_DELAY = Duration.milliseconds(5);
+    public static final double DEFAULT_MAX_EXTRA_LOAD = 0.05;
+    public static final int DEFAULT_MAX_THREADS = 64;
+
+    /**
+     * Get whether single RPCs are hedged when the bitcoin node is pooled over more than one node.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the percentile of recent single RPC latencies after which an unanswered RPC is hedged to another node, so
+     * that about {@code 1 - percentile} of RPCs are hedged.
+     */
+    @Value.Default
+    @JsonProperty("percentile")
+    public double getPercentile() {
+        return DEFAULT_PERCENTILE;
+    }
+
+    /**
+     * Get the min delay before hedging an RPC, which keeps RPCs from being hedged while there are too few recent
+     * latencies or when they are all very fast.
+     */
+    @Value.Default
+    @JsonProperty("minDelay")
+    public Duration getMinDelay() {
+        return DEFAULT_MIN_DELAY;
+    }
+
+    /**
+     * Get the max number of hedged RPCs as a fraction of all the single RPCs, which caps the extra load on the nodes
+     * when they are all slow.
+     */
+    @Value.Default
+    @JsonProperty("maxExtraLoad")
+    public double getMaxExtraLoad() {
+        return DEFAULT_MAX_EXTRA_LOAD;
+    }
+
+    /**
+     * Get the max number of threads calling single RPCs that may be hedged, along with their hedges. Once they are all
+     * busy, single RPCs are called on their callers' threads without hedging.
+     */
+    @Value.Default
+    @JsonProperty("maxThreads")
+    public int getMaxThreads() {
+        return DEFAULT_MAX_THREADS;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getPercentile() <= 0 || getPercentile() >= 1) {
+            throw new IllegalStateException(String.format("percentile %s must be between 0 and 1", getPercentile()));
+        }
+        if (getMaxExtraLoad() < 0 || getMaxExtraLoad() > 1) {
+            throw new IllegalStateException(String.format("maxExtraLoad %s must be between 0 and 1",
+                    getMaxExtraLoad()));
+        }
+        if (getMaxThreads() < 1) {
+            throw new IllegalStateException(String.format("maxThreads %s must be positive", getMaxThreads()));
+        }
+    }
+
+    public static HedgeConfig of() {
+        return ImmutableHedgeConfig.builder().build();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the HTTP cache validators and lifetimes attached to blockchain responses.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableHttpCacheConfig.class)
+@JsonDeserialize(as = ImmutableHttpCacheConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class HttpCacheConfig {
+
+    public static final int DEFAULT_IMMUTABLE_DEPTH = 100;
+    public static final Duration DEFAULT_DEEP_MAX_AGE = Duration.days(1);
+    public static final Duration DEFAULT_TIP_MAX_AGE = Duration.seconds(10);
+
+    /**
+     * Get whether to tag GET responses with ETags, answer matching If-None-Match requests with 304s, and tell HTTP
+     * caches how long responses stay fresh. Requires the cached snapshot of the blockchain info.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the number of confirmations at and above which the block headers in a response are treated as immutable and
+     * the response is cached for {@link #getDeepMaxAge()}.
+     */
+    @Value.Default
+    @JsonProperty("immutableDepth")
+    public int getImmutableDepth() {
+        return DEFAULT_IMMUTABLE_DEPTH;
+    }
+
+    /**
+     * Get how long HTTP caches may serve a response whose block headers all have at least
+     * {@link #getImmutableDepth()} confirmations. Its numbers of confirmations may be that much out of date.
+     */
+    @Value.Default
+    @JsonProperty("deepMaxAge")
+    public Duration getDeepMaxAge() {
+        return DEFAULT_DEEP_MAX_AGE;
+    }
+
+    /**
+     * Get how long HTTP caches may serve any other response, e.g. one with block headers near the best chain tip.
+     */
+    @Value.Default
+    @JsonProperty("tipMaxAge")
+    public Duration getTipMaxAge() {
+        return DEFAULT_TIP_MAX_AGE;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getImmutableDepth() < 1) {
+            throw new IllegalStateException(String.format("immutableDepth %s must be positive",
+                    getImmutableDepth()));
+        }
+        if (getTipMaxAge().toSeconds() > getDeepMaxAge().toSeconds()) {
+            throw new IllegalStateException(String.format("tipMaxAge %s must not be greater than deepMaxAge %s",
+                    getTipMaxAge(), getDeepMaxAge()));
+        }
+    }
+
+    public static HttpCacheConfig of() {
+        return ImmutableHttpCacheConfig.builder().build();
+    }
+}
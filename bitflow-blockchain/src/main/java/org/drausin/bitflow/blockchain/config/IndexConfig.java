@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the local index of the best chain kept in sync with the bitcoin node.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableIndexConfig.class)
+@JsonDeserialize(as = ImmutableIndexConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class IndexConfig {
+
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.seconds(5);
+    public static final int DEFAULT_REORG_CHECK_DEPTH = 12;
+    public static final int DEFAULT_SYNC_CHUNK_SIZE = 10000;
+
+    /**
+     * Get whether to keep a local index of the best chain.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the delay between syncs of the index with the bitcoin node's best chain.
+     */
+    @Value.Default
+    @JsonProperty("syncInterval")
+    public Duration getSyncInterval() {
+        return DEFAULT_SYNC_INTERVAL;
+    }
+
+    /**
+     * Get the number of blocks below the index tip to check first for a reorganization of the best chain. Deeper
+     * reorganizations are found by repeatedly doubling this depth.
+     */
+    @Value.Default
+    @JsonProperty("reorgCheckDepth")
+    public int getReorgCheckDepth() {
+        return DEFAULT_REORG_CHECK_DEPTH;
+    }
+
+    /**
+     * Get the max number of blocks added to the index at a time while syncing, after which they are available to
+     * lookups.
+     */
+    @Value.Default
+    @JsonProperty("syncChunkSize")
+    public int getSyncChunkSize() {
+        return DEFAULT_SYNC_CHUNK_SIZE;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getReorgCheckDepth() < 1) {
+            throw new IllegalStateException(String.format("reorgCheckDepth %s must be positive",
+                    getReorgCheckDepth()));
+        }
+        if (getSyncChunkSize() < 1) {
+            throw new IllegalStateException(String.format("syncChunkSize %s must be positive", getSyncChunkSize()));
+        }
+    }
+
+    public static IndexConfig of() {
+        return ImmutableIndexConfig.builder().build();
+    }
+}
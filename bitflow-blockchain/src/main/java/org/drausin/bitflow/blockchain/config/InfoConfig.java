@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the shared snapshot of the bitcoin node's blockchain info.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableInfoConfig.class)
+@JsonDeserialize(as = ImmutableInfoConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class InfoConfig {
+
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.seconds(1);
+    public static final Duration DEFAULT_MAX_STALENESS = Duration.seconds(10);
+
+    /**
+     * Get whether to share a periodically refreshed snapshot of the blockchain info between requests. If not, each
+     * request gets the blockchain info from the bitcoin node.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the delay between background refreshes of the snapshot.
+     */
+    @Value.Default
+    @JsonProperty("refreshInterval")
+    public Duration getRefreshInterval() {
+        return DEFAULT_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Get the max age of a snapshot that is read. Reading an older snapshot, say because background refreshes have
+     * been failing, refreshes it first.
+     */
+    @Value.Default
+    @JsonProperty("maxStaleness")
+    public Duration getMaxStaleness() {
+        return DEFAULT_MAX_STALENESS;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getMaxStaleness().toMilliseconds() < getRefreshInterval().toMilliseconds()) {
+            throw new IllegalStateException(String.format("maxStaleness %s must not be less than refreshInterval %s",
+                    getMaxStaleness(), getRefreshInterval()));
+        }
+    }
+
+    public static InfoConfig of() {
+        return ImmutableInfoConfig.builder().build();
+    }
+}
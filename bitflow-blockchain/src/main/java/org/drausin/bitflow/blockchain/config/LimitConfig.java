@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for adaptively limiting the number of concurrent RPCs sent to each bitcoin node.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableLimitConfig.class)
+@JsonDeserialize(as = ImmutableLimitConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class LimitConfig {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 64;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final Duration DEFAULT_MAX_LATENCY = Duration.seconds(2);
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 64;
+    public static final Duration DEFAULT_MAX_QUEUE_TIME = Duration.seconds(10);
+
+    /**
+     * Get whether the number of concurrent RPCs to each bitcoin node is limited.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the concurrency limit each bitcoin node starts with, usually the same as bitcoind's rpcthreads.
+     */
+    @Value.Default
+    @JsonProperty("initialLimit")
+    public int getInitialLimit() {
+        return DEFAULT_INITIAL_LIMIT;
+    }
+
+    /**
+     * Get the concurrency limit below which backing off stops.
+     */
+    @Value.Default
+    @JsonProperty("minLimit")
+    public int getMinLimit() {
+        return DEFAULT_MIN_LIMIT;
+    }
+
+    /**
+     * Get the concurrency limit above which growing stops, usually no more than bitcoind's rpcthreads plus its
+     * rpcworkqueue.
+     */
+    @Value.Default
+    @JsonProperty("maxLimit")
+    public int getMaxLimit() {
+        return DEFAULT_MAX_LIMIT;
+    }
+
+    /**
+     * Get the ratio the limit is multiplied by when the bitcoin node is overloaded or an RPC is slower than
+     * {@link #getMaxLatency()}.
+     */
+    @Value.Default
+    @JsonProperty("backoffRatio")
+    public double getBackoffRatio() {
+        return DEFAULT_BACKOFF_RATIO;
+    }
+
+    /**
+     * Get the latency per request above which an RPC is taken as a sign that the bitcoin node has more RPCs than it can
+     * keep up with. A batch's latency is divided between the requests in it.
+     */
+    @Value.Default
+    @JsonProperty("maxLatency")
+    public Duration getMaxLatency() {
+        return DEFAULT_MAX_LATENCY;
+    }
+
+    /**
+     * Get the max number of RPCs waiting for the number in flight to drop below the limit, beyond which RPCs are
+     * rejected.
+     */
+    @Value.Default
+    @JsonProperty("maxQueueSize")
+    public int getMaxQueueSize() {
+        return DEFAULT_MAX_QUEUE_SIZE;
+    }
+
+    /**
+     * Get how long an RPC may wait for the number in flight to drop below the limit before it is rejected. This should
+     * be longer than a typical batch takes, since that's how long an RPC may wait for one in flight to finish.
+     */
+    @Value.Default
+    @JsonProperty("maxQueueTime")
+    public Duration getMaxQueueTime() {
+        return DEFAULT_MAX_QUEUE_TIME;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getMinLimit() < 1 || getMinLimit() > getInitialLimit() || getInitialLimit() > getMaxLimit()) {
+            throw new IllegalStateException(String.format("limits must satisfy 1 <= minLimit %s <= initialLimit %s "
+                    + "<= maxLimit %s", getMinLimit(), getInitialLimit(), getMaxLimit()));
+        }
+        if (getBackoffRatio() <= 0 || getBackoffRatio() >= 1) {
+            throw new IllegalStateException(String.format("backoffRatio %s must be between 0 and 1",
+                    getBackoffRatio()));
+        }
+        if (getMaxQueueSize() < 0) {
+            throw new IllegalStateException(String.format("maxQueueSize %s must not be negative",
+                    getMaxQueueSize()));
+        }
+    }
+
+    public static LimitConfig of() {
+        return ImmutableLimitConfig.builder().build();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import java.util.List;
+import org.drausin.bitflow.bitcoin.api.config.BitcoinNodeClientConfig;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for pooling RPCs over several synced bitcoin nodes.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutablePoolConfig.class)
+@JsonDeserialize(as = ImmutablePoolConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class PoolConfig {
+
+    public static final int DEFAULT_MAX_TIP_LAG = 0;
+    public static final Duration DEFAULT_CHECK_INTERVAL = Duration.seconds(1);
+
+    /**
+     * Get the bitcoin nodes pooled along with the main {@code bitcoinNode}. RPCs are only pooled if there are any.
+     */
+    @JsonProperty("nodes")
+    public abstract List<BitcoinNodeClientConfig> getNodes();
+
+    /**
+     * Get the max number of blocks a node's tip may be behind the highest tip of the pooled nodes before it is ejected
+     * from the pool, until it catches back up. If 0, nodes must also be at the same best block hash, so that the RPCs
+     * of one operation never see different best chains; otherwise they may, and fail as if the chain reorganized.
+     */
+    @Value.Default
+    @JsonProperty("maxTipLag")
+    public int getMaxTipLag() {
+        return DEFAULT_MAX_TIP_LAG;
+    }
+
+    /**
+     * Get the delay between checks of every node's tip.
+     */
+    @Value.Default
+    @JsonProperty("checkInterval")
+    public Duration getCheckInterval() {
+        return DEFAULT_CHECK_INTERVAL;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getMaxTipLag() < 0) {
+            throw new IllegalStateException(String.format("maxTipLag %s must not be negative", getMaxTipLag()));
+        }
+    }
+
+    public static PoolConfig of() {
+        return ImmutablePoolConfig.builder().build();
+    }
+}
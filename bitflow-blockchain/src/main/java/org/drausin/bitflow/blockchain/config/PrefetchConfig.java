@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for prefetching block headers ahead of sequential reads along the best chain.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutablePrefetchConfig.class)
+@JsonDeserialize(as = ImmutablePrefetchConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class PrefetchConfig {
+
+    public static final int DEFAULT_INITIAL_DEPTH = 8;
+    public static final int DEFAULT_MAX_DEPTH = 512;
+    public static final int DEFAULT_MAX_SCANS = 1000;
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Get whether to prefetch block headers into the cache ahead of clients reading them one at a time along the
+     * best chain. Prefetching also requires the cache to be enabled.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return true;
+    }
+
+    /**
+     * Get the number of blocks prefetched ahead of a scan once it is first found to be reading sequentially.
+     */
+    @Value.Default
+    @JsonProperty("initialDepth")
+    public int getInitialDepth() {
+        return DEFAULT_INITIAL_DEPTH;
+    }
+
+    /**
+     * Get the max number of blocks prefetched ahead of a scan, which the depth doubles towards each time a scan
+     * keeps reading sequentially into its prefetched blocks.
+     */
+    @Value.Default
+    @JsonProperty("maxDepth")
+    public int getMaxDepth() {
+        return DEFAULT_MAX_DEPTH;
+    }
+
+    /**
+     * Get the max number of sequential scans tracked at once, beyond which the least recently read are forgotten.
+     */
+    @Value.Default
+    @JsonProperty("maxScans")
+    public int getMaxScans() {
+        return DEFAULT_MAX_SCANS;
+    }
+
+    /**
+     * Get the number of threads fetching prefetched blocks.
+     */
+    @Value.Default
+    @JsonProperty("threads")
+    public int getThreads() {
+        return DEFAULT_THREADS;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getInitialDepth() < 1 || getMaxDepth() < getInitialDepth()) {
+            throw new IllegalStateException(String.format(
+                    "initialDepth %s must be positive and not greater than maxDepth %s", getInitialDepth(),
+                    getMaxDepth()));
+        }
+        if (getMaxScans() < 1 || getThreads() < 1) {
+            throw new IllegalStateException(String.format("maxScans %s and threads %s must be positive",
+                    getMaxScans(), getThreads()));
+        }
+    }
+
+    public static PrefetchConfig of() {
+        return ImmutablePrefetchConfig.builder().build();
+    }
+}
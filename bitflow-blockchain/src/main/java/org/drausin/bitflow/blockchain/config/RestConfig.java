@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for reading block headers in bulk from the bitcoin node's REST interface.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableRestConfig.class)
+@JsonDeserialize(as = ImmutableRestConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class RestConfig {
+
+    /**
+     * Get whether ranges of block headers without transaction IDs, e.g. in subchains read without a header store, are
+     * read from the bitcoin node's REST interface as raw binary headers, thousands per call, instead of with an RPC per
+     * block. This requires bitcoind to be started with {@code -rest}. Block headers read this way lack the block's size
+     * and number of transactions, so the chain indexer never reads them this way.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return false;
+    }
+
+    public static RestConfig of() {
+        return ImmutableRestConfig.builder().build();
+    }
+}
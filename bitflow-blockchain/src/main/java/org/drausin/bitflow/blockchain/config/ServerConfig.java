@@ -39,14 +39,62 @@ public class ServerConfig extends Configuration {
     private final String instance;
     private final BitcoinNodeClientConfig bitcoinNode;
     private final Optional<Boolean> includeStackTraceInErrors;
+    private final Optional<FetchConfig> fetch;
+    private final Optional<IndexConfig> index;
+    private final Optional<CacheConfig> cache;
+    private final Optional<AsyncConfig> async;
+    private final Optional<InfoConfig> info;
+    private final Optional<StoreConfig> store;
+    private final Optional<CoalesceConfig> coalesce;
+    private final Optional<PrefetchConfig> prefetch;
+    private final Optional<HttpCacheConfig> httpCache;
+    private final Optional<PoolConfig> pool;
+    private final Optional<HedgeConfig> hedge;
+    private final Optional<LimitConfig> limit;
+    private final Optional<FairnessConfig> fairness;
+    private final Optional<WarmupConfig> warmup;
+    private final Optional<RestConfig> rest;
+    private final Optional<DecodeConfig> decode;
 
     public ServerConfig(
             @JsonProperty("instance") @NotNull String instance,
             @JsonProperty("bitcoinNode") @NotNull BitcoinNodeClientConfig bitcoinNode,
-            @JsonProperty("includeStackTraceInErrors") @NotNull Optional<Boolean> includeStackTraceInErrors) {
+            @JsonProperty("includeStackTraceInErrors") @NotNull Optional<Boolean> includeStackTraceInErrors,
+            @JsonProperty("fetch") @NotNull Optional<FetchConfig> fetch,
+            @JsonProperty("index") @NotNull Optional<IndexConfig> index,
+            @JsonProperty("cache") @NotNull Optional<CacheConfig> cache,
+            @JsonProperty("async") @NotNull Optional<AsyncConfig> async,
+            @JsonProperty("info") @NotNull Optional<InfoConfig> info,
+            @JsonProperty("store") @NotNull Optional<StoreConfig> store,
+            @JsonProperty("coalesce") @NotNull Optional<CoalesceConfig> coalesce,
+            @JsonProperty("prefetch") @NotNull Optional<PrefetchConfig> prefetch,
+            @JsonProperty("httpCache") @NotNull Optional<HttpCacheConfig> httpCache,
+            @JsonProperty("pool") @NotNull Optional<PoolConfig> pool,
+            @JsonProperty("hedge") @NotNull Optional<HedgeConfig> hedge,
+            @JsonProperty("limit") @NotNull Optional<LimitConfig> limit,
+            @JsonProperty("fairness") @NotNull Optional<FairnessConfig> fairness,
+            @JsonProperty("warmup") @NotNull Optional<WarmupConfig> warmup,
+            @JsonProperty("rest") @NotNull Optional<RestConfig> rest,
+            @JsonProperty("decode") @NotNull Optional<DecodeConfig> decode) {
         this.instance = instance;
         this.bitcoinNode = bitcoinNode;
         this.includeStackTraceInErrors = includeStackTraceInErrors;
+        this.fetch = fetch;
+        this.index = index;
+        this.cache = cache;
+        this.async = async;
+        this.info = info;
+        this.store = store;
+        this.coalesce = coalesce;
+        this.prefetch = prefetch;
+        this.httpCache = httpCache;
+        this.pool = pool;
+        this.hedge = hedge;
+        this.limit = limit;
+        this.fairness = fairness;
+        this.warmup = warmup;
+        this.rest = rest;
+        this.decode = decode;
     }
 
     public final String getInstance() {
@@ -60,4 +108,68 @@ public class ServerConfig extends Configuration {
     public final Optional<Boolean> getIncludeStackTraceInErrors() {
         return includeStackTraceInErrors;
     }
+
+    public final FetchConfig getFetch() {
+        return fetch.or(FetchConfig.of());
+    }
+
+    public final IndexConfig getIndex() {
+        return index.or(IndexConfig.of());
+    }
+
+    public final CacheConfig getCache() {
+        return cache.or(CacheConfig.of());
+    }
+
+    public final AsyncConfig getAsync() {
+        return async.or(AsyncConfig.of());
+    }
+
+    public final InfoConfig getInfo() {
+        return info.or(InfoConfig.of());
+    }
+
+    public final StoreConfig getStore() {
+        return store.or(StoreConfig.of());
+    }
+
+    public final CoalesceConfig getCoalesce() {
+        return coalesce.or(CoalesceConfig.of());
+    }
+
+    public final PrefetchConfig getPrefetch() {
+        return prefetch.or(PrefetchConfig.of());
+    }
+
+    public final HttpCacheConfig getHttpCache() {
+        return httpCache.or(HttpCacheConfig.of());
+    }
+
+    public final PoolConfig getPool() {
+        return pool.or(PoolConfig.of());
+    }
+
+    public final HedgeConfig getHedge() {
+        return hedge.or(HedgeConfig.of());
+    }
+
+    public final LimitConfig getLimit() {
+        return limit.or(LimitConfig.of());
+    }
+
+    public final FairnessConfig getFairness() {
+        return fairness.or(FairnessConfig.of());
+    }
+
+    public final WarmupConfig getWarmup() {
+        return warmup.or(WarmupConfig.of());
+    }
+
+    public final RestConfig getRest() {
+        return rest.or(RestConfig.of());
+    }
+
+    public final DecodeConfig getDecode() {
+        return decode.or(DecodeConfig.of());
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the local memory-mapped store of the best chain's block headers.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableStoreConfig.class)
+@JsonDeserialize(as = ImmutableStoreConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class StoreConfig {
+
+    public static final String DEFAULT_DIRECTORY = "var/data/header-store";
+
+    /**
+     * Get whether to keep a local store of the best chain's block headers, synced along with the chain index. Storing
+     * block headers also requires the chain index to be enabled.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return false;
+    }
+
+    /**
+     * Get the directory of the store's files, which is reopened rather than synced again on restart.
+     */
+    @Value.Default
+    @JsonProperty("directory")
+    public String getDirectory() {
+        return DEFAULT_DIRECTORY;
+    }
+
+    public static StoreConfig of() {
+        return ImmutableStoreConfig.builder().build();
+    }
+}
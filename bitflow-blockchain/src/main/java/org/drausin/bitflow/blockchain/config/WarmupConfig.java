@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.util.Duration;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for snapshotting the block header cache to a local file and warming the cache back up on startup.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+@JsonSerialize(as = ImmutableWarmupConfig.class)
+@JsonDeserialize(as = ImmutableWarmupConfig.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class WarmupConfig {
+
+    public static final String DEFAULT_SNAPSHOT_FILE = "var/data/header-cache.snapshot";
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.minutes(5);
+    public static final int DEFAULT_RECENT_HEADERS = 1000;
+
+    /**
+     * Get whether to snapshot the block header cache and warm it up on startup, before the server reports healthy.
+     * Warming up also requires the cache to be enabled.
+     */
+    @Value.Default
+    @JsonProperty("enabled")
+    public boolean getEnabled() {
+        return false;
+    }
+
+    /**
+     * Get the file the cache is snapshotted to and reloaded from on restart.
+     */
+    @Value.Default
+    @JsonProperty("snapshotFile")
+    public String getSnapshotFile() {
+        return DEFAULT_SNAPSHOT_FILE;
+    }
+
+    /**
+     * Get the delay between snapshots of the cache, which is also snapshotted when the server stops.
+     */
+    @Value.Default
+    @JsonProperty("snapshotInterval")
+    public Duration getSnapshotInterval() {
+        return DEFAULT_SNAPSHOT_INTERVAL;
+    }
+
+    /**
+     * Get the number of the most recent block headers fetched into the cache on startup, after reloading the snapshot.
+     */
+    @Value.Default
+    @JsonProperty("recentHeaders")
+    public int getRecentHeaders() {
+        return DEFAULT_RECENT_HEADERS;
+    }
+
+    @Value.Check
+    protected void check() {
+        if (getRecentHeaders() < 0) {
+            throw new IllegalStateException(String.format("recentHeaders %s must not be negative",
+                    getRecentHeaders()));
+        }
+    }
+
+    public static WarmupConfig of() {
+        return ImmutableWarmupConfig.builder().build();
+    }
+}
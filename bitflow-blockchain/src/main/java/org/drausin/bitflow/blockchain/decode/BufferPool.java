@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.decode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of byte buffers that are reused from one decoded block to the next, so decoding megabyte blocks
+ * doesn't allocate (and soon collect) a megabyte array each time. Buffers are at least a given size, which should fit
+ * most blocks; a block larger than an idle buffer gets a new buffer of its own size, which then joins the pool.
+ *
+ * @author dwulsin
+ */
+public final class BufferPool {
+
+    private final BlockingQueue<byte[]> idleBuffers;
+    private final int bufferBytes;
+
+    public BufferPool(int poolSize, int bufferBytes) {
+        this.idleBuffers = new ArrayBlockingQueue<>(poolSize);
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * Takes an idle buffer of at least the given number of bytes from the pool, or creates one if there isn't any.
+     * Its contents are whatever was last written to it.
+     */
+    public byte[] acquire(int minBytes) {
+        byte[] buffer = idleBuffers.poll();
+        if (buffer == null || buffer.length < minBytes) {
+            return new byte[Math.max(minBytes, bufferBytes)];
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool for reuse, or drops it if the pool is already full of idle buffers. A buffer must
+     * only be returned once nothing is still reading or writing it.
+     */
+    public void release(byte[] buffer) {
+        idleBuffers.offer(buffer);
+    }
+
+    /**
+     * Gets the number of idle buffers in the pool.
+     */
+    public int getNumIdle() {
+        return idleBuffers.size();
+    }
+}
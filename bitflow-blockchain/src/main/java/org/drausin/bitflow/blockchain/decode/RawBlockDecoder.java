@@ -0,0 +1,388 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.decode;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.VarInt;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockTransaction;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.TransactionInput;
+import org.drausin.bitflow.blockchain.api.objects.TransactionOutput;
+import org.drausin.bitflow.blockchain.config.DecodeConfig;
+
+/**
+ * Decodes whole blocks from the hex-encoded serializations returned by the bitcoin node. The hex is decoded into a
+ * buffer from a {@link BufferPool}, which is first scanned for the boundaries of the block's transactions, reading just
+ * their lengths, so that runs of transactions with about equal numbers of bytes can then be parsed by bitcoinj
+ * concurrently on the given executor, with the last run parsed on the calling thread. Transactions serialized with
+ * segregated witness data have their marker, flag, and witnesses found by the scan and stripped before parsing, since
+ * bitcoinj only parses the original serialization format, which is also the one transaction IDs are hashes of.
+ *
+ * @author dwulsin
+ */
+public final class RawBlockDecoder {
+
+    private static final int HEADER_BYTES = 80;
+    private static final int VERSION_BYTES = 4;
+    private static final int MARKER_FLAG_BYTES = 2;
+    private static final int WITNESS_FLAG = 0x01;
+    private static final int OUTPOINT_BYTES = 36;
+    private static final int SEQUENCE_BYTES = 4;
+    private static final int VALUE_BYTES = 8;
+    private static final int LOCK_TIME_BYTES = 4;
+    private static final int VAR_INT_16_PREFIX = 0xfd;
+    private static final int VAR_INT_32_PREFIX = 0xfe;
+    private static final int[] HEX_DIGIT_VALUES = createHexDigitValues();
+
+    private final NetworkParameters params;
+    private final Context context;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int minTransactionsPerTask;
+    private final BufferPool bufferPool;
+
+    /**
+     * Creates a decoder that parses all of a block's transactions on the calling thread.
+     */
+    public RawBlockDecoder(NetworkParameters params, DecodeConfig config) {
+        this(params, config, MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Creates a decoder that parses runs of a block's transactions concurrently on the given executor.
+     */
+    public RawBlockDecoder(NetworkParameters params, DecodeConfig config, ExecutorService executor) {
+        this.params = params;
+        this.context = new Context(params);
+        this.executor = executor;
+        this.parallelism = config.getParallelism();
+        this.minTransactionsPerTask = config.getMinTransactionsPerTask();
+        this.bufferPool = new BufferPool(config.getBufferPoolSize(), config.getBufferBytes());
+    }
+
+    /**
+     * Decodes a block from its hex-encoded serialization.
+     *
+     * @param blockHeader the block header of the block, whose hash the serialized block header must have
+     * @param rawBlockHex the hex-encoded serialization of the block
+     * @return the block, whose block header has the block's size and number of transactions but no transaction IDs
+     * @throws IllegalStateException if the serialization is malformed or not of the given block
+     */
+    public FullBlock decode(BlockHeader blockHeader, String rawBlockHex) {
+        if (rawBlockHex.length() % 2 != 0) {
+            throw new IllegalStateException(String.format("raw block %s has an odd number of hex digits",
+                    blockHeader.getHeaderHash()));
+        }
+        int numBytes = rawBlockHex.length() / 2;
+        byte[] buffer = bufferPool.acquire(numBytes);
+        decodeHex(rawBlockHex, buffer);
+        checkHeaderHash(blockHeader.getHeaderHash(), buffer, numBytes);
+        List<BlockTransaction> transactions = decodeTransactions(buffer, findTransactionBoundaries(buffer,
+                numBytes));
+
+        // only reuse the buffer once decoded, since a failed decode may have left tasks still reading it
+        bufferPool.release(buffer);
+        BlockHeader fullBlockHeader = ImmutableBlockHeader.copyOf(blockHeader)
+                .withSizeBytes(numBytes)
+                .withNumTransactions(transactions.size())
+                .withTransactionIds(ImmutableList.<Sha256Hash>of());
+        return FullBlock.of(fullBlockHeader, transactions);
+    }
+
+    /**
+     * Gets the buffer pool the hex-encoded blocks are decoded into.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private List<BlockTransaction> decodeTransactions(byte[] raw, TransactionBoundaries boundaries) {
+        int[] starts = boundaries.starts;
+        int numTransactions = starts.length - 1;
+        int numTasks = Math.max(1, Math.min(parallelism, numTransactions / minTransactionsPerTask));
+        List<Future<List<BlockTransaction>>> tasks = Lists.newArrayListWithCapacity(numTasks - 1);
+        int from = 0;
+        for (int task = 1; task < numTasks && from < numTransactions; task++) {
+            int taskFrom = from;
+            int taskTo = findSplit(starts, from, (long) task * (starts[numTransactions] - starts[0]) / numTasks
+                    + starts[0]);
+            tasks.add(executor.submit(() -> parseTransactions(raw, boundaries, taskFrom, taskTo)));
+            from = taskTo;
+        }
+        List<BlockTransaction> lastRun = parseTransactions(raw, boundaries, from, numTransactions);
+
+        ImmutableList.Builder<BlockTransaction> transactions = ImmutableList.builder();
+        for (Future<List<BlockTransaction>> task : tasks) {
+            transactions.addAll(getTask(task, tasks));
+        }
+        return transactions.addAll(lastRun).build();
+    }
+
+    private List<BlockTransaction> parseTransactions(byte[] raw, TransactionBoundaries boundaries, int from,
+            int to) {
+        Context.propagate(context);
+        ImmutableList.Builder<BlockTransaction> transactions = ImmutableList.builder();
+        for (int c = from; c < to; c++) {
+            try {
+                transactions.add(toBlockTransaction(parseTransaction(raw, boundaries, c),
+                        boundaries.starts[c + 1] - boundaries.starts[c]));
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(String.format("unable to parse transaction %s of raw block", c), e);
+            }
+        }
+        return transactions.build();
+    }
+
+    private Transaction parseTransaction(byte[] raw, TransactionBoundaries boundaries, int index) {
+        int start = boundaries.starts[index];
+        int witnessStart = boundaries.witnessStarts[index];
+        if (witnessStart < 0) {
+            return new Transaction(params, raw, start);
+        }
+
+        // copy the transaction without its marker, flag, and witnesses, leaving its version, inputs, outputs, and
+        // lock time
+        int inputsStart = start + VERSION_BYTES + MARKER_FLAG_BYTES;
+        byte[] stripped = new byte[VERSION_BYTES + witnessStart - inputsStart + LOCK_TIME_BYTES];
+        System.arraycopy(raw, start, stripped, 0, VERSION_BYTES);
+        System.arraycopy(raw, inputsStart, stripped, VERSION_BYTES, witnessStart - inputsStart);
+        System.arraycopy(raw, boundaries.starts[index + 1] - LOCK_TIME_BYTES, stripped,
+                stripped.length - LOCK_TIME_BYTES, LOCK_TIME_BYTES);
+        return new Transaction(params, stripped, 0);
+    }
+
+    private static BlockTransaction toBlockTransaction(Transaction transaction, int sizeBytes) {
+        ImmutableList.Builder<TransactionInput> inputs = ImmutableList.builder();
+        for (org.bitcoinj.core.TransactionInput input : transaction.getInputs()) {
+            TransactionOutPoint outpoint = input.getOutpoint();
+            inputs.add(TransactionInput.of(outpoint.getHash(), outpoint.getIndex(), input.getScriptBytes(),
+                    input.getSequenceNumber()));
+        }
+        ImmutableList.Builder<TransactionOutput> outputs = ImmutableList.builder();
+        for (org.bitcoinj.core.TransactionOutput output : transaction.getOutputs()) {
+            outputs.add(TransactionOutput.of(output.getValue().getValue(), output.getScriptBytes()));
+        }
+        return BlockTransaction.of(transaction.getHash(), transaction.getVersion(), sizeBytes, inputs.build(),
+                outputs.build(), transaction.getLockTime());
+    }
+
+    /**
+     * Finds the index of the first transaction boundary after the given one that is at or beyond the given offset,
+     * splitting the transactions about that offset.
+     */
+    private static int findSplit(int[] boundaries, int from, long offset) {
+        int index = Arrays.binarySearch(boundaries, from + 1, boundaries.length, (int) offset);
+        return index >= 0 ? index : Math.min(-index - 1, boundaries.length - 1);
+    }
+
+    private static <T> T getTask(Future<T> task, List<? extends Future<?>> allTasks) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(allTasks);
+            throw new IllegalStateException("interrupted while decoding raw block", e);
+        } catch (ExecutionException e) {
+            cancelAll(allTasks);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Finds the offsets at which each transaction in a serialized block starts, followed by the offset at which the
+     * last one ends, and the offsets at which the witnesses of those with segregated witness data start, by skipping
+     * over each transaction's fields without parsing them.
+     */
+    static TransactionBoundaries findTransactionBoundaries(byte[] raw, int numBytes) {
+        VarInt varNumTransactions = readVarInt(raw, HEADER_BYTES, numBytes);
+        long numTransactions = varNumTransactions.value;
+        long cursor = HEADER_BYTES + varNumTransactions.getOriginalSizeInBytes();
+        if (numTransactions < 1 || numTransactions > numBytes - cursor) {
+            throw new IllegalStateException(String.format("raw block has invalid number of transactions %s",
+                    numTransactions));
+        }
+        TransactionBoundaries boundaries = new TransactionBoundaries((int) numTransactions);
+        for (int c = 0; c < numTransactions; c++) {
+            boundaries.starts[c] = (int) cursor;
+            cursor = skipTransaction(raw, cursor, numBytes, boundaries, c);
+        }
+        if (cursor != numBytes) {
+            throw new IllegalStateException(String.format("raw block has %s bytes after its last transaction",
+                    numBytes - cursor));
+        }
+        boundaries.starts[(int) numTransactions] = numBytes;
+        return boundaries;
+    }
+
+    private static long skipTransaction(byte[] raw, long offset, int numBytes, TransactionBoundaries boundaries,
+            int index) {
+        long cursor = skip(offset, VERSION_BYTES, numBytes);
+
+        // an empty input list is the marker of the segregated witness serialization format, followed by its flag
+        skip(cursor, 1, numBytes);
+        boolean hasWitness = raw[(int) cursor] == 0;
+        if (hasWitness) {
+            skip(cursor, MARKER_FLAG_BYTES, numBytes);
+            if (raw[(int) cursor + 1] != WITNESS_FLAG) {
+                throw new IllegalStateException(String.format("raw block has a transaction with unknown flag %s",
+                        raw[(int) cursor + 1]));
+            }
+            cursor += MARKER_FLAG_BYTES;
+        }
+        VarInt numInputs = readVarInt(raw, cursor, numBytes);
+        cursor = skip(cursor, numInputs.getOriginalSizeInBytes(), numBytes);
+        for (long c = 0; c < numInputs.value; c++) {
+            cursor = skip(cursor, OUTPOINT_BYTES, numBytes);
+            cursor = skipScript(raw, cursor, numBytes);
+            cursor = skip(cursor, SEQUENCE_BYTES, numBytes);
+        }
+        VarInt numOutputs = readVarInt(raw, cursor, numBytes);
+        cursor = skip(cursor, numOutputs.getOriginalSizeInBytes(), numBytes);
+        for (long c = 0; c < numOutputs.value; c++) {
+            cursor = skip(cursor, VALUE_BYTES, numBytes);
+            cursor = skipScript(raw, cursor, numBytes);
+        }
+        boundaries.witnessStarts[index] = hasWitness ? (int) cursor : -1;
+        if (hasWitness) {
+            cursor = skipWitnesses(raw, cursor, numBytes, numInputs.value);
+        }
+        return skip(cursor, LOCK_TIME_BYTES, numBytes);
+    }
+
+    /**
+     * Skips the witness of each input, a list of items that are each prefixed with their length like scripts.
+     */
+    private static long skipWitnesses(byte[] raw, long offset, int numBytes, long numInputs) {
+        long cursor = offset;
+        for (long c = 0; c < numInputs; c++) {
+            VarInt numItems = readVarInt(raw, cursor, numBytes);
+            cursor = skip(cursor, numItems.getOriginalSizeInBytes(), numBytes);
+            for (long i = 0; i < numItems.value; i++) {
+                cursor = skipScript(raw, cursor, numBytes);
+            }
+        }
+        return cursor;
+    }
+
+    private static long skipScript(byte[] raw, long offset, int numBytes) {
+        VarInt scriptBytes = readVarInt(raw, offset, numBytes);
+        return skip(skip(offset, scriptBytes.getOriginalSizeInBytes(), numBytes), scriptBytes.value, numBytes);
+    }
+
+    private static long skip(long offset, long skipBytes, int numBytes) {
+        // lengths read from a malformed block may be negative or huge, so check them before trusting them
+        if (skipBytes < 0 || skipBytes > numBytes - offset) {
+            throw new IllegalStateException(String.format("raw block is truncated at byte %s of %s", offset,
+                    numBytes));
+        }
+        return offset + skipBytes;
+    }
+
+    private static VarInt readVarInt(byte[] raw, long offset, int numBytes) {
+        skip(offset, 1, numBytes);
+        int prefix = raw[(int) offset] & 0xff;
+        int varIntBytes = prefix < VAR_INT_16_PREFIX ? 1 : prefix == VAR_INT_16_PREFIX ? 3
+                : prefix == VAR_INT_32_PREFIX ? 5 : 9;
+        skip(offset, varIntBytes, numBytes);
+        VarInt varInt = new VarInt(raw, (int) offset);
+        if (varInt.value < 0) {
+            throw new IllegalStateException(String.format("raw block has invalid count at byte %s", offset));
+        }
+        return varInt;
+    }
+
+    private static void checkHeaderHash(Sha256Hash headerHash, byte[] raw, int numBytes) {
+        skip(0, HEADER_BYTES, numBytes);
+        Sha256Hash rawHeaderHash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(raw, 0, HEADER_BYTES));
+        if (!rawHeaderHash.equals(headerHash)) {
+            throw new IllegalStateException(String.format("raw block has header hash %s instead of %s", rawHeaderHash,
+                    headerHash));
+        }
+    }
+
+    private static void decodeHex(String hex, byte[] buffer) {
+        for (int c = 0; c < hex.length(); c += 2) {
+            buffer[c / 2] = (byte) (getHexDigitValue(hex, c) << 4 | getHexDigitValue(hex, c + 1));
+        }
+    }
+
+    private static int getHexDigitValue(String hex, int index) {
+        char digit = hex.charAt(index);
+        int value = digit < HEX_DIGIT_VALUES.length ? HEX_DIGIT_VALUES[digit] : -1;
+        if (value < 0) {
+            throw new IllegalStateException(String.format("raw block has invalid hex digit '%s' at %s", digit,
+                    index));
+        }
+        return value;
+    }
+
+    private static int[] createHexDigitValues() {
+        int[] values = new int['f' + 1];
+        Arrays.fill(values, -1);
+        for (int c = 0; c < 10; c++) {
+            values['0' + c] = c;
+        }
+        for (int c = 0; c < 6; c++) {
+            values['a' + c] = 10 + c;
+            values['A' + c] = 10 + c;
+        }
+        return values;
+    }
+
+    /**
+     * The offsets at which each transaction in a serialized block starts, followed by the offset at which the last one
+     * ends, and the offset at which each transaction's witnesses start, or -1 if it has no segregated witness data.
+     */
+    static final class TransactionBoundaries {
+
+        private final int[] starts;
+        private final int[] witnessStarts;
+
+        private TransactionBoundaries(int numTransactions) {
+            this.starts = new int[numTransactions + 1];
+            this.witnessStarts = new int[numTransactions];
+        }
+
+        int[] getStarts() {
+            return starts;
+        }
+
+        int[] getWitnessStarts() {
+            return witnessStarts;
+        }
+    }
+}
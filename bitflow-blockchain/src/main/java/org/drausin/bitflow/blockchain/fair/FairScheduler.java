@@ -0,0 +1,350 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fair;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.ws.rs.ClientErrorException;
+import org.drausin.bitflow.blockchain.config.ClientConfig;
+import org.drausin.bitflow.blockchain.config.FairnessConfig;
+
+/**
+ * Schedules blockchain requests onto an executor so that each client, identified by the Authorization header it sends,
+ * gets its fair share of request handling. A client that keeps many requests waiting, like a bulk backfill, then
+ * can't hold up the occasional requests of an interactive one.
+ *
+ * <p>Each client's requests are first rate limited by a token bucket, and those over the limit are rejected as too
+ * many requests. Accepted requests wait in a queue per client, and whenever fewer than the max number of requests are
+ * running, the waiting request with the earliest virtual finish time runs next. Each request finishes {@code 1 /
+ * weight} after the later of the client's previous request and the current virtual time, so while several clients
+ * have requests waiting, each gets a share of the running requests in proportion to its weight.
+ *
+ * <p>Clients that aren't configured also get their own bucket and queue, but are only kept for a while after their
+ * last request, and only up to a max number of them, so that arbitrary headers can't grow the scheduler's state
+ * without bound. Only configured clients get their own metrics, named after them. All other clients share a single set
+ * named {@value #UNCONFIGURED}.
+ *
+ * @author dwulsin
+ */
+public final class FairScheduler {
+
+    public static final String UNCONFIGURED = "unconfigured";
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final FairnessConfig config;
+    private final Map<String, Client> configuredClients;
+    private final Map<String, ClientMetrics> clientMetrics;
+    private final ClientMetrics unconfiguredMetrics;
+    private final Cache<String, Client> unconfiguredClients;
+    private final Set<Client> waitingClients = new LinkedHashSet<>();
+    private final int maxRunning;
+    private final int maxQueued;
+    private final Executor executor;
+    private final Ticker ticker;
+    private int running;
+    private int queued;
+    private double virtualTime;
+
+    public FairScheduler(FairnessConfig config, int maxRunning, int maxQueued, Executor executor) {
+        this(config, maxRunning, maxQueued, executor, Ticker.systemTicker());
+    }
+
+    public FairScheduler(FairnessConfig config, int maxRunning, int maxQueued, Executor executor, Ticker ticker) {
+        this.config = config;
+        ImmutableMap.Builder<String, Client> configuredClientsBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, ClientMetrics> clientMetricsBuilder = ImmutableMap.builder();
+        for (ClientConfig clientConfig : config.getClients()) {
+            ClientMetrics metrics = new ClientMetrics(clientConfig.getName());
+            configuredClientsBuilder.put(clientConfig.getAuthHeader(), new Client(metrics, clientConfig.getWeight(),
+                    clientConfig.getRate(), clientConfig.getBurst(), ticker.read()));
+            clientMetricsBuilder.put(metrics.name, metrics);
+        }
+        this.unconfiguredMetrics = new ClientMetrics(UNCONFIGURED);
+        this.configuredClients = configuredClientsBuilder.build();
+        this.clientMetrics = clientMetricsBuilder.put(UNCONFIGURED, unconfiguredMetrics).build();
+        this.unconfiguredClients = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxUnconfiguredClients())
+                .expireAfterAccess(config.getUnconfiguredClientIdleTime().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        this.maxRunning = maxRunning;
+        this.maxQueued = maxQueued;
+        this.executor = executor;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Gets an executor of the requests of the client with the given Authorization header.
+     */
+    public Executor executorFor(@Nullable String authHeader) {
+        return request -> execute(authHeader, request);
+    }
+
+    /**
+     * Queues the request of the client with the given Authorization header to run in its turn.
+     *
+     * @throws ClientErrorException with status 429 if the client is over its rate limit
+     * @throws RejectedExecutionException if too many requests from the client, or in all, are already waiting
+     */
+    public synchronized void execute(@Nullable String authHeader, Runnable request) {
+        Client client = getClient(authHeader);
+        if (queued >= maxQueued || client.queue.size() >= config.getMaxQueuedPerClient()) {
+            client.metrics.rejected.mark();
+            throw new RejectedExecutionException(String.format("too many blockchain requests from client %s waiting",
+                    client.metrics.name));
+        }
+        long nowNanos = ticker.read();
+        if (!client.tryAcquire(nowNanos)) {
+            client.metrics.rateLimited.mark();
+            throw new ClientErrorException(String.format("client %s is over its rate limit of %s requests per second",
+                    client.metrics.name, client.rate), TOO_MANY_REQUESTS);
+        }
+        client.metrics.requests.mark();
+        client.finishTime = Math.max(virtualTime, client.finishTime) + 1.0 / client.weight;
+        enqueue(client, new Request(request, client.finishTime, nowNanos), false);
+        dispatch();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Gets the number of clients that aren't configured currently kept, each with its own bucket and queue.
+     */
+    public synchronized long getUnconfiguredClients() {
+        unconfiguredClients.cleanUp();
+        return unconfiguredClients.size();
+    }
+
+    /**
+     * Gets the name of the client with the given Authorization header, as used in its metrics.
+     */
+    public synchronized String getClientName(@Nullable String authHeader) {
+        Client client = configuredClients.get(Strings.nullToEmpty(authHeader));
+        return client == null ? UNCONFIGURED : client.metrics.name;
+    }
+
+    /**
+     * Gets the meter of the client's requests accepted to run.
+     */
+    public Meter getRequests(String clientName) {
+        return clientMetrics.get(clientName).requests;
+    }
+
+    /**
+     * Gets the timer of how long the client's requests waited to run.
+     */
+    public Timer getQueueDelay(String clientName) {
+        return clientMetrics.get(clientName).queueDelay;
+    }
+
+    public Meter getRateLimited(String clientName) {
+        return clientMetrics.get(clientName).rateLimited;
+    }
+
+    public Meter getRejected(String clientName) {
+        return clientMetrics.get(clientName).rejected;
+    }
+
+    /**
+     * Registers gauges for the requests running and waiting and the clients that aren't configured kept, along with
+     * metrics of the requests and queueing delay of each configured client and of all others together.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        registry.register(MetricRegistry.name(FairScheduler.class, "running"), (Gauge<Integer>) this::getRunning);
+        registry.register(MetricRegistry.name(FairScheduler.class, "queued"), (Gauge<Integer>) this::getQueued);
+        registry.register(MetricRegistry.name(FairScheduler.class, UNCONFIGURED, "clients"),
+                (Gauge<Long>) this::getUnconfiguredClients);
+        for (ClientMetrics metrics : clientMetrics.values()) {
+            registerClientMetrics(registry, metrics);
+        }
+    }
+
+    /**
+     * Runs the waiting requests with the earliest virtual finish times while there's room for them.
+     */
+    private void dispatch() {
+        while (running < maxRunning && queued > 0) {
+            Client next = null;
+            for (Client client : waitingClients) {
+                if (next == null || client.queue.peek().finishTime < next.queue.peek().finishTime) {
+                    next = client;
+                }
+            }
+            Client client = next;
+            Request request = dequeue(client);
+            running++;
+            virtualTime = request.finishTime;
+            try {
+                executor.execute(() -> run(client, request));
+            } catch (RejectedExecutionException e) {
+                // leave the request waiting until a running one finishes
+                enqueue(client, request, true);
+                running--;
+                return;
+            }
+        }
+    }
+
+    private void enqueue(Client client, Request request, boolean first) {
+        if (first) {
+            client.queue.addFirst(request);
+        } else {
+            client.queue.addLast(request);
+        }
+        // the client waits here even if it's no longer kept, so that its requests still run
+        waitingClients.add(client);
+        client.metrics.queued++;
+        queued++;
+    }
+
+    private Request dequeue(Client client) {
+        client.metrics.queued--;
+        queued--;
+        Request request = client.queue.poll();
+        if (client.queue.isEmpty()) {
+            waitingClients.remove(client);
+        }
+        return request;
+    }
+
+    private void run(Client client, Request request) {
+        client.metrics.queueDelay.update(ticker.read() - request.queuedNanos, TimeUnit.NANOSECONDS);
+        try {
+            request.runnable.run();
+        } finally {
+            finished();
+        }
+    }
+
+    private synchronized void finished() {
+        running--;
+        dispatch();
+    }
+
+    private Client getClient(@Nullable String authHeader) {
+        String key = Strings.nullToEmpty(authHeader);
+        Client client = configuredClients.get(key);
+        if (client == null) {
+            client = unconfiguredClients.getIfPresent(key);
+        }
+        if (client == null) {
+            client = new Client(unconfiguredMetrics, ClientConfig.DEFAULT_WEIGHT, config.getRate(), config.getBurst(),
+                    ticker.read());
+            unconfiguredClients.put(key, client);
+        }
+        return client;
+    }
+
+    private void registerClientMetrics(MetricRegistry registry, ClientMetrics metrics) {
+        registry.register(MetricRegistry.name(FairScheduler.class, metrics.name, "requests"), metrics.requests);
+        registry.register(MetricRegistry.name(FairScheduler.class, metrics.name, "queueDelay"), metrics.queueDelay);
+        registry.register(MetricRegistry.name(FairScheduler.class, metrics.name, "rateLimited"), metrics.rateLimited);
+        registry.register(MetricRegistry.name(FairScheduler.class, metrics.name, "rejected"), metrics.rejected);
+        registry.register(MetricRegistry.name(FairScheduler.class, metrics.name, "queued"),
+                (Gauge<Integer>) () -> {
+                    synchronized (this) {
+                        return metrics.queued;
+                    }
+                });
+    }
+
+    private static final class Request {
+
+        private final Runnable runnable;
+        private final double finishTime;
+        private final long queuedNanos;
+
+        private Request(Runnable runnable, double finishTime, long queuedNanos) {
+            this.runnable = runnable;
+            this.finishTime = finishTime;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    /**
+     * Metrics of the requests of a configured client, or of all the clients that aren't configured.
+     */
+    private static final class ClientMetrics {
+
+        private final String name;
+        private final Meter requests = new Meter();
+        private final Timer queueDelay = new Timer();
+        private final Meter rateLimited = new Meter();
+        private final Meter rejected = new Meter();
+        private int queued;
+
+        private ClientMetrics(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Client {
+
+        private final ClientMetrics metrics;
+        private final int weight;
+        private final double rate;
+        private final int burst;
+        private final Deque<Request> queue = new ArrayDeque<>();
+        private double finishTime;
+        private double tokens;
+        private long refilledNanos;
+
+        private Client(ClientMetrics metrics, int weight, double rate, int burst, long nowNanos) {
+            this.metrics = metrics;
+            this.weight = weight;
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilledNanos = nowNanos;
+        }
+
+        /**
+         * Takes a token from the client's bucket, after refilling it at the client's rate since it was last refilled,
+         * if there is one.
+         */
+        private boolean tryAcquire(long nowNanos) {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+            refilledNanos = nowNanos;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
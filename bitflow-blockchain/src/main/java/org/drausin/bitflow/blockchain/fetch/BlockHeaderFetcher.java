@@ -0,0 +1,918 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.CheckForNull;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookupResult;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.cache.BlockHeaderCache;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.index.BlockHashIndex;
+import org.drausin.bitflow.blockchain.store.HeaderCodec;
+import org.drausin.bitflow.blockchain.store.HeaderStore;
+
+/**
+ * Fetches block headers and block header hashes from the bitcoin node, in JSON-RPC batches and concurrent height
+ * partitions, after first reading them from whichever of the local index, cache, and store it's built with.
+ *
+ * @author dwulsin
+ */
+public final class BlockHeaderFetcher {
+
+    private final BitcoinNodeService bitcoinNodeService;
+    private final int batchSize;
+    private final int partitionSize;
+    private final int windowSize;
+    private final int maxReorgRepairs;
+    private final ExecutorService executor;
+    private final BlockHashIndex blockHashIndex;
+    private final Optional<BlockHeaderCache> blockHeaderCache;
+    private final Optional<HeaderStore> headerStore;
+    private final Optional<BitcoinNodeRestService> bitcoinNodeRestService;
+    private final int restHeadersPerCall;
+
+    private BlockHeaderFetcher(Builder builder) {
+        this.bitcoinNodeService = builder.bitcoinNodeService;
+        this.batchSize = builder.config.getBatchSize();
+        this.partitionSize = builder.config.getPartitionSize();
+        this.windowSize = builder.config.getPartitionSize() * builder.config.getParallelism();
+        this.maxReorgRepairs = builder.config.getMaxReorgRepairs();
+        this.executor = builder.executor;
+        this.blockHashIndex = builder.blockHashIndex;
+        this.blockHeaderCache = builder.blockHeaderCache;
+        this.headerStore = builder.headerStore;
+        this.bitcoinNodeRestService = builder.bitcoinNodeRestService;
+        this.restHeadersPerCall = builder.config.getRestHeadersPerCall();
+    }
+
+    /**
+     * Starts building a fetcher that makes all of its RPC calls on the calling thread and reads from nothing local.
+     */
+    public static Builder builder(BitcoinNodeService bitcoinNodeService, FetchConfig config) {
+        return new Builder(bitcoinNodeService, config);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isBatched() {
+        return batchSize > 1;
+    }
+
+    /**
+     * Gets the block header for a given block hash.
+     */
+    public BlockHeader getBlockHeader(Sha256Hash hash) {
+        if (blockHeaderCache.isPresent()) {
+            Optional<BlockHeader> cachedHeader = blockHeaderCache.get().get(hash);
+            if (cachedHeader.isPresent()) {
+                return cachedHeader.get();
+            }
+        }
+        BlockHeaderResponse response = bitcoinNodeService.getBlockHeader(
+                BitcoinNodeRequestFactory.createBlockHeaderRequest(hash));
+        response.validateResult();
+        BlockHeader header = response.getResult().get();
+        if (blockHeaderCache.isPresent()) {
+            blockHeaderCache.get().put(header);
+        }
+        return header;
+    }
+
+    /**
+     * Gets the block header for a given block hash, with or without its transaction IDs.
+     */
+    public BlockHeader getBlockHeader(Sha256Hash hash, boolean transactionIds) {
+        if (transactionIds) {
+            return getBlockHeader(hash);
+        }
+        Optional<BlockHeader> localHeader = getLocalBlockHeader(hash, false);
+        if (localHeader.isPresent()) {
+            return localHeader.get();
+        }
+        BlockHeaderResponse response = bitcoinNodeService.getBlockHeaderOnly(
+                BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(hash));
+        response.validateResult();
+        BlockHeader header = response.getResult().get();
+        if (blockHeaderCache.isPresent()) {
+            blockHeaderCache.get().putHeaderOnly(header);
+        }
+        return header;
+    }
+
+    /**
+     * Gets the block header hash for the block at a given height.
+     */
+    public Sha256Hash getBlockHeaderHash(long height) {
+        Optional<Sha256Hash> indexedHash = blockHashIndex.getHash(height);
+        if (indexedHash.isPresent()) {
+            return indexedHash.get();
+        }
+        return fetchBlockHeaderHash(height);
+    }
+
+    private Sha256Hash fetchBlockHeaderHash(long height) {
+        BlockHeaderHashResponse response = bitcoinNodeService.getBlockHeaderHash(
+                BitcoinNodeRequestFactory.createBlockHeaderHashRequest(height));
+        response.validateResult();
+        return response.getResult().get();
+    }
+
+    /**
+     * Gets the block header hashes for every block in a height range.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     * @return the block header hashes, in height order
+     */
+    public List<Sha256Hash> getBlockHeaderHashes(long fromHeight, long toHeight) {
+        Preconditions.checkArgument(fromHeight <= toHeight, "fromHeight %s must not be greater than toHeight %s",
+                fromHeight, toHeight);
+        Optional<List<Sha256Hash>> indexedHashes = blockHashIndex.getHashes(fromHeight, toHeight);
+        if (indexedHashes.isPresent()) {
+            return indexedHashes.get();
+        }
+        return fetchBlockHeaderHashes(fromHeight, toHeight);
+    }
+
+    private List<Sha256Hash> fetchBlockHeaderHashes(long fromHeight, long toHeight) {
+        List<Sha256Hash> hashes = Lists.newArrayListWithCapacity((int) (toHeight - fromHeight + 1));
+        if (!isBatched()) {
+            for (long height = fromHeight; height <= toHeight; height++) {
+                hashes.add(fetchBlockHeaderHash(height));
+            }
+            return ImmutableList.copyOf(hashes);
+        }
+        for (long batchFrom = fromHeight; batchFrom <= toHeight; batchFrom += batchSize) {
+            long batchTo = Math.min(batchFrom + batchSize - 1, toHeight);
+            List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderHashRequests(batchFrom,
+                    batchTo);
+            hashes.addAll(getResults(requests, bitcoinNodeService.getBlockHeaderHashes(requests)));
+        }
+        return ImmutableList.copyOf(hashes);
+    }
+
+    /**
+     * Gets the block headers for a list of block hashes.
+     *
+     * @param hashes the hashes of the blocks
+     * @return the block headers, in the same order as the given hashes
+     */
+    public List<BlockHeader> getBlockHeaders(List<Sha256Hash> hashes) {
+        List<BlockHeader> headers = Lists.newArrayListWithCapacity(hashes.size());
+        if (!isBatched()) {
+            for (Sha256Hash hash : hashes) {
+                headers.add(getBlockHeader(hash));
+            }
+            return ImmutableList.copyOf(headers);
+        }
+
+        // only fetch the headers not already cached, filling in their slots once fetched
+        List<Integer> missIndices = Lists.newArrayList();
+        List<Sha256Hash> missHashes = Lists.newArrayList();
+        for (int c = 0; c < hashes.size(); c++) {
+            Optional<BlockHeader> cachedHeader = blockHeaderCache.isPresent()
+                    ? blockHeaderCache.get().get(hashes.get(c)) : Optional.absent();
+            headers.add(cachedHeader.orNull());
+            if (!cachedHeader.isPresent()) {
+                missIndices.add(c);
+                missHashes.add(hashes.get(c));
+            }
+        }
+        List<BlockHeader> missHeaders = fetchBlockHeaders(missHashes);
+        for (int c = 0; c < missIndices.size(); c++) {
+            headers.set(missIndices.get(c), missHeaders.get(c));
+            if (blockHeaderCache.isPresent()) {
+                blockHeaderCache.get().put(missHeaders.get(c));
+            }
+        }
+        return ImmutableList.copyOf(headers);
+    }
+
+    private List<BlockHeader> fetchBlockHeaders(List<Sha256Hash> hashes) {
+        ImmutableList.Builder<BlockHeader> headers = ImmutableList.builder();
+        if (!isBatched()) {
+            for (Sha256Hash hash : hashes) {
+                BlockHeaderResponse response = bitcoinNodeService.getBlockHeader(
+                        BitcoinNodeRequestFactory.createBlockHeaderRequest(hash));
+                response.validateResult();
+                headers.add(response.getResult().get());
+            }
+            return headers.build();
+        }
+        for (List<Sha256Hash> batch : Lists.partition(hashes, batchSize)) {
+            List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderRequests(batch);
+            headers.addAll(getResults(requests, bitcoinNodeService.getBlockHeaders(requests)));
+        }
+        return headers.build();
+    }
+
+    /**
+     * Gets only the block headers, without their transaction IDs, for a list of block hashes. Those in the store or
+     * cache are read from there, and the rest are fetched and then cached.
+     *
+     * @param hashes the hashes of the blocks
+     * @return the block headers, in the same order as the given hashes
+     */
+    public List<BlockHeader> getBlockHeadersOnly(List<Sha256Hash> hashes) {
+        if (!headerStore.isPresent() && !blockHeaderCache.isPresent()) {
+            return fetchBlockHeadersOnly(hashes);
+        }
+
+        // only fetch the headers not in the store or cache, filling in their slots once fetched
+        List<BlockHeader> headers = Lists.newArrayListWithCapacity(hashes.size());
+        List<Integer> missIndices = Lists.newArrayList();
+        List<Sha256Hash> missHashes = Lists.newArrayList();
+        for (int c = 0; c < hashes.size(); c++) {
+            Optional<BlockHeader> localHeader = getLocalBlockHeader(hashes.get(c), false);
+            headers.add(localHeader.orNull());
+            if (!localHeader.isPresent()) {
+                missIndices.add(c);
+                missHashes.add(hashes.get(c));
+            }
+        }
+        if (!missHashes.isEmpty()) {
+            List<BlockHeader> missHeaders = fetchBlockHeadersOnly(missHashes);
+            for (int c = 0; c < missIndices.size(); c++) {
+                headers.set(missIndices.get(c), missHeaders.get(c));
+                if (blockHeaderCache.isPresent()) {
+                    blockHeaderCache.get().putHeaderOnly(missHeaders.get(c));
+                }
+            }
+        }
+        return ImmutableList.copyOf(headers);
+    }
+
+    /**
+     * Gets only the block headers, without their transaction IDs, of the blocks in a height range of the best chain.
+     * If given the bitcoin node's REST interface, the range is read from it in calls of many raw block headers each;
+     * otherwise, the block header hashes and then the block headers are fetched as in
+     * {@link #getBlockHeadersOnly(List)}.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     * @return the block headers, in height order
+     * @throws IllegalStateException if the best chain changed while reading the range from the REST interface
+     */
+    public List<BlockHeader> getBlockHeadersOnly(long fromHeight, long toHeight) {
+        Preconditions.checkArgument(fromHeight <= toHeight, "fromHeight %s must not be greater than toHeight %s",
+                fromHeight, toHeight);
+        if (!bitcoinNodeRestService.isPresent()) {
+            return getBlockHeadersOnly(getBlockHeaderHashes(fromHeight, toHeight));
+        }
+        List<BlockHeader> headers = readBlockHeadersOnly(getBlockHeaderHash(fromHeight), toHeight - fromHeight + 1);
+        if (headers.size() < toHeight - fromHeight + 1) {
+            throw new IllegalStateException(String.format(
+                    "subchain changed during call: best chain ends at height %s before height %s",
+                    headers.get(headers.size() - 1).getHeight(), toHeight));
+        }
+        return headers;
+    }
+
+    private List<BlockHeader> fetchBlockHeadersOnly(List<Sha256Hash> hashes) {
+        ImmutableList.Builder<BlockHeader> headers = ImmutableList.builder();
+        if (!isBatched()) {
+            for (Sha256Hash hash : hashes) {
+                BlockHeaderResponse response = bitcoinNodeService.getBlockHeaderOnly(
+                        BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(hash));
+                response.validateResult();
+                headers.add(response.getResult().get());
+            }
+            return headers.build();
+        }
+        for (List<Sha256Hash> batch : Lists.partition(hashes, batchSize)) {
+            List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderOnlyRequests(batch);
+            headers.addAll(getResults(requests, bitcoinNodeService.getBlockHeadersOnly(requests)));
+        }
+        return headers.build();
+    }
+
+    /**
+     * Gets the block headers for a list of lookups by block hash or block height, with or without their transaction
+     * IDs. Heights are resolved to block header hashes from the index where it covers them, and block headers are read
+     * from the cache or store before fetching the rest. Each distinct height and hash is fetched at most once, in
+     * batches fetched concurrently on the executor. A lookup whose hash or block header couldn't be fetched, e.g.
+     * because the bitcoin node doesn't know the hash or the height is beyond its tip, gets an error result without
+     * failing the other lookups.
+     *
+     * @param lookups the lookups by block hash or block height
+     * @param transactionIds whether to get the transaction IDs of each block
+     * @return the result of each lookup, in the same order as the lookups
+     */
+    public List<BlockHeaderLookupResult> lookUpBlockHeaders(List<BlockHeaderLookup> lookups, boolean transactionIds) {
+        Map<Long, Sha256Hash> hashesByHeight = Maps.newConcurrentMap();
+        Map<Long, String> heightErrors = Maps.newConcurrentMap();
+        resolveBlockHeaderHashes(lookups, hashesByHeight, heightErrors);
+        Map<Sha256Hash, BlockHeader> headersByHash = Maps.newConcurrentMap();
+        Map<Sha256Hash, String> hashErrors = Maps.newConcurrentMap();
+        resolveBlockHeaders(lookups, hashesByHeight, transactionIds, headersByHash, hashErrors);
+
+        ImmutableList.Builder<BlockHeaderLookupResult> results = ImmutableList.builder();
+        for (BlockHeaderLookup lookup : lookups) {
+            Sha256Hash hash = getLookupHash(lookup, hashesByHeight);
+            if (hash == null) {
+                results.add(BlockHeaderLookupResult.ofError(String.format("unable to get header hash at height %s: %s",
+                        lookup.getHeight().get(), heightErrors.get(lookup.getHeight().get()))));
+            } else if (headersByHash.containsKey(hash)) {
+                results.add(BlockHeaderLookupResult.of(headersByHash.get(hash)));
+            } else {
+                results.add(BlockHeaderLookupResult.ofError(String.format("unable to get block header %s: %s",
+                        hash.toString(), hashErrors.get(hash))));
+            }
+        }
+        return results.build();
+    }
+
+    /**
+     * Resolves the heights looked up to block header hashes, fetching those not in the index.
+     */
+    private void resolveBlockHeaderHashes(List<BlockHeaderLookup> lookups, Map<Long, Sha256Hash> hashesByHeight,
+            Map<Long, String> heightErrors) {
+        Set<Long> missHeights = Sets.newLinkedHashSet();
+        for (BlockHeaderLookup lookup : lookups) {
+            if (lookup.getHeight().isPresent()) {
+                Optional<Sha256Hash> indexedHash = blockHashIndex.getHash(lookup.getHeight().get());
+                if (indexedHash.isPresent()) {
+                    hashesByHeight.put(lookup.getHeight().get(), indexedHash.get());
+                } else {
+                    missHeights.add(lookup.getHeight().get());
+                }
+            }
+        }
+        fetchEach(ImmutableList.copyOf(missHeights),
+                height -> BitcoinNodeRequestFactory.createBlockHeaderHashRequest(height, Long.toString(height)),
+                bitcoinNodeService::getBlockHeaderHash, bitcoinNodeService::getBlockHeaderHashes, hashesByHeight,
+                heightErrors);
+    }
+
+    /**
+     * Gets the block headers for the hashes looked up or resolved from heights, fetching those not in the cache or
+     * store.
+     */
+    private void resolveBlockHeaders(List<BlockHeaderLookup> lookups, Map<Long, Sha256Hash> hashesByHeight,
+            boolean transactionIds, Map<Sha256Hash, BlockHeader> headersByHash, Map<Sha256Hash, String> hashErrors) {
+        Set<Sha256Hash> missHashes = Sets.newLinkedHashSet();
+        for (BlockHeaderLookup lookup : lookups) {
+            Sha256Hash hash = getLookupHash(lookup, hashesByHeight);
+            if (hash != null && !headersByHash.containsKey(hash)) {
+                Optional<BlockHeader> localHeader = getLocalBlockHeader(hash, transactionIds);
+                if (localHeader.isPresent()) {
+                    headersByHash.put(hash, localHeader.get());
+                } else {
+                    missHashes.add(hash);
+                }
+            }
+        }
+        if (!transactionIds) {
+            fetchEach(ImmutableList.copyOf(missHashes),
+                    hash -> BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(hash, hash.toString()),
+                    bitcoinNodeService::getBlockHeaderOnly, bitcoinNodeService::getBlockHeadersOnly, headersByHash,
+                    hashErrors);
+        } else {
+            fetchEach(ImmutableList.copyOf(missHashes),
+                    hash -> BitcoinNodeRequestFactory.createBlockHeaderRequest(hash, hash.toString()),
+                    bitcoinNodeService::getBlockHeader, bitcoinNodeService::getBlockHeaders, headersByHash,
+                    hashErrors);
+        }
+        if (blockHeaderCache.isPresent()) {
+            missHashes.stream().filter(headersByHash::containsKey).map(headersByHash::get).forEach(header -> {
+                if (transactionIds) {
+                    blockHeaderCache.get().put(header);
+                } else {
+                    blockHeaderCache.get().putHeaderOnly(header);
+                }
+            });
+        }
+    }
+
+    @CheckForNull
+    private static Sha256Hash getLookupHash(BlockHeaderLookup lookup, Map<Long, Sha256Hash> hashesByHeight) {
+        return lookup.getHash().isPresent() ? lookup.getHash().get() : hashesByHeight.get(lookup.getHeight().get());
+    }
+
+    private Optional<BlockHeader> getLocalBlockHeader(Sha256Hash hash, boolean transactionIds) {
+        if (transactionIds) {
+            return blockHeaderCache.isPresent() ? blockHeaderCache.get().get(hash) : Optional.absent();
+        }
+        Optional<BlockHeader> storedHeader = headerStore.isPresent() ? headerStore.get().getBlockHeader(hash)
+                : Optional.absent();
+        if (storedHeader.isPresent() || !blockHeaderCache.isPresent()) {
+            return storedHeader;
+        }
+        return blockHeaderCache.get().getHeaderOnly(hash);
+    }
+
+    /**
+     * Fetches the result of an RPC for each key, in batches fetched concurrently on the executor when batched and one
+     * at a time otherwise. Each result is put in the results and each RPC that failed, either on its own or with the
+     * rest of its batch, has its error message put in the errors instead.
+     *
+     * @param keys the distinct keys, each of which is also the RPC ID of its request
+     */
+    private <K, T> void fetchEach(List<K> keys, Function<K, BitcoinNodeRequest> requestFactory,
+            Function<BitcoinNodeRequest, ? extends BitcoinNodeResponse<T>> rpc,
+            Function<List<BitcoinNodeRequest>, ? extends List<? extends BitcoinNodeResponse<T>>> batchRpc,
+            Map<K, T> results, Map<K, String> errors) {
+        if (!isBatched()) {
+            for (K key : keys) {
+                try {
+                    putResult(key, rpc.apply(requestFactory.apply(key)), results, errors);
+                } catch (RuntimeException e) {
+                    errors.put(key, String.valueOf(e.getMessage()));
+                }
+            }
+            return;
+        }
+        List<Future<?>> batches = Lists.newArrayList();
+        for (List<K> batch : Lists.partition(keys, batchSize)) {
+            batches.add(executor.submit(() -> fetchBatch(batch, requestFactory, batchRpc, results, errors)));
+        }
+        for (Future<?> batch : batches) {
+            getPartition(batch, batches);
+        }
+    }
+
+    private static <K, T> void fetchBatch(List<K> batch, Function<K, BitcoinNodeRequest> requestFactory,
+            Function<List<BitcoinNodeRequest>, ? extends List<? extends BitcoinNodeResponse<T>>> batchRpc,
+            Map<K, T> results, Map<K, String> errors) {
+        List<BitcoinNodeRequest> requests = ImmutableList.copyOf(Lists.transform(batch, requestFactory::apply));
+        try {
+            Map<String, BitcoinNodeResponse<T>> responsesById = Maps.newHashMapWithExpectedSize(batch.size());
+            for (BitcoinNodeResponse<T> response : batchRpc.apply(requests)) {
+                if (response.getId().isPresent()) {
+                    responsesById.put(response.getId().get(), response);
+                }
+            }
+            for (int c = 0; c < batch.size(); c++) {
+                BitcoinNodeResponse<T> response = responsesById.get(requests.get(c).getId().get());
+                if (response == null) {
+                    errors.put(batch.get(c), "no response for RPC with id " + requests.get(c).getId().get());
+                } else {
+                    putResult(batch.get(c), response, results, errors);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the whole batch failed, e.g. because the bitcoin node couldn't be reached
+            batch.forEach(key -> errors.put(key, String.valueOf(e.getMessage())));
+        }
+    }
+
+    private static <K, T> void putResult(K key, BitcoinNodeResponse<T> response, Map<K, T> results,
+            Map<K, String> errors) {
+        if (response.getError().isPresent()) {
+            errors.put(key, response.getError().get().getMessage());
+        } else if (response.getResult().isPresent()) {
+            results.put(key, response.getResult().get());
+        } else {
+            errors.put(key, "result value is absent");
+        }
+    }
+
+    /**
+     * Gets the subchain of block headers starting at a given block. Subchains longer than the partition size are split
+     * into height partitions that are fetched concurrently and then stitched back together in height order. When
+     * batched, all of the block header hashes in a partition are fetched first and then the block headers in batches;
+     * otherwise each block header is fetched in turn by following its next block hash.
+     *
+     * @param fromHeight the height of the first block
+     * @param fromHash the header hash of the first block
+     * @param numBlocks the number of blocks in the subchain
+     * @return the subchain of block headers, in height order
+     * @throws IllegalStateException if the best chain changed while fetching the subchain
+     */
+    public List<BlockHeader> getBlockHeaderSubchain(long fromHeight, Sha256Hash fromHash, long numBlocks) {
+        return getBlockHeaderSubchain(fromHeight, fromHash, numBlocks, true);
+    }
+
+    /**
+     * Gets the subchain of block headers starting at a given block, as in
+     * {@link #getBlockHeaderSubchain(long, Sha256Hash, long)}, with or without their transaction IDs.
+     */
+    public List<BlockHeader> getBlockHeaderSubchain(long fromHeight, Sha256Hash fromHash, long numBlocks,
+            boolean transactionIds) {
+        List<BlockHeader> subchain = fetchBlockHeaderSubchain(fromHeight, fromHash, numBlocks, transactionIds);
+        if (!subchain.get(0).getHeaderHash().equals(fromHash)) {
+            throw new IllegalStateException(String.format("'from' header hash changed from %s to %s during call",
+                    fromHash.toString(), subchain.get(0).getHeaderHash().toString()));
+        }
+        validateLinks(subchain);
+        return subchain;
+    }
+
+    /**
+     * Gets the subchain of block headers within the given bounds, pinned to the best chain the bounds were resolved
+     * from. If that chain reorganizes during the call, as found by a fetched block header that isn't followed by the
+     * next one fetched or a last block header that isn't the pinned one, the subchain is repaired by keeping the block
+     * headers below the fork and re-fetching only those above it from the new best chain, directly from the bitcoin
+     * node since the index and cache may not have caught up with the reorganization yet. The repaired subchain is
+     * checked again in the same way, up to the configured max number of repairs.
+     *
+     * @param bounds the heights and header hashes of the first and last blocks of the subchain
+     * @return the subchain of block headers, in height order; if repaired, its last block header is the one now at
+     * the 'to' height rather than the pinned one
+     * @throws IllegalStateException if the subchain is still changing after the max number of repairs
+     */
+    public List<BlockHeader> getBlockHeaderSubchain(SubchainBounds bounds) {
+        return getBlockHeaderSubchain(bounds, true);
+    }
+
+    /**
+     * Gets the subchain of block headers within the given bounds, as in
+     * {@link #getBlockHeaderSubchain(SubchainBounds)}, with or without their transaction IDs.
+     */
+    public List<BlockHeader> getBlockHeaderSubchain(SubchainBounds bounds, boolean transactionIds) {
+        return getRepairedBlockHeaderSubchain(bounds.getFromHeight(), bounds.getFromHash(), bounds.getNumBlocks(),
+                Optional.of(bounds.getToHash()), Optional.absent(), transactionIds);
+    }
+
+    private List<BlockHeader> fetchBlockHeaderSubchain(long fromHeight, Sha256Hash fromHash, long numBlocks,
+            boolean transactionIds) {
+        List<Future<List<BlockHeader>>> partitions = Lists.newArrayList();
+        for (long offset = 0; offset < numBlocks; offset += partitionSize) {
+            long partitionFrom = fromHeight + offset;
+            long partitionNumBlocks = Math.min(partitionSize, numBlocks - offset);
+            Optional<Sha256Hash> partitionFromHash = offset == 0 ? Optional.of(fromHash) : Optional.absent();
+            partitions.add(executor.submit(() -> getBlockHeaderPartition(partitionFrom, partitionFromHash,
+                    partitionNumBlocks, transactionIds)));
+        }
+
+        ImmutableList.Builder<BlockHeader> subchain = ImmutableList.builder();
+        for (Future<List<BlockHeader>> partition : partitions) {
+            subchain.addAll(getPartition(partition, partitions));
+        }
+        return subchain.build();
+    }
+
+    /**
+     * Fetches the subchain of block headers within the given bounds in consecutive windows, each of which is fetched
+     * in as many partitions as there are concurrent RPC calls, and passes each block header to the consumer in height
+     * order as soon as its window has been fetched. Only one window is held in memory at a time. Each window is
+     * repaired as in {@link #getBlockHeaderSubchain(SubchainBounds)} if the best chain reorganizes while it is being
+     * fetched, as long as the block headers already passed to the consumer are still in the best chain.
+     *
+     * @param bounds the heights and header hashes of the first and last blocks of the subchain
+     * @param consumer the consumer of each block header
+     * @return the last block header in the subchain
+     * @throws IllegalStateException if the best chain reorganized below a block header already passed to the consumer,
+     * or a window is still changing after the max number of repairs
+     */
+    public BlockHeader forEachBlockHeaderInSubchain(SubchainBounds bounds, Consumer<BlockHeader> consumer) {
+        return forEachBlockHeaderInSubchain(bounds, true, consumer);
+    }
+
+    /**
+     * Fetches the subchain of block headers within the given bounds in consecutive windows, as in
+     * {@link #forEachBlockHeaderInSubchain(SubchainBounds, Consumer)}, with or without their transaction IDs.
+     */
+    public BlockHeader forEachBlockHeaderInSubchain(SubchainBounds bounds, boolean transactionIds,
+            Consumer<BlockHeader> consumer) {
+        long numBlocks = bounds.getNumBlocks();
+        Sha256Hash windowFromHash = bounds.getFromHash();
+        BlockHeader last = null;
+        for (long offset = 0; offset < numBlocks; offset += windowSize) {
+            if (last != null) {
+                // the next window must start at the block following the last one, so the windows stay linked
+                windowFromHash = last.getNextBlockHash().orNull();
+                if (windowFromHash == null) {
+                    throw new IllegalStateException(String.format(
+                            "subchain changed during call: no next block after header hash %s at height %s",
+                            last.getHeaderHash().toString(), last.getHeight()));
+                }
+            }
+            long windowNumBlocks = Math.min(windowSize, numBlocks - offset);
+            Optional<Sha256Hash> windowToHash = offset + windowNumBlocks == numBlocks
+                    ? Optional.of(bounds.getToHash()) : Optional.absent();
+            List<BlockHeader> window = getRepairedBlockHeaderSubchain(bounds.getFromHeight() + offset,
+                    windowFromHash, windowNumBlocks, windowToHash, Optional.fromNullable(last), transactionIds);
+            window.forEach(consumer);
+            last = window.get(window.size() - 1);
+        }
+        return last;
+    }
+
+    /**
+     * Checks that each block header in a subchain is followed by its next block.
+     *
+     * @throws IllegalStateException if a block header is not followed by its next block
+     */
+    public static void validateLinks(List<BlockHeader> subchain) {
+        for (int c = 1; c < subchain.size(); c++) {
+            Sha256Hash hash = subchain.get(c).getHeaderHash();
+            Sha256Hash expectedHash = subchain.get(c - 1).getNextBlockHash().orNull();
+            if (!hash.equals(expectedHash)) {
+                throw new IllegalStateException(String.format(
+                        "subchain changed during call: expected header hash %s at height %s but found %s",
+                        expectedHash, subchain.get(c).getHeight(), hash.toString()));
+            }
+        }
+    }
+
+    /**
+     * Fetches a subchain and repairs it each time it is found to have changed during the call.
+     *
+     * @param toHash (optional) the pinned header hash of the last block
+     * @param previous (optional) the block header just below the subchain, which must still be in the best chain for
+     * the first block of the subchain to be replaced
+     * @param transactionIds whether to get the transaction IDs of each block
+     */
+    private List<BlockHeader> getRepairedBlockHeaderSubchain(long fromHeight, Sha256Hash fromHash, long numBlocks,
+            Optional<Sha256Hash> toHash, Optional<BlockHeader> previous, boolean transactionIds) {
+        List<BlockHeader> subchain = fetchBlockHeaderSubchain(fromHeight, fromHash, numBlocks, transactionIds);
+        Sha256Hash pinnedFromHash = fromHash;
+        Optional<Sha256Hash> pinnedToHash = toHash;
+        int divergence = findDivergence(subchain, pinnedFromHash, pinnedToHash);
+        for (int repairs = 0; divergence >= 0; repairs++) {
+            if (repairs == maxReorgRepairs) {
+                throw new IllegalStateException(String.format(
+                        "subchain changed during call at height %s and was still changing after %s repairs",
+                        fromHeight + divergence, repairs));
+            }
+            int fork = findLastInBestChain(subchain, divergence);
+            if (fork < 0 && previous.isPresent() && !fetchBlockHeaderHash(previous.get().getHeight())
+                    .equals(previous.get().getHeaderHash())) {
+                throw new IllegalStateException(String.format(
+                        "subchain changed during call: header hash %s at height %s is no longer in the best chain",
+                        previous.get().getHeaderHash().toString(), previous.get().getHeight()));
+            }
+
+            // re-fetch the block header at the fork too, since its next block hash now points into the new branch
+            int kept = Math.max(fork, 0);
+            List<Sha256Hash> repairedHashes = fetchBlockHeaderHashes(fromHeight + kept, fromHeight + numBlocks - 1);
+            List<BlockHeader> repaired = transactionIds ? fetchBlockHeaders(repairedHashes)
+                    : fetchBlockHeadersOnly(repairedHashes);
+            subchain = ImmutableList.<BlockHeader>builder()
+                    .addAll(subchain.subList(0, kept))
+                    .addAll(repaired)
+                    .build();
+            pinnedFromHash = subchain.get(0).getHeaderHash();
+            if (pinnedToHash.isPresent()) {
+                pinnedToHash = Optional.of(subchain.get(subchain.size() - 1).getHeaderHash());
+            }
+            divergence = findDivergence(subchain, pinnedFromHash, pinnedToHash);
+        }
+        return subchain;
+    }
+
+    /**
+     * Finds the index of the first block header at which a subchain departs from the pinned chain: 0 if it doesn't
+     * start at the pinned first block, the index of the first block header not following the one before it, or the
+     * subchain size if it doesn't end at the pinned last block. Returns -1 if it doesn't depart from the pinned chain.
+     */
+    private static int findDivergence(List<BlockHeader> subchain, Sha256Hash fromHash, Optional<Sha256Hash> toHash) {
+        if (!subchain.get(0).getHeaderHash().equals(fromHash)) {
+            return 0;
+        }
+        for (int c = 1; c < subchain.size(); c++) {
+            if (!subchain.get(c).getHeaderHash().equals(subchain.get(c - 1).getNextBlockHash().orNull())) {
+                return c;
+            }
+        }
+        if (toHash.isPresent() && !subchain.get(subchain.size() - 1).getHeaderHash().equals(toHash.get())) {
+            return subchain.size();
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the index of the highest block header below the divergence that is still in the bitcoin node's best
+     * chain, checking windows of block header hashes that double in size on the way down, or -1 if there is none.
+     * The block headers below the divergence are linked, so all of those below the one found are also in it.
+     */
+    private int findLastInBestChain(List<BlockHeader> subchain, int divergence) {
+        int top = divergence - 1;
+        int depth = batchSize;
+        while (top >= 0) {
+            int bottom = Math.max(0, top - depth + 1);
+            List<Sha256Hash> bestHashes = fetchBlockHeaderHashes(subchain.get(bottom).getHeight(),
+                    subchain.get(top).getHeight());
+            for (int c = top; c >= bottom; c--) {
+                if (bestHashes.get(c - bottom).equals(subchain.get(c).getHeaderHash())) {
+                    return c;
+                }
+            }
+            top = bottom - 1;
+            depth *= 2;
+        }
+        return -1;
+    }
+
+    private List<BlockHeader> getBlockHeaderPartition(long fromHeight, Optional<Sha256Hash> fromHash,
+            long numBlocks, boolean transactionIds) {
+        if (!transactionIds && bitcoinNodeRestService.isPresent() && !headerStore.isPresent()) {
+            // without a store, which already has most block headers, read them in bulk from the REST interface
+            return readBlockHeadersOnly(fromHash.isPresent() ? fromHash.get() : getBlockHeaderHash(fromHeight),
+                    numBlocks);
+        }
+        if (isBatched()) {
+            List<Sha256Hash> hashes = getBlockHeaderHashes(fromHeight, fromHeight + numBlocks - 1);
+            return transactionIds ? getBlockHeaders(hashes) : getBlockHeadersOnly(hashes);
+        }
+        List<BlockHeader> partition = Lists.newArrayList();
+        Sha256Hash nextHash = fromHash.isPresent() ? fromHash.get() : getBlockHeaderHash(fromHeight);
+        for (int c = 0; c < numBlocks && nextHash != null; c++) {
+            BlockHeader currentBlockHeader = getBlockHeader(nextHash, transactionIds);
+            partition.add(currentBlockHeader);
+
+            // a block with no next block left the best chain during the call, so end the partition short
+            nextHash = currentBlockHeader.getNextBlockHash().orNull();
+        }
+        return ImmutableList.copyOf(partition);
+    }
+
+    /**
+     * Reads up to the given number of block headers without transaction IDs from the REST interface, starting at the
+     * given block and ending short if the best chain does. The first block header is fetched as usual, and the
+     * chainwork and number of confirmations of each following one are derived from it. One more block header than
+     * needed is read, when there is one, for the next block hash of the last.
+     */
+    private List<BlockHeader> readBlockHeadersOnly(Sha256Hash fromHash, long numBlocks) {
+        List<Block> following = Lists.newArrayList();
+        Sha256Hash lastHash = fromHash;
+        while (following.size() < numBlocks) {
+            int count = (int) Math.min(restHeadersPerCall, numBlocks - following.size() + 1);
+            List<Block> blocks = bitcoinNodeRestService.get().getBlockHeaders(count, lastHash);
+            if (blocks.isEmpty() || !blocks.get(0).getHash().equals(lastHash)) {
+                throw new IllegalStateException(String.format(
+                        "subchain changed during call: header hash %s left the best chain", lastHash.toString()));
+            }
+            following.addAll(blocks.subList(1, blocks.size()));
+            if (blocks.size() < count) {
+                break;
+            }
+            lastHash = blocks.get(blocks.size() - 1).getHash();
+        }
+
+        BlockHeader first = getBlockHeader(fromHash, false);
+        if (!following.isEmpty()) {
+            first = ImmutableBlockHeader.copyOf(first).withNextBlockHash(following.get(0).getHash());
+        }
+        ImmutableList.Builder<BlockHeader> headers = ImmutableList.builder();
+        headers.add(first);
+        BigInteger chainwork = first.getChainwork();
+        for (int c = 0; c < following.size() && c < numBlocks - 1; c++) {
+            Block block = following.get(c);
+            chainwork = chainwork.add(block.getWork());
+            Optional<Sha256Hash> nextBlockHash = c + 1 < following.size()
+                    ? Optional.of(following.get(c + 1).getHash()) : Optional.absent();
+            headers.add(toBlockHeader(block, first.getHeight() + c + 1, first.getNumConfirmations() - c - 1,
+                    chainwork, nextBlockHash));
+        }
+        return headers.build();
+    }
+
+    /**
+     * Converts a raw block header read from the REST interface to a block header without transaction IDs, which like
+     * those from the getblockheader RPC lacks the block's size and number of transactions.
+     */
+    private static BlockHeader toBlockHeader(Block block, long height, long numConfirmations, BigInteger chainwork,
+            Optional<Sha256Hash> nextBlockHash) {
+        return BlockHeader.of(block.getHash(), numConfirmations, -1, height, block.getVersion(),
+                block.getMerkleRoot(), ImmutableList.of(), block.getTimeSeconds(), block.getNonce(),
+                BigInteger.valueOf(block.getDifficultyTarget()),
+                HeaderCodec.getDifficulty(block.getDifficultyTarget()), chainwork,
+                Optional.of(block.getPrevBlockHash()), nextBlockHash);
+    }
+
+    private static <T> T getPartition(Future<T> partition, List<? extends Future<?>> allPartitions) {
+        try {
+            return partition.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(allPartitions);
+            throw new IllegalStateException("interrupted while fetching subchain", e);
+        } catch (ExecutionException e) {
+            cancelAll(allPartitions);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static <T> List<T> getResults(List<BitcoinNodeRequest> requests,
+            List<? extends BitcoinNodeResponse<T>> responses) {
+        Map<String, BitcoinNodeResponse<T>> responsesById = Maps.newHashMapWithExpectedSize(responses.size());
+        for (BitcoinNodeResponse<T> response : responses) {
+            if (response.getId().isPresent()) {
+                responsesById.put(response.getId().get(), response);
+            }
+        }
+        ImmutableList.Builder<T> results = ImmutableList.builder();
+        for (BitcoinNodeRequest request : requests) {
+            BitcoinNodeResponse<T> response = responsesById.get(request.getId().get());
+            if (response == null) {
+                throw new IllegalStateException(String.format("no response for RPC %s with id %s",
+                        request.getMethod(), request.getId().get()));
+            }
+            response.validateResult();
+            results.add(response.getResult().get());
+        }
+        return results.build();
+    }
+
+    public static final class Builder {
+
+        private final BitcoinNodeService bitcoinNodeService;
+        private final FetchConfig config;
+        private ExecutorService executor = MoreExecutors.newDirectExecutorService();
+        private BlockHashIndex blockHashIndex = new BlockHashIndex();
+        private Optional<BlockHeaderCache> blockHeaderCache = Optional.absent();
+        private Optional<HeaderStore> headerStore = Optional.absent();
+        private Optional<BitcoinNodeRestService> bitcoinNodeRestService = Optional.absent();
+
+        private Builder(BitcoinNodeService bitcoinNodeService, FetchConfig config) {
+            this.bitcoinNodeService = bitcoinNodeService;
+            this.config = config;
+        }
+
+        /**
+         * Sets the executor subchain partitions are fetched concurrently on, whose number of threads bounds the number
+         * of concurrent RPC calls to the bitcoin node.
+         */
+        public Builder executor(ExecutorService fetchExecutor) {
+            this.executor = fetchExecutor;
+            return this;
+        }
+
+        /**
+         * Sets the index block header hashes are read from when it covers the requested heights.
+         */
+        public Builder blockHashIndex(BlockHashIndex index) {
+            this.blockHashIndex = index;
+            return this;
+        }
+
+        /**
+         * Sets the cache block headers are read from before fetching any misses.
+         */
+        public Builder blockHeaderCache(Optional<BlockHeaderCache> cache) {
+            this.blockHeaderCache = cache;
+            return this;
+        }
+
+        /**
+         * Sets the store block headers without transaction IDs are read from before the cache.
+         */
+        public Builder headerStore(Optional<HeaderStore> store) {
+            this.headerStore = store;
+            return this;
+        }
+
+        /**
+         * Sets the bitcoin node's REST interface height ranges of block headers without transaction IDs are read from
+         * in bulk, as raw binary headers.
+         */
+        public Builder bitcoinNodeRestService(Optional<BitcoinNodeRestService> restService) {
+            this.bitcoinNodeRestService = restService;
+            return this;
+        }
+
+        public BlockHeaderFetcher build() {
+            return new BlockHeaderFetcher(this);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
+import org.drausin.bitflow.bitcoin.api.responses.StopResponse;
+
+/**
+ * Decorates a {@link BitcoinNodeService} so that concurrent identical RPCs share one call to the bitcoin node. A
+ * request, or batch of requests, made while an identical one (with the same RPC method, params, and ID) is still in
+ * flight waits for that call and gets its response, or the exception it threw, rather than making its own call. This
+ * keeps the bitcoin node from being hit with a call per client when many ask for the same new tip block at once.
+ * Calls are only shared while in flight; nothing is cached once they return.
+ *
+ * @author dwulsin
+ */
+public final class CoalescingBitcoinNodeService implements BitcoinNodeService {
+
+    private final BitcoinNodeService delegate;
+    private final ConcurrentMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numCoalesced = new AtomicLong();
+
+    public CoalescingBitcoinNodeService(BitcoinNodeService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public BlockchainInfoResponse getBlockchainInfo(BitcoinNodeRequest request) {
+        return coalesce(request, () -> delegate.getBlockchainInfo(request));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeader(BitcoinNodeRequest request) {
+        return coalesce(request, () -> delegate.getBlockHeader(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeaders(List<BitcoinNodeRequest> requests) {
+        return coalesce(requests, () -> delegate.getBlockHeaders(requests));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeaderOnly(BitcoinNodeRequest request) {
+        return coalesce(request, () -> delegate.getBlockHeaderOnly(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeadersOnly(List<BitcoinNodeRequest> requests) {
+        return coalesce(requests, () -> delegate.getBlockHeadersOnly(requests));
+    }
+
+    @Override
+    public BlockHeaderHashResponse getBlockHeaderHash(BitcoinNodeRequest request) {
+        return coalesce(request, () -> delegate.getBlockHeaderHash(request));
+    }
+
+    @Override
+    public List<BlockHeaderHashResponse> getBlockHeaderHashes(List<BitcoinNodeRequest> requests) {
+        return coalesce(requests, () -> delegate.getBlockHeaderHashes(requests));
+    }
+
+    @Override
+    public RawBlockResponse getRawBlock(BitcoinNodeRequest request) {
+        return coalesce(request, () -> delegate.getRawBlock(request));
+    }
+
+    @Override
+    public StopResponse stop(BitcoinNodeRequest request) {
+        return delegate.stop(request);
+    }
+
+    /**
+     * Gets the number of requests made, coalesced or not.
+     */
+    public long getRequests() {
+        return numRequests.get();
+    }
+
+    /**
+     * Gets the number of requests that shared an identical request's call rather than making their own.
+     */
+    public long getCoalesced() {
+        return numCoalesced.get();
+    }
+
+    /**
+     * Gets the fraction of requests that shared an identical request's call, or 0 if none have been made.
+     */
+    public double getCoalescedRatio() {
+        long requestsMade = numRequests.get();
+        return requestsMade == 0 ? 0.0 : (double) numCoalesced.get() / requestsMade;
+    }
+
+    /**
+     * Registers gauges for the numbers of requests and coalesced requests and the fraction coalesced.
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(CoalescingBitcoinNodeService.class, "requests"),
+                (Gauge<Long>) this::getRequests);
+        metrics.register(MetricRegistry.name(CoalescingBitcoinNodeService.class, "coalesced"),
+                (Gauge<Long>) this::getCoalesced);
+        metrics.register(MetricRegistry.name(CoalescingBitcoinNodeService.class, "coalescedRatio"),
+                (Gauge<Double>) this::getCoalescedRatio);
+    }
+
+    /**
+     * Makes the call for the given request, a single request or a batch, unless an identical one is in flight, in
+     * which case its response is returned instead.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(Object key, Supplier<T> call) {
+        numRequests.incrementAndGet();
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            numCoalesced.incrementAndGet();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                Throwables.propagateIfPossible(e.getCause());
+                throw e;
+            }
+        }
+        try {
+            T response = call.get();
+            flight.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            // fail the requests waiting on this call too, rather than leave them waiting
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.ws.rs.ServiceUnavailableException;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
+import org.drausin.bitflow.bitcoin.api.responses.StopResponse;
+import org.drausin.bitflow.blockchain.config.LimitConfig;
+
+/**
+ * Decorates a {@link BitcoinNodeService} so that the number of concurrent RPCs, each a single request or a batch,
+ * stays within a limit that adapts to what the bitcoin node can keep up with, rather than overflowing its RPC work
+ * queue and getting back bursts of 503s.
+ *
+ * <p>The limit grows additively, by about one per limit's worth of RPCs answered within the max latency while the limit
+ * is at least half used, and shrinks multiplicatively by the backoff ratio when an RPC is slower than the max latency
+ * or the bitcoin node answers that it's overloaded. A batch's latency is divided between the requests in it, which the
+ * bitcoin node handles one after another, so that large batches aren't taken as signs of overload. Only RPCs started
+ * after the last backoff can trigger another, so one burst of slow or rejected RPCs backs off once. RPCs over the limit
+ * wait in a queue for one in flight to finish, and are rejected with a {@link ServiceUnavailableException} if the queue
+ * is full or they wait too long.
+ *
+ * @author dwulsin
+ */
+public final class LimitingBitcoinNodeService implements BitcoinNodeService {
+
+    private final BitcoinNodeService delegate;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long maxLatencyNanos;
+    private final int maxQueueSize;
+    private final long maxQueueTimeNanos;
+    private final Meter rejections = new Meter();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastBackoffNanos;
+
+    public LimitingBitcoinNodeService(BitcoinNodeService delegate, LimitConfig config) {
+        this.delegate = delegate;
+        this.minLimit = config.getMinLimit();
+        this.maxLimit = config.getMaxLimit();
+        this.backoffRatio = config.getBackoffRatio();
+        this.maxLatencyNanos = config.getMaxLatency().toNanoseconds();
+        this.maxQueueSize = config.getMaxQueueSize();
+        this.maxQueueTimeNanos = config.getMaxQueueTime().toNanoseconds();
+        this.limit = config.getInitialLimit();
+        this.lastBackoffNanos = System.nanoTime();
+    }
+
+    @Override
+    public BlockchainInfoResponse getBlockchainInfo(BitcoinNodeRequest request) {
+        return callLimited(1, () -> delegate.getBlockchainInfo(request));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeader(BitcoinNodeRequest request) {
+        return callLimited(1, () -> delegate.getBlockHeader(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeaders(List<BitcoinNodeRequest> requests) {
+        return callLimited(requests.size(), () -> delegate.getBlockHeaders(requests));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeaderOnly(BitcoinNodeRequest request) {
+        return callLimited(1, () -> delegate.getBlockHeaderOnly(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeadersOnly(List<BitcoinNodeRequest> requests) {
+        return callLimited(requests.size(), () -> delegate.getBlockHeadersOnly(requests));
+    }
+
+    @Override
+    public BlockHeaderHashResponse getBlockHeaderHash(BitcoinNodeRequest request) {
+        return callLimited(1, () -> delegate.getBlockHeaderHash(request));
+    }
+
+    @Override
+    public List<BlockHeaderHashResponse> getBlockHeaderHashes(List<BitcoinNodeRequest> requests) {
+        return callLimited(requests.size(), () -> delegate.getBlockHeaderHashes(requests));
+    }
+
+    @Override
+    public RawBlockResponse getRawBlock(BitcoinNodeRequest request) {
+        return callLimited(1, () -> delegate.getRawBlock(request));
+    }
+
+    @Override
+    public StopResponse stop(BitcoinNodeRequest request) {
+        // stopping should never wait behind other RPCs
+        return delegate.stop(request);
+    }
+
+    /**
+     * Gets the current limit on the number of concurrent RPCs.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gets the number of RPCs waiting for the number in flight to drop below the limit.
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Gets the meter of RPCs rejected because the queue was full or they waited too long in it.
+     */
+    public Meter getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Registers gauges for the limit, RPCs in flight, and RPCs queued, along with the meter of rejected RPCs, under the
+     * given name of the bitcoin node, usually its URI.
+     */
+    public void registerMetrics(MetricRegistry metrics, String name) {
+        metrics.register(MetricRegistry.name(LimitingBitcoinNodeService.class, name, "limit"),
+                (Gauge<Integer>) this::getLimit);
+        metrics.register(MetricRegistry.name(LimitingBitcoinNodeService.class, name, "inFlight"),
+                (Gauge<Integer>) this::getInFlight);
+        metrics.register(MetricRegistry.name(LimitingBitcoinNodeService.class, name, "queued"),
+                (Gauge<Integer>) this::getQueued);
+        metrics.register(MetricRegistry.name(LimitingBitcoinNodeService.class, name, "rejections"), rejections);
+    }
+
+    /**
+     * Calls the bitcoin node within the limit with an RPC of the given number of requests, more than one if a batch.
+     */
+    private <T> T callLimited(int numRequests, Supplier<T> rpc) {
+        acquire();
+        long startNanos = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            return rpc.get();
+        } catch (ServiceUnavailableException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(startNanos, Math.max(1, numRequests), overloaded);
+        }
+    }
+
+    /**
+     * Waits until the number of RPCs in flight is below the limit and counts this one in, or rejects it if the queue is
+     * full or the wait is too long.
+     */
+    private synchronized void acquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return;
+        }
+        if (queued >= maxQueueSize) {
+            throw reject(String.format("too many bitcoin node RPCs in progress, limit: %s, queued: %s", (int) limit,
+                    queued));
+        }
+        queued++;
+        try {
+            long deadlineNanos = System.nanoTime() + maxQueueTimeNanos;
+            while (inFlight >= (int) limit) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    throw reject(String.format("timed out waiting for one of %s bitcoin node RPCs in progress to "
+                            + "finish", inFlight));
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting to call bitcoin node", e);
+        } finally {
+            queued--;
+        }
+    }
+
+    /**
+     * Counts out a finished RPC and adapts the limit to how it went, judging its latency per request, and wakes the
+     * queued RPCs that may now fit within it.
+     */
+    private synchronized void release(long startNanos, int numRequests, boolean overloaded) {
+        long endNanos = System.nanoTime();
+        if (overloaded || (endNanos - startNanos) / numRequests > maxLatencyNanos) {
+            if (startNanos - lastBackoffNanos > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastBackoffNanos = endNanos;
+            }
+        } else if (inFlight >= limit / 2) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        inFlight--;
+        notifyAll();
+    }
+
+    private ServiceUnavailableException reject(String message) {
+        rejections.mark();
+        return new ServiceUnavailableException(message);
+    }
+}
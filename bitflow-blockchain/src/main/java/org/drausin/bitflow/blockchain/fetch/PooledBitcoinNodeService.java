@@ -0,0 +1,561 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Multiset;
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
+import org.drausin.bitflow.bitcoin.api.responses.StopResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.config.HedgeConfig;
+import org.drausin.bitflow.blockchain.config.PoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BitcoinNodeService} that spreads RPCs over a pool of synced bitcoin nodes, so that throughput isn't capped
+ * by a single node's RPC threads. Each request, or batch of requests, goes to the healthy node with the fewest
+ * requests in flight, ties going to each node in turn.
+ *
+ * <p>Every node's tip is checked periodically. Nodes that don't answer, or whose tip is more than the configured max
+ * lag behind the highest tip in the pool, are ejected until a later check finds them caught up. With no max lag, the
+ * default, nodes must also be at the best block hash shared by the most nodes at the highest tip, so that the RPCs of
+ * an operation spanning several of them, like fetching a subchain, all see the same best chain rather than failing or
+ * being repaired as if it had reorganized. If every node is ejected, requests go to each node in turn rather than
+ * failing outright. The latency of each node's requests is tracked along with its number of requests in flight.
+ *
+ * <p>If hedging is enabled, a single RPC that hasn't been answered within a recent percentile of single RPC latencies
+ * is also sent to the next healthy node, taking whichever answer comes first and cancelling the other call. Each
+ * single RPC earns a fraction of a hedge, capping the extra load from hedging at that fraction of the single RPCs.
+ * Batch RPCs aren't hedged, since their latency mostly depends on their size. Since the caller must be free to take
+ * the hedge's answer, an RPC that may be hedged is called on the given bounded executor, but one that can't be, for
+ * want of hedge credit or another healthy node, or because every thread of the executor is busy, is called on the
+ * caller's thread without any handoff.
+ *
+ * @author dwulsin
+ */
+public final class PooledBitcoinNodeService implements BitcoinNodeService, Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledBitcoinNodeService.class);
+
+    /**
+     * The hedge credit a single hedged RPC costs.
+     */
+    private static final long HEDGE_COST = 1_000_000;
+
+    /**
+     * The most hedge credit saved up by quiet periods, so that at most this many hedges are sent in a burst.
+     */
+    private static final long MAX_HEDGE_CREDIT = 10 * HEDGE_COST;
+
+    private final List<Node> nodes;
+    private final int maxTipLag;
+    private final long checkIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private ScheduledFuture<?> checkFuture;
+
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final long hedgeCreditPerRpc;
+    private final ExecutorService hedgeExecutor;
+    private final AtomicLong hedgeCredit = new AtomicLong();
+    private final Timer singleLatency = new Timer();
+    private final Meter hedges = new Meter();
+    private final Meter hedgeWins = new Meter();
+    private final Meter hedgesOverBudget = new Meter();
+    private volatile long hedgeDelayNanos;
+    private ScheduledFuture<?> hedgeDelayFuture;
+
+    /**
+     * Creates a pool of the given bitcoin nodes by name, usually their URIs, whose single RPCs are hedged on the given
+     * bounded executor if enabled, which rejects calls when all of its threads are busy.
+     */
+    public PooledBitcoinNodeService(Map<String, BitcoinNodeService> nodes, PoolConfig config, HedgeConfig hedgeConfig,
+            ScheduledExecutorService scheduler, ExecutorService hedgeExecutor) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "pool must have at least one bitcoin node");
+        ImmutableList.Builder<Node> nodesBuilder = ImmutableList.builder();
+        nodes.forEach((name, node) -> nodesBuilder.add(new Node(name, node)));
+        this.nodes = nodesBuilder.build();
+        this.maxTipLag = config.getMaxTipLag();
+        this.checkIntervalMillis = config.getCheckInterval().toMilliseconds();
+        this.scheduler = scheduler;
+        this.hedgeEnabled = hedgeConfig.getEnabled() && nodes.size() > 1;
+        this.hedgePercentile = hedgeConfig.getPercentile();
+        this.minHedgeDelayNanos = hedgeConfig.getMinDelay().toNanoseconds();
+        this.hedgeCreditPerRpc = Math.round(hedgeConfig.getMaxExtraLoad() * HEDGE_COST);
+        this.hedgeExecutor = hedgeExecutor;
+        this.hedgeDelayNanos = minHedgeDelayNanos;
+    }
+
+    @Override
+    public BlockchainInfoResponse getBlockchainInfo(BitcoinNodeRequest request) {
+        return callHedged(node -> node.getBlockchainInfo(request));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeader(BitcoinNodeRequest request) {
+        return callHedged(node -> node.getBlockHeader(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeaders(List<BitcoinNodeRequest> requests) {
+        return call(node -> node.getBlockHeaders(requests));
+    }
+
+    @Override
+    public BlockHeaderResponse getBlockHeaderOnly(BitcoinNodeRequest request) {
+        return callHedged(node -> node.getBlockHeaderOnly(request));
+    }
+
+    @Override
+    public List<BlockHeaderResponse> getBlockHeadersOnly(List<BitcoinNodeRequest> requests) {
+        return call(node -> node.getBlockHeadersOnly(requests));
+    }
+
+    @Override
+    public BlockHeaderHashResponse getBlockHeaderHash(BitcoinNodeRequest request) {
+        return callHedged(node -> node.getBlockHeaderHash(request));
+    }
+
+    @Override
+    public List<BlockHeaderHashResponse> getBlockHeaderHashes(List<BitcoinNodeRequest> requests) {
+        return call(node -> node.getBlockHeaderHashes(requests));
+    }
+
+    @Override
+    public RawBlockResponse getRawBlock(BitcoinNodeRequest request) {
+        // raw blocks run to megabytes, so hedging them would double the load of the very calls that are slowest
+        return call(node -> node.getRawBlock(request));
+    }
+
+    @Override
+    public void start() throws Exception {
+        checkFuture = scheduler.scheduleWithFixedDelay(this::checkTips, 0, checkIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        if (hedgeEnabled) {
+            hedgeDelayFuture = scheduler.scheduleWithFixedDelay(this::updateHedgeDelay, checkIntervalMillis,
+                    checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (checkFuture != null) {
+            checkFuture.cancel(true);
+        }
+        if (hedgeDelayFuture != null) {
+            hedgeDelayFuture.cancel(true);
+        }
+    }
+
+    @Override
+    public StopResponse stop(BitcoinNodeRequest request) {
+        // stopping isn't spread over the pool, only the main node is stopped
+        return nodes.get(0).service.stop(request);
+    }
+
+    /**
+     * Checks the tip of every node, ejecting those that don't answer or are too far behind the highest tip and
+     * readmitting those that have caught back up.
+     */
+    public void checkTips() {
+        long highestTip = -1;
+        for (Node node : nodes) {
+            Optional<BlockchainInfo> info = fetchBlockchainInfo(node);
+            node.tipHeight = info.isPresent() ? info.get().getNumBlocks() : -1;
+            node.tipHash = info.isPresent() ? info.get().getBestBlockHash() : null;
+            highestTip = Math.max(highestTip, node.tipHeight);
+        }
+        Optional<Sha256Hash> commonTipHash = maxTipLag == 0 ? findCommonTipHash(highestTip) : Optional.absent();
+        for (Node node : nodes) {
+            boolean healthy = isCaughtUp(node, highestTip, commonTipHash);
+            if (healthy != node.healthy) {
+                LOGGER.info("{} bitcoin node {} at tip {} of {}", healthy ? "readmitting" : "ejecting", node.name,
+                        node.tipHeight, highestTip);
+            }
+            node.healthy = healthy;
+        }
+    }
+
+    private boolean isCaughtUp(Node node, long highestTip, Optional<Sha256Hash> commonTipHash) {
+        return node.tipHeight >= 0 && highestTip - node.tipHeight <= maxTipLag
+                && (!commonTipHash.isPresent() || commonTipHash.get().equals(node.tipHash));
+    }
+
+    /**
+     * Finds the best block hash of the most nodes at the highest tip, ties going to the first such node, since nodes
+     * at the same height may still be on competing branches.
+     */
+    private Optional<Sha256Hash> findCommonTipHash(long highestTip) {
+        Multiset<Sha256Hash> tipHashes = LinkedHashMultiset.create();
+        for (Node node : nodes) {
+            if (node.tipHeight == highestTip && node.tipHash != null) {
+                tipHashes.add(node.tipHash);
+            }
+        }
+        Sha256Hash commonTipHash = null;
+        for (Multiset.Entry<Sha256Hash> tipHash : tipHashes.entrySet()) {
+            if (commonTipHash == null || tipHash.getCount() > tipHashes.count(commonTipHash)) {
+                commonTipHash = tipHash.getElement();
+            }
+        }
+        return Optional.fromNullable(commonTipHash);
+    }
+
+    /**
+     * Updates the delay before hedging a single RPC to the configured percentile of recent single RPC latencies, or
+     * the min delay if that's longer.
+     */
+    public void updateHedgeDelay() {
+        long percentileNanos = (long) singleLatency.getSnapshot().getValue(hedgePercentile);
+        hedgeDelayNanos = Math.max(minHedgeDelayNanos, percentileNanos);
+    }
+
+    public long getHedgeDelay(TimeUnit unit) {
+        return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the meter of single RPCs hedged to a second node.
+     */
+    public Meter getHedges() {
+        return hedges;
+    }
+
+    /**
+     * Gets the meter of hedged RPCs answered by the second node first.
+     */
+    public Meter getHedgeWins() {
+        return hedgeWins;
+    }
+
+    /**
+     * Gets the meter of single RPCs that would have been hedged but for the cap on the extra load.
+     */
+    public Meter getHedgesOverBudget() {
+        return hedgesOverBudget;
+    }
+
+    /**
+     * Gets the number of nodes in the pool that aren't currently ejected.
+     */
+    public int getNumHealthy() {
+        int numHealthy = 0;
+        for (Node node : nodes) {
+            if (node.healthy) {
+                numHealthy++;
+            }
+        }
+        return numHealthy;
+    }
+
+    public boolean isHealthy(String name) {
+        return getNode(name).healthy;
+    }
+
+    /**
+     * Gets the tip height of a node as of the last check, or -1 if it didn't answer.
+     */
+    public long getTipHeight(String name) {
+        return getNode(name).tipHeight;
+    }
+
+    public int getInFlight(String name) {
+        return getNode(name).inFlight.get();
+    }
+
+    public Timer getLatency(String name) {
+        return getNode(name).latency;
+    }
+
+    /**
+     * Registers the number of healthy nodes and gauges for each node's health, tip, and requests in flight, along with
+     * the timer of its requests' latency. If hedging is enabled, also registers the hedge delay, the rate of single
+     * RPCs that are hedged, and the meters of hedges, hedge wins, and hedges over budget.
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "healthy"),
+                (Gauge<Integer>) this::getNumHealthy);
+        if (hedgeEnabled) {
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "delayMillis"),
+                    (Gauge<Long>) () -> getHedgeDelay(TimeUnit.MILLISECONDS));
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "rate"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hedges.getOneMinuteRate(), singleLatency.getOneMinuteRate());
+                }
+            });
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "hedges"), hedges);
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "wins"), hedgeWins);
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "overBudget"),
+                    hedgesOverBudget);
+        }
+        for (Node node : nodes) {
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, node.name, "healthy"),
+                    (Gauge<Boolean>) () -> node.healthy);
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, node.name, "tipHeight"),
+                    (Gauge<Long>) () -> node.tipHeight);
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, node.name, "inFlight"),
+                    (Gauge<Integer>) node.inFlight::get);
+            metrics.register(MetricRegistry.name(PooledBitcoinNodeService.class, node.name, "latency"),
+                    node.latency);
+        }
+    }
+
+    private <T> T call(Function<BitcoinNodeService, T> rpc) {
+        return call(selectNode(), rpc);
+    }
+
+    private static <T> T call(Node node, Function<BitcoinNodeService, T> rpc) {
+        node.inFlight.incrementAndGet();
+        try (Timer.Context ignored = node.latency.time()) {
+            return rpc.apply(node.service);
+        } finally {
+            node.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Calls a single RPC on the selected node, hedging it to another healthy node if it isn't answered within the hedge
+     * delay and there is hedge credit to spend. The first successful answer is returned, or the first failure if both
+     * calls fail.
+     */
+    private <T> T callHedged(Function<BitcoinNodeService, T> rpc) {
+        if (!hedgeEnabled) {
+            return call(rpc);
+        }
+        hedgeCredit.updateAndGet(credit -> Math.min(credit + hedgeCreditPerRpc, MAX_HEDGE_CREDIT));
+        Node node = selectNode();
+        if (hedgeCredit.get() < HEDGE_COST || !hasOtherHealthyNode(node)) {
+            return callUnhedged(node, rpc);
+        }
+        CompletionService<T> calls = new ExecutorCompletionService<>(hedgeExecutor);
+        Future<T> firstCall;
+        try {
+            firstCall = calls.submit(() -> callSingle(node, rpc));
+        } catch (RejectedExecutionException e) {
+            return callUnhedged(node, rpc);
+        }
+        Optional<Future<T>> hedgedCall = Optional.absent();
+        try {
+            Future<T> answered = calls.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (answered == null) {
+                hedgedCall = hedge(node, rpc, calls);
+                answered = calls.take();
+            }
+            return awaitAnswer(calls, answered, hedgedCall);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while calling bitcoin node", e);
+        } finally {
+            // the bitcoin node may still answer the slower call, but no one is waiting on it
+            firstCall.cancel(true);
+            if (hedgedCall.isPresent()) {
+                hedgedCall.get().cancel(true);
+            }
+        }
+    }
+
+    private <T> T callSingle(Node node, Function<BitcoinNodeService, T> rpc) {
+        try (Timer.Context ignored = singleLatency.time()) {
+            return call(node, rpc);
+        }
+    }
+
+    /**
+     * Calls a single RPC that can't be hedged on the caller's thread, still counting it as over budget if it would
+     * have been hedged but for the hedge credit.
+     */
+    private <T> T callUnhedged(Node node, Function<BitcoinNodeService, T> rpc) {
+        long startNanos = System.nanoTime();
+        try {
+            return callSingle(node, rpc);
+        } finally {
+            if (System.nanoTime() - startNanos > hedgeDelayNanos && hedgeCredit.get() < HEDGE_COST
+                    && hasOtherHealthyNode(node)) {
+                hedgesOverBudget.mark();
+            }
+        }
+    }
+
+    /**
+     * Sends a hedge of the RPC slow to be answered by the given node to the next healthy node, if there is one and
+     * there is enough hedge credit.
+     */
+    private <T> Optional<Future<T>> hedge(Node slowNode, Function<BitcoinNodeService, T> rpc,
+            CompletionService<T> calls) {
+        Optional<Node> hedgeNode = selectHedgeNode(slowNode);
+        if (!hedgeNode.isPresent()) {
+            return Optional.absent();
+        }
+        if (!spendHedgeCredit()) {
+            hedgesOverBudget.mark();
+            return Optional.absent();
+        }
+        try {
+            Future<T> hedgedCall = calls.submit(() -> callSingle(hedgeNode.get(), rpc));
+            hedges.mark();
+            return Optional.of(hedgedCall);
+        } catch (RejectedExecutionException e) {
+            // every thread of the executor is busy, so keep waiting on the slow call alone
+            hedgeCredit.addAndGet(HEDGE_COST);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Gets the answer of the first call to complete, falling back on the other call if that one failed.
+     */
+    private <T> T awaitAnswer(CompletionService<T> calls, Future<T> firstAnswered, Optional<Future<T>> hedgedCall)
+            throws InterruptedException {
+        int numCalls = hedgedCall.isPresent() ? 2 : 1;
+        ExecutionException firstFailure = null;
+        for (int i = 0; i < numCalls; i++) {
+            Future<T> answered = i == 0 ? firstAnswered : calls.take();
+            try {
+                T answer = answered.get();
+                if (hedgedCall.isPresent() && hedgedCall.get() == answered) {
+                    hedgeWins.mark();
+                }
+                return answer;
+            } catch (ExecutionException e) {
+                firstFailure = firstFailure == null ? e : firstFailure;
+            }
+        }
+        throw Throwables.propagate(firstFailure.getCause());
+    }
+
+    private boolean spendHedgeCredit() {
+        long credit;
+        do {
+            credit = hedgeCredit.get();
+            if (credit < HEDGE_COST) {
+                return false;
+            }
+        } while (!hedgeCredit.compareAndSet(credit, credit - HEDGE_COST));
+        return true;
+    }
+
+    /**
+     * Selects the healthy node with the fewest requests in flight, starting from a different node each time so that
+     * ties are spread evenly, or just the starting node if every node is ejected.
+     */
+    private Node selectNode() {
+        int start = Math.floorMod(nextNode.getAndIncrement(), nodes.size());
+        Node selected = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+            if (node.healthy && (selected == null || node.inFlight.get() < selected.inFlight.get())) {
+                selected = node;
+            }
+        }
+        return selected == null ? nodes.get(start) : selected;
+    }
+
+    private boolean hasOtherHealthyNode(Node node) {
+        for (Node other : nodes) {
+            if (other != node && other.healthy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the healthy node other than the given one with the fewest requests in flight, if there is one.
+     */
+    private Optional<Node> selectHedgeNode(Node excluded) {
+        int start = Math.floorMod(nextNode.getAndIncrement(), nodes.size());
+        Node selected = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+            if (node != excluded && node.healthy
+                    && (selected == null || node.inFlight.get() < selected.inFlight.get())) {
+                selected = node;
+            }
+        }
+        return Optional.fromNullable(selected);
+    }
+
+    private static Optional<BlockchainInfo> fetchBlockchainInfo(Node node) {
+        try {
+            BlockchainInfoResponse response = node.service.getBlockchainInfo(
+                    BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+            response.validateResult();
+            return response.getResult();
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to get the tip of bitcoin node {}: {}", node.name, e.getMessage());
+            return Optional.absent();
+        }
+    }
+
+    private Node getNode(String name) {
+        for (Node node : nodes) {
+            if (node.name.equals(name)) {
+                return node;
+            }
+        }
+        throw new IllegalArgumentException(String.format("no bitcoin node %s in the pool", name));
+    }
+
+    private static final class Node {
+
+        private final String name;
+        private final BitcoinNodeService service;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer latency = new Timer();
+        private volatile boolean healthy = true;
+        private volatile long tipHeight = -1;
+        private volatile Sha256Hash tipHash;
+
+        private Node(String name, BitcoinNodeService service) {
+            this.name = name;
+            this.service = service;
+        }
+    }
+}
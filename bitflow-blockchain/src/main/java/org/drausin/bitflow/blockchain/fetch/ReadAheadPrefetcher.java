@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.cache.BlockHeaderCache;
+import org.drausin.bitflow.blockchain.config.PrefetchConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prefetches block headers into the {@link BlockHeaderCache} ahead of clients scanning forward along the best chain
+ * one block header at a time. A read of the block that a previously read block header names as its next block is
+ * taken as a sequential scan, and the blocks ahead of it are fetched on the given executor so they are cached by the
+ * time the scan reads them. Each scan starts prefetching the initial depth of blocks ahead and doubles its depth, up
+ * to the max depth, each time it reads halfway into the blocks already prefetched, so long scans soon stay well ahead
+ * of the client while one-off reads never trigger any prefetching. Blocks are prefetched with or without their
+ * transaction IDs, like the read that triggered them, so they land in the part of the cache the scan reads from.
+ *
+ * @author dwulsin
+ */
+public final class ReadAheadPrefetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadAheadPrefetcher.class);
+
+    private final BlockHeaderFetcher blockHeaderFetcher;
+    private final Executor executor;
+    private final int initialDepth;
+    private final int maxDepth;
+
+    // scans keyed by the header hash of the block each expects to be read next
+    private final Cache<Sha256Hash, Scan> scans;
+    private final AtomicLong sequentialReads = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    /**
+     * Creates a prefetcher that fetches block headers with a fetcher that caches them.
+     */
+    public ReadAheadPrefetcher(BlockHeaderFetcher blockHeaderFetcher, PrefetchConfig config, Executor executor) {
+        this.blockHeaderFetcher = blockHeaderFetcher;
+        this.executor = executor;
+        this.initialDepth = config.getInitialDepth();
+        this.maxDepth = config.getMaxDepth();
+        this.scans = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxScans())
+                .build();
+    }
+
+    /**
+     * Records that a block header was read, prefetching the blocks ahead of it if it continues a sequential scan.
+     *
+     * @param header the block header read
+     * @param transactionIds whether the block header was read with its transaction IDs
+     */
+    public void onRead(BlockHeader header, boolean transactionIds) {
+        if (!header.getNextBlockHash().isPresent()) {
+            // nothing to read ahead of the tip
+            return;
+        }
+        Scan scan = scans.asMap().remove(header.getHeaderHash());
+        if (scan == null) {
+            // possibly the start of a scan, which is confirmed if the next block is read next
+            scans.put(header.getNextBlockHash().get(), new Scan(header.getHeight()));
+            return;
+        }
+        scans.put(header.getNextBlockHash().get(), scan);
+        sequentialReads.incrementAndGet();
+
+        // only prefetch up to the tip as of this block header
+        long tipHeight = header.getHeight() + header.getNumConfirmations() - 1;
+        long fromHeight;
+        long toHeight;
+        synchronized (scan) {
+            if (scan.prefetchedHeight - header.getHeight() > scan.depth / 2) {
+                return;
+            }
+            if (scan.prefetchedHeight >= header.getHeight()) {
+                // the scan is reading the blocks already prefetched, so stay further ahead of it
+                scan.depth = Math.min(2 * scan.depth, maxDepth);
+            }
+            fromHeight = Math.max(scan.prefetchedHeight, header.getHeight()) + 1;
+            toHeight = Math.min(header.getHeight() + scan.depth, tipHeight);
+            if (fromHeight > toHeight) {
+                return;
+            }
+            scan.prefetchedHeight = toHeight;
+        }
+        prefetch(fromHeight, toHeight, transactionIds);
+    }
+
+    /**
+     * Gets the number of reads that continued a sequential scan.
+     */
+    public long getSequentialReads() {
+        return sequentialReads.get();
+    }
+
+    /**
+     * Gets the number of block headers prefetched.
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Registers gauges for the numbers of sequential reads and block headers prefetched.
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(ReadAheadPrefetcher.class, "sequentialReads"),
+                (Gauge<Long>) this::getSequentialReads);
+        metrics.register(MetricRegistry.name(ReadAheadPrefetcher.class, "prefetched"),
+                (Gauge<Long>) this::getPrefetched);
+    }
+
+    private void prefetch(long fromHeight, long toHeight, boolean transactionIds) {
+        try {
+            executor.execute(() -> {
+                try {
+                    // the fetcher caches each block header it fetches, skipping any already cached
+                    List<Sha256Hash> hashes = blockHeaderFetcher.getBlockHeaderHashes(fromHeight, toHeight);
+                    if (transactionIds) {
+                        blockHeaderFetcher.getBlockHeaders(hashes);
+                    } else {
+                        blockHeaderFetcher.getBlockHeadersOnly(hashes);
+                    }
+                    prefetched.addAndGet(toHeight - fromHeight + 1);
+                } catch (RuntimeException e) {
+                    LOGGER.debug("unable to prefetch block headers at heights {} to {}: {}", fromHeight, toHeight,
+                            e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // prefetching is best effort, so skip it rather than slow down the read when the executor is saturated
+            LOGGER.debug("skipped prefetching block headers at heights {} to {}", fromHeight, toHeight);
+        }
+    }
+
+    /**
+     * A client's sequential scan, with the number of blocks to prefetch ahead of it and the height up to which blocks
+     * have been prefetched.
+     */
+    private final class Scan {
+
+        private int depth = initialDepth;
+        private long prefetchedHeight;
+
+        private Scan(long height) {
+            this.prefetchedHeight = height;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.immutables.value.Value;
+
+/**
+ * The first and last blocks of a subchain, as resolved before fetching it.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+public abstract class SubchainBounds {
+
+    /**
+     * Get the height of the first block.
+     */
+    @Value.Parameter
+    public abstract long getFromHeight();
+
+    /**
+     * Get the header hash of the first block.
+     */
+    @Value.Parameter
+    public abstract Sha256Hash getFromHash();
+
+    /**
+     * Get the height of the last block.
+     */
+    @Value.Parameter
+    public abstract long getToHeight();
+
+    /**
+     * Get the header hash of the last block.
+     */
+    @Value.Parameter
+    public abstract Sha256Hash getToHash();
+
+    /**
+     * Get the number of blocks in the subchain.
+     */
+    public final long getNumBlocks() {
+        return getToHeight() - getFromHeight() + 1;
+    }
+
+    @Value.Check
+    protected final void check() {
+        if (getFromHeight() > getToHeight()) {
+            throw new IllegalStateException(String.format("fromHeight %s must not be greater than toHeight %s",
+                    getFromHeight(), getToHeight()));
+        }
+    }
+
+    public static SubchainBounds of(long fromHeight, Sha256Hash fromHash, long toHeight, Sha256Hash toHash) {
+        return ImmutableSubchainBounds.of(fromHeight, fromHash, toHeight, toHash);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import org.bitcoinj.core.Sha256Hash;
+import org.immutables.value.Value;
+
+/**
+ * Position in a paged subchain after the last block returned so far, pinned to the best chain the first page was read
+ * from. Clients see it only as an opaque URL-safe string.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+public abstract class SubchainCursor {
+
+    private static final byte VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+    private static final int ENCODED_LENGTH = 1 + 2 * Long.BYTES + 3 * HASH_LENGTH;
+
+    /**
+     * Get the height of the last block returned so far.
+     */
+    @Value.Parameter
+    public abstract long getLastHeight();
+
+    /**
+     * Get the header hash of the last block returned so far.
+     */
+    @Value.Parameter
+    public abstract Sha256Hash getLastHash();
+
+    /**
+     * Get the height of the last block in the subchain.
+     */
+    @Value.Parameter
+    public abstract long getToHeight();
+
+    /**
+     * Get the header hash of the last block in the subchain.
+     */
+    @Value.Parameter
+    public abstract Sha256Hash getToHash();
+
+    /**
+     * Get the hash of the best block when the first page was read.
+     */
+    @Value.Parameter
+    public abstract Sha256Hash getBestBlockHash();
+
+    /**
+     * Get the bounds of the rest of the subchain after the last block returned so far.
+     *
+     * @param nextHash the header hash of the block following the last block returned so far
+     */
+    public final SubchainBounds getRemainingBounds(Sha256Hash nextHash) {
+        return SubchainBounds.of(getLastHeight() + 1, nextHash, getToHeight(), getToHash());
+    }
+
+    @Value.Check
+    protected final void check() {
+        if (getLastHeight() >= getToHeight()) {
+            throw new IllegalStateException(String.format("lastHeight %s must be less than toHeight %s",
+                    getLastHeight(), getToHeight()));
+        }
+    }
+
+    /**
+     * Encodes this cursor as an opaque URL-safe string.
+     */
+    public final String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH)
+                .put(VERSION)
+                .putLong(getLastHeight())
+                .put(getLastHash().getBytes())
+                .putLong(getToHeight())
+                .put(getToHash().getBytes())
+                .put(getBestBlockHash().getBytes());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    public static SubchainCursor of(long lastHeight, Sha256Hash lastHash, long toHeight, Sha256Hash toHash,
+            Sha256Hash bestBlockHash) {
+        return ImmutableSubchainCursor.of(lastHeight, lastHash, toHeight, toHash, bestBlockHash);
+    }
+
+    /**
+     * Decodes a cursor from the string given by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static SubchainCursor decode(String cursor) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+            if (buffer.remaining() != ENCODED_LENGTH || buffer.get() != VERSION) {
+                throw new IllegalArgumentException("unexpected length or version");
+            }
+            long lastHeight = buffer.getLong();
+            Sha256Hash lastHash = readHash(buffer);
+            long toHeight = buffer.getLong();
+            Sha256Hash toHash = readHash(buffer);
+            return of(lastHeight, lastHash, toHeight, toHash, readHash(buffer));
+        } catch (IllegalArgumentException | IllegalStateException | BufferUnderflowException e) {
+            throw new IllegalArgumentException(String.format("invalid cursor %s", cursor), e);
+        }
+    }
+
+    private static Sha256Hash readHash(ByteBuffer buffer) {
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+        return Sha256Hash.wrap(hash);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * Index of the block header hashes in the best chain by height, stored as one contiguous array of 32-byte hashes so
+ * that the full mainchain index takes only tens of MB and a height lookup is a single array read.
+ *
+ * @author dwulsin
+ */
+public final class BlockHashIndex {
+
+    private static final int HASH_LENGTH = 32;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private byte[] hashes;
+    private int size;
+
+    public BlockHashIndex() {
+        this.hashes = new byte[INITIAL_CAPACITY * HASH_LENGTH];
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of heights in the index, which always covers the heights from 0 up to (but not including) this.
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the header hash of the block at a given height, if it is in the index.
+     */
+    public Optional<Sha256Hash> getHash(long height) {
+        lock.readLock().lock();
+        try {
+            if (height < 0 || height >= size) {
+                return Optional.absent();
+            }
+            return Optional.of(readHash((int) height));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the header hashes of the blocks in a height range, if the whole range is in the index.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<List<Sha256Hash>> getHashes(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            ImmutableList.Builder<Sha256Hash> rangeHashes = ImmutableList.builder();
+            for (int height = (int) fromHeight; height <= toHeight; height++) {
+                rangeHashes.add(readHash(height));
+            }
+            return Optional.of(rangeHashes.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the header hashes of the blocks following the current last block in the index.
+     *
+     * @param fromHeight the height of the first of the hashes, which must equal the current size of the index
+     * @param newHashes the header hashes, in height order
+     */
+    public void extend(long fromHeight, List<Sha256Hash> newHashes) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(fromHeight == size, "cannot extend index of size %s from height %s", size,
+                    fromHeight);
+            ensureCapacity(size + newHashes.size());
+            for (Sha256Hash hash : newHashes) {
+                System.arraycopy(hash.getBytes(), 0, hashes, size * HASH_LENGTH, HASH_LENGTH);
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the blocks at and above a given height from the index, e.g., when they are no longer in the best chain.
+     */
+    public void truncate(long height) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(height >= 0, "cannot truncate index to negative height %s", height);
+            size = (int) Math.min(size, height);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Sha256Hash readHash(int height) {
+        int offset = height * HASH_LENGTH;
+        return Sha256Hash.wrap(Arrays.copyOfRange(hashes, offset, offset + HASH_LENGTH));
+    }
+
+    private void ensureCapacity(int capacity) {
+        int currentCapacity = hashes.length / HASH_LENGTH;
+        if (capacity > currentCapacity) {
+            int newCapacity = Math.max(capacity, currentCapacity + (currentCapacity >> 1));
+            hashes = Arrays.copyOf(hashes, newCapacity * HASH_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of the numbers of transactions and difficulties of the blocks in the best chain by height, from which the
+ * stats of any height range are computed without RPCs or reading the block headers. Sums come from primitive arrays of
+ * prefix sums in constant time. Mins and maxes come from min/max segment trees over chunks of 64 consecutive heights
+ * in logarithmic time, with the partial chunks at either end of a range scanned directly, which keeps the trees a
+ * small fraction of the size of the per-block arrays.
+ *
+ * @author dwulsin
+ */
+public final class BlockStatsIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int CHUNK_BITS = 6;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MinMaxTree transactionTree = new MinMaxTree();
+    private final MinMaxTree difficultyTree = new MinMaxTree();
+
+    // the number of transactions in each block, or -1 if unknown
+    private double[] numTransactions;
+    private double[] difficulties;
+
+    // prefix sums, whose element i is the sum over the blocks below height i
+    private long[] transactionSums;
+    private int[] unknownTransactionCounts;
+    private double[] difficultySums;
+    private int size;
+
+    public BlockStatsIndex() {
+        this.numTransactions = new double[INITIAL_CAPACITY];
+        this.difficulties = new double[INITIAL_CAPACITY];
+        this.transactionSums = new long[INITIAL_CAPACITY + 1];
+        this.unknownTransactionCounts = new int[INITIAL_CAPACITY + 1];
+        this.difficultySums = new double[INITIAL_CAPACITY + 1];
+        this.transactionTree.resize(INITIAL_CAPACITY >> CHUNK_BITS, numTransactions, 0);
+        this.difficultyTree.resize(INITIAL_CAPACITY >> CHUNK_BITS, difficulties, 0);
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of heights in the index, which always covers the heights from 0 up to (but not including) this.
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the stats of the blocks in a height range, if all are in the index. The transaction stats are absent if the
+     * number of transactions is unknown for any of the blocks.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<RangeStats> getStats(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            int from = (int) fromHeight;
+            int to = (int) toHeight;
+            ImmutableRangeStats.Builder stats = ImmutableRangeStats.builder()
+                    .fromHeight(fromHeight)
+                    .toHeight(toHeight)
+                    .totalDifficulty(difficultySums[to + 1] - difficultySums[from])
+                    .minDifficulty(difficultyTree.getMin(difficulties, from, to))
+                    .maxDifficulty(difficultyTree.getMax(difficulties, from, to));
+            if (unknownTransactionCounts[to + 1] == unknownTransactionCounts[from]) {
+                stats.totalTransactions(transactionSums[to + 1] - transactionSums[from])
+                        .minTransactions((long) transactionTree.getMin(numTransactions, from, to))
+                        .maxTransactions((long) transactionTree.getMax(numTransactions, from, to));
+            }
+            return Optional.of(stats.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the numbers of transactions and difficulties of the blocks following the current last block in the index.
+     *
+     * @param fromHeight the height of the first of the blocks, which must equal the current size of the index
+     * @param newNumTransactions the numbers of transactions in the blocks (or -1 where unknown), in height order
+     * @param newDifficulties the difficulties of the blocks, in height order
+     */
+    public void extend(long fromHeight, List<Long> newNumTransactions, List<Double> newDifficulties) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(fromHeight == size, "cannot extend index of size %s from height %s", size,
+                    fromHeight);
+            Preconditions.checkArgument(newNumTransactions.size() == newDifficulties.size(),
+                    "%s numbers of transactions don't match %s difficulties", newNumTransactions.size(),
+                    newDifficulties.size());
+            ensureCapacity(size + newDifficulties.size());
+            for (int c = 0; c < newDifficulties.size(); c++) {
+                long blockTransactions = newNumTransactions.get(c);
+                numTransactions[size] = blockTransactions;
+                difficulties[size] = newDifficulties.get(c);
+                transactionSums[size + 1] = transactionSums[size] + Math.max(blockTransactions, 0);
+                unknownTransactionCounts[size + 1] = unknownTransactionCounts[size] + (blockTransactions < 0 ? 1 : 0);
+                difficultySums[size + 1] = difficultySums[size] + difficulties[size];
+                size++;
+            }
+            transactionTree.update(numTransactions, (int) fromHeight, size);
+            difficultyTree.update(difficulties, (int) fromHeight, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the blocks at and above a given height from the index, e.g., when they are no longer in the best chain.
+     */
+    public void truncate(long height) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(height >= 0, "cannot truncate index to negative height %s", height);
+            if (height < size) {
+                int sizeBefore = size;
+                size = (int) height;
+                transactionTree.truncate(numTransactions, size, sizeBefore);
+                difficultyTree.truncate(difficulties, size, sizeBefore);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > difficulties.length) {
+            int newCapacity = Math.max(capacity, difficulties.length + (difficulties.length >> 1));
+            numTransactions = Arrays.copyOf(numTransactions, newCapacity);
+            difficulties = Arrays.copyOf(difficulties, newCapacity);
+            transactionSums = Arrays.copyOf(transactionSums, newCapacity + 1);
+            unknownTransactionCounts = Arrays.copyOf(unknownTransactionCounts, newCapacity + 1);
+            difficultySums = Arrays.copyOf(difficultySums, newCapacity + 1);
+            int numChunks = (newCapacity >> CHUNK_BITS) + 1;
+            transactionTree.resize(numChunks, numTransactions, size);
+            difficultyTree.resize(numChunks, difficulties, size);
+        }
+    }
+
+    /**
+     * Min/max segment tree over the chunks of a per-block array, stored as implicit binary trees whose leaves, one per
+     * chunk, start at index {@code leaves}, and whose every other node holds the min or max of its two children.
+     * Leaves of chunks without any blocks hold the identity of min or max.
+     */
+    private static final class MinMaxTree {
+
+        private double[] mins = new double[0];
+        private double[] maxs = new double[0];
+        private int leaves;
+
+        /**
+         * Rebuilds the tree with enough leaves for the given number of chunks over the first size values.
+         */
+        private void resize(int numChunks, double[] values, int size) {
+            leaves = Integer.highestOneBit(Math.max(numChunks, 1) - 1) << 1;
+            leaves = Math.max(leaves, 1);
+            mins = new double[2 * leaves];
+            maxs = new double[2 * leaves];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+            update(values, 0, size);
+        }
+
+        /**
+         * Updates the leaves of the chunks holding the values at indices from (inclusive) to size (exclusive), and
+         * their ancestors.
+         */
+        private void update(double[] values, int from, int size) {
+            if (from >= size) {
+                return;
+            }
+            for (int chunk = from >> CHUNK_BITS; chunk <= (size - 1) >> CHUNK_BITS; chunk++) {
+                int chunkFrom = chunk << CHUNK_BITS;
+                int chunkTo = Math.min(size, chunkFrom + (1 << CHUNK_BITS)) - 1;
+                setLeaf(chunk, scanMin(values, chunkFrom, chunkTo), scanMax(values, chunkFrom, chunkTo));
+            }
+        }
+
+        /**
+         * Updates the leaves of the chunks holding the values at indices from size (inclusive) to sizeBefore
+         * (exclusive), which have been removed.
+         */
+        private void truncate(double[] values, int size, int sizeBefore) {
+            for (int chunk = size >> CHUNK_BITS; chunk <= (sizeBefore - 1) >> CHUNK_BITS; chunk++) {
+                setLeaf(chunk, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+            }
+            update(values, size & -(1 << CHUNK_BITS), size);
+        }
+
+        private double getMin(double[] values, int from, int to) {
+            int fromChunk = from >> CHUNK_BITS;
+            int toChunk = to >> CHUNK_BITS;
+            if (fromChunk == toChunk) {
+                return scanMin(values, from, to);
+            }
+            double min = Math.min(scanMin(values, from, ((fromChunk + 1) << CHUNK_BITS) - 1),
+                    scanMin(values, toChunk << CHUNK_BITS, to));
+            int low = fromChunk + 1 + leaves;
+            int high = toChunk + leaves;
+            while (low < high) {
+                if ((low & 1) == 1) {
+                    min = Math.min(min, mins[low++]);
+                }
+                if ((high & 1) == 1) {
+                    min = Math.min(min, mins[--high]);
+                }
+                low >>= 1;
+                high >>= 1;
+            }
+            return min;
+        }
+
+        private double getMax(double[] values, int from, int to) {
+            int fromChunk = from >> CHUNK_BITS;
+            int toChunk = to >> CHUNK_BITS;
+            if (fromChunk == toChunk) {
+                return scanMax(values, from, to);
+            }
+            double max = Math.max(scanMax(values, from, ((fromChunk + 1) << CHUNK_BITS) - 1),
+                    scanMax(values, toChunk << CHUNK_BITS, to));
+            int low = fromChunk + 1 + leaves;
+            int high = toChunk + leaves;
+            while (low < high) {
+                if ((low & 1) == 1) {
+                    max = Math.max(max, maxs[low++]);
+                }
+                if ((high & 1) == 1) {
+                    max = Math.max(max, maxs[--high]);
+                }
+                low >>= 1;
+                high >>= 1;
+            }
+            return max;
+        }
+
+        private void setLeaf(int chunk, double min, double max) {
+            int node = chunk + leaves;
+            mins[node] = min;
+            maxs[node] = max;
+            for (node >>= 1; node >= 1; node >>= 1) {
+                mins[node] = Math.min(mins[2 * node], mins[2 * node + 1]);
+                maxs[node] = Math.max(maxs[2 * node], maxs[2 * node + 1]);
+            }
+        }
+
+        private static double scanMin(double[] values, int from, int to) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int c = from; c <= to; c++) {
+                min = Math.min(min, values[c]);
+            }
+            return min;
+        }
+
+        private static double scanMax(double[] values, int from, int to) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int c = from; c <= to; c++) {
+                max = Math.max(max, values[c]);
+            }
+            return max;
+        }
+    }
+}
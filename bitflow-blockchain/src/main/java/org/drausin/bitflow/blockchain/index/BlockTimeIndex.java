@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of the block times in the best chain by height, stored as primitive int arrays of the (unsigned 32-bit)
+ * block times and of their running max. Block times are not monotonic in height, but their running max is, so it can
+ * be binary searched to find the heights covering a time window without any RPCs.
+ *
+ * @author dwulsin
+ */
+public final class BlockTimeIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int[] times;
+    private int[] maxTimes;
+    private int size;
+
+    public BlockTimeIndex() {
+        this.times = new int[INITIAL_CAPACITY];
+        this.maxTimes = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of heights in the index, which always covers the heights from 0 up to (but not including) this.
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the time, in seconds since the epoch, of the block at a given height, if it is in the index.
+     */
+    public Optional<Long> getTime(long height) {
+        lock.readLock().lock();
+        try {
+            if (height < 0 || height >= size) {
+                return Optional.absent();
+            }
+            return Optional.of(Integer.toUnsignedLong(times[(int) height]));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the height of the last block at or before a given time such that no earlier block has a later time, i.e.,
+     * the highest height whose running max time is not after the given time.
+     *
+     * @param time the time, in seconds since the epoch
+     * @return the height, or absent if the first block in the index is after the given time
+     */
+    public Optional<Long> getHeightAtOrBefore(long time) {
+        lock.readLock().lock();
+        try {
+            // first height whose running max time is after the given time
+            int height = firstMaxTimeAtLeast(time + 1);
+            return height > 0 ? Optional.of((long) height - 1) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the height of the first block at or after a given time, i.e., the lowest height whose running max time is not
+     * before the given time.
+     *
+     * @param time the time, in seconds since the epoch
+     * @return the height, or absent if every block in the index is before the given time
+     */
+    public Optional<Long> getHeightAtOrAfter(long time) {
+        lock.readLock().lock();
+        try {
+            int height = firstMaxTimeAtLeast(time);
+            return height < size ? Optional.of((long) height) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the times of the blocks following the current last block in the index.
+     *
+     * @param fromHeight the height of the first of the times, which must equal the current size of the index
+     * @param newTimes the block times, in seconds since the epoch and in height order
+     */
+    public void extend(long fromHeight, List<Long> newTimes) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(fromHeight == size, "cannot extend index of size %s from height %s", size,
+                    fromHeight);
+            ensureCapacity(size + newTimes.size());
+            for (long time : newTimes) {
+                times[size] = (int) time;
+                maxTimes[size] = size == 0 || Integer.compareUnsigned((int) time, maxTimes[size - 1]) > 0
+                        ? (int) time : maxTimes[size - 1];
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the blocks at and above a given height from the index, e.g., when they are no longer in the best chain.
+     */
+    public void truncate(long height) {
+        lock.writeLock().lock();
+        try {
+            Preconditions.checkArgument(height >= 0, "cannot truncate index to negative height %s", height);
+            size = (int) Math.min(size, height);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int firstMaxTimeAtLeast(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Integer.toUnsignedLong(maxTimes[middle]) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > times.length) {
+            int newCapacity = Math.max(capacity, times.length + (times.length >> 1));
+            times = Arrays.copyOf(times, newCapacity);
+            maxTimes = Arrays.copyOf(maxTimes, newCapacity);
+        }
+    }
+}
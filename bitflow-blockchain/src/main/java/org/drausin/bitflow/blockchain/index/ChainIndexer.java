@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.config.IndexConfig;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.store.HeaderStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the local {@link BlockHashIndex}, {@link BlockTimeIndex}, and {@link BlockStatsIndex} in sync with the bitcoin
+ * node's best chain, filling them on startup and then periodically extending them as new blocks arrive and rolling them
+ * back when the best chain reorganizes. If given a {@link HeaderStore}, the indexer also appends the block headers it
+ * fetches to the store and, on startup, fills the indices from the store before syncing only the blocks it is missing.
+ *
+ * @author dwulsin
+ */
+public final class ChainIndexer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChainIndexer.class);
+
+    private final BitcoinNodeService bitcoinNodeService;
+    private final BlockHeaderFetcher blockHeaderFetcher;
+    private final BlockHashIndex blockHashIndex;
+    private final BlockTimeIndex blockTimeIndex;
+    private final BlockStatsIndex blockStatsIndex;
+    private final Optional<HeaderStore> headerStore;
+    private final IndexConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final List<ChainListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> syncFuture;
+
+    /**
+     * Creates an indexer for the given indices.
+     *
+     * @param bitcoinNodeService the bitcoin node whose best chain to index
+     * @param blockHeaderFetcher the fetcher used to get block header hashes and times from the bitcoin node; must not
+     * itself read from the hash index being synced
+     * @param blockHashIndex the hash index to sync
+     * @param blockTimeIndex the time index to sync
+     * @param config the index configuration
+     * @param scheduler the scheduler on which to run periodic syncs
+     */
+    public ChainIndexer(BitcoinNodeService bitcoinNodeService, BlockHeaderFetcher blockHeaderFetcher,
+            BlockHashIndex blockHashIndex, BlockTimeIndex blockTimeIndex, IndexConfig config,
+            ScheduledExecutorService scheduler) {
+        this(bitcoinNodeService, blockHeaderFetcher, blockHashIndex, blockTimeIndex, Optional.absent(), config,
+                scheduler);
+    }
+
+    /**
+     * Creates an indexer for the given indices that also syncs the given header store, which must be started before
+     * the indexer.
+     */
+    public ChainIndexer(BitcoinNodeService bitcoinNodeService, BlockHeaderFetcher blockHeaderFetcher,
+            BlockHashIndex blockHashIndex, BlockTimeIndex blockTimeIndex, Optional<HeaderStore> headerStore,
+            IndexConfig config, ScheduledExecutorService scheduler) {
+        this(bitcoinNodeService, blockHeaderFetcher, blockHashIndex, blockTimeIndex, new BlockStatsIndex(),
+                headerStore, config, scheduler);
+    }
+
+    /**
+     * Creates an indexer for the given indices, including the stats index, that also syncs the given header store, if
+     * any, which must be started before the indexer.
+     */
+    public ChainIndexer(BitcoinNodeService bitcoinNodeService, BlockHeaderFetcher blockHeaderFetcher,
+            BlockHashIndex blockHashIndex, BlockTimeIndex blockTimeIndex, BlockStatsIndex blockStatsIndex,
+            Optional<HeaderStore> headerStore, IndexConfig config, ScheduledExecutorService scheduler) {
+        this.bitcoinNodeService = bitcoinNodeService;
+        this.blockHeaderFetcher = blockHeaderFetcher;
+        this.blockHashIndex = blockHashIndex;
+        this.blockTimeIndex = blockTimeIndex;
+        this.blockStatsIndex = blockStatsIndex;
+        this.headerStore = headerStore;
+        this.config = config;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds a listener notified of each change to the best chain found while syncing.
+     */
+    public void addListener(ChainListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (headerStore.isPresent()) {
+            loadFromStore();
+        }
+        syncFuture = scheduler.scheduleWithFixedDelay(this::syncQuietly, 0,
+                config.getSyncInterval().toMilliseconds(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (syncFuture != null) {
+            syncFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Syncs the index with the bitcoin node's current best chain.
+     */
+    public void sync() {
+        BlockchainInfoResponse response = bitcoinNodeService.getBlockchainInfo(
+                BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+        response.validateResult();
+        BlockchainInfo blockchainInfo = response.getResult().get();
+
+        long tipHeight = blockchainInfo.getNumBlocks();
+        if (blockHashIndex.getSize() == tipHeight + 1
+                && blockHashIndex.getHash(tipHeight).get().equals(blockchainInfo.getBestBlockHash())) {
+            return;
+        }
+        long sizeBefore = blockHashIndex.getSize();
+        rollBack(tipHeight);
+        long forkHeight = blockHashIndex.getSize();
+        truncate(forkHeight);
+        if (forkHeight < sizeBefore) {
+            for (ChainListener listener : listeners) {
+                listener.onReorganization(forkHeight);
+            }
+        }
+        extend(tipHeight);
+        for (ChainListener listener : listeners) {
+            listener.onTipChanged(tipHeight);
+        }
+    }
+
+    /**
+     * Truncates the time and stats indices and header store to the given height, to which the hash index has been
+     * rolled back.
+     */
+    private void truncate(long height) {
+        blockTimeIndex.truncate(height);
+        blockStatsIndex.truncate(height);
+        if (headerStore.isPresent()) {
+            headerStore.get().truncate(height);
+        }
+    }
+
+    /**
+     * Fills the indices with the blocks in the header store, whose last blocks are checked against the best chain by
+     * the first sync like any others.
+     */
+    private void loadFromStore() {
+        long storedSize = headerStore.get().getSize();
+        for (long from = blockHashIndex.getSize(); from < storedSize; from += config.getSyncChunkSize()) {
+            long to = Math.min(storedSize - 1, from + config.getSyncChunkSize() - 1);
+            blockHashIndex.extend(from, headerStore.get().getHashes(from, to).get());
+            blockTimeIndex.extend(from, headerStore.get().getCreatedTimes(from, to).get());
+            blockStatsIndex.extend(from, headerStore.get().getNumTransactions(from, to).get(),
+                    headerStore.get().getDifficulties(from, to).get());
+        }
+        LOGGER.info("loaded chain index of {} blocks from header store", blockHashIndex.getSize());
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to sync chain index at size {}: {}", blockHashIndex.getSize(), e.getMessage());
+        }
+    }
+
+    private void rollBack(long tipHeight) {
+        if (blockHashIndex.getSize() > tipHeight + 1) {
+            blockHashIndex.truncate(tipHeight + 1);
+        }
+        long depth = config.getReorgCheckDepth();
+        while (blockHashIndex.getSize() > 0) {
+            long checkTo = blockHashIndex.getSize() - 1;
+            long checkFrom = Math.max(0, checkTo - depth + 1);
+            List<Sha256Hash> nodeHashes = blockHeaderFetcher.getBlockHeaderHashes(checkFrom, checkTo);
+            List<Sha256Hash> indexHashes = blockHashIndex.getHashes(checkFrom, checkTo).get();
+
+            // find the highest height at which the index still agrees with the node
+            int agreed = nodeHashes.size() - 1;
+            while (agreed >= 0 && !nodeHashes.get(agreed).equals(indexHashes.get(agreed))) {
+                agreed--;
+            }
+            if (agreed == nodeHashes.size() - 1) {
+                return;
+            }
+            blockHashIndex.truncate(checkFrom + agreed + 1);
+            if (agreed >= 0) {
+                LOGGER.info("rolled back chain index to height {} after best chain reorganization",
+                        checkFrom + agreed);
+                return;
+            }
+            depth *= 2;
+        }
+    }
+
+    private void extend(long tipHeight) {
+        while (blockHashIndex.getSize() <= tipHeight) {
+            long from = blockHashIndex.getSize();
+            long to = Math.min(tipHeight, from + config.getSyncChunkSize() - 1);
+            List<BlockHeader> newHeaders = blockHeaderFetcher.getBlockHeadersOnly(from, to);
+            List<Sha256Hash> newHashes = Lists.newArrayListWithCapacity(newHeaders.size());
+            List<Long> newTimes = Lists.newArrayListWithCapacity(newHeaders.size());
+            List<Long> newNumTransactions = Lists.newArrayListWithCapacity(newHeaders.size());
+            List<Double> newDifficulties = Lists.newArrayListWithCapacity(newHeaders.size());
+            for (BlockHeader header : newHeaders) {
+                // e.g. headers read from the bitcoin node's REST interface, which would skew the stats and store
+                if (header.getNumTransactions() < 0) {
+                    throw new IllegalStateException(String.format("block header %s lacks its number of transactions",
+                            header.getHeaderHash()));
+                }
+                newHashes.add(header.getHeaderHash());
+                newTimes.add(header.getCreatedTime());
+                newNumTransactions.add(header.getNumTransactions());
+                newDifficulties.add(header.getDifficulty());
+            }
+            if (headerStore.isPresent()) {
+                headerStore.get().append(newHeaders);
+            }
+            blockHashIndex.extend(from, newHashes);
+            blockTimeIndex.extend(from, newTimes);
+            blockStatsIndex.extend(from, newNumTransactions, newDifficulties);
+        }
+        if (headerStore.isPresent()) {
+            headerStore.get().flush();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+/**
+ * Listener for changes to the best chain found by a {@link ChainIndexer}.
+ *
+ * @author dwulsin
+ */
+public interface ChainListener {
+
+    /**
+     * Called after the blocks at and above a given height are removed from the best chain by a reorganization, before
+     * the blocks of the new branch are indexed.
+     *
+     * @param forkHeight the height of the first block no longer in the best chain
+     */
+    void onReorganization(long forkHeight);
+
+    /**
+     * Called after the index has been synced to a new best chain tip.
+     *
+     * @param tipHeight the height of the new tip
+     */
+    void onTipChanged(long tipHeight);
+}
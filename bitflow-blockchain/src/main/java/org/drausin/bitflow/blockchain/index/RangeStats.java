@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import java.math.BigInteger;
+import java.util.List;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockRangeStats;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockRangeStats;
+import org.immutables.value.Value;
+
+/**
+ * Sums, mins, and maxes of the numeric fields of the blocks in a height range.
+ *
+ * @author dwulsin
+ */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.SAME, strictBuilder = true)
+public abstract class RangeStats {
+
+    public abstract long getFromHeight();
+
+    public abstract long getToHeight();
+
+    /**
+     * Get the total number of transactions in the blocks, or absent if unknown for any of them.
+     */
+    public abstract Optional<Long> getTotalTransactions();
+
+    public abstract Optional<Long> getMinTransactions();
+
+    public abstract Optional<Long> getMaxTransactions();
+
+    public abstract double getTotalDifficulty();
+
+    public abstract double getMinDifficulty();
+
+    public abstract double getMaxDifficulty();
+
+    public final long getNumBlocks() {
+        return getToHeight() - getFromHeight() + 1;
+    }
+
+    @Value.Check
+    protected final void check() {
+        if (getFromHeight() > getToHeight()) {
+            throw new IllegalStateException(String.format("fromHeight %s must not be greater than toHeight %s",
+                    getFromHeight(), getToHeight()));
+        }
+    }
+
+    /**
+     * Converts these stats to the block range stats returned to clients, with means in place of the sums.
+     *
+     * @param chainworkDelta the chainwork of the last block less that of the block before the first
+     */
+    public final BlockRangeStats toBlockRangeStats(BigInteger chainworkDelta) {
+        return ImmutableBlockRangeStats.builder()
+                .fromHeight(getFromHeight())
+                .toHeight(getToHeight())
+                .numBlocks(getNumBlocks())
+                .totalTransactions(getTotalTransactions())
+                .meanTransactions(getTotalTransactions().transform(total -> (double) total / getNumBlocks()))
+                .minTransactions(getMinTransactions())
+                .maxTransactions(getMaxTransactions())
+                .meanDifficulty(getTotalDifficulty() / getNumBlocks())
+                .minDifficulty(getMinDifficulty())
+                .maxDifficulty(getMaxDifficulty())
+                .chainworkDelta(chainworkDelta)
+                .build();
+    }
+
+    /**
+     * Computes the stats of a subchain of block headers, e.g. for a range not covered by the {@link BlockStatsIndex}.
+     */
+    public static RangeStats of(List<BlockHeader> subchain) {
+        Preconditions.checkArgument(!subchain.isEmpty(), "subchain must not be empty");
+        long totalTransactions = 0;
+        long minTransactions = Long.MAX_VALUE;
+        long maxTransactions = Long.MIN_VALUE;
+        boolean knownTransactions = true;
+        double totalDifficulty = 0;
+        double minDifficulty = Double.POSITIVE_INFINITY;
+        double maxDifficulty = Double.NEGATIVE_INFINITY;
+        for (BlockHeader header : subchain) {
+            knownTransactions &= header.getNumTransactions() >= 0;
+            totalTransactions += header.getNumTransactions();
+            minTransactions = Math.min(minTransactions, header.getNumTransactions());
+            maxTransactions = Math.max(maxTransactions, header.getNumTransactions());
+            totalDifficulty += header.getDifficulty();
+            minDifficulty = Math.min(minDifficulty, header.getDifficulty());
+            maxDifficulty = Math.max(maxDifficulty, header.getDifficulty());
+        }
+        return ImmutableRangeStats.builder()
+                .fromHeight(subchain.get(0).getHeight())
+                .toHeight(subchain.get(subchain.size() - 1).getHeight())
+                .totalTransactions(knownTransactions ? Optional.of(totalTransactions) : Optional.absent())
+                .minTransactions(knownTransactions ? Optional.of(minTransactions) : Optional.absent())
+                .maxTransactions(knownTransactions ? Optional.of(maxTransactions) : Optional.absent())
+                .totalDifficulty(totalDifficulty)
+                .minDifficulty(minDifficulty)
+                .maxDifficulty(maxDifficulty)
+                .build();
+    }
+}
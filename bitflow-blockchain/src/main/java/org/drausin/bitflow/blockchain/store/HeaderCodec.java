@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.store;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.math.BigInteger;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+
+/**
+ * Encodes block headers to and decodes them from the raw 80-byte serialization that bitcoin nodes hash and relay:
+ * the version, previous block hash, merkle root, time, difficulty target bits, and nonce, with integers in
+ * little-endian and hashes in internal (reversed) byte order.
+ *
+ * @author dwulsin
+ */
+public final class HeaderCodec {
+
+    static final int HEADER_LENGTH = 80;
+
+    private static final int VERSION_OFFSET = 0;
+    private static final int PREVIOUS_HASH_OFFSET = 4;
+    private static final int MERKLE_ROOT_OFFSET = 36;
+    private static final int TIME_OFFSET = 68;
+    private static final int BITS_OFFSET = 72;
+    private static final int NONCE_OFFSET = 76;
+    private static final int HASH_LENGTH = 32;
+
+    private static final int DIFFICULTY_ONE_MANTISSA = 0x0000ffff;
+    private static final int DIFFICULTY_ONE_EXPONENT = 29;
+    private static final int MANTISSA_MASK = 0x00ffffff;
+    private static final int EXPONENT_SHIFT = 24;
+    private static final int BYTE_MASK = 0xff;
+    private static final double BYTE_FACTOR = 256.0;
+
+    private HeaderCodec() {}
+
+    /**
+     * Encodes the raw header of a block header into the given array.
+     */
+    static void encode(BlockHeader header, byte[] raw) {
+        Preconditions.checkArgument(raw.length == HEADER_LENGTH, "raw header length %s must be %s", raw.length,
+                HEADER_LENGTH);
+        Utils.uint32ToByteArrayLE(header.getVersion(), raw, VERSION_OFFSET);
+        byte[] previousHash = header.getPreviousBlockHash().or(Sha256Hash.ZERO_HASH).getReversedBytes();
+        System.arraycopy(previousHash, 0, raw, PREVIOUS_HASH_OFFSET, HASH_LENGTH);
+        System.arraycopy(header.getMerkleRoot().getReversedBytes(), 0, raw, MERKLE_ROOT_OFFSET, HASH_LENGTH);
+        Utils.uint32ToByteArrayLE(header.getCreatedTime(), raw, TIME_OFFSET);
+        Utils.uint32ToByteArrayLE(header.getDifficultyTarget().longValue(), raw, BITS_OFFSET);
+        Utils.uint32ToByteArrayLE(header.getNonce(), raw, NONCE_OFFSET);
+    }
+
+    /**
+     * Gets the header hash of a raw header, the double SHA-256 of it in display byte order.
+     */
+    static Sha256Hash hash(byte[] raw) {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(raw));
+    }
+
+    static long getCreatedTime(byte[] raw) {
+        return Utils.readUint32(raw, TIME_OFFSET);
+    }
+
+    /**
+     * Decodes a block header from its raw header and the fields that aren't part of it. The block header has no
+     * transaction IDs, only their number.
+     */
+    static BlockHeader decode(byte[] raw, Sha256Hash headerHash, long height, long numConfirmations, long sizeBytes,
+            long numTransactions, BigInteger chainwork, Optional<Sha256Hash> nextBlockHash) {
+        long bits = Utils.readUint32(raw, BITS_OFFSET);
+        Sha256Hash previousHash = readHash(raw, PREVIOUS_HASH_OFFSET);
+        BlockHeader header = BlockHeader.of(headerHash, numConfirmations, sizeBytes, height,
+                Utils.readUint32(raw, VERSION_OFFSET), readHash(raw, MERKLE_ROOT_OFFSET), ImmutableList.of(),
+                Utils.readUint32(raw, TIME_OFFSET), Utils.readUint32(raw, NONCE_OFFSET), BigInteger.valueOf(bits),
+                getDifficulty(bits), chainwork,
+                previousHash.equals(Sha256Hash.ZERO_HASH) ? Optional.absent() : Optional.of(previousHash),
+                nextBlockHash);
+        return ImmutableBlockHeader.copyOf(header).withNumTransactions(numTransactions);
+    }
+
+    /**
+     * Gets the difficulty of a raw header's compact difficulty target.
+     */
+    static double getDifficulty(byte[] raw) {
+        return getDifficulty(Utils.readUint32(raw, BITS_OFFSET));
+    }
+
+    /**
+     * Gets the difficulty of a compact difficulty target, relative to the minimum difficulty, computed the same way
+     * as bitcoind so the result is identical.
+     */
+    public static double getDifficulty(long bits) {
+        int shift = (int) (bits >>> EXPONENT_SHIFT) & BYTE_MASK;
+        double difficulty = (double) DIFFICULTY_ONE_MANTISSA / (double) (bits & MANTISSA_MASK);
+        while (shift < DIFFICULTY_ONE_EXPONENT) {
+            difficulty *= BYTE_FACTOR;
+            shift++;
+        }
+        while (shift > DIFFICULTY_ONE_EXPONENT) {
+            difficulty /= BYTE_FACTOR;
+            shift--;
+        }
+        return difficulty;
+    }
+
+    private static Sha256Hash readHash(byte[] raw, int offset) {
+        byte[] hash = new byte[HASH_LENGTH];
+        System.arraycopy(raw, offset, hash, 0, HASH_LENGTH);
+        return Sha256Hash.wrapReversed(hash);
+    }
+}
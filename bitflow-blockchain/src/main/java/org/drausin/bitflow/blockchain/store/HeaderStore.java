@@ -0,0 +1,462 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.store;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+
+/**
+ * Append-only local mirror of the best chain's block headers, kept in memory-mapped files so that reads are served
+ * from the OS page cache and the mirror survives restarts. The headers file holds the raw 80-byte header of each block
+ * in height order, in the same format bitcoind stores and relays them. The metadata sidecar holds, for each block, the
+ * fields that aren't part of its raw header: its header hash, size, number of transactions, and chainwork, after a
+ * small file header with a magic number ("BFHS"), format version, and the number of blocks stored. Header hashes are
+ * looked up by an in-memory open-addressing table rebuilt from the sidecar on start.
+ *
+ * <p>The tip block is stored but not read, since its next block hash isn't known yet.
+ *
+ * @author dwulsin
+ */
+public final class HeaderStore implements Managed {
+
+    static final String HEADERS_FILE_NAME = "headers.dat";
+    static final String META_FILE_NAME = "headers.meta";
+
+    private static final int MAGIC = 0x42464853;
+    private static final int FORMAT_VERSION = 1;
+    private static final int META_HEADER_LENGTH = 16;
+    private static final int SIZE_OFFSET = 8;
+    private static final int HASH_LENGTH = 32;
+    private static final int META_LENGTH = 72;
+    private static final int NUM_TRANSACTIONS_OFFSET = HASH_LENGTH + Integer.BYTES;
+    private static final int SEGMENT_BLOCKS = 1 << 16;
+    private static final int INITIAL_TABLE_CAPACITY = 1 << 16;
+    private static final int KEY_OFFSET = HASH_LENGTH - Long.BYTES;
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<MappedByteBuffer> headerSegments = Lists.newArrayList();
+    private final List<MappedByteBuffer> metaSegments = Lists.newArrayList();
+    private FileChannel headersChannel;
+    private FileChannel metaChannel;
+    private MappedByteBuffer metaHeader;
+    private int size;
+
+    // open-addressing table from the low-order bytes of each stored header hash to its height plus one
+    private long[] tableKeys;
+    private int[] tableHeights;
+    private int tableEntries;
+
+    /**
+     * Creates a store in the given directory, which is created if missing when the store is started.
+     */
+    public HeaderStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void start() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Files.createDirectories(directory);
+            headersChannel = FileChannel.open(directory.resolve(HEADERS_FILE_NAME), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            metaChannel = FileChannel.open(directory.resolve(META_FILE_NAME), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = metaChannel.size() == 0;
+            metaHeader = metaChannel.map(FileChannel.MapMode.READ_WRITE, 0, META_HEADER_LENGTH);
+            if (created) {
+                metaHeader.putInt(0, MAGIC).putInt(Integer.BYTES, FORMAT_VERSION).putLong(SIZE_OFFSET, 0);
+            } else if (metaHeader.getInt(0) != MAGIC || metaHeader.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                throw new IllegalStateException(String.format("%s is not a version %s header store metadata file",
+                        directory.resolve(META_FILE_NAME), FORMAT_VERSION));
+            }
+            size = (int) metaHeader.getLong(SIZE_OFFSET);
+            for (int segment = 0; segment * SEGMENT_BLOCKS < size; segment++) {
+                mapSegments(segment);
+            }
+            rebuildTable(INITIAL_TABLE_CAPACITY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        lock.writeLock().lock();
+        try {
+            flush();
+            headerSegments.clear();
+            metaSegments.clear();
+            metaHeader = null;
+            headersChannel.close();
+            metaChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of blocks stored, which are those at heights 0 to size - 1.
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the header hash of the stored block at a given height, if present.
+     */
+    public Optional<Sha256Hash> getHash(long height) {
+        lock.readLock().lock();
+        try {
+            return height >= 0 && height < size ? Optional.of(readHash((int) height)) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the header hashes of the stored blocks in a height range, if all are present.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<List<Sha256Hash>> getHashes(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            ImmutableList.Builder<Sha256Hash> hashes = ImmutableList.builder();
+            for (int height = (int) fromHeight; height <= toHeight; height++) {
+                hashes.add(readHash(height));
+            }
+            return Optional.of(hashes.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the created times (in seconds since the epoch) of the stored blocks in a height range, if all are present.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<List<Long>> getCreatedTimes(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            ImmutableList.Builder<Long> times = ImmutableList.builder();
+            for (int height = (int) fromHeight; height <= toHeight; height++) {
+                times.add(HeaderCodec.getCreatedTime(readRawHeader(height)));
+            }
+            return Optional.of(times.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the numbers of transactions (or -1 where unknown) of the stored blocks in a height range, if all are
+     * present.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<List<Long>> getNumTransactions(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            ImmutableList.Builder<Long> numTransactions = ImmutableList.builder();
+            for (int height = (int) fromHeight; height <= toHeight; height++) {
+                ByteBuffer buffer = getMetaBuffer(height);
+                numTransactions.add((long) buffer.getInt(buffer.position() + NUM_TRANSACTIONS_OFFSET));
+            }
+            return Optional.of(numTransactions.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the difficulties of the stored blocks in a height range, if all are present.
+     *
+     * @param fromHeight the height (inclusive) of the first block
+     * @param toHeight the height (inclusive) of the last block
+     */
+    public Optional<List<Double>> getDifficulties(long fromHeight, long toHeight) {
+        lock.readLock().lock();
+        try {
+            if (fromHeight < 0 || toHeight >= size || fromHeight > toHeight) {
+                return Optional.absent();
+            }
+            ImmutableList.Builder<Double> difficulties = ImmutableList.builder();
+            for (int height = (int) fromHeight; height <= toHeight; height++) {
+                difficulties.add(HeaderCodec.getDifficulty(readRawHeader(height)));
+            }
+            return Optional.of(difficulties.build());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the height of the stored block with a given header hash, if present.
+     */
+    public Optional<Long> getHeight(Sha256Hash hash) {
+        lock.readLock().lock();
+        try {
+            int height = findHeight(hash);
+            return height >= 0 ? Optional.of((long) height) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the block header, without transaction IDs, of the stored block at a given height, if present and below the
+     * stored tip.
+     */
+    public Optional<BlockHeader> getBlockHeader(long height) {
+        lock.readLock().lock();
+        try {
+            return height >= 0 && height < size - 1 ? Optional.of(readBlockHeader((int) height)) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the block header, without transaction IDs, of the stored block with a given header hash, if present and
+     * below the stored tip.
+     */
+    public Optional<BlockHeader> getBlockHeader(Sha256Hash hash) {
+        lock.readLock().lock();
+        try {
+            int height = findHeight(hash);
+            return height >= 0 && height < size - 1 ? Optional.of(readBlockHeader(height)) : Optional.absent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends block headers to the store. The first must be at the next height and follow the stored tip, and each
+     * must follow the one before it and have the header hash of its raw header.
+     *
+     * @throws IllegalArgumentException if the block headers don't extend the stored chain
+     */
+    public void append(List<BlockHeader> headers) {
+        lock.writeLock().lock();
+        try {
+            Sha256Hash previousHash = size > 0 ? readHash(size - 1) : Sha256Hash.ZERO_HASH;
+            byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+            for (BlockHeader header : headers) {
+                Preconditions.checkArgument(header.getHeight() == size, "block header height %s must be %s",
+                        header.getHeight(), size);
+                Preconditions.checkArgument(header.getPreviousBlockHash().or(Sha256Hash.ZERO_HASH).equals(previousHash),
+                        "block header at height %s must follow header hash %s", size, previousHash);
+                HeaderCodec.encode(header, raw);
+                Preconditions.checkArgument(HeaderCodec.hash(raw).equals(header.getHeaderHash()),
+                        "raw header at height %s does not hash to header hash %s", size, header.getHeaderHash());
+                writeBlock(size, raw, header);
+                insert(header.getHeaderHash(), size);
+                previousHash = header.getHeaderHash();
+                size++;
+            }
+            metaHeader.putLong(SIZE_OFFSET, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the stored blocks at and above a given height, e.g. after they left the best chain.
+     */
+    public void truncate(long height) {
+        lock.writeLock().lock();
+        try {
+            if (height < size) {
+                size = (int) Math.max(0, height);
+                metaHeader.putLong(SIZE_OFFSET, size);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces any changes to the stored blocks out to disk.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer segment : headerSegments) {
+                segment.force();
+            }
+            for (MappedByteBuffer segment : metaSegments) {
+                segment.force();
+            }
+            metaHeader.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writeBlock(int height, byte[] raw, BlockHeader header) {
+        int segment = height / SEGMENT_BLOCKS;
+        if (segment >= headerSegments.size()) {
+            mapSegments(segment);
+        }
+        int offset = height % SEGMENT_BLOCKS;
+        ByteBuffer headerBuffer = headerSegments.get(segment).duplicate();
+        headerBuffer.position(offset * HeaderCodec.HEADER_LENGTH);
+        headerBuffer.put(raw);
+
+        ByteBuffer metaBuffer = metaSegments.get(segment).duplicate();
+        metaBuffer.position(offset * META_LENGTH);
+        metaBuffer.put(header.getHeaderHash().getBytes());
+        metaBuffer.putInt((int) header.getSizeBytes());
+        metaBuffer.putInt((int) header.getNumTransactions());
+        metaBuffer.put(toFixedLength(header.getChainwork()));
+    }
+
+    private void mapSegments(int segment) {
+        try {
+            long headerSegmentLength = (long) SEGMENT_BLOCKS * HeaderCodec.HEADER_LENGTH;
+            long metaSegmentLength = (long) SEGMENT_BLOCKS * META_LENGTH;
+            headerSegments.add(headersChannel.map(FileChannel.MapMode.READ_WRITE, segment * headerSegmentLength,
+                    headerSegmentLength));
+            metaSegments.add(metaChannel.map(FileChannel.MapMode.READ_WRITE,
+                    META_HEADER_LENGTH + segment * metaSegmentLength, metaSegmentLength));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] readRawHeader(int height) {
+        ByteBuffer buffer = headerSegments.get(height / SEGMENT_BLOCKS).duplicate();
+        buffer.position((height % SEGMENT_BLOCKS) * HeaderCodec.HEADER_LENGTH);
+        byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+        buffer.get(raw);
+        return raw;
+    }
+
+    private Sha256Hash readHash(int height) {
+        ByteBuffer buffer = getMetaBuffer(height);
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+        return Sha256Hash.wrap(hash);
+    }
+
+    private BlockHeader readBlockHeader(int height) {
+        ByteBuffer buffer = getMetaBuffer(height);
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+        long sizeBytes = buffer.getInt();
+        long numTransactions = buffer.getInt();
+        byte[] chainwork = new byte[HASH_LENGTH];
+        buffer.get(chainwork);
+        return HeaderCodec.decode(readRawHeader(height), Sha256Hash.wrap(hash), height, size - height, sizeBytes,
+                numTransactions, new BigInteger(1, chainwork), Optional.of(readHash(height + 1)));
+    }
+
+    private ByteBuffer getMetaBuffer(int height) {
+        ByteBuffer buffer = metaSegments.get(height / SEGMENT_BLOCKS).duplicate();
+        buffer.position((height % SEGMENT_BLOCKS) * META_LENGTH);
+        return buffer;
+    }
+
+    private int findHeight(Sha256Hash hash) {
+        long key = getKey(hash);
+        int mask = tableKeys.length - 1;
+        for (int slot = (int) (key ^ (key >>> Integer.SIZE)) & mask; tableHeights[slot] != 0;
+                slot = (slot + 1) & mask) {
+            // entries left behind by truncation are skipped since their height no longer has their hash
+            int height = tableHeights[slot] - 1;
+            if (tableKeys[slot] == key && height < size && readHash(height).equals(hash)) {
+                return height;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(Sha256Hash hash, int height) {
+        if (2 * (tableEntries + 1) > tableKeys.length) {
+            rebuildTable(2 * tableKeys.length);
+        }
+        long key = getKey(hash);
+        int mask = tableKeys.length - 1;
+        int slot = (int) (key ^ (key >>> Integer.SIZE)) & mask;
+        while (tableHeights[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        tableKeys[slot] = key;
+        tableHeights[slot] = height + 1;
+        tableEntries++;
+    }
+
+    private void rebuildTable(int minCapacity) {
+        int capacity = minCapacity;
+        while (capacity < 2 * size) {
+            capacity *= 2;
+        }
+        tableKeys = new long[capacity];
+        tableHeights = new int[capacity];
+        tableEntries = 0;
+        for (int height = 0; height < size; height++) {
+            insert(readHash(height), height);
+        }
+    }
+
+    private static long getKey(Sha256Hash hash) {
+        // the low-order bytes of a header hash are uniformly distributed, unlike its leading zeros
+        return ByteBuffer.wrap(hash.getBytes(), KEY_OFFSET, Long.BYTES).getLong();
+    }
+
+    private static byte[] toFixedLength(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] fixed = new byte[HASH_LENGTH];
+        int length = Math.min(bytes.length, HASH_LENGTH);
+        System.arraycopy(bytes, bytes.length - length, fixed, HASH_LENGTH - length, length);
+        return fixed;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.blockchain.api.BlockchainService;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
+import org.drausin.bitflow.blockchain.config.AsyncConfig;
+import org.drausin.bitflow.blockchain.config.FairnessConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableFairnessConfig;
+import org.drausin.bitflow.blockchain.fair.FairScheduler;
+import org.drausin.bitflow.blockchain.fetch.SubchainCursor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public final class AsyncBlockchainResourceTest {
+
+    private static String authHeader = "dummy auth header";
+
+    private BlockchainService blockchainService;
+    private AsyncResponse asyncResponse;
+
+    @Before
+    public void setUp() {
+        blockchainService = mock(BlockchainService.class);
+        asyncResponse = mock(AsyncResponse.class);
+    }
+
+    @Test
+    public void testGetBlockchainInfo() throws Exception {
+        BlockchainInfo info = BitcoinNodeExampleResponses.getBlockchainInfoResponse().getResult().get();
+        when(blockchainService.getBlockchainInfo(authHeader)).thenReturn(info);
+
+        createResource(MoreExecutors.directExecutor()).getBlockchainInfo(authHeader, asyncResponse);
+        verify(asyncResponse).resume(info);
+    }
+
+    @Test
+    public void testGetBlockchainInfoWhileSaturated() throws Exception {
+        BlockchainInfo info = BitcoinNodeExampleResponses.getBlockchainInfoResponse().getResult().get();
+        when(blockchainService.getBlockchainInfo(authHeader)).thenReturn(info);
+        Executor executor = mock(Executor.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+
+        // blockchain info doesn't wait behind the other requests, so it's answered even when they're rejected
+        AsyncBlockchainResource resource = createResource(executor);
+        resource.getBlockHeader(authHeader, 1L, false, asyncResponse);
+        verify(asyncResponse).resume(any(ServiceUnavailableException.class));
+        resource.getBlockchainInfo(authHeader, asyncResponse);
+        verify(asyncResponse).resume(info);
+    }
+
+    @Test
+    public void testGetBlockHeaderHeightSubchain() throws Exception {
+        List<BlockHeader> subchain = ImmutableList.of(
+                BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get());
+        when(blockchainService.getBlockHeaderHeightSubchain(authHeader, 1, 2, true)).thenReturn(subchain);
+
+        createResource(MoreExecutors.directExecutor()).getBlockHeaderHeightSubchain(authHeader, 1, 2, true,
+                asyncResponse);
+        verify(asyncResponse).resume(subchain);
+    }
+
+    @Test
+    public void testGetBlock() throws Exception {
+        FullBlock block = FullBlock.of(BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get(),
+                ImmutableList.of());
+        when(blockchainService.getBlock(authHeader, 1L)).thenReturn(block);
+
+        createResource(MoreExecutors.directExecutor()).getBlock(authHeader, 1L, asyncResponse);
+        verify(asyncResponse).resume(block);
+    }
+
+    @Test
+    public void testHandledOffRequestThread() throws Exception {
+        Executor executor = mock(Executor.class);
+        createResource(executor).getBlockHeader(authHeader, 1L, false, asyncResponse);
+        verify(asyncResponse).setTimeout(AsyncConfig.DEFAULT_TIMEOUT.toMilliseconds(), TimeUnit.MILLISECONDS);
+        verify(blockchainService, never()).getBlockHeader(any(String.class), anyLong(), anyBoolean());
+        verify(asyncResponse, never()).resume(any(Object.class));
+
+        ArgumentCaptor<Runnable> request = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(request.capture());
+        request.getValue().run();
+        verify(blockchainService).getBlockHeader(authHeader, 1L, false);
+    }
+
+    @Test
+    public void testExceptionResumed() throws Exception {
+        IllegalStateException exception = new IllegalStateException("subchain changed");
+        when(blockchainService.getBlockHeaderTimeSubchain(authHeader, null, null, false)).thenThrow(exception);
+
+        createResource(MoreExecutors.directExecutor()).getBlockHeaderTimeSubchain(authHeader, null, null, false,
+                asyncResponse);
+        verify(asyncResponse).resume(exception);
+    }
+
+    @Test
+    public void testRejectedUnavailable() throws Exception {
+        Executor executor = mock(Executor.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+
+        createResource(executor).getBlockHeaderHeightSubchainPage(authHeader, 1, 2, 1, null, false,
+                asyncResponse);
+        verify(asyncResponse).resume(any(ServiceUnavailableException.class));
+        verify(blockchainService, never()).getBlockHeaderHeightSubchainPage(any(String.class), anyLong(), anyLong(),
+                eq(1), any(String.class), anyBoolean());
+    }
+
+    @Test
+    public void testTimeoutUnavailable() throws Exception {
+        createResource(mock(Executor.class)).streamBlockHeaderHeightSubchain(authHeader, 1, 2, false,
+                asyncResponse);
+
+        ArgumentCaptor<TimeoutHandler> handler = ArgumentCaptor.forClass(TimeoutHandler.class);
+        verify(asyncResponse).setTimeoutHandler(handler.capture());
+        handler.getValue().handleTimeout(asyncResponse);
+        verify(asyncResponse).resume(any(ServiceUnavailableException.class));
+    }
+
+    @Test
+    public void testFairlyScheduled() throws Exception {
+        FullBlock block = FullBlock.of(BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get(),
+                ImmutableList.of());
+        when(blockchainService.getBlock(authHeader, 1L)).thenReturn(block);
+        FairScheduler fairScheduler = new FairScheduler(FairnessConfig.of(), 1, 1, MoreExecutors.directExecutor());
+
+        new AsyncBlockchainResource(blockchainService, fairScheduler, AsyncConfig.of()).getBlock(authHeader, 1L,
+                asyncResponse);
+        verify(asyncResponse).resume(block);
+        assertEquals(1, fairScheduler.getRequests(fairScheduler.getClientName(authHeader)).getCount());
+    }
+
+    @Test
+    public void testRateLimitedTooManyRequests() throws Exception {
+        FairScheduler fairScheduler = new FairScheduler(ImmutableFairnessConfig.builder().rate(1).burst(1).build(),
+                1, 10, mock(Executor.class));
+        AsyncBlockchainResource resource = new AsyncBlockchainResource(blockchainService, fairScheduler,
+                AsyncConfig.of());
+        resource.getBlock(authHeader, 1L, asyncResponse);
+        resource.getBlock(authHeader, 1L, asyncResponse);
+
+        ArgumentCaptor<ClientErrorException> exception = ArgumentCaptor.forClass(ClientErrorException.class);
+        verify(asyncResponse).resume(exception.capture());
+        assertEquals(429, exception.getValue().getResponse().getStatus());
+    }
+
+    @Test
+    public void testMalformedCursorBadRequest() throws Exception {
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        new AsyncBlockchainResource(new BlockchainResource(bitcoinNodeService), MoreExecutors.directExecutor(),
+                AsyncConfig.of()).getBlockHeaderHeightSubchainPage(authHeader, 1, 2, 1, "not-a-cursor", false,
+                asyncResponse);
+
+        ArgumentCaptor<ClientErrorException> exception = ArgumentCaptor.forClass(ClientErrorException.class);
+        verify(asyncResponse).resume(exception.capture());
+        assertEquals(400, exception.getValue().getResponse().getStatus());
+    }
+
+    @Test
+    public void testReorganizedCursorConflict() throws Exception {
+        Sha256Hash lastHash = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get().getHeaderHash();
+        String cursor = SubchainCursor.of(100, lastHash, 200, lastHash, lastHash).encode();
+
+        // the best chain now has a different tip and a different block at the end of the previous page
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
+                BitcoinNodeExampleResponses.getBlockchainInfoResponse());
+        when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(100)))
+                .thenReturn(BlockHeaderHashResponse.of(Sha256Hash.ZERO_HASH));
+        new AsyncBlockchainResource(new BlockchainResource(bitcoinNodeService), MoreExecutors.directExecutor(),
+                AsyncConfig.of()).getBlockHeaderHeightSubchainPage(authHeader, 1, 2, 1, cursor, false, asyncResponse);
+
+        ArgumentCaptor<ClientErrorException> exception = ArgumentCaptor.forClass(ClientErrorException.class);
+        verify(asyncResponse).resume(exception.capture());
+        assertEquals(409, exception.getValue().getResponse().getStatus());
+    }
+
+    @Test
+    public void testEndpointsMatchBlockchainService() throws Exception {
+        int endpoints = 0;
+        for (Method method : BlockchainService.class.getDeclaredMethods()) {
+            Class<?>[] asyncParameterTypes = Arrays.copyOf(method.getParameterTypes(), method.getParameterCount() + 1);
+            asyncParameterTypes[method.getParameterCount()] = AsyncResponse.class;
+            Method asyncMethod = AsyncBlockchainResource.class.getMethod(method.getName(), asyncParameterTypes);
+            String name = method.toString();
+
+            // each endpoint has an async twin with the same path, HTTP method, media types, and parameters
+            assertEquals(name, getHttpMethods(method), getHttpMethods(asyncMethod));
+            assertEquals(name, getAnnotation(method, Path.class), getAnnotation(asyncMethod, Path.class));
+            assertEquals(name, getAnnotation(method, Consumes.class), getAnnotation(asyncMethod, Consumes.class));
+            assertEquals(name, getAnnotation(method, Produces.class), getAnnotation(asyncMethod, Produces.class));
+            for (int p = 0; p < method.getParameterCount(); p++) {
+                assertEquals(name, ImmutableSet.copyOf(method.getParameterAnnotations()[p]),
+                        ImmutableSet.copyOf(asyncMethod.getParameterAnnotations()[p]));
+            }
+            assertTrue(name, asyncMethod.getParameterAnnotations()[method.getParameterCount()][0] instanceof Suspended);
+            endpoints++;
+        }
+        assertEquals(BlockchainService.class.getAnnotation(Path.class),
+                AsyncBlockchainResource.class.getAnnotation(Path.class));
+
+        // and the async resource has no other endpoints
+        int asyncEndpoints = 0;
+        for (Method asyncMethod : AsyncBlockchainResource.class.getDeclaredMethods()) {
+            if (!getHttpMethods(asyncMethod).isEmpty()) {
+                asyncEndpoints++;
+            }
+        }
+        assertEquals(endpoints, asyncEndpoints);
+    }
+
+    private AsyncBlockchainResource createResource(Executor executor) {
+        return new AsyncBlockchainResource(blockchainService, executor, AsyncConfig.of());
+    }
+
+    private static Set<Annotation> getHttpMethods(Method method) {
+        Set<Annotation> httpMethods = new HashSet<>();
+        for (Annotation annotation : method.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(HttpMethod.class)) {
+                httpMethods.add(annotation);
+            }
+        }
+        return httpMethods;
+    }
+
+    /**
+     * Gets the given annotation of the method, or else of its class, as JAX-RS reads media types.
+     */
+    private static <A extends Annotation> A getAnnotation(Method method, Class<A> annotationType) {
+        A annotation = method.getAnnotation(annotationType);
+        return annotation == null ? method.getDeclaringClass().getAnnotation(annotationType) : annotation;
+    }
+}
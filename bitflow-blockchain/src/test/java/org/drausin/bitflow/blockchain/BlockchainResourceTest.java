@@ -15,16 +15,28 @@
 package org.drausin.bitflow.blockchain;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.dropwizard.jersey.params.DateTimeParam;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import javax.ws.rs.ClientErrorException;
 import org.bitcoinj.core.Sha256Hash;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
@@ -33,18 +45,34 @@ import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
 import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
 import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.BlockchainService;
 import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookupResult;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderPage;
+import org.drausin.bitflow.blockchain.api.objects.BlockRangeStats;
 import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableFetchConfig;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.index.BlockStatsIndex;
+import org.drausin.bitflow.blockchain.index.BlockTimeIndex;
 import org.drausin.bitflow.blockchain.validation.SubchainValidator;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.stubbing.Answer;
 
 public final class BlockchainResourceTest {
 
     private static String authHeader = "dummy auth header";
+    private static final Sha256Hash GENESIS_HASH =
+            Sha256Hash.wrap("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f");
 
     @Before
     public void setUp() throws Exception {
@@ -75,7 +103,147 @@ public final class BlockchainResourceTest {
         Sha256Hash headerHash = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get().getHeaderHash();
         assertEquals(
                 BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get(),
-                blockchainResource.getBlockHeader(authHeader, headerHash));
+                blockchainResource.getBlockHeader(authHeader, headerHash, true));
+        verify(bitcoinNodeService, never()).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeaderOnly() throws Exception {
+
+        BlockHeader fullHeader = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get();
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenReturn(BlockHeaderResponse.of(
+                ImmutableBlockHeader.copyOf(fullHeader).withTransactionIds(ImmutableList.of())));
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        Sha256Hash headerHash = fullHeader.getHeaderHash();
+        BlockHeader header = blockchainResource.getBlockHeader(authHeader, headerHash, false);
+        assertEquals(headerHash, header.getHeaderHash());
+        assertEquals(0, header.getTransactionIds().size());
+        verify(bitcoinNodeService, never()).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlock() throws Exception {
+
+        BlockHeader genesisHeader = ImmutableBlockHeader.copyOf(
+                BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get())
+                .withHeaderHash(GENESIS_HASH)
+                .withTransactionIds(ImmutableList.of());
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenReturn(
+                BlockHeaderResponse.of(genesisHeader));
+        when(bitcoinNodeService.getRawBlock(BitcoinNodeRequestFactory.createRawBlockRequest(GENESIS_HASH)))
+                .thenReturn(BitcoinNodeExampleResponses.getRawBlockResponse());
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        FullBlock block = blockchainResource.getBlock(authHeader, GENESIS_HASH);
+        assertEquals(GENESIS_HASH, block.getBlockHeader().getHeaderHash());
+        assertEquals(genesisHeader.getHeight(), block.getBlockHeader().getHeight());
+        assertEquals(285, block.getBlockHeader().getSizeBytes());
+        assertEquals(1, block.getBlockHeader().getNumTransactions());
+        assertEquals(Sha256Hash.wrap("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b"),
+                block.getTransactions().get(0).getTransactionId());
+        verify(bitcoinNodeService, never()).getBlockHeader(any(BitcoinNodeRequest.class));
+
+        // blocks serialize with their binary scripts in both JSON and Smile
+        ObjectMapper mapper = BitflowMapperFactory.createMapper();
+        assertEquals(block, mapper.readValue(mapper.writeValueAsString(block), FullBlock.class));
+        ObjectMapper smileMapper = BitflowMapperFactory.createSmileMapper();
+        assertEquals(block, smileMapper.readValue(smileMapper.writeValueAsBytes(block), FullBlock.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockAtHeightMismatched() throws Exception {
+
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        BlockHeader header = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get();
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenReturn(
+                BlockHeaderHashResponse.of(header.getHeaderHash()));
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenReturn(
+                BlockHeaderResponse.of(header));
+
+        // the bitcoin node returns a different block than the one at the height
+        when(bitcoinNodeService.getRawBlock(any(BitcoinNodeRequest.class))).thenReturn(
+                BitcoinNodeExampleResponses.getRawBlockResponse());
+        new BlockchainResource(bitcoinNodeService).getBlock(authHeader, header.getHeight());
+    }
+
+    @Test
+    public void testGetBlockHeaders() throws Exception {
+
+        BlockHeader header = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get();
+        BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockHeaders(anyListOf(BitcoinNodeRequest.class))).thenReturn(ImmutableList.of(
+                BlockHeaderResponse.of(Optional.of(header), Optional.absent(),
+                        Optional.of(header.getHeaderHash().toString()))));
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        List<BlockHeaderLookupResult> results = blockchainResource.getBlockHeaders(authHeader,
+                ImmutableList.of(BlockHeaderLookup.of(header.getHeaderHash())), true);
+        assertEquals(ImmutableList.of(BlockHeaderLookupResult.of(header)), results);
+
+        // results serialize with either a header or an error
+        ObjectMapper mapper = BitflowMapperFactory.createMapper();
+        assertEquals(results, mapper.readValue(mapper.writeValueAsString(results),
+                mapper.getTypeFactory().constructCollectionType(List.class, BlockHeaderLookupResult.class)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetBlockHeadersTooMany() throws Exception {
+        List<BlockHeaderLookup> lookups = Lists.newArrayList();
+        for (long h = 0; h <= BlockchainService.MAX_BULK_LOOKUPS; h++) {
+            lookups.add(BlockHeaderLookup.of(h));
+        }
+        new BlockchainResource(mock(BitcoinNodeService.class)).getBlockHeaders(authHeader, lookups, false);
+    }
+
+    @Test
+    public void testGetBlockHeightRangeStats() throws Exception {
+
+        long from = 228186;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - 1, to);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        // the stats index is empty, so the stats are aggregated from the block headers in the range
+        BlockRangeStats stats = blockchainResource.getBlockHeightRangeStats(authHeader, from, to);
+        assertEquals(from, stats.getFromHeight());
+        assertEquals(to, stats.getToHeight());
+        assertEquals(10, stats.getNumBlocks());
+        assertFalse(stats.getTotalTransactions().isPresent()); // the mocked headers don't know their nTx
+        assertFalse(stats.getMeanTransactions().isPresent());
+        assertEquals(1.0, stats.getMeanDifficulty(), 0.0);
+        assertEquals(BigInteger.valueOf(to - from + 1), stats.getChainworkDelta());
+
+        ObjectMapper mapper = BitflowMapperFactory.createMapper();
+        assertEquals(stats, mapper.readValue(mapper.writeValueAsString(stats), BlockRangeStats.class));
+    }
+
+    @Test
+    public void testGetBlockHeightRangeStatsFromIndex() throws Exception {
+
+        long from = 228186;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - 1, to);
+        BlockStatsIndex statsIndex = new BlockStatsIndex();
+        List<Long> numTransactions = Lists.newArrayList();
+        List<Double> difficulties = Lists.newArrayList();
+        for (long h = 0; h <= to; h++) {
+            numTransactions.add(2L);
+            difficulties.add(3.0);
+        }
+        statsIndex.extend(0, numTransactions, difficulties);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build();
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(fetcher).blockStatsIndex(statsIndex).build();
+
+        // the transaction counts and difficulties come from the index rather than the block headers
+        BlockRangeStats stats = blockchainResource.getBlockHeightRangeStats(authHeader, from, to);
+        assertEquals(Long.valueOf(20), stats.getTotalTransactions().get());
+        assertEquals(3.0, stats.getMaxDifficulty(), 0.0);
+        assertEquals(BigInteger.valueOf(to - from + 1), stats.getChainworkDelta());
+        verify(bitcoinNodeService, never()).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
     }
 
     @Test
@@ -87,7 +255,39 @@ public final class BlockchainResourceTest {
         BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - buffer, to + buffer);
         BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
 
-        List<BlockHeader> subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to);
+        List<BlockHeader> subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, false);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+
+        // block headers come from the header-only RPC unless transaction IDs are asked for
+        verify(bitcoinNodeService, never()).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+        subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, true);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+        verify(bitcoinNodeService).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeaderHeightSubchainUnbatched() throws Exception {
+
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build()).build();
+
+        List<BlockHeader> subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, false);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+    }
+
+    @Test
+    public void testGetBlockHeaderHeightSubchainPartialBatch() throws Exception {
+
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4)).build()).build();
+
+        List<BlockHeader> subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, false);
         SubchainValidator.validateSubchain(subchain, to - from + 1);
     }
 
@@ -98,7 +298,7 @@ public final class BlockchainResourceTest {
         long to = 228195;
         BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
         BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
-        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from - 5, to);
+        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from - 5, to, false);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -108,17 +308,198 @@ public final class BlockchainResourceTest {
         long to = 228195;
         BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
         BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
-        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to + 5);
+        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to + 5, false);
     }
 
-    @Test(expected = IllegalStateException.class)
+    @Test
     public void testGetBlockHeaderHeightSubchainChanged() throws Exception {
 
+        // the 'to' hash resolved differs from the one in the fetched subchain, which is repaired rather than refetched
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to, true);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+        List<BlockHeader> subchain = blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, false);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+        assertEquals(getTestBlockHeightHashes(from, to).get(to), subchain.get(subchain.size() - 1).getHeaderHash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeaderHeightSubchainChangedUnbatched() throws Exception {
+
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to, true);
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build()).build();
+        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to, false);
+    }
+
+    @Test
+    public void testGetBlockHeaderHeightSubchainPages() throws Exception {
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        List<BlockHeader> subchain = Lists.newArrayList();
+        BlockHeaderPage page = blockchainResource.getBlockHeaderHeightSubchainPage(authHeader, from, to, 4, null,
+                false);
+        subchain.addAll(page.getBlockHeaders());
+        int numPages = 1;
+        while (page.getNextCursor().isPresent()) {
+            assertEquals(4, page.getBlockHeaders().size());
+            page = blockchainResource.getBlockHeaderHeightSubchainPage(authHeader, 0, 0, 4,
+                    page.getNextCursor().get(), false);
+            subchain.addAll(page.getBlockHeaders());
+            numPages++;
+        }
+        assertEquals(3, numPages);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+        assertEquals(from, subchain.get(0).getHeight());
+    }
+
+    @Test
+    public void testGetBlockHeaderTimeSubchainPages() throws Exception {
+        long from = 228185;
+        long to = 228195;
+        long buffer = 6 * 25; // 25 hrs
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - buffer, to + buffer);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        DateTimeParam fromTime = formatDateTime(new DateTime(from * 10 * 60 * 1000 + 500, DateTimeZone.UTC));
+        DateTimeParam toTime = formatDateTime(new DateTime(to * 10 * 60 * 1000 - 500, DateTimeZone.UTC));
+        BlockHeaderPage page = blockchainResource.getBlockHeaderTimeSubchainPage(authHeader, fromTime, toTime, 5,
+                null, false);
+        List<BlockHeader> subchain = Lists.newArrayList(page.getBlockHeaders());
+        while (page.getNextCursor().isPresent()) {
+            page = blockchainResource.getBlockHeaderTimeSubchainPage(authHeader, null, null, 5,
+                    page.getNextCursor().get(), false);
+            subchain.addAll(page.getBlockHeaders());
+        }
+        SubchainValidator.validateSubchain(subchain, fromTime.get(), toTime.get());
+    }
+
+    @Test
+    public void testGetBlockHeaderHeightSubchainPagesReorganized() throws Exception {
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+        BlockHeaderPage page = blockchainResource.getBlockHeaderHeightSubchainPage(authHeader, from, to, 4, null,
+                false);
+
+        // the best chain now has a different tip and a different block at the end of the first page
+        BlockchainInfo blockchainInfo = mock(BlockchainInfo.class);
+        when(blockchainInfo.getNumBlocks()).thenReturn(to);
+        when(blockchainInfo.getPruneHeight()).thenReturn(from);
+        when(blockchainInfo.getBestBlockHash()).thenReturn(Sha256Hash.ZERO_HASH);
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
+                BlockchainInfoResponse.of(blockchainInfo));
+        when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(from + 3)))
+                .thenReturn(BlockHeaderHashResponse.of(Sha256Hash.ZERO_HASH));
+
+        try {
+            blockchainResource.getBlockHeaderHeightSubchainPage(authHeader, 0, 0, 4, page.getNextCursor().get(),
+                    false);
+            fail();
+        } catch (ClientErrorException e) {
+            assertEquals(409, e.getResponse().getStatus());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetBlockHeaderHeightSubchainPageInvalidLimit() throws Exception {
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(228185, 228195);
+        new BlockchainResource(bitcoinNodeService).getBlockHeaderHeightSubchainPage(authHeader, 228185, 228195,
+                BlockchainService.MAX_PAGE_LIMIT + 1, null, false);
+    }
+
+    @Test
+    public void testStreamBlockHeaderHeightSubchain() throws Exception {
+        long from = 228185;
+        long to = 228295;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        FetchConfig fetchConfig = ImmutableFetchConfig.builder().batchSize(10).partitionSize(20).parallelism(2)
+                .build();
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, fetchConfig).build()).build();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        blockchainResource.streamBlockHeaderHeightSubchain(authHeader, from, to, false).write(output);
+        List<BlockHeader> subchain = readNdjson(output);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+        assertEquals(from, subchain.get(0).getHeight());
+    }
+
+    @Test
+    public void testStreamBlockHeaderHeightSubchainChanged() throws Exception {
         long from = 228185;
         long to = 228195;
         BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to, true);
         BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
-        blockchainResource.getBlockHeaderHeightSubchain(authHeader, from, to);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        blockchainResource.streamBlockHeaderHeightSubchain(authHeader, from, to, false).write(output);
+        List<BlockHeader> subchain = readNdjson(output);
+        SubchainValidator.validateSubchain(subchain, to - from + 1);
+        assertEquals(getTestBlockHeightHashes(from, to).get(to), subchain.get(subchain.size() - 1).getHeaderHash());
+    }
+
+    @Test
+    public void testStreamBlockHeaderTimeSubchain() throws Exception {
+        long from = 228185;
+        long to = 228195;
+        long buffer = 6 * 25; // 25 hrs
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - buffer, to + buffer);
+        BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
+
+        DateTimeParam fromTime = formatDateTime(new DateTime(from * 10 * 60 * 1000 + 500, DateTimeZone.UTC));
+        DateTimeParam toTime = formatDateTime(new DateTime(to * 10 * 60 * 1000 - 500, DateTimeZone.UTC));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        blockchainResource.streamBlockHeaderTimeSubchain(authHeader, fromTime, toTime, false).write(output);
+        SubchainValidator.validateSubchain(readNdjson(output), fromTime.get(), toTime.get());
+    }
+
+    @Test
+    public void testGetBlockHeaderTimeSubchainIndexed() throws Exception {
+
+        long from = 228185;
+        long to = 228195;
+        long buffer = 6 * 25; // 25 hrs
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - buffer, to + buffer);
+        BlockTimeIndex blockTimeIndex = new BlockTimeIndex();
+        List<Long> times = Lists.newArrayList();
+        for (long h = 0; h <= to + buffer; h++) {
+            times.add(h * 10 * 60);
+        }
+        blockTimeIndex.extend(0, times);
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build())
+                .blockTimeIndex(blockTimeIndex).build();
+
+        testGetBlockHeaderTimeSubchains(from, to, blockchainResource);
+
+        // heights come from the index rather than a binary search over block headers fetched one at a time
+        verify(bitcoinNodeService, never()).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetBlockHeaderTimeSubchainIndexedPruned() throws Exception {
+        long from = 228185;
+        long to = 228195;
+        BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from, to);
+        BlockTimeIndex blockTimeIndex = new BlockTimeIndex();
+        List<Long> times = Lists.newArrayList();
+        for (long h = 0; h <= to; h++) {
+            times.add(h * 10 * 60);
+        }
+        blockTimeIndex.extend(0, times);
+        BlockchainResource blockchainResource = BlockchainResource.builder(bitcoinNodeService)
+                .blockHeaderFetcher(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build())
+                .blockTimeIndex(blockTimeIndex).build();
+        blockchainResource.getBlockHeaderTimeSubchain(authHeader,
+                formatDateTime(new DateTime((from - 5) * 10 * 60 * 1000, DateTimeZone.UTC)),
+                formatDateTime(new DateTime(to * 10 * 60 * 1000, DateTimeZone.UTC)), false);
     }
 
     @Test
@@ -130,6 +511,17 @@ public final class BlockchainResourceTest {
         BitcoinNodeService bitcoinNodeService = mockBitcoinNodeServceForSubchain(from - buffer, to + buffer);
         BlockchainResource blockchainResource = new BlockchainResource(bitcoinNodeService);
 
+        testGetBlockHeaderTimeSubchains(from, to, blockchainResource);
+    }
+
+    private void testGetBlockHeaderTimeSubchain(DateTimeParam fromTime, DateTimeParam toTime,
+            BlockchainResource blockchainResource) {
+        List<BlockHeader> subchain = blockchainResource.getBlockHeaderTimeSubchain(authHeader, fromTime,
+                toTime, false);
+        SubchainValidator.validateSubchain(subchain, fromTime.get(), toTime.get());
+    }
+
+    private void testGetBlockHeaderTimeSubchains(long from, long to, BlockchainResource blockchainResource) {
         testGetBlockHeaderTimeSubchain(
                 formatDateTime(new DateTime(from * 10 * 60 * 1000 + 500, DateTimeZone.UTC)),
                 formatDateTime(new DateTime(to * 10 * 60 * 1000 - 500, DateTimeZone.UTC)),
@@ -166,11 +558,13 @@ public final class BlockchainResourceTest {
                 blockchainResource);
     }
 
-    private void testGetBlockHeaderTimeSubchain(DateTimeParam fromTime, DateTimeParam toTime,
-            BlockchainResource blockchainResource) {
-        List<BlockHeader> subchain = blockchainResource.getBlockHeaderTimeSubchain(authHeader, fromTime,
-                toTime);
-        SubchainValidator.validateSubchain(subchain, fromTime.get(), toTime.get());
+    private static List<BlockHeader> readNdjson(ByteArrayOutputStream output) throws Exception {
+        ObjectMapper mapper = BitflowMapperFactory.createMapper();
+        List<BlockHeader> headers = Lists.newArrayList();
+        for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            headers.add(mapper.readValue(line, BlockHeader.class));
+        }
+        return headers;
     }
 
     private DateTimeParam formatDateTime(DateTime time) {
@@ -185,34 +579,37 @@ public final class BlockchainResourceTest {
         return mockBitcoinNodeServceForSubchain(from, to, false);
     }
 
+    @SuppressWarnings("unchecked")
     private BitcoinNodeService mockBitcoinNodeServceForSubchain(long from, long to, boolean useDifferentToHash)
             throws Exception {
 
         Map<Long, Sha256Hash> blockHeightHashes = getTestBlockHeightHashes(from, to);
+        Map<Sha256Hash, BlockHeader> blockHeaders = Maps.newHashMap();
         BitcoinNodeService bitcoinNodeService = mock(BitcoinNodeService.class);
 
         // mock getBlockchainInfo() call
         BlockchainInfo blockchainInfo = mock(BlockchainInfo.class);
         when(blockchainInfo.getNumBlocks()).thenReturn(to);
         when(blockchainInfo.getPruneHeight()).thenReturn(from);
+        when(blockchainInfo.getBestBlockHash()).thenReturn(blockHeightHashes.get(to));
         when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
                 BlockchainInfoResponse.of(Optional.of(blockchainInfo), Optional.absent(), Optional.absent()));
 
         // mock getBlockHeader() calls for every block hash in subchain
         for (long h = from; h <= to; h++) {
 
-            BlockHeader blockHeader = mock(BlockHeader.class);
-            when(blockHeader.getNextBlockHash()).thenReturn(Optional.of(blockHeightHashes.get(h + 1)));
-            if (h > from) {
-                when(blockHeader.getPreviousBlockHash()).thenReturn(Optional.of(blockHeightHashes.get(h - 1)));
-            }
-            when(blockHeader.getHeaderHash()).thenReturn(blockHeightHashes.get(h));
-            when(blockHeader.getHeight()).thenReturn(h);
-            when(blockHeader.getCreatedTime()).thenReturn(h * 10 * 60); // each block is ~10 mins
+            BlockHeader blockHeader = BlockHeader.of(blockHeightHashes.get(h), to - h + 1, 285, h, 4,
+                    blockHeightHashes.get(h), ImmutableList.of(), h * 10 * 60, 0, BigInteger.ONE, 1.0,
+                    BigInteger.valueOf(h), Optional.fromNullable(blockHeightHashes.get(h - 1)),
+                    Optional.of(blockHeightHashes.get(h + 1))); // each block is ~10 mins
 
             Sha256Hash blockHash = blockHeightHashes.get(h);
+            blockHeaders.put(blockHash, blockHeader);
             when(bitcoinNodeService.getBlockHeader(BitcoinNodeRequestFactory.createBlockHeaderRequest(blockHash)))
                     .thenReturn(BlockHeaderResponse.of(blockHeader));
+            when(bitcoinNodeService.getBlockHeaderOnly(
+                    BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(blockHash)))
+                    .thenReturn(BlockHeaderResponse.of(blockHeader));
 
             if (h == to && useDifferentToHash) {
                 // not important what we're getting, just that it's different
@@ -224,6 +621,30 @@ public final class BlockchainResourceTest {
             }
         }
 
+        // mock batched getBlockHeaderHashes(), getBlockHeaders(), and getBlockHeadersOnly() calls, answering with the
+        // same hashes and headers
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            ImmutableList.Builder<BlockHeaderHashResponse> responses = ImmutableList.builder();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                responses.add(BlockHeaderHashResponse.of(
+                        Optional.fromNullable(blockHeightHashes.get((Long) request.getParams().get(0))),
+                        Optional.absent(), request.getId()));
+            }
+            return responses.build();
+        });
+        Answer<List<BlockHeaderResponse>> blockHeadersAnswer = invocation -> {
+            ImmutableList.Builder<BlockHeaderResponse> responses = ImmutableList.builder();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                responses.add(BlockHeaderResponse.of(
+                        Optional.fromNullable(blockHeaders.get((Sha256Hash) request.getParams().get(0))),
+                        Optional.absent(), request.getId()));
+            }
+            return responses.build();
+        };
+        when(bitcoinNodeService.getBlockHeaders(anyListOf(BitcoinNodeRequest.class))).thenAnswer(blockHeadersAnswer);
+        when(bitcoinNodeService.getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class)))
+                .thenAnswer(blockHeadersAnswer);
+
         return bitcoinNodeService;
     }
 
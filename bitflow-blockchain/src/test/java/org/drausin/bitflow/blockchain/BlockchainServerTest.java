@@ -23,25 +23,57 @@ import static org.mockito.Mockito.when;
 
 import com.codahale.metrics.health.HealthCheck;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.testing.ConfigOverride;
 import io.dropwizard.testing.junit.DropwizardAppRule;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import org.bitcoinj.core.Sha256Hash;
 import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
 import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
 import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.cache.BlockchainInfoCache;
+import org.drausin.bitflow.blockchain.config.InfoConfig;
 import org.drausin.bitflow.blockchain.config.ServerConfig;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.drausin.bitflow.service.utils.BitflowService;
+import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 
 public final class BlockchainServerTest {
 
-    private ObjectMapper mapper;
+    // stands in for both the bitcoin node and the node pooled with it, told apart by host, answering
+    // getblockchaininfo and failing every other RPC
+    private static final HttpServer BITCOIN_NODE = startBitcoinNode();
 
     @ClassRule
     public static final DropwizardAppRule<ServerConfig> APP = new DropwizardAppRule<>(BlockchainServer.class,
-            "src/test/resources/bitflow-blockchain-test.yml");
+            "src/test/resources/bitflow-blockchain-test.yml",
+            ConfigOverride.config("bitcoinNode.uri", getBitcoinNodeUri("localhost")),
+            ConfigOverride.config("pool.nodes[0].uri", getBitcoinNodeUri("127.0.0.1")));
+
+    private ObjectMapper mapper;
+
+    @AfterClass
+    public static void tearDownClass() {
+        BITCOIN_NODE.stop(0);
+    }
 
     @Before
     public void setUp() {
@@ -58,6 +90,20 @@ public final class BlockchainServerTest {
         BlockchainServer.main(new String[] {});
     }
 
+    @Test
+    public void testSmileNegotiated() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(String.format("http://localhost:%s/blockchain/info",
+                APP.getLocalPort())).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, BitflowService.APPLICATION_SMILE);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        assertEquals(BitflowService.APPLICATION_SMILE, connection.getContentType());
+        try (InputStream body = connection.getInputStream()) {
+            BlockchainInfo info = BitflowMapperFactory.createSmileMapper().readValue(body, BlockchainInfo.class);
+            assertEquals(BitcoinNodeExampleResponses.getBlockchainInfoResponse().getResult().get().getBestBlockHash(),
+                    info.getBestBlockHash());
+        }
+    }
+
     @Test
     public void testCreateBitcoinNodeHealthCheckHealthy() {
 
@@ -84,6 +130,22 @@ public final class BlockchainServerTest {
 
     }
 
+    @Test
+    public void testCreateBlockchainInfoCacheHealthCheck() throws Exception {
+
+        BitcoinNodeService bitcoinNode = mock(BitcoinNodeService.class);
+        when(bitcoinNode.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
+                BitcoinNodeExampleResponses.getBlockchainInfoResponse());
+        BlockchainInfoCache blockchainInfoCache = new BlockchainInfoCache(bitcoinNode, InfoConfig.of(),
+                mock(ScheduledExecutorService.class));
+        HealthCheck healthCheck = BlockchainServer.createBitcoinNodeHealthCheck(blockchainInfoCache);
+        assertTrue(healthCheck.execute().isHealthy());
+
+        BlockchainInfoCache unreachableCache = new BlockchainInfoCache(mock(BitcoinNodeService.class),
+                InfoConfig.of(), mock(ScheduledExecutorService.class));
+        assertFalse(BlockchainServer.createBitcoinNodeHealthCheck(unreachableCache).execute().isHealthy());
+    }
+
     @Test
     public void testObjectMapperSha256Hash() throws IOException {
 
@@ -105,4 +167,31 @@ public final class BlockchainServerTest {
         assertEquals(valueSerialized, mapper.writeValueAsString(value));
         assertEquals(value, mapper.readValue(valueSerialized, BigInteger.class));
     }
+
+    private static HttpServer startBitcoinNode() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", exchange -> {
+                String request = new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                boolean answered = request.startsWith("{") && request.contains("\"getblockchaininfo\"");
+                byte[] response = (answered ? BitcoinNodeExampleResponses.getBlockchainInfoJsonResponse()
+                        : "{\"result\": null, \"error\": {\"code\": -32601, \"message\": \"Method not found\"}}")
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+                exchange.sendResponseHeaders(answered ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_NOT_FOUND,
+                        response.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(response);
+                }
+            });
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String getBitcoinNodeUri(String host) {
+        return String.format("http://%s:%s", host, BITCOIN_NODE.getAddress().getPort());
+    }
 }
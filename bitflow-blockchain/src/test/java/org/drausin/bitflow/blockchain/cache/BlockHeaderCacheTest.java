@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.config.CacheConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableCacheConfig;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BlockHeaderCacheTest {
+
+    private static final long TIP_HEIGHT = 1000;
+
+    private BlockHeaderCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new BlockHeaderCache(ImmutableCacheConfig.builder()
+                .immutableDepth(10)
+                .deepMaxSize(100)
+                .tipMaxSize(10)
+                .tipTtl(Duration.minutes(1))
+                .build());
+        cache.onTipChanged(TIP_HEIGHT);
+    }
+
+    @Test
+    public void testNothingCachedBeforeTipKnown() {
+        BlockHeaderCache newCache = new BlockHeaderCache(CacheConfig.of());
+        BlockHeader header = header(10, TIP_HEIGHT);
+        newCache.put(header);
+        assertFalse(newCache.get(header.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testDeepHeader() {
+        BlockHeader header = header(500, TIP_HEIGHT);
+        cache.put(header);
+        assertEquals(header, cache.get(header.getHeaderHash()).get());
+        assertEquals(1, cache.getDeepStats().hitCount());
+
+        // confirmations track the tip while the header stays cached
+        cache.onTipChanged(TIP_HEIGHT + 5);
+        assertEquals(header.getNumConfirmations() + 5, cache.get(header.getHeaderHash()).get().getNumConfirmations());
+    }
+
+    @Test
+    public void testTipHeader() {
+        BlockHeader header = header(TIP_HEIGHT - 3, TIP_HEIGHT);
+        cache.put(header);
+        assertEquals(header, cache.get(header.getHeaderHash()).get());
+        assertEquals(1, cache.getTipStats().hitCount());
+
+        cache.onTipChanged(TIP_HEIGHT + 1);
+        assertFalse(cache.get(header.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testTipHeaderNotCached() {
+        BlockHeader header = header(TIP_HEIGHT, TIP_HEIGHT);
+        cache.put(header);
+        assertFalse(cache.get(header.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testTipHeaderExpires() throws Exception {
+        BlockHeaderCache expiringCache = new BlockHeaderCache(ImmutableCacheConfig.builder()
+                .tipTtl(Duration.milliseconds(10))
+                .build());
+        expiringCache.onTipChanged(TIP_HEIGHT);
+        BlockHeader header = header(TIP_HEIGHT - 1, TIP_HEIGHT);
+        expiringCache.put(header);
+        Thread.sleep(50);
+        assertFalse(expiringCache.get(header.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testHeaderOnly() {
+        BlockHeader header = ImmutableBlockHeader.copyOf(header(500, TIP_HEIGHT))
+                .withTransactionIds(hashAtHeight(-1));
+        BlockHeader headerOnly = header(600, TIP_HEIGHT);
+        cache.put(header);
+        cache.putHeaderOnly(headerOnly);
+
+        // full headers are served without their transaction IDs, but headers only are never served as full ones
+        assertEquals(ImmutableList.of(), cache.getHeaderOnly(header.getHeaderHash()).get().getTransactionIds());
+        assertEquals(headerOnly, cache.getHeaderOnly(headerOnly.getHeaderHash()).get());
+        assertFalse(cache.get(headerOnly.getHeaderHash()).isPresent());
+
+        cache.onReorganization(550);
+        assertFalse(cache.getHeaderOnly(headerOnly.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testHeaderOnlyServedAsFetched() throws Exception {
+        ObjectMapper mapper = BitflowMapperFactory.createMapper();
+        BlockHeader header = BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get();
+        ObjectNode headerOnlyJson = mapper.readValue(BitcoinNodeExampleResponses.getBlockHeaderJsonResponse(),
+                ObjectNode.class);
+        ((ObjectNode) headerOnlyJson.get("result")).remove(ImmutableList.of("size", "tx"));
+        BlockHeader headerOnly = mapper.treeToValue(headerOnlyJson, BlockHeaderResponse.class).getResult().get();
+        long tipHeight = header.getHeight() + header.getNumConfirmations() - 1;
+
+        // a header only served from the full block header cached is the same one a miss fetches without it
+        BlockHeaderCache fullCache = new BlockHeaderCache(CacheConfig.of());
+        fullCache.onTipChanged(tipHeight);
+        fullCache.put(header);
+        BlockHeaderCache headerOnlyCache = new BlockHeaderCache(CacheConfig.of());
+        headerOnlyCache.onTipChanged(tipHeight);
+        headerOnlyCache.putHeaderOnly(headerOnly);
+        assertArrayEquals(mapper.writeValueAsBytes(headerOnlyCache.getHeaderOnly(header.getHeaderHash()).get()),
+                mapper.writeValueAsBytes(fullCache.getHeaderOnly(header.getHeaderHash()).get()));
+    }
+
+    @Test
+    public void testReorganization() {
+        BlockHeader belowFork = header(800, TIP_HEIGHT);
+        BlockHeader beforeFork = header(899, TIP_HEIGHT);
+        BlockHeader afterFork = header(950, TIP_HEIGHT);
+        cache.put(belowFork);
+        cache.put(beforeFork);
+        cache.put(afterFork);
+
+        cache.onReorganization(900);
+        assertTrue(cache.get(belowFork.getHeaderHash()).isPresent());
+        assertFalse(cache.get(beforeFork.getHeaderHash()).isPresent());
+        assertFalse(cache.get(afterFork.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testShorterChain() {
+        BlockHeader header = header(950, TIP_HEIGHT);
+        cache.put(header);
+        cache.onTipChanged(900);
+        assertFalse(cache.get(header.getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testEviction() {
+        for (long h = 0; h < 200; h++) {
+            cache.put(header(h, TIP_HEIGHT));
+        }
+        assertTrue(cache.getDeepStats().evictionCount() >= 100);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRegisterMetrics() {
+        MetricRegistry metrics = new MetricRegistry();
+        cache.registerMetrics(metrics);
+        BlockHeader header = header(500, TIP_HEIGHT);
+        cache.put(header);
+        cache.get(header.getHeaderHash());
+
+        Gauge<Long> deepHits = metrics.getGauges().get(MetricRegistry.name(BlockHeaderCache.class, "deep", "hits"));
+        Gauge<Long> deepSize = metrics.getGauges().get(MetricRegistry.name(BlockHeaderCache.class, "deep", "size"));
+        assertEquals(Long.valueOf(1), deepHits.getValue());
+        assertEquals(Long.valueOf(1), deepSize.getValue());
+        assertEquals(16, metrics.getGauges().size());
+    }
+
+    private static BlockHeader header(long height, long tipHeight) {
+        return BlockHeader.of(hashAtHeight(height), tipHeight - height + 1, 285, height, 4, hashAtHeight(-height),
+                ImmutableList.of(), 1450000000L + height, 0, BigInteger.ONE, 1.0, BigInteger.valueOf(height),
+                Optional.of(hashAtHeight(height - 1)),
+                height < tipHeight ? Optional.of(hashAtHeight(height + 1)) : Optional.absent());
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
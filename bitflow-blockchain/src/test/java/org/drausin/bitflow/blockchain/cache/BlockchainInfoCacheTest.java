@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.drausin.bitflow.blockchain.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.config.ImmutableInfoConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BlockchainInfoCacheTest {
+
+    private static final long TIP_HEIGHT = 1000;
+
+    private BitcoinNodeService bitcoinNodeService;
+    private ScheduledExecutorService scheduler;
+    private FakeTicker ticker;
+    private BlockchainInfoCache cache;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        scheduler = mock(ScheduledExecutorService.class);
+        ticker = new FakeTicker();
+        cache = new BlockchainInfoCache(bitcoinNodeService, ImmutableInfoConfig.builder()
+                .refreshInterval(Duration.seconds(1))
+                .maxStaleness(Duration.seconds(10))
+                .build(), scheduler, ticker);
+    }
+
+    @Test
+    public void testStart() throws Exception {
+        cache.start();
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), eq(0L), eq(TimeUnit.SECONDS.toNanos(1)),
+                eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testGetRefreshesOnlyWhenStale() {
+        BlockchainInfo first = stubBlockchainInfo(TIP_HEIGHT);
+        assertSame(first, cache.get());
+        assertEquals(1, cache.getMissCount());
+
+        BlockchainInfo second = stubBlockchainInfo(TIP_HEIGHT + 1);
+        ticker.advance(TimeUnit.SECONDS.toNanos(10));
+        assertSame(first, cache.get());
+        assertEquals(1, cache.getHitCount());
+
+        ticker.advance(1);
+        assertSame(second, cache.get());
+        assertEquals(2, cache.getMissCount());
+        verify(bitcoinNodeService, times(2)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testRefresh() {
+        BlockchainInfo first = stubBlockchainInfo(TIP_HEIGHT);
+        assertSame(first, cache.refresh());
+        BlockchainInfo second = stubBlockchainInfo(TIP_HEIGHT + 1);
+        assertSame(second, cache.refresh());
+        assertSame(second, cache.get());
+    }
+
+    @Test
+    public void testOnTipChanged() {
+        stubBlockchainInfo(TIP_HEIGHT);
+        cache.onTipChanged(TIP_HEIGHT);
+        verify(bitcoinNodeService, times(1)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+
+        // the snapshot already reflects this tip
+        cache.onTipChanged(TIP_HEIGHT);
+        verify(bitcoinNodeService, times(1)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+
+        BlockchainInfo next = stubBlockchainInfo(TIP_HEIGHT + 1);
+        cache.onTipChanged(TIP_HEIGHT + 1);
+        assertSame(next, cache.get());
+        verify(bitcoinNodeService, times(2)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testOnTipChangedRefreshFailure() {
+        BlockchainInfo first = stubBlockchainInfo(TIP_HEIGHT);
+        cache.refresh();
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenThrow(
+                new IllegalStateException("node unavailable"));
+        cache.onTipChanged(TIP_HEIGHT + 1);
+        assertSame(first, cache.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetStaleRefreshFailure() {
+        stubBlockchainInfo(TIP_HEIGHT);
+        cache.refresh();
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenThrow(
+                new IllegalStateException("node unavailable"));
+        ticker.advance(TimeUnit.SECONDS.toNanos(11));
+        cache.get();
+    }
+
+    @Test
+    public void testGetSnapshot() {
+        assertFalse(cache.getSnapshot().isPresent());
+        BlockchainInfo first = stubBlockchainInfo(TIP_HEIGHT);
+        cache.refresh();
+
+        // never refreshed, however stale
+        stubBlockchainInfo(TIP_HEIGHT + 1);
+        ticker.advance(TimeUnit.SECONDS.toNanos(11));
+        assertSame(first, cache.getSnapshot().get());
+        verify(bitcoinNodeService, times(1)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetStalenessMillis() {
+        assertEquals(-1, cache.getStalenessMillis());
+        stubBlockchainInfo(TIP_HEIGHT);
+        cache.refresh();
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(1500, cache.getStalenessMillis());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRegisterMetrics() {
+        MetricRegistry metrics = new MetricRegistry();
+        cache.registerMetrics(metrics);
+        stubBlockchainInfo(TIP_HEIGHT);
+        cache.get();
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(20));
+        cache.get();
+
+        String prefix = BlockchainInfoCache.class.getName();
+        assertEquals(20L, ((Gauge<Long>) metrics.getGauges().get(prefix + ".stalenessMillis")).getValue().longValue());
+        assertEquals(1L, ((Gauge<Long>) metrics.getGauges().get(prefix + ".hits")).getValue().longValue());
+        assertEquals(1L, ((Gauge<Long>) metrics.getGauges().get(prefix + ".misses")).getValue().longValue());
+    }
+
+    private BlockchainInfo stubBlockchainInfo(long numBlocks) {
+        BlockchainInfo info = mock(BlockchainInfo.class);
+        when(info.getNumBlocks()).thenReturn(numBlocks);
+        BlockchainInfoResponse response = mock(BlockchainInfoResponse.class);
+        when(response.getResult()).thenReturn(Optional.of(info));
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(response);
+        return info;
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long moreNanos) {
+            nanos += moreNanos;
+        }
+    }
+}
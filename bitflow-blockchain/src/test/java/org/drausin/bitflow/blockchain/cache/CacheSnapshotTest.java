@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CacheSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private CacheSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("snapshots").resolve("header-cache.snapshot");
+        snapshot = new CacheSnapshot(file);
+    }
+
+    @Test
+    public void testReadMissing() throws Exception {
+        assertTrue(snapshot.read().isEmpty());
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        List<CacheSnapshot.Entry> entries = ImmutableList.of(entry(1), entry(2), entry(3));
+        assertEquals(3, snapshot.write(entries));
+        assertEquals(entries, snapshot.read());
+        assertEquals(entries, new CacheSnapshot(file).read());
+    }
+
+    @Test
+    public void testWriteReadHeadersOnly() throws Exception {
+        BlockHeader headerOnly = ImmutableBlockHeader.copyOf(header(2)).withTransactionIds().withSizeBytes(-1);
+        List<CacheSnapshot.Entry> entries = ImmutableList.of(entry(1), CacheSnapshot.Entry.of(headerOnly, false));
+        snapshot.write(entries);
+        assertEquals(entries, snapshot.read());
+        assertFalse(snapshot.read().get(1).hasTransactionIds());
+    }
+
+    @Test
+    public void testWriteEmpty() throws Exception {
+        assertEquals(0, snapshot.write(ImmutableList.of()));
+        assertTrue(snapshot.read().isEmpty());
+    }
+
+    @Test
+    public void testWriteReplaces() throws Exception {
+        snapshot.write(ImmutableList.of(entry(1), entry(2)));
+        snapshot.write(ImmutableList.of(entry(3)));
+        assertEquals(ImmutableList.of(entry(3)), snapshot.read());
+
+        // only the snapshot itself is left behind
+        assertEquals(1, folder.getRoot().toPath().resolve("snapshots").toFile().list().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadNotSnapshot() throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11});
+        snapshot.read();
+    }
+
+    private static CacheSnapshot.Entry entry(long height) {
+        return CacheSnapshot.Entry.of(header(height), true);
+    }
+
+    private static BlockHeader header(long height) {
+        return BlockHeader.of(hashAtHeight(height), 100 - height + 1, 285, height, 4, hashAtHeight(-height),
+                ImmutableList.of(hashAtHeight(-height)), 1450000000L + height, 0, BigInteger.ONE, 1.0,
+                BigInteger.valueOf(height), Optional.of(hashAtHeight(height - 1)),
+                Optional.of(hashAtHeight(height + 1)));
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
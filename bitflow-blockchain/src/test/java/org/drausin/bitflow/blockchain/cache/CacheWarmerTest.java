@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableCacheConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableWarmupConfig;
+import org.drausin.bitflow.blockchain.config.WarmupConfig;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.index.BlockHashIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CacheWarmerTest {
+
+    private static final long TIP_HEIGHT = 100;
+    private static final int RECENT_HEADERS = 10;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BitcoinNodeService bitcoinNodeService;
+    private BlockHeaderCache cache;
+    private BlockHashIndex index;
+    private CacheSnapshot snapshot;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService fetchExecutor;
+    private CacheWarmer warmer;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Sha256Hash hash = (Sha256Hash) ((BitcoinNodeRequest) invocation.getArguments()[0]).getParams().get(0);
+            for (long h = 0; h <= TIP_HEIGHT; h++) {
+                if (hashAtHeight(h).equals(hash)) {
+                    return BlockHeaderResponse.of(headerOnly(h));
+                }
+            }
+            throw new IllegalArgumentException(hash.toString());
+        });
+        cache = new BlockHeaderCache(ImmutableCacheConfig.builder()
+                .immutableDepth(5)
+                .deepMaxSize(1000)
+                .tipMaxSize(10)
+                .tipTtl(Duration.minutes(1))
+                .build());
+        cache.onTipChanged(TIP_HEIGHT);
+        index = new BlockHashIndex();
+        ImmutableList.Builder<Sha256Hash> hashes = ImmutableList.builder();
+        for (long h = 0; h <= TIP_HEIGHT; h++) {
+            hashes.add(hashAtHeight(h));
+        }
+        index.extend(0, hashes.build());
+        snapshot = new CacheSnapshot(folder.getRoot().toPath().resolve("header-cache.snapshot"));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        fetchExecutor = Executors.newFixedThreadPool(2);
+        warmer = createWarmer(ImmutableWarmupConfig.builder()
+                .recentHeaders(RECENT_HEADERS)
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        fetchExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testWarmsRecentHeaders() {
+        assertFalse(warmer.isWarmedUp());
+        warmer.warmUp(TIP_HEIGHT);
+        assertTrue(warmer.isWarmedUp());
+        assertEquals(RECENT_HEADERS - 1, warmer.getWarmed());
+        assertFalse(cache.getHeaderOnly(hashAtHeight(TIP_HEIGHT - RECENT_HEADERS)).isPresent());
+        for (long h = TIP_HEIGHT - RECENT_HEADERS + 1; h < TIP_HEIGHT; h++) {
+            assertEquals(headerOnly(h), cache.getHeaderOnly(hashAtHeight(h)).get());
+            assertFalse(cache.get(hashAtHeight(h)).isPresent());
+        }
+        verify(bitcoinNodeService, times(0)).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testNoRecentHeaders() {
+        warmer = createWarmer(ImmutableWarmupConfig.builder()
+                .recentHeaders(0)
+                .build());
+        warmer.warmUp(TIP_HEIGHT);
+        assertTrue(warmer.isWarmedUp());
+        assertEquals(0, warmer.getWarmed());
+        verify(bitcoinNodeService, times(0)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testRestoresSnapshot() throws Exception {
+        BlockHeader staleHeader = BlockHeader.of(hashAtHeight(-50), 51, 285, 50, 4, hashAtHeight(-50),
+                ImmutableList.of(), 1450000000L, 0, BigInteger.ONE, 1.0, BigInteger.ONE, Optional.absent(),
+                Optional.absent());
+        snapshot.write(ImmutableList.of(CacheSnapshot.Entry.of(header(20), true),
+                CacheSnapshot.Entry.of(headerOnly(21), false),
+                CacheSnapshot.Entry.of(headerOnly(TIP_HEIGHT - 1), false),
+                CacheSnapshot.Entry.of(staleHeader, true)));
+
+        warmer.warmUp(TIP_HEIGHT);
+        assertEquals(3, warmer.getRestored());
+        assertEquals(header(20), cache.get(hashAtHeight(20)).get());
+        assertEquals(headerOnly(21), cache.getHeaderOnly(hashAtHeight(21)).get());
+        assertFalse(cache.get(hashAtHeight(21)).isPresent());
+        assertFalse(cache.get(staleHeader.getHeaderHash()).isPresent());
+
+        // the restored recent header isn't fetched again
+        assertEquals(RECENT_HEADERS - 2, warmer.getWarmed());
+        verify(bitcoinNodeService, times(RECENT_HEADERS - 2)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testRestoresNothingAboveTip() throws Exception {
+        snapshot.write(ImmutableList.of(CacheSnapshot.Entry.of(header(20), true),
+                CacheSnapshot.Entry.of(header(TIP_HEIGHT - 1), true)));
+        warmer.warmUp(TIP_HEIGHT - 10);
+        assertEquals(1, warmer.getRestored());
+    }
+
+    @Test
+    public void testFetchFailureStillWarmsUp() {
+        doThrow(new IllegalStateException("bitcoin node down"))
+                .when(bitcoinNodeService).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+        warmer.warmUp(TIP_HEIGHT);
+        assertTrue(warmer.isWarmedUp());
+        assertEquals(0, warmer.getWarmed());
+    }
+
+    @Test
+    public void testWarmsUpOnFirstTipChange() throws Exception {
+        warmer.onTipChanged(TIP_HEIGHT);
+        assertTrue(warmer.awaitWarmedUp(10, TimeUnit.SECONDS));
+        warmer.onTipChanged(TIP_HEIGHT);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        verify(bitcoinNodeService, times(RECENT_HEADERS - 1)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testSnapshotOnlyOnceWarmedUp() throws Exception {
+        cache.put(header(20));
+        assertEquals(0, warmer.snapshot());
+        assertTrue(snapshot.read().isEmpty());
+
+        warmer.warmUp(TIP_HEIGHT);
+        int numSnapshotted = warmer.snapshot();
+        List<CacheSnapshot.Entry> entries = snapshot.read();
+        assertEquals(numSnapshotted, entries.size());
+
+        // both the full block headers and those warmed up without their transaction IDs are snapshotted
+        assertEquals(cache.getDeepHeaders().size() + cache.getDeepHeadersOnly().size(), entries.size());
+        assertTrue(entries.contains(CacheSnapshot.Entry.of(header(20), true)));
+        assertTrue(entries.contains(CacheSnapshot.Entry.of(headerOnly(TIP_HEIGHT - RECENT_HEADERS + 1), false)));
+    }
+
+    @Test
+    public void testSnapshotsOnStop() throws Exception {
+        warmer.start();
+        warmer.warmUp(TIP_HEIGHT);
+        warmer.stop();
+        int numSnapshotted = cache.getDeepHeaders().size() + cache.getDeepHeadersOnly().size();
+        assertEquals(numSnapshotted, snapshot.read().size());
+
+        // a restarted server's cache is warmed up from the snapshot alone
+        BlockHeaderCache newCache = new BlockHeaderCache(ImmutableCacheConfig.builder()
+                .immutableDepth(5)
+                .build());
+        newCache.onTipChanged(TIP_HEIGHT);
+        CacheWarmer newWarmer = new CacheWarmer(newCache,
+                BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).blockHashIndex(index)
+                        .blockHeaderCache(Optional.of(newCache)).build(),
+                index, snapshot, WarmupConfig.of(), scheduler, MoreExecutors.newDirectExecutorService());
+        newWarmer.warmUp(TIP_HEIGHT);
+        assertEquals(numSnapshotted, newWarmer.getRestored());
+    }
+
+    @Test
+    public void testRegisterMetrics() {
+        MetricRegistry metrics = new MetricRegistry();
+        warmer.registerMetrics(metrics);
+        Gauge<?> warmUpMillis = metrics.getGauges().get(MetricRegistry.name(CacheWarmer.class, "warmUpMillis"));
+        assertEquals(-1L, warmUpMillis.getValue());
+        warmer.warmUp(TIP_HEIGHT);
+        assertEquals((long) RECENT_HEADERS - 1,
+                metrics.getGauges().get(MetricRegistry.name(CacheWarmer.class, "warmed")).getValue());
+        assertTrue((Long) warmUpMillis.getValue() >= 0);
+    }
+
+    private CacheWarmer createWarmer(WarmupConfig config) {
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1))
+                .blockHashIndex(index).blockHeaderCache(Optional.of(cache)).build();
+        return new CacheWarmer(cache, fetcher, index, snapshot, config, scheduler, fetchExecutor);
+    }
+
+    private static BlockHeader header(long height) {
+        return BlockHeader.of(hashAtHeight(height), TIP_HEIGHT - height + 1, 285, height, 4, hashAtHeight(-height),
+                ImmutableList.of(hashAtHeight(-height)), 1450000000L + height, 0, BigInteger.ONE, 1.0,
+                BigInteger.valueOf(height), Optional.of(hashAtHeight(height - 1)),
+                height < TIP_HEIGHT ? Optional.of(hashAtHeight(height + 1)) : Optional.absent());
+    }
+
+    private static BlockHeader headerOnly(long height) {
+        return ImmutableBlockHeader.copyOf(header(height)).withTransactionIds().withSizeBytes(-1);
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
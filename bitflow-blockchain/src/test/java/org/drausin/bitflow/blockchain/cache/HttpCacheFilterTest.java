@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.testing.junit.ResourceTestRule;
+import io.dropwizard.util.Duration;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.config.ImmutableHttpCacheConfig;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public final class HttpCacheFilterTest {
+
+    private static final AtomicReference<Sha256Hash> BEST_BLOCK_HASH = new AtomicReference<>();
+    private static final AtomicInteger NUM_READS = new AtomicInteger();
+
+    private static final Supplier<Optional<Sha256Hash>> KNOWN_BEST_BLOCK_HASH = () -> Optional.fromNullable(
+            BEST_BLOCK_HASH.get());
+
+    @ClassRule
+    public static final ResourceTestRule RESOURCES = ResourceTestRule.builder()
+            .setMapper(BitflowMapperFactory.createMapper())
+            .addResource(new HeaderResource())
+            .addProvider(new HttpCacheFilter(KNOWN_BEST_BLOCK_HASH, ImmutableHttpCacheConfig.builder()
+                    .immutableDepth(100)
+                    .deepMaxAge(Duration.days(1))
+                    .tipMaxAge(Duration.seconds(5))
+                    .build()))
+            .build();
+
+    @Before
+    public void setUp() {
+        BEST_BLOCK_HASH.set(hashAtHeight(1000));
+        NUM_READS.set(0);
+    }
+
+    @Test
+    public void testDeepHeader() {
+        Response response = get("/headers/500", Optional.absent());
+        assertEquals(200, response.getStatus());
+        assertEquals("max-age=86400, public", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertEquals(HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING,
+                response.getHeaderString(HttpHeaders.VARY));
+        assertTrue(response.getHeaderString(HttpHeaders.ETAG).startsWith("W/"));
+        assertEquals(501, response.readEntity(BlockHeader.class).getNumConfirmations());
+    }
+
+    @Test
+    public void testTipHeaders() {
+        Response response = get("/headers/500,999", Optional.absent());
+        assertEquals(200, response.getStatus());
+        assertEquals("max-age=5, public", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertFalse(response.getHeaderString(HttpHeaders.ETAG).startsWith("W/"));
+        List<BlockHeader> headers = response.readEntity(new GenericType<List<BlockHeader>>() { });
+        assertEquals(501, headers.get(0).getNumConfirmations());
+        assertEquals(2, headers.get(1).getNumConfirmations());
+    }
+
+    @Test
+    public void testDeepHeaders() {
+        Response response = get("/headers/400,500", Optional.absent());
+        assertEquals("max-age=86400, public", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        List<BlockHeader> headers = response.readEntity(new GenericType<List<BlockHeader>>() { });
+        assertEquals(hashAtHeight(400), headers.get(0).getHeaderHash());
+        assertEquals(601, headers.get(0).getNumConfirmations());
+        assertEquals(501, headers.get(1).getNumConfirmations());
+    }
+
+    @Test
+    public void testNotModified() {
+        String entityTag = get("/headers/500", Optional.absent()).getHeaderString(HttpHeaders.ETAG);
+        assertEquals(1, NUM_READS.get());
+
+        // the matching revalidation never reaches the resource
+        Response response = get("/headers/500", Optional.of(entityTag));
+        assertEquals(304, response.getStatus());
+        assertEquals(entityTag, response.getHeaderString(HttpHeaders.ETAG));
+        assertNull(response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertEquals(1, NUM_READS.get());
+
+        // other headers have other tags
+        assertEquals(200, get("/headers/501", Optional.of(entityTag)).getStatus());
+        assertEquals(2, NUM_READS.get());
+    }
+
+    @Test
+    public void testNewTipDeep() {
+        String entityTag = get("/headers/500", Optional.absent()).getHeaderString(HttpHeaders.ETAG);
+
+        // deep responses only change in their confirmations, so their weak tags aren't keyed on the best chain
+        BEST_BLOCK_HASH.set(hashAtHeight(1001));
+        Response response = get("/headers/500", Optional.of(entityTag));
+        assertEquals(304, response.getStatus());
+        assertEquals(entityTag, response.getHeaderString(HttpHeaders.ETAG));
+        assertEquals(1, NUM_READS.get());
+    }
+
+    @Test
+    public void testNewTip() {
+        String entityTag = get("/headers/500,999", Optional.absent()).getHeaderString(HttpHeaders.ETAG);
+        assertEquals(304, get("/headers/500,999", Optional.of(entityTag)).getStatus());
+
+        BEST_BLOCK_HASH.set(hashAtHeight(1001));
+        Response response = get("/headers/500,999", Optional.of(entityTag));
+        assertEquals(200, response.getStatus());
+        assertNotEquals(entityTag, response.getHeaderString(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testNoSnapshot() {
+        BEST_BLOCK_HASH.set(null);
+        Response tipResponse = get("/headers/500,999", Optional.absent());
+        assertEquals("max-age=5, public", tipResponse.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertNull(tipResponse.getHeaderString(HttpHeaders.ETAG));
+        assertTrue(get("/headers/500", Optional.absent()).getHeaderString(HttpHeaders.ETAG).startsWith("W/"));
+    }
+
+    @Test
+    public void testPostNotTagged() {
+        Response response = RESOURCES.client().target("/headers/500").request()
+                .post(Entity.entity("", MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString(HttpHeaders.ETAG));
+        assertNull(response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+    }
+
+    @Test
+    public void testGetMinConfirmations() {
+        assertEquals(501, HttpCacheFilter.getMinConfirmations(header(500)));
+        assertEquals(2, HttpCacheFilter.getMinConfirmations(ImmutableList.of(header(500), header(999))));
+        assertEquals(-1, HttpCacheFilter.getMinConfirmations(ImmutableList.of()));
+        assertEquals(-1, HttpCacheFilter.getMinConfirmations("pong"));
+    }
+
+    private static Response get(String path, Optional<String> ifNoneMatch) {
+        return RESOURCES.client().target(path).request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.orNull())
+                .get();
+    }
+
+    private static BlockHeader header(long height) {
+        return BlockHeader.of(hashAtHeight(height), 1000 - height + 1, 285, height, 4, hashAtHeight(-height),
+                ImmutableList.of(), 1450000000L + height, 0, BigInteger.ONE, 1.0, BigInteger.valueOf(height),
+                Optional.of(hashAtHeight(height - 1)), Optional.of(hashAtHeight(height + 1)));
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+
+    @Path("/headers")
+    @Produces(MediaType.APPLICATION_JSON)
+    public static final class HeaderResource {
+
+        @GET
+        @Path("/{height}")
+        public BlockHeader getHeader(@PathParam("height") long height) {
+            NUM_READS.incrementAndGet();
+            return header(height);
+        }
+
+        @GET
+        @Path("/{from},{to}")
+        public List<BlockHeader> getHeaders(@PathParam("from") long from, @PathParam("to") long to) {
+            NUM_READS.incrementAndGet();
+            return ImmutableList.of(header(from), header(to));
+        }
+
+        @POST
+        @Path("/{height}")
+        public BlockHeader postHeader(@PathParam("height") long height) {
+            return header(height);
+        }
+    }
+}
@@ -18,9 +18,11 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 import io.dropwizard.testing.junit.DropwizardAppRule;
+import io.dropwizard.util.Duration;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.drausin.bitflow.blockchain.BlockchainServer;
 import org.junit.Before;
@@ -62,9 +64,166 @@ public class ServerConfigTest {
         assertThat(serverConfig.getBitcoinNode().getPassword(), is(bitcoinNode.get("password")));
     }
 
+    @Test
+    public final void testGetPool() throws Exception {
+        Map<String, Object> pool = (HashMap<String, Object>) configMap.get("pool");
+        Map<String, Object> node = ((List<HashMap<String, Object>>) pool.get("nodes")).get(0);
+        assertThat(serverConfig.getPool().getNodes().size(), is(1));
+        assertThat(serverConfig.getPool().getNodes().get(0).getUri(), is(node.get("uri")));
+        assertThat(serverConfig.getPool().getMaxTipLag(), is(pool.get("maxTipLag")));
+        assertThat(serverConfig.getPool().getCheckInterval(), is(Duration.parse((String) pool.get("checkInterval"))));
+    }
+
+    @Test
+    public final void testGetHedge() throws Exception {
+        Map<String, Object> hedge = (HashMap<String, Object>) configMap.get("hedge");
+        assertThat(serverConfig.getHedge().getEnabled(), is(hedge.get("enabled")));
+        assertThat(serverConfig.getHedge().getPercentile(), is(hedge.get("percentile")));
+        assertThat(serverConfig.getHedge().getMinDelay(), is(Duration.parse((String) hedge.get("minDelay"))));
+        assertThat(serverConfig.getHedge().getMaxExtraLoad(), is(hedge.get("maxExtraLoad")));
+        assertThat(serverConfig.getHedge().getMaxThreads(), is(hedge.get("maxThreads")));
+    }
+
+    @Test
+    public final void testGetLimit() throws Exception {
+        Map<String, Object> limit = (HashMap<String, Object>) configMap.get("limit");
+        assertThat(serverConfig.getLimit().getEnabled(), is(limit.get("enabled")));
+        assertThat(serverConfig.getLimit().getInitialLimit(), is(limit.get("initialLimit")));
+        assertThat(serverConfig.getLimit().getMinLimit(), is(limit.get("minLimit")));
+        assertThat(serverConfig.getLimit().getMaxLimit(), is(limit.get("maxLimit")));
+        assertThat(serverConfig.getLimit().getBackoffRatio(), is(limit.get("backoffRatio")));
+        assertThat(serverConfig.getLimit().getMaxLatency(), is(Duration.parse((String) limit.get("maxLatency"))));
+        assertThat(serverConfig.getLimit().getMaxQueueSize(), is(limit.get("maxQueueSize")));
+        assertThat(serverConfig.getLimit().getMaxQueueTime(), is(Duration.parse((String) limit.get("maxQueueTime"))));
+    }
+
+    @Test
+    public final void testGetFairness() throws Exception {
+        Map<String, Object> fairness = (HashMap<String, Object>) configMap.get("fairness");
+        Map<String, Object> client = ((List<HashMap<String, Object>>) fairness.get("clients")).get(0);
+        assertThat(serverConfig.getFairness().getEnabled(), is(fairness.get("enabled")));
+        assertThat(serverConfig.getFairness().getRate(), is(((Integer) fairness.get("rate")).doubleValue()));
+        assertThat(serverConfig.getFairness().getBurst(), is(fairness.get("burst")));
+        assertThat(serverConfig.getFairness().getMaxQueuedPerClient(), is(fairness.get("maxQueuedPerClient")));
+        assertThat(serverConfig.getFairness().getMaxUnconfiguredClients(), is(fairness.get("maxUnconfiguredClients")));
+        assertThat(serverConfig.getFairness().getUnconfiguredClientIdleTime(),
+                is(Duration.parse((String) fairness.get("unconfiguredClientIdleTime"))));
+        ClientConfig clientConfig = serverConfig.getFairness().getClients().get(0);
+        assertThat(clientConfig.getName(), is(client.get("name")));
+        assertThat(clientConfig.getAuthHeader(), is(client.get("authHeader")));
+        assertThat(clientConfig.getWeight(), is(client.get("weight")));
+        assertThat(clientConfig.getRate(), is(((Integer) client.get("rate")).doubleValue()));
+        assertThat(clientConfig.getBurst(), is(client.get("burst")));
+    }
+
+    @Test
+    public final void testGetWarmup() throws Exception {
+        Map<String, Object> warmup = (HashMap<String, Object>) configMap.get("warmup");
+        assertThat(serverConfig.getWarmup().getEnabled(), is(warmup.get("enabled")));
+        assertThat(serverConfig.getWarmup().getSnapshotFile(), is(warmup.get("snapshotFile")));
+        assertThat(serverConfig.getWarmup().getSnapshotInterval(),
+                is(Duration.parse((String) warmup.get("snapshotInterval"))));
+        assertThat(serverConfig.getWarmup().getRecentHeaders(), is(warmup.get("recentHeaders")));
+    }
+
+    @Test
+    public final void testGetRest() throws Exception {
+        Map<String, Object> rest = (HashMap<String, Object>) configMap.get("rest");
+        assertThat(serverConfig.getRest().getEnabled(), is(rest.get("enabled")));
+    }
+
+    @Test
+    public final void testGetDecode() throws Exception {
+        Map<String, Object> decode = (HashMap<String, Object>) configMap.get("decode");
+        assertThat(serverConfig.getDecode().getParallelism(), is(decode.get("parallelism")));
+        assertThat(serverConfig.getDecode().getMinTransactionsPerTask(), is(decode.get("minTransactionsPerTask")));
+        assertThat(serverConfig.getDecode().getBufferPoolSize(), is(decode.get("bufferPoolSize")));
+        assertThat(serverConfig.getDecode().getBufferBytes(), is(decode.get("bufferBytes")));
+    }
+
     @Test
     public final void testGetIncludeStackTraceInErrors() throws Exception {
         assertThat(serverConfig.getIncludeStackTraceInErrors().get(), is(configMap.get("includeStackTraceInErrors")));
     }
 
+    @Test
+    public final void testGetFetch() throws Exception {
+        Map<String, Object> fetch = (HashMap<String, Object>) configMap.get("fetch");
+        assertThat(serverConfig.getFetch().getBatchSize(), is(fetch.get("batchSize")));
+        assertThat(serverConfig.getFetch().getParallelism(), is(fetch.get("parallelism")));
+        assertThat(serverConfig.getFetch().getPartitionSize(), is(fetch.get("partitionSize")));
+        assertThat(serverConfig.getFetch().getRestHeadersPerCall(), is(fetch.get("restHeadersPerCall")));
+        assertThat(serverConfig.getFetch().getMaxReorgRepairs(), is(fetch.get("maxReorgRepairs")));
+    }
+
+    @Test
+    public final void testGetIndex() throws Exception {
+        Map<String, Object> index = (HashMap<String, Object>) configMap.get("index");
+        assertThat(serverConfig.getIndex().getEnabled(), is(index.get("enabled")));
+        assertThat(serverConfig.getIndex().getSyncInterval(), is(Duration.parse((String) index.get("syncInterval"))));
+        assertThat(serverConfig.getIndex().getReorgCheckDepth(), is(index.get("reorgCheckDepth")));
+    }
+
+    @Test
+    public final void testGetCache() throws Exception {
+        Map<String, Object> cache = (HashMap<String, Object>) configMap.get("cache");
+        assertThat(serverConfig.getCache().getEnabled(), is(cache.get("enabled")));
+        assertThat(serverConfig.getCache().getImmutableDepth(), is(cache.get("immutableDepth")));
+        assertThat(serverConfig.getCache().getDeepMaxSize(), is(((Integer) cache.get("deepMaxSize")).longValue()));
+        assertThat(serverConfig.getCache().getTipMaxSize(), is(((Integer) cache.get("tipMaxSize")).longValue()));
+        assertThat(serverConfig.getCache().getTipTtl(), is(Duration.parse((String) cache.get("tipTtl"))));
+    }
+
+    @Test
+    public final void testGetStore() throws Exception {
+        Map<String, Object> store = (HashMap<String, Object>) configMap.get("store");
+        assertThat(serverConfig.getStore().getEnabled(), is(store.get("enabled")));
+        assertThat(serverConfig.getStore().getDirectory(), is(store.get("directory")));
+    }
+
+    @Test
+    public final void testGetCoalesce() throws Exception {
+        Map<String, Object> coalesce = (HashMap<String, Object>) configMap.get("coalesce");
+        assertThat(serverConfig.getCoalesce().getEnabled(), is(coalesce.get("enabled")));
+    }
+
+    @Test
+    public final void testGetPrefetch() throws Exception {
+        Map<String, Object> prefetch = (HashMap<String, Object>) configMap.get("prefetch");
+        assertThat(serverConfig.getPrefetch().getEnabled(), is(prefetch.get("enabled")));
+        assertThat(serverConfig.getPrefetch().getInitialDepth(), is(prefetch.get("initialDepth")));
+        assertThat(serverConfig.getPrefetch().getMaxDepth(), is(prefetch.get("maxDepth")));
+        assertThat(serverConfig.getPrefetch().getMaxScans(), is(prefetch.get("maxScans")));
+        assertThat(serverConfig.getPrefetch().getThreads(), is(prefetch.get("threads")));
+    }
+
+    @Test
+    public final void testGetHttpCache() throws Exception {
+        Map<String, Object> httpCache = (HashMap<String, Object>) configMap.get("httpCache");
+        assertThat(serverConfig.getHttpCache().getEnabled(), is(httpCache.get("enabled")));
+        assertThat(serverConfig.getHttpCache().getImmutableDepth(), is(httpCache.get("immutableDepth")));
+        assertThat(serverConfig.getHttpCache().getDeepMaxAge(),
+                is(Duration.parse((String) httpCache.get("deepMaxAge"))));
+        assertThat(serverConfig.getHttpCache().getTipMaxAge(),
+                is(Duration.parse((String) httpCache.get("tipMaxAge"))));
+    }
+
+    @Test
+    public final void testGetAsync() throws Exception {
+        Map<String, Object> async = (HashMap<String, Object>) configMap.get("async");
+        assertThat(serverConfig.getAsync().getEnabled(), is(async.get("enabled")));
+        assertThat(serverConfig.getAsync().getThreads(), is(async.get("threads")));
+        assertThat(serverConfig.getAsync().getQueueSize(), is(async.get("queueSize")));
+        assertThat(serverConfig.getAsync().getTimeout(), is(Duration.parse((String) async.get("timeout"))));
+    }
+
+    @Test
+    public final void testGetInfo() throws Exception {
+        Map<String, Object> info = (HashMap<String, Object>) configMap.get("info");
+        assertThat(serverConfig.getInfo().getEnabled(), is(info.get("enabled")));
+        assertThat(serverConfig.getInfo().getRefreshInterval(),
+                is(Duration.parse((String) info.get("refreshInterval"))));
+        assertThat(serverConfig.getInfo().getMaxStaleness(), is(Duration.parse((String) info.get("maxStaleness"))));
+    }
+
 }
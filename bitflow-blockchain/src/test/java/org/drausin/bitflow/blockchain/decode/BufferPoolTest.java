@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.decode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public final class BufferPoolTest {
+
+    @Test
+    public void testAcquire() throws Exception {
+        BufferPool bufferPool = new BufferPool(2, 100);
+        assertEquals(100, bufferPool.acquire(10).length);
+        assertEquals(200, bufferPool.acquire(200).length);
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        BufferPool bufferPool = new BufferPool(2, 100);
+        byte[] buffer = bufferPool.acquire(10);
+        bufferPool.release(buffer);
+        assertEquals(1, bufferPool.getNumIdle());
+        assertSame(buffer, bufferPool.acquire(50));
+        assertEquals(0, bufferPool.getNumIdle());
+    }
+
+    @Test
+    public void testReleaseFull() throws Exception {
+        BufferPool bufferPool = new BufferPool(2, 100);
+        for (int c = 0; c < 3; c++) {
+            bufferPool.release(new byte[100]);
+        }
+        assertEquals(2, bufferPool.getNumIdle());
+    }
+
+    @Test
+    public void testAcquireTooSmall() throws Exception {
+        BufferPool bufferPool = new BufferPool(2, 100);
+        byte[] buffer = bufferPool.acquire(10);
+        bufferPool.release(buffer);
+        byte[] largerBuffer = bufferPool.acquire(150);
+        assertNotSame(buffer, largerBuffer);
+        assertEquals(150, largerBuffer.length);
+        assertEquals(0, bufferPool.getNumIdle());
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.decode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockTransaction;
+import org.drausin.bitflow.blockchain.api.objects.FullBlock;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.TransactionInput;
+import org.drausin.bitflow.blockchain.api.objects.TransactionOutput;
+import org.drausin.bitflow.blockchain.config.DecodeConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableDecodeConfig;
+import org.junit.Test;
+
+public final class RawBlockDecoderTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final Sha256Hash GENESIS_HASH =
+            Sha256Hash.wrap("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f");
+    private static final Sha256Hash GENESIS_TX_ID =
+            Sha256Hash.wrap("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b");
+
+    @Test
+    public void testDecodeGenesis() throws Exception {
+        RawBlockDecoder decoder = new RawBlockDecoder(PARAMS, DecodeConfig.of());
+        FullBlock block = decoder.decode(createBlockHeader(GENESIS_HASH),
+                BitcoinNodeExampleResponses.getRawBlockHex());
+
+        assertEquals(GENESIS_HASH, block.getBlockHeader().getHeaderHash());
+        assertEquals(285, block.getBlockHeader().getSizeBytes());
+        assertEquals(1, block.getBlockHeader().getNumTransactions());
+        assertTrue(block.getBlockHeader().getTransactionIds().isEmpty());
+
+        BlockTransaction coinbase = block.getTransactions().get(0);
+        assertEquals(GENESIS_TX_ID, coinbase.getTransactionId());
+        assertEquals(1, coinbase.getVersion());
+        assertEquals(204, coinbase.getSizeBytes());
+        assertEquals(0, coinbase.getLockTime());
+        assertEquals(1, coinbase.getInputs().size());
+        assertEquals(Sha256Hash.ZERO_HASH, coinbase.getInputs().get(0).getPreviousTransactionId());
+        assertEquals(0xffffffffL, coinbase.getInputs().get(0).getPreviousOutputIndex());
+        assertEquals(1, coinbase.getOutputs().size());
+        assertEquals(Coin.FIFTY_COINS.getValue(), coinbase.getOutputs().get(0).getValue());
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        Block block = createBlock(20);
+        RawBlockDecoder decoder = new RawBlockDecoder(PARAMS, DecodeConfig.of());
+        FullBlock fullBlock = decoder.decode(createBlockHeader(block.getHash()), toHex(block));
+
+        assertEquals(block.bitcoinSerialize().length, fullBlock.getBlockHeader().getSizeBytes());
+        assertTransactions(block.getTransactions(), fullBlock.getTransactions());
+    }
+
+    @Test
+    public void testDecodeParallel() throws Exception {
+        Block block = createBlock(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            RawBlockDecoder decoder = new RawBlockDecoder(PARAMS, ImmutableDecodeConfig.builder()
+                    .parallelism(4)
+                    .minTransactionsPerTask(10)
+                    .build(), executor);
+            FullBlock fullBlock = decoder.decode(createBlockHeader(block.getHash()), toHex(block));
+            assertTransactions(block.getTransactions(), fullBlock.getTransactions());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDecodeReusesBuffer() throws Exception {
+        RawBlockDecoder decoder = new RawBlockDecoder(PARAMS, ImmutableDecodeConfig.builder()
+                .bufferBytes(0)
+                .build());
+        Block largerBlock = createBlock(20);
+        decoder.decode(createBlockHeader(largerBlock.getHash()), toHex(largerBlock));
+        assertEquals(1, decoder.getBufferPool().getNumIdle());
+
+        // the smaller block is decoded into the larger block's buffer, past whose end are the larger block's bytes
+        Block smallerBlock = createBlock(5);
+        FullBlock fullBlock = decoder.decode(createBlockHeader(smallerBlock.getHash()), toHex(smallerBlock));
+        assertEquals(1, decoder.getBufferPool().getNumIdle());
+        assertTransactions(smallerBlock.getTransactions(), fullBlock.getTransactions());
+    }
+
+    @Test
+    public void testFindTransactionBoundaries() throws Exception {
+        Block block = createBlock(3);
+        byte[] raw = block.bitcoinSerialize();
+        int[] boundaries = RawBlockDecoder.findTransactionBoundaries(raw, raw.length).getStarts();
+
+        assertEquals(4, boundaries.length);
+        assertEquals(81, boundaries[0]);
+        for (int c = 0; c < 3; c++) {
+            assertEquals(block.getTransactions().get(c).getMessageSize(), boundaries[c + 1] - boundaries[c]);
+        }
+        assertEquals(raw.length, boundaries[3]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeWrongBlock() throws Exception {
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(createBlock(1).getHash()),
+                BitcoinNodeExampleResponses.getRawBlockHex());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeOddHex() throws Exception {
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(GENESIS_HASH),
+                BitcoinNodeExampleResponses.getRawBlockHex() + "0");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeInvalidHex() throws Exception {
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(GENESIS_HASH),
+                "zz" + BitcoinNodeExampleResponses.getRawBlockHex().substring(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeTruncated() throws Exception {
+        String hex = BitcoinNodeExampleResponses.getRawBlockHex();
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(GENESIS_HASH),
+                hex.substring(0, hex.length() - 2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeTrailingBytes() throws Exception {
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(GENESIS_HASH),
+                BitcoinNodeExampleResponses.getRawBlockHex() + "00");
+    }
+
+    @Test
+    public void testDecodeSegregatedWitness() throws Exception {
+        Block block = createBlock(20);
+        byte[] raw = toWitnessSerialization(block);
+        RawBlockDecoder.TransactionBoundaries boundaries = RawBlockDecoder.findTransactionBoundaries(raw, raw.length);
+        for (int c = 0; c < 20; c++) {
+            assertEquals(c % 2 == 0, boundaries.getWitnessStarts()[c] >= 0);
+        }
+
+        // the transaction IDs are of the transactions without their witnesses, but the sizes include them
+        FullBlock fullBlock = new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(
+                createBlockHeader(block.getHash()), Utils.HEX.encode(raw));
+        assertEquals(raw.length, fullBlock.getBlockHeader().getSizeBytes());
+        for (int c = 0; c < 20; c++) {
+            Transaction transaction = block.getTransactions().get(c);
+            BlockTransaction blockTransaction = fullBlock.getTransactions().get(c);
+            assertEquals(transaction.getHash(), blockTransaction.getTransactionId());
+            assertEquals(boundaries.getStarts()[c + 1] - boundaries.getStarts()[c], blockTransaction.getSizeBytes());
+            assertEquals(transaction.getInputs().size(), blockTransaction.getInputs().size());
+            assertEquals(transaction.getOutputs().size(), blockTransaction.getOutputs().size());
+            assertEquals(transaction.getLockTime(), blockTransaction.getLockTime());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeUnknownFlag() throws Exception {
+        // the marker and flag of the segregated witness format come right after the transaction version
+        String hex = BitcoinNodeExampleResponses.getRawBlockHex();
+        int inputsOffset = 2 * (80 + 1 + 4);
+        new RawBlockDecoder(PARAMS, DecodeConfig.of()).decode(createBlockHeader(GENESIS_HASH),
+                hex.substring(0, inputsOffset) + "0002" + hex.substring(inputsOffset));
+    }
+
+    private static void assertTransactions(List<Transaction> expected, List<BlockTransaction> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int c = 0; c < expected.size(); c++) {
+            Transaction transaction = expected.get(c);
+            BlockTransaction blockTransaction = actual.get(c);
+            assertEquals(transaction.getHash(), blockTransaction.getTransactionId());
+            assertEquals(transaction.getMessageSize(), blockTransaction.getSizeBytes());
+            assertEquals(transaction.getLockTime(), blockTransaction.getLockTime());
+            assertEquals(transaction.getInputs().size(), blockTransaction.getInputs().size());
+            for (int i = 0; i < transaction.getInputs().size(); i++) {
+                org.bitcoinj.core.TransactionInput input = transaction.getInputs().get(i);
+                TransactionInput blockInput = blockTransaction.getInputs().get(i);
+                assertEquals(input.getOutpoint().getHash(), blockInput.getPreviousTransactionId());
+                assertEquals(input.getOutpoint().getIndex(), blockInput.getPreviousOutputIndex());
+                assertArrayEquals(input.getScriptBytes(), blockInput.getScript());
+            }
+            assertEquals(transaction.getOutputs().size(), blockTransaction.getOutputs().size());
+            for (int o = 0; o < transaction.getOutputs().size(); o++) {
+                org.bitcoinj.core.TransactionOutput output = transaction.getOutputs().get(o);
+                TransactionOutput blockOutput = blockTransaction.getOutputs().get(o);
+                assertEquals(output.getValue().getValue(), blockOutput.getValue());
+                assertArrayEquals(output.getScriptBytes(), blockOutput.getScript());
+            }
+        }
+    }
+
+    private static Block createBlock(int numTransactions) {
+        ImmutableList.Builder<Transaction> transactions = ImmutableList.builder();
+        for (int c = 0; c < numTransactions; c++) {
+            Transaction transaction = new Transaction(PARAMS);
+            transaction.setLockTime(c);
+
+            // vary the numbers of inputs, outputs, and script bytes so the transactions have different sizes
+            for (int i = 0; i <= c % 3; i++) {
+                transaction.addInput(new org.bitcoinj.core.TransactionInput(PARAMS, transaction,
+                        new byte[c % 300], new TransactionOutPoint(PARAMS, i,
+                                Sha256Hash.of(new byte[] {(byte) c, (byte) (c >> 8)}))));
+            }
+            for (int o = 0; o <= c % 4; o++) {
+                transaction.addOutput(new org.bitcoinj.core.TransactionOutput(PARAMS, transaction,
+                        Coin.valueOf(c * 1000 + o), new byte[] {(byte) o, (byte) c}));
+            }
+            transactions.add(transaction);
+        }
+        return new Block(PARAMS, 1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 1231006505, 0x1d00ffff,
+                numTransactions, transactions.build());
+    }
+
+    /**
+     * Serializes a block with every other transaction in the segregated witness format, giving each of its inputs a
+     * witness of two items.
+     */
+    private static byte[] toWitnessSerialization(Block block) throws Exception {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        raw.write(block.bitcoinSerialize(), 0, 80);
+        raw.write(new VarInt(block.getTransactions().size()).encode());
+        for (int c = 0; c < block.getTransactions().size(); c++) {
+            Transaction transaction = block.getTransactions().get(c);
+            byte[] tx = transaction.bitcoinSerialize();
+            if (c % 2 != 0) {
+                raw.write(tx);
+                continue;
+            }
+            raw.write(tx, 0, 4);
+            raw.write(new byte[] {0, 1});
+            raw.write(tx, 4, tx.length - 8);
+            for (int i = 0; i < transaction.getInputs().size(); i++) {
+                raw.write(new byte[] {2, 3, 1, 2, 3, 0});
+            }
+            raw.write(tx, tx.length - 4, 4);
+        }
+        return raw.toByteArray();
+    }
+
+    private static BlockHeader createBlockHeader(Sha256Hash headerHash) throws Exception {
+        return ImmutableBlockHeader.copyOf(BitcoinNodeExampleResponses.getBlockHeaderResponse().getResult().get())
+                .withHeaderHash(headerHash);
+    }
+
+    private static String toHex(Block block) {
+        return Utils.HEX.encode(block.bitcoinSerialize());
+    }
+}
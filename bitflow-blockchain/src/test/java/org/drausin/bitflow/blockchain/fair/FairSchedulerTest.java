@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.util.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ClientErrorException;
+import org.drausin.bitflow.blockchain.config.FairnessConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableClientConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableFairnessConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class FairSchedulerTest {
+
+    private static final String BULK = "Bearer bulk-token";
+    private static final String DASHBOARD = "Bearer dashboard-token";
+    private static final String OTHER = "Bearer other-token";
+
+    private final Queue<Runnable> executed = new ArrayDeque<>();
+    private final Executor executor = executed::add;
+    private FakeTicker ticker;
+    private FairnessConfig config;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        config = ImmutableFairnessConfig.builder()
+                .maxQueuedPerClient(10)
+                .addClients(ImmutableClientConfig.builder()
+                        .name("dashboard")
+                        .authHeader(DASHBOARD)
+                        .weight(3)
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void testWeightedShares() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 100, executor, ticker);
+        List<String> order = new ArrayList<>();
+        scheduler.execute(BULK, () -> order.add("blocker"));
+        for (int i = 0; i < 6; i++) {
+            scheduler.execute(BULK, () -> order.add("bulk"));
+            scheduler.execute(DASHBOARD, () -> order.add("dashboard"));
+        }
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(12, scheduler.getQueued());
+        runAll();
+
+        // while both clients have requests waiting, the dashboard gets three of every four turns
+        assertEquals("blocker", order.get(0));
+        assertEquals(6, Collections.frequency(order.subList(1, 9), "dashboard"));
+        assertEquals(13, order.size());
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void testIdleClientSavesNoTurns() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 100, executor, ticker);
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            scheduler.execute(DASHBOARD, () -> order.add("dashboard"));
+        }
+        runAll();
+        scheduler.execute(BULK, () -> order.add("blocker"));
+        for (int i = 0; i < 2; i++) {
+            scheduler.execute(BULK, () -> order.add("bulk"));
+            scheduler.execute(DASHBOARD, () -> order.add("dashboard"));
+        }
+        runAll();
+
+        // the bulk client's turns start from the current virtual time, so it can't catch up on those it didn't use
+        assertEquals(ImmutableList.of("dashboard", "dashboard", "bulk", "bulk"), order.subList(5, 9));
+    }
+
+    @Test
+    public void testRateLimited() {
+        FairScheduler scheduler = new FairScheduler(ImmutableFairnessConfig.copyOf(config)
+                .withRate(1)
+                .withBurst(2), 10, 100, executor, ticker);
+        scheduler.execute(BULK, () -> { });
+        scheduler.execute(BULK, () -> { });
+        try {
+            scheduler.execute(BULK, () -> { });
+            fail();
+        } catch (ClientErrorException e) {
+            assertEquals(429, e.getResponse().getStatus());
+        }
+        String name = scheduler.getClientName(BULK);
+        assertEquals(1, scheduler.getRateLimited(name).getCount());
+
+        scheduler.execute(DASHBOARD, () -> { });
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        scheduler.execute(BULK, () -> { });
+        assertEquals(3, scheduler.getRequests(name).getCount());
+    }
+
+    @Test
+    public void testUnconfiguredClientsHaveOwnBuckets() {
+        FairScheduler scheduler = new FairScheduler(ImmutableFairnessConfig.copyOf(config)
+                .withRate(1)
+                .withBurst(1), 10, 100, executor, ticker);
+        scheduler.execute(BULK, () -> { });
+        scheduler.execute(OTHER, () -> { });
+        try {
+            scheduler.execute(BULK, () -> { });
+            fail();
+        } catch (ClientErrorException e) {
+            assertEquals(429, e.getResponse().getStatus());
+        }
+
+        // both clients are counted together in the metrics of those that aren't configured
+        assertEquals(2, scheduler.getRequests(FairScheduler.UNCONFIGURED).getCount());
+        assertEquals(1, scheduler.getRateLimited(FairScheduler.UNCONFIGURED).getCount());
+        assertEquals(2, scheduler.getUnconfiguredClients());
+    }
+
+    @Test
+    public void testUnconfiguredClientsForgotten() {
+        FairScheduler scheduler = new FairScheduler(ImmutableFairnessConfig.copyOf(config)
+                .withMaxUnconfiguredClients(10)
+                .withUnconfiguredClientIdleTime(Duration.minutes(1)), 1, 100, executor, ticker);
+        scheduler.execute(BULK, () -> { });
+        for (int c = 0; c < 100; c++) {
+            scheduler.execute("Bearer token-" + c, () -> { });
+        }
+        assertEquals(10, scheduler.getUnconfiguredClients());
+
+        // the requests of forgotten clients still run in their turn
+        assertEquals(100, scheduler.getQueued());
+        runAll();
+        assertEquals(0, scheduler.getQueued());
+
+        ticker.advance(1, TimeUnit.MINUTES);
+        assertEquals(0, scheduler.getUnconfiguredClients());
+    }
+
+    @Test
+    public void testMaxQueuedPerClient() {
+        FairScheduler scheduler = new FairScheduler(ImmutableFairnessConfig.copyOf(config)
+                .withMaxQueuedPerClient(2), 1, 100, executor, ticker);
+        for (int i = 0; i < 3; i++) {
+            scheduler.execute(BULK, () -> { });
+        }
+        try {
+            scheduler.execute(BULK, () -> { });
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, scheduler.getRejected(scheduler.getClientName(BULK)).getCount());
+        }
+        scheduler.execute(DASHBOARD, () -> { });
+        assertEquals(3, scheduler.getQueued());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testMaxQueued() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 1, executor, ticker);
+        scheduler.execute(BULK, () -> { });
+        scheduler.execute(BULK, () -> { });
+        scheduler.execute(DASHBOARD, () -> { });
+    }
+
+    @Test
+    public void testExecutorRejectionLeavesWaiting() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 100, request -> {
+            throw new RejectedExecutionException();
+        }, ticker);
+        scheduler.execute(BULK, () -> { });
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued());
+    }
+
+    @Test
+    public void testClientNames() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 100, executor, ticker);
+        assertEquals("dashboard", scheduler.getClientName(DASHBOARD));
+        assertEquals(FairScheduler.UNCONFIGURED, scheduler.getClientName(null));
+        assertEquals(FairScheduler.UNCONFIGURED, scheduler.getClientName(""));
+        assertEquals(FairScheduler.UNCONFIGURED, scheduler.getClientName(BULK));
+        assertEquals(FairScheduler.UNCONFIGURED, scheduler.getClientName(OTHER));
+    }
+
+    @Test
+    public void testMetrics() {
+        FairScheduler scheduler = new FairScheduler(config, 1, 100, executor, ticker);
+        MetricRegistry metrics = new MetricRegistry();
+        scheduler.registerMetrics(metrics);
+        scheduler.execute(DASHBOARD, () -> { });
+        scheduler.execute(BULK, () -> { });
+        ticker.advance(5, TimeUnit.MILLISECONDS);
+        runAll();
+        String name = scheduler.getClientName(BULK);
+        assertSame(scheduler.getRequests(name), metrics.getMeters().get(
+                MetricRegistry.name(FairScheduler.class, name, "requests")));
+        assertSame(scheduler.getQueueDelay("dashboard"), metrics.getTimers().get(
+                MetricRegistry.name(FairScheduler.class, "dashboard", "queueDelay")));
+        assertEquals(1, scheduler.getQueueDelay(name).getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), scheduler.getQueueDelay(name).getSnapshot().getMax());
+        assertEquals(0, metrics.getGauges().get(MetricRegistry.name(FairScheduler.class, "queued")).getValue());
+
+        // only the configured clients and the one shared by all others have metrics, however many headers are seen
+        for (int c = 0; c < 100; c++) {
+            assertEquals(FairScheduler.UNCONFIGURED, scheduler.getClientName("Bearer token-" + c));
+            scheduler.execute("Bearer token-" + c, () -> { });
+        }
+        assertEquals(6, metrics.getMeters().size());
+        assertEquals(Long.valueOf(101), metrics.getGauges().get(
+                MetricRegistry.name(FairScheduler.class, FairScheduler.UNCONFIGURED, "clients")).getValue());
+    }
+
+    private void runAll() {
+        while (!executed.isEmpty()) {
+            executed.poll().run();
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+}
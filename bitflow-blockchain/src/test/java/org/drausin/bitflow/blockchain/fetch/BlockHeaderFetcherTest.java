@@ -0,0 +1,712 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeResponseError;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookup;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeaderLookupResult;
+import org.drausin.bitflow.blockchain.cache.BlockHeaderCache;
+import org.drausin.bitflow.blockchain.config.CacheConfig;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableFetchConfig;
+import org.drausin.bitflow.blockchain.index.BlockHashIndex;
+import org.drausin.bitflow.blockchain.store.HeaderCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+public final class BlockHeaderFetcherTest {
+
+    private BitcoinNodeService bitcoinNodeService;
+    private BitcoinNodeRestService bitcoinNodeRestService;
+    private Map<Long, Sha256Hash> bestChain;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        bitcoinNodeRestService = mock(BitcoinNodeRestService.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidBatchSize() {
+        BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(0)).build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidRestHeadersPerCall() {
+        ImmutableFetchConfig.builder().restHeadersPerCall(BitcoinNodeRestService.MAX_HEADERS + 1).build();
+    }
+
+    @Test
+    public void testIsBatched() {
+        assertFalse(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build().isBatched());
+        assertTrue(BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(2)).build().isBatched());
+    }
+
+    @Test
+    public void testGetBlockHeaderHashesBatched() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(
+                invocation -> answerHashes(invocation.getArguments()[0], false));
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4)).build();
+
+        List<Sha256Hash> hashes = fetcher.getBlockHeaderHashes(10, 20);
+        assertEquals(11, hashes.size());
+        for (int c = 0; c < hashes.size(); c++) {
+            assertEquals(hashAtHeight(10 + c), hashes.get(c));
+        }
+        verify(bitcoinNodeService, times(3)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeaderHashesIndexed() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(
+                invocation -> answerHashes(invocation.getArguments()[0], false));
+        BlockHashIndex index = new BlockHashIndex();
+        List<Sha256Hash> indexedHashes = Lists.newArrayList();
+        for (long h = 0; h < 10; h++) {
+            indexedHashes.add(hashAtHeight(h));
+        }
+        index.extend(0, indexedHashes);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4))
+                .executor(Executors.newSingleThreadExecutor()).blockHashIndex(index).build();
+
+        assertEquals(indexedHashes.subList(2, 8), fetcher.getBlockHeaderHashes(2, 7));
+        assertEquals(hashAtHeight(9), fetcher.getBlockHeaderHash(9));
+        verify(bitcoinNodeService, never()).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, never()).getBlockHeaderHash(any(BitcoinNodeRequest.class));
+
+        // heights beyond the index tip still come from the bitcoin node
+        assertEquals(hashAtHeight(12), fetcher.getBlockHeaderHashes(8, 12).get(4));
+        verify(bitcoinNodeService, times(2)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetBlockHeadersOnly() {
+        when(bitcoinNodeService.getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            List<BlockHeaderResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                responses.add(BlockHeaderResponse.of(Optional.of(headerWithHash((Sha256Hash) request.getParams().get(0),
+                        0, 20)), Optional.absent(), request.getId()));
+            }
+            return responses;
+        });
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (long h = 0; h < 10; h++) {
+            hashes.add(hashAtHeight(h));
+        }
+        List<BlockHeader> headers = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4)).build()
+                .getBlockHeadersOnly(hashes);
+        assertEquals(10, headers.size());
+        for (int c = 0; c < headers.size(); c++) {
+            assertEquals(hashes.get(c), headers.get(c).getHeaderHash());
+        }
+        verify(bitcoinNodeService, times(3)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, never()).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyUnbatched() {
+        for (long h = 0; h < 3; h++) {
+            BlockHeaderResponse response = BlockHeaderResponse.of(mockHeader(h, true));
+            when(bitcoinNodeService.getBlockHeaderOnly(BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(
+                    hashAtHeight(h)))).thenReturn(response);
+        }
+        List<BlockHeader> headers = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build()
+                .getBlockHeadersOnly(ImmutableList.of(hashAtHeight(0), hashAtHeight(1), hashAtHeight(2)));
+        assertEquals(hashAtHeight(2), headers.get(2).getHeaderHash());
+        verify(bitcoinNodeService, times(3)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersCached() {
+        mockSubchain(0, 200);
+        BlockHeaderCache cache = new BlockHeaderCache(CacheConfig.of());
+        cache.onTipChanged(200);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(10))
+                .executor(Executors.newSingleThreadExecutor()).blockHeaderCache(Optional.of(cache)).build();
+
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (long h = 0; h < 20; h++) {
+            hashes.add(hashAtHeight(h));
+        }
+        fetcher.getBlockHeaders(hashes.subList(0, 10));
+        verify(bitcoinNodeService, times(1)).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+
+        // only the 10 uncached headers are fetched, in a single batch
+        List<BlockHeader> headers = fetcher.getBlockHeaders(hashes);
+        verify(bitcoinNodeService, times(2)).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+        assertEquals(20, headers.size());
+        for (int c = 0; c < headers.size(); c++) {
+            assertEquals(hashes.get(c), headers.get(c).getHeaderHash());
+        }
+
+        assertEquals(hashAtHeight(5), fetcher.getBlockHeader(hashAtHeight(5)).getHeaderHash());
+        verify(bitcoinNodeService, never()).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyCached() {
+        mockSubchain(0, 200);
+        BlockHeaderCache cache = new BlockHeaderCache(CacheConfig.of());
+        cache.onTipChanged(200);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(10))
+                .executor(Executors.newSingleThreadExecutor()).blockHeaderCache(Optional.of(cache)).build();
+
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (long h = 0; h < 20; h++) {
+            hashes.add(hashAtHeight(h));
+        }
+        fetcher.getBlockHeadersOnly(hashes.subList(0, 10));
+        verify(bitcoinNodeService, times(1)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+
+        // only the 10 uncached headers are fetched, in a single batch
+        List<BlockHeader> headers = fetcher.getBlockHeadersOnly(hashes);
+        verify(bitcoinNodeService, times(2)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+        assertEquals(20, headers.size());
+        for (int c = 0; c < headers.size(); c++) {
+            assertEquals(hashes.get(c), headers.get(c).getHeaderHash());
+        }
+
+        assertEquals(hashAtHeight(5), fetcher.getBlockHeader(hashAtHeight(5), false).getHeaderHash());
+        assertEquals(hashAtHeight(5), fetcher.lookUpBlockHeaders(ImmutableList.of(BlockHeaderLookup.of(
+                hashAtHeight(5))), false).get(0).getBlockHeader().get().getHeaderHash());
+        verify(bitcoinNodeService, never()).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+
+        // headers cached without their transaction IDs are never served with them
+        fetcher.getBlockHeader(hashAtHeight(5), true);
+        verify(bitcoinNodeService, times(1)).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLookUpBlockHeaders() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            List<BlockHeaderHashResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                long height = (Long) request.getParams().get(0);
+                responses.add(height <= 20
+                        ? BlockHeaderHashResponse.of(Optional.of(hashAtHeight(height)), Optional.absent(),
+                                request.getId())
+                        : BlockHeaderHashResponse.of(Optional.absent(), Optional.of(
+                                BitcoinNodeResponseError.of(-8, "Block height out of range")), request.getId()));
+            }
+            return responses;
+        });
+        when(bitcoinNodeService.getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            List<BlockHeaderResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                Sha256Hash hash = (Sha256Hash) request.getParams().get(0);
+                responses.add(hash.equals(otherHashAtHeight(1))
+                        ? BlockHeaderResponse.of(Optional.absent(), Optional.of(
+                                BitcoinNodeResponseError.of(-5, "Block not found")), request.getId())
+                        : BlockHeaderResponse.of(Optional.of(headerWithHash(hash, 0, 20)), Optional.absent(),
+                                request.getId()));
+            }
+            return responses;
+        });
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4)).build();
+
+        List<BlockHeaderLookupResult> results = fetcher.lookUpBlockHeaders(ImmutableList.of(
+                BlockHeaderLookup.of(3), BlockHeaderLookup.of(hashAtHeight(5)), BlockHeaderLookup.of(25),
+                BlockHeaderLookup.of(otherHashAtHeight(1)), BlockHeaderLookup.of(5), BlockHeaderLookup.of(7)), false);
+        assertEquals(6, results.size());
+        assertEquals(3, results.get(0).getBlockHeader().get().getHeight());
+        assertEquals(5, results.get(1).getBlockHeader().get().getHeight());
+        assertTrue(results.get(2).getError().get().contains("Block height out of range"));
+        assertTrue(results.get(3).getError().get().contains("Block not found"));
+        assertEquals(5, results.get(4).getBlockHeader().get().getHeight());
+        assertEquals(7, results.get(5).getBlockHeader().get().getHeight());
+
+        // the 4 distinct heights and 4 distinct hashes each fit in one batch
+        verify(bitcoinNodeService, times(1)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, times(1)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, never()).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testLookUpBlockHeadersFailedBatch() {
+        mockSubchain(0, 1);
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenThrow(
+                new IllegalStateException("bitcoin node unreachable"));
+        BlockHashIndex index = new BlockHashIndex();
+        index.extend(0, ImmutableList.of(hashAtHeight(0), hashAtHeight(1)));
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4))
+                .executor(Executors.newSingleThreadExecutor()).blockHashIndex(index).build();
+
+        // the indexed height is unaffected by the failed batch of the others
+        List<BlockHeaderLookupResult> results = fetcher.lookUpBlockHeaders(ImmutableList.of(
+                BlockHeaderLookup.of(10), BlockHeaderLookup.of(1), BlockHeaderLookup.of(11)), true);
+        assertTrue(results.get(0).getError().get().contains("bitcoin node unreachable"));
+        assertEquals(hashAtHeight(1), results.get(1).getBlockHeader().get().getHeaderHash());
+        assertTrue(results.get(2).getError().get().contains("bitcoin node unreachable"));
+    }
+
+    @Test
+    public void testLookUpBlockHeadersUnbatchedCached() {
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenAnswer(invocation ->
+                BlockHeaderHashResponse.of(hashAtHeight((Long) ((BitcoinNodeRequest) invocation.getArguments()[0])
+                        .getParams().get(0))));
+        when(bitcoinNodeService.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Sha256Hash hash = (Sha256Hash) ((BitcoinNodeRequest) invocation.getArguments()[0]).getParams().get(0);
+            return hash.equals(otherHashAtHeight(1))
+                    ? BlockHeaderResponse.of(Optional.absent(), Optional.of(BitcoinNodeResponseError.of(-5,
+                            "Block not found")), Optional.absent())
+                    : BlockHeaderResponse.of(headerWithHash(hash, 0, 20));
+        });
+        BlockHeaderCache cache = new BlockHeaderCache(CacheConfig.of());
+        cache.onTipChanged(20);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1))
+                .blockHeaderCache(Optional.of(cache)).build();
+
+        List<BlockHeaderLookup> lookups = ImmutableList.of(BlockHeaderLookup.of(2), BlockHeaderLookup.of(
+                otherHashAtHeight(1)), BlockHeaderLookup.of(hashAtHeight(4)));
+        List<BlockHeaderLookupResult> results = fetcher.lookUpBlockHeaders(lookups, true);
+        assertEquals(hashAtHeight(2), results.get(0).getBlockHeader().get().getHeaderHash());
+        assertTrue(results.get(1).getError().get().contains("Block not found"));
+        assertEquals(hashAtHeight(4), results.get(2).getBlockHeader().get().getHeaderHash());
+        verify(bitcoinNodeService, times(3)).getBlockHeader(any(BitcoinNodeRequest.class));
+
+        // the block headers found are then read from the cache
+        assertEquals(results.get(2), fetcher.lookUpBlockHeaders(lookups, true).get(2));
+        verify(bitcoinNodeService, times(4)).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeaderHashesOutOfOrderResponses() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(
+                invocation -> answerHashes(invocation.getArguments()[0], true));
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(5)).build();
+
+        assertEquals(ImmutableList.of(hashAtHeight(0), hashAtHeight(1), hashAtHeight(2)),
+                fetcher.getBlockHeaderHashes(0, 2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeaderHashesMissingResponse() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenReturn(
+                ImmutableList.of(BlockHeaderHashResponse.of(Optional.of(hashAtHeight(0)), Optional.absent(),
+                        Optional.of("0"))));
+        BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(5)).build().getBlockHeaderHashes(0, 1);
+    }
+
+    @Test
+    public void testGetBlockHeaderHashesUnbatched() {
+        for (long h = 0; h <= 2; h++) {
+            when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(h)))
+                    .thenReturn(BlockHeaderHashResponse.of(hashAtHeight(h)));
+        }
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build();
+
+        assertEquals(ImmutableList.of(hashAtHeight(0), hashAtHeight(1), hashAtHeight(2)),
+                fetcher.getBlockHeaderHashes(0, 2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeaderSubchainFromHashChanged() {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(
+                invocation -> answerHashes(invocation.getArguments()[0], false));
+        BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(5)).build()
+                .getBlockHeaderSubchain(0, hashAtHeight(1), 3);
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainPartitioned() throws Exception {
+        mockSubchain(0, 22);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                    .batchSize(3).partitionSize(5).parallelism(3).build()).executor(executor).build();
+            List<BlockHeader> subchain = fetcher.getBlockHeaderSubchain(1, hashAtHeight(1), 21);
+            assertEquals(21, subchain.size());
+            for (int c = 0; c < subchain.size(); c++) {
+                assertEquals(hashAtHeight(1 + c), subchain.get(c).getHeaderHash());
+            }
+            // 4 partitions of 5 blocks with 2 batches each and a last partition of 1 block with 1 batch
+            verify(bitcoinNodeService, times(9)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+            verify(bitcoinNodeService, times(9)).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainPartitionedUnbatched() throws Exception {
+        mockSubchain(0, 22);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .batchSize(1).partitionSize(5).build()).build();
+        List<BlockHeader> subchain = fetcher.getBlockHeaderSubchain(1, hashAtHeight(1), 21);
+        assertEquals(21, subchain.size());
+        assertEquals(hashAtHeight(21), subchain.get(20).getHeaderHash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeaderSubchainPartitionFailure() throws Exception {
+        mockSubchain(0, 22);
+        when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(11)))
+                .thenReturn(BlockHeaderHashResponse.of(Optional.absent()));
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .batchSize(1).partitionSize(5).build()).build();
+        fetcher.getBlockHeaderSubchain(1, hashAtHeight(1), 21);
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainRepaired() {
+        // the best chain forks at height 14 after the first 3 of the 4 partitions have been fetched
+        mockReorganizingChain(1, 20, 14, 3);
+        List<BlockHeader> subchain = createReorgFetcher(3).getBlockHeaderSubchain(
+                SubchainBounds.of(1, hashAtHeight(1), 20, hashAtHeight(20)));
+
+        assertEquals(20, subchain.size());
+        for (int c = 0; c < subchain.size(); c++) {
+            assertEquals(bestChain.get(1L + c), subchain.get(c).getHeaderHash());
+        }
+        assertEquals(otherHashAtHeight(20), subchain.get(19).getHeaderHash());
+
+        // only the 8 blocks from the one below the fork up are fetched again, in 2 batches
+        verify(bitcoinNodeService, times(6)).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeaderSubchainRepairsExhausted() {
+        mockReorganizingChain(1, 20, 14, 3);
+        createReorgFetcher(0).getBlockHeaderSubchain(SubchainBounds.of(1, hashAtHeight(1), 20, hashAtHeight(20)));
+    }
+
+    @Test
+    public void testForEachBlockHeaderInSubchainRepaired() {
+        // the best chain forks at height 8, above the first window already consumed
+        mockReorganizingChain(1, 20, 8, 1);
+        List<BlockHeader> consumed = Lists.newArrayList();
+        BlockHeader last = createReorgFetcher(3).forEachBlockHeaderInSubchain(
+                SubchainBounds.of(1, hashAtHeight(1), 20, hashAtHeight(20)), consumed::add);
+
+        assertEquals(20, consumed.size());
+        BlockHeaderFetcher.validateLinks(consumed);
+        assertEquals(otherHashAtHeight(20), last.getHeaderHash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testForEachBlockHeaderInSubchainReorganizedBelowConsumed() {
+        // the best chain forks at height 3, below the end of the first window already consumed
+        mockReorganizingChain(1, 20, 3, 1);
+        createReorgFetcher(3).forEachBlockHeaderInSubchain(SubchainBounds.of(1, hashAtHeight(1), 20,
+                hashAtHeight(20)), header -> { });
+    }
+
+    @Test
+    public void testValidateLinks() {
+        BlockHeaderFetcher.validateLinks(ImmutableList.of(mockHeader(0, true), mockHeader(1, true),
+                mockHeader(2, false)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testValidateLinksBroken() {
+        BlockHeaderFetcher.validateLinks(ImmutableList.of(mockHeader(0, true), mockHeader(2, false)));
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainHeadersOnly() {
+        mockSubchain(0, 22);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .batchSize(3).partitionSize(5).build()).build();
+        List<BlockHeader> subchain = fetcher.getBlockHeaderSubchain(SubchainBounds.of(1, hashAtHeight(1), 21,
+                hashAtHeight(21)), false);
+        assertEquals(21, subchain.size());
+        verify(bitcoinNodeService, never()).getBlockHeaders(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, times(9)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainHeadersOnlyUnbatched() {
+        mockSubchain(0, 22);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build();
+        List<BlockHeader> subchain = Lists.newArrayList();
+        fetcher.forEachBlockHeaderInSubchain(SubchainBounds.of(1, hashAtHeight(1), 21, hashAtHeight(21)), false,
+                subchain::add);
+        assertEquals(21, subchain.size());
+        verify(bitcoinNodeService, never()).getBlockHeader(any(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, times(21)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyRange() {
+        mockSubchain(0, 22);
+        List<BlockHeader> headers = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(4)).build()
+                .getBlockHeadersOnly(3, 12);
+        assertEquals(10, headers.size());
+        assertEquals(hashAtHeight(12), headers.get(9).getHeaderHash());
+        verify(bitcoinNodeService, times(3)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, times(3)).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyRangeRest() {
+        List<BlockHeader> chain = mockRestChain(25);
+        List<BlockHeader> headers = createRestFetcher(10).getBlockHeadersOnly(3, 22);
+        assertEquals(chain.subList(3, 23), headers);
+
+        // 19 block headers after the first and one more for its next block hash, at most 10 per call
+        verify(bitcoinNodeRestService, times(3)).getBlockHeaders(anyInt(), any(Sha256Hash.class));
+        verify(bitcoinNodeService, times(1)).getBlockHeaderHash(any(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, times(1)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, never()).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyRangeRestToTip() {
+        List<BlockHeader> chain = mockRestChain(25);
+        List<BlockHeader> headers = createRestFetcher(10).getBlockHeadersOnly(20, 24);
+        assertEquals(chain.subList(20, 25), headers);
+        assertFalse(headers.get(4).getNextBlockHash().isPresent());
+    }
+
+    @Test
+    public void testGetBlockHeadersOnlyRangeRestSingle() {
+        List<BlockHeader> chain = mockRestChain(25);
+        assertEquals(chain.subList(7, 8), createRestFetcher(10).getBlockHeadersOnly(7, 7));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeadersOnlyRangeRestBeyondTip() {
+        mockRestChain(25);
+        createRestFetcher(10).getBlockHeadersOnly(20, 30);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBlockHeadersOnlyRangeRestLeftBestChain() {
+        mockRestChain(25);
+        when(bitcoinNodeRestService.getBlockHeaders(anyInt(), any(Sha256Hash.class))).thenReturn(ImmutableList.of());
+        createRestFetcher(10).getBlockHeadersOnly(3, 22);
+    }
+
+    @Test
+    public void testGetBlockHeaderSubchainHeadersOnlyRest() {
+        List<BlockHeader> chain = mockRestChain(25);
+        BlockHeaderFetcher fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .batchSize(3)
+                .partitionSize(5)
+                .restHeadersPerCall(10)
+                .build())
+                .bitcoinNodeRestService(Optional.of(bitcoinNodeRestService))
+                .build();
+        List<BlockHeader> subchain = fetcher.getBlockHeaderSubchain(SubchainBounds.of(1, chain.get(1).getHeaderHash(),
+                21, chain.get(21).getHeaderHash()), false);
+        assertEquals(chain.subList(1, 22), subchain);
+        verify(bitcoinNodeRestService, times(5)).getBlockHeaders(anyInt(), any(Sha256Hash.class));
+        verify(bitcoinNodeService, never()).getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockSubchain(long from, long to) {
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(
+                invocation -> answerHashes(invocation.getArguments()[0], false));
+        Answer<List<BlockHeaderResponse>> headersAnswer = invocation -> {
+            List<BlockHeaderResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                responses.add(BlockHeaderResponse.of(Optional.of(headerWithHash((Sha256Hash) request.getParams().get(0),
+                        from, to)), Optional.absent(), request.getId()));
+            }
+            return responses;
+        };
+        when(bitcoinNodeService.getBlockHeaders(anyListOf(BitcoinNodeRequest.class))).thenAnswer(headersAnswer);
+        when(bitcoinNodeService.getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class))).thenAnswer(headersAnswer);
+        for (long h = from; h <= to; h++) {
+            when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(h)))
+                    .thenReturn(BlockHeaderHashResponse.of(hashAtHeight(h)));
+            BlockHeaderResponse response = BlockHeaderResponse.of(mockHeader(h, h < to));
+            when(bitcoinNodeService.getBlockHeader(BitcoinNodeRequestFactory.createBlockHeaderRequest(
+                    hashAtHeight(h)))).thenReturn(response);
+            when(bitcoinNodeService.getBlockHeaderOnly(BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(
+                    hashAtHeight(h)))).thenReturn(response);
+        }
+    }
+
+    /**
+     * Mocks a bitcoin node whose best chain of the given number of blocks can be read from its REST interface as raw
+     * block headers, and returns the block headers without transaction IDs it returns from the getblockheader RPC.
+     */
+    private List<BlockHeader> mockRestChain(int numBlocks) {
+        NetworkParameters params = MainNetParams.get();
+        List<Block> blocks = Lists.newArrayList(params.getGenesisBlock().cloneAsHeader());
+        for (int h = 1; h < numBlocks; h++) {
+            Block previous = blocks.get(h - 1);
+            blocks.add(new Block(params, 1, previous.getHash(), hashAtHeight(h), previous.getTimeSeconds() + 600,
+                    previous.getDifficultyTarget(), h, ImmutableList.<Transaction>of()).cloneAsHeader());
+        }
+        List<BlockHeader> headers = Lists.newArrayList();
+        BigInteger chainwork = BigInteger.ZERO;
+        for (int h = 0; h < numBlocks; h++) {
+            Block block = blocks.get(h);
+            chainwork = chainwork.add(block.getWork());
+            headers.add(BlockHeader.of(block.getHash(), numBlocks - h, -1, h, block.getVersion(),
+                    block.getMerkleRoot(), ImmutableList.of(), block.getTimeSeconds(), block.getNonce(),
+                    BigInteger.valueOf(block.getDifficultyTarget()),
+                    HeaderCodec.getDifficulty(block.getDifficultyTarget()), chainwork,
+                    h > 0 ? Optional.of(block.getPrevBlockHash()) : Optional.absent(),
+                    h < numBlocks - 1 ? Optional.of(blocks.get(h + 1).getHash()) : Optional.absent()));
+            when(bitcoinNodeService.getBlockHeaderHash(BitcoinNodeRequestFactory.createBlockHeaderHashRequest(h)))
+                    .thenReturn(BlockHeaderHashResponse.of(block.getHash()));
+            when(bitcoinNodeService.getBlockHeaderOnly(BitcoinNodeRequestFactory.createBlockHeaderOnlyRequest(
+                    block.getHash()))).thenReturn(BlockHeaderResponse.of(headers.get(h)));
+        }
+        when(bitcoinNodeRestService.getBlockHeaders(anyInt(), any(Sha256Hash.class))).thenAnswer(invocation -> {
+            int count = (Integer) invocation.getArguments()[0];
+            for (int h = 0; h < numBlocks; h++) {
+                if (blocks.get(h).getHash().equals(invocation.getArguments()[1])) {
+                    return ImmutableList.copyOf(blocks.subList(h, Math.min(numBlocks, h + count)));
+                }
+            }
+            return ImmutableList.of();
+        });
+        return headers;
+    }
+
+    private BlockHeaderFetcher createRestFetcher(int restHeadersPerCall) {
+        return BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .restHeadersPerCall(restHeadersPerCall)
+                .build())
+                .bitcoinNodeRestService(Optional.of(bitcoinNodeRestService))
+                .build();
+    }
+
+    private BlockHeaderFetcher createReorgFetcher(int maxReorgRepairs) {
+        return BlockHeaderFetcher.builder(bitcoinNodeService, ImmutableFetchConfig.builder()
+                .batchSize(5)
+                .partitionSize(5)
+                .parallelism(1)
+                .maxReorgRepairs(maxReorgRepairs)
+                .build())
+                .build();
+    }
+
+    /**
+     * Mocks a bitcoin node whose best chain switches to another branch from the fork height up after a given number
+     * of batched block header calls. Block headers no longer in the best chain have no next block hash.
+     */
+    @SuppressWarnings("unchecked")
+    private void mockReorganizingChain(long from, long to, long forkHeight, int reorganizeAfterCalls) {
+        bestChain = Maps.newConcurrentMap();
+        Map<Sha256Hash, Long> heights = Maps.newConcurrentMap();
+        for (long h = from; h <= to; h++) {
+            bestChain.put(h, hashAtHeight(h));
+            heights.put(hashAtHeight(h), h);
+            heights.put(otherHashAtHeight(h), h);
+        }
+        AtomicInteger calls = new AtomicInteger();
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenAnswer(invocation ->
+                BlockHeaderHashResponse.of(bestChain.get((Long) ((BitcoinNodeRequest) invocation.getArguments()[0])
+                        .getParams().get(0))));
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            List<BlockHeaderHashResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                responses.add(BlockHeaderHashResponse.of(Optional.of(bestChain.get((Long) request.getParams().get(0))),
+                        Optional.absent(), request.getId()));
+            }
+            return responses;
+        });
+        when(bitcoinNodeService.getBlockHeaders(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            List<BlockHeaderResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : (List<BitcoinNodeRequest>) invocation.getArguments()[0]) {
+                Sha256Hash hash = (Sha256Hash) request.getParams().get(0);
+                long height = heights.get(hash);
+                BlockHeader header = mock(BlockHeader.class);
+                when(header.getHeight()).thenReturn(height);
+                when(header.getHeaderHash()).thenReturn(hash);
+                when(header.getNextBlockHash()).thenReturn(hash.equals(bestChain.get(height))
+                        ? Optional.fromNullable(bestChain.get(height + 1)) : Optional.absent());
+                responses.add(BlockHeaderResponse.of(Optional.of(header), Optional.absent(), request.getId()));
+            }
+            if (calls.incrementAndGet() == reorganizeAfterCalls) {
+                for (long h = forkHeight; h <= to; h++) {
+                    bestChain.put(h, otherHashAtHeight(h));
+                }
+            }
+            return responses;
+        });
+    }
+
+    private static BlockHeader headerWithHash(Sha256Hash hash, long from, long to) {
+        for (long h = from; h <= to; h++) {
+            if (hashAtHeight(h).equals(hash)) {
+                return mockHeader(h, h < to);
+            }
+        }
+        throw new IllegalArgumentException(hash.toString());
+    }
+
+    private static List<BlockHeaderHashResponse> answerHashes(Object requestsArg, boolean reverse) {
+        @SuppressWarnings("unchecked")
+        List<BitcoinNodeRequest> requests = (List<BitcoinNodeRequest>) requestsArg;
+        List<BlockHeaderHashResponse> responses = Lists.newArrayList();
+        for (BitcoinNodeRequest request : requests) {
+            responses.add(BlockHeaderHashResponse.of(Optional.of(hashAtHeight((Long) request.getParams().get(0))),
+                    Optional.absent(), request.getId()));
+        }
+        return reverse ? Lists.reverse(responses) : responses;
+    }
+
+    private static BlockHeader mockHeader(long height, boolean hasNext) {
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getHeight()).thenReturn(height);
+        when(blockHeader.getHeaderHash()).thenReturn(hashAtHeight(height));
+        when(blockHeader.getNextBlockHash()).thenReturn(
+                hasNext ? Optional.of(hashAtHeight(height + 1)) : Optional.absent());
+        return blockHeader;
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+
+    private static Sha256Hash otherHashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(-height).array());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CoalescingBitcoinNodeServiceTest {
+
+    private BitcoinNodeService bitcoinNodeService;
+    private CoalescingBitcoinNodeService coalescingService;
+    private ExecutorService executor;
+    private CountDownLatch called;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        coalescingService = new CoalescingBitcoinNodeService(bitcoinNodeService);
+        executor = Executors.newFixedThreadPool(4);
+        called = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentIdenticalCoalesced() throws Exception {
+        BlockHeaderResponse response = BitcoinNodeExampleResponses.getBlockHeaderResponse();
+        when(bitcoinNodeService.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return response;
+        });
+        BitcoinNodeRequest request = BitcoinNodeRequestFactory.createBlockHeaderRequest(Sha256Hash.ZERO_HASH);
+
+        Future<BlockHeaderResponse> first = executor.submit(() -> coalescingService.getBlockHeader(request));
+        called.await();
+        List<Future<BlockHeaderResponse>> others = ImmutableList.of(
+                executor.submit(() -> coalescingService.getBlockHeader(request)),
+                executor.submit(() -> coalescingService.getBlockHeader(
+                        BitcoinNodeRequestFactory.createBlockHeaderRequest(Sha256Hash.ZERO_HASH))));
+        awaitCoalesced(2);
+        release.countDown();
+
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+        for (Future<BlockHeaderResponse> other : others) {
+            assertSame(response, other.get(5, TimeUnit.SECONDS));
+        }
+        verify(bitcoinNodeService, times(1)).getBlockHeader(any(BitcoinNodeRequest.class));
+        assertEquals(3, coalescingService.getRequests());
+        assertEquals(2.0 / 3.0, coalescingService.getCoalescedRatio(), 1e-9);
+    }
+
+    @Test
+    public void testConcurrentBatchesCoalesced() throws Exception {
+        List<BlockHeaderHashResponse> responses = ImmutableList.of(
+                BitcoinNodeExampleResponses.getBlockHeaderHashResponse());
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return responses;
+        });
+        List<BitcoinNodeRequest> requests = BitcoinNodeRequestFactory.createBlockHeaderHashRequests(5, 9);
+
+        Future<List<BlockHeaderHashResponse>> first = executor.submit(
+                () -> coalescingService.getBlockHeaderHashes(requests));
+        called.await();
+        Future<List<BlockHeaderHashResponse>> second = executor.submit(
+                () -> coalescingService.getBlockHeaderHashes(BitcoinNodeRequestFactory.createBlockHeaderHashRequests(
+                        5, 9)));
+        awaitCoalesced(1);
+        release.countDown();
+
+        assertSame(responses, first.get(5, TimeUnit.SECONDS));
+        assertSame(responses, second.get(5, TimeUnit.SECONDS));
+        verify(bitcoinNodeService, times(1)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testDifferentNotCoalesced() throws Exception {
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return BitcoinNodeExampleResponses.getBlockHeaderHashResponse();
+        });
+
+        Future<BlockHeaderHashResponse> first = executor.submit(() -> coalescingService.getBlockHeaderHash(
+                BitcoinNodeRequestFactory.createBlockHeaderHashRequest(1)));
+        called.await();
+        Future<BlockHeaderHashResponse> second = executor.submit(() -> coalescingService.getBlockHeaderHash(
+                BitcoinNodeRequestFactory.createBlockHeaderHashRequest(2)));
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        verify(bitcoinNodeService, times(2)).getBlockHeaderHash(any(BitcoinNodeRequest.class));
+        assertEquals(0, coalescingService.getCoalesced());
+    }
+
+    @Test
+    public void testSequentialNotCoalesced() throws Exception {
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
+                BitcoinNodeExampleResponses.getBlockchainInfoResponse());
+        coalescingService.getBlockchainInfo(BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+        coalescingService.getBlockchainInfo(BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+        verify(bitcoinNodeService, times(2)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testExceptionShared() throws Exception {
+        IllegalStateException exception = new IllegalStateException("bitcoin node unavailable");
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            throw exception;
+        });
+        BitcoinNodeRequest request = BitcoinNodeRequestFactory.createBlockchainInfoRequest();
+
+        Future<?> first = executor.submit(() -> coalescingService.getBlockchainInfo(request));
+        called.await();
+        Future<?> second = executor.submit(() -> coalescingService.getBlockchainInfo(request));
+        awaitCoalesced(1);
+        release.countDown();
+
+        for (Future<?> future : ImmutableList.of(first, second)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected the bitcoin node's exception");
+            } catch (ExecutionException e) {
+                assertSame(exception, e.getCause());
+            }
+        }
+        verify(bitcoinNodeService, times(1)).getBlockchainInfo(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRegisterMetrics() throws Exception {
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(
+                BitcoinNodeExampleResponses.getBlockchainInfoResponse());
+        MetricRegistry metrics = new MetricRegistry();
+        coalescingService.registerMetrics(metrics);
+        coalescingService.getBlockchainInfo(BitcoinNodeRequestFactory.createBlockchainInfoRequest());
+
+        String prefix = CoalescingBitcoinNodeService.class.getName();
+        assertEquals(1L, metrics.getGauges().get(prefix + ".requests").getValue());
+        assertEquals(0L, metrics.getGauges().get(prefix + ".coalesced").getValue());
+        assertEquals(0.0, ((Gauge<Double>) metrics.getGauges().get(prefix + ".coalescedRatio")).getValue(), 0.0);
+    }
+
+    private void awaitCoalesced(long numCoalesced) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (coalescingService.getCoalesced() < numCoalesced && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(numCoalesced, coalescingService.getCoalesced());
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ServiceUnavailableException;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.config.ImmutableLimitConfig;
+import org.drausin.bitflow.blockchain.config.LimitConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LimitingBitcoinNodeServiceTest {
+
+    private static final BitcoinNodeRequest REQUEST = BitcoinNodeRequestFactory.createBlockHeaderRequest(
+            Sha256Hash.ZERO_HASH);
+
+    private BitcoinNodeService delegate;
+    private BlockHeaderResponse response;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        delegate = mock(BitcoinNodeService.class);
+        response = mock(BlockHeaderResponse.class);
+        when(delegate.getBlockHeader(any(BitcoinNodeRequest.class))).thenReturn(response);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testGrowsWhileUsed() {
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(1).maxLimit(2).build());
+        for (int i = 0; i < 10; i++) {
+            assertSame(response, limited.getBlockHeader(REQUEST));
+        }
+        assertEquals(2, limited.getLimit());
+        assertEquals(0, limited.getInFlight());
+    }
+
+    @Test
+    public void testNoGrowthWhileUnused() {
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(4).build());
+        for (int i = 0; i < 10; i++) {
+            limited.getBlockHeader(REQUEST);
+        }
+        assertEquals(4, limited.getLimit());
+    }
+
+    @Test
+    public void testBacksOffWhenOverloaded() {
+        when(delegate.getBlockHeader(any(BitcoinNodeRequest.class))).thenThrow(
+                new ServiceUnavailableException("overloaded"));
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(10).minLimit(3).backoffRatio(0.5).build());
+        for (int expectedLimit : new int[] {5, 3, 3}) {
+            try {
+                limited.getBlockHeader(REQUEST);
+                fail();
+            } catch (ServiceUnavailableException e) {
+                assertEquals(expectedLimit, limited.getLimit());
+            }
+        }
+        assertEquals(0, limited.getRejections().getCount());
+    }
+
+    @Test
+    public void testBacksOffWhenSlow() {
+        when(delegate.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return response;
+        });
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(10).backoffRatio(0.5)
+                        .maxLatency(Duration.milliseconds(10)).build());
+        assertSame(response, limited.getBlockHeader(REQUEST));
+        assertEquals(5, limited.getLimit());
+    }
+
+    @Test
+    public void testSlowBatchJudgedPerRequest() {
+        List<BitcoinNodeRequest> requests = Collections.nCopies(10, REQUEST);
+        List<BlockHeaderResponse> responses = Collections.nCopies(10, response);
+        when(delegate.getBlockHeaders(requests)).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return responses;
+        });
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(10).backoffRatio(0.5)
+                        .maxLatency(Duration.milliseconds(10)).build());
+
+        // the batch is slower than the max latency, but not per request in it, so the limit doesn't collapse
+        for (int i = 0; i < 5; i++) {
+            assertSame(responses, limited.getBlockHeaders(requests));
+        }
+        assertEquals(10, limited.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOncePerBurst() throws Exception {
+        CountDownLatch called = new CountDownLatch(2);
+        when(delegate.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            called.await();
+            throw new ServiceUnavailableException("overloaded");
+        });
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(4).backoffRatio(0.5).build());
+        Future<?> first = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        Future<?> second = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        awaitFailure(first);
+        awaitFailure(second);
+
+        // both calls started before either backed off, so only one backs off
+        assertEquals(2, limited.getLimit());
+    }
+
+    @Test
+    public void testQueuesUntilFinished() throws Exception {
+        CountDownLatch release = blockFirstCall();
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(1).maxQueueTime(Duration.seconds(5)).build());
+        Future<BlockHeaderResponse> first = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        awaitInFlight(limited);
+        Future<BlockHeaderResponse> second = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        while (limited.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+        assertSame(response, second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limited.getQueued());
+        assertEquals(0, limited.getRejections().getCount());
+    }
+
+    @Test
+    public void testRejectsWhenQueueFull() throws Exception {
+        CountDownLatch release = blockFirstCall();
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(1).maxQueueSize(0).build());
+        Future<BlockHeaderResponse> first = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        awaitInFlight(limited);
+        try {
+            limited.getBlockHeader(REQUEST);
+            fail();
+        } catch (ServiceUnavailableException e) {
+            assertEquals(1, limited.getRejections().getCount());
+        } finally {
+            release.countDown();
+        }
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectsAfterQueueTime() throws Exception {
+        CountDownLatch release = blockFirstCall();
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(1).maxQueueTime(Duration.milliseconds(20)).build());
+        Future<BlockHeaderResponse> first = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        awaitInFlight(limited);
+        try {
+            limited.getBlockHeader(REQUEST);
+            fail();
+        } catch (ServiceUnavailableException e) {
+            assertEquals(1, limited.getRejections().getCount());
+            assertEquals(0, limited.getQueued());
+        } finally {
+            release.countDown();
+        }
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopNotLimited() throws Exception {
+        CountDownLatch release = blockFirstCall();
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate,
+                ImmutableLimitConfig.builder().initialLimit(1).maxQueueSize(0).build());
+        Future<BlockHeaderResponse> first = executor.submit(() -> limited.getBlockHeader(REQUEST));
+        awaitInFlight(limited);
+        BitcoinNodeRequest stopRequest = BitcoinNodeRequestFactory.createStopRequest();
+        limited.stop(stopRequest);
+        verify(delegate).stop(stopRequest);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRegisterMetrics() {
+        LimitingBitcoinNodeService limited = new LimitingBitcoinNodeService(delegate, LimitConfig.of());
+        MetricRegistry metrics = new MetricRegistry();
+        limited.registerMetrics(metrics, "node");
+        assertEquals(LimitConfig.DEFAULT_INITIAL_LIMIT, metrics.getGauges().get(
+                MetricRegistry.name(LimitingBitcoinNodeService.class, "node", "limit")).getValue());
+        assertEquals(0, metrics.getGauges().get(
+                MetricRegistry.name(LimitingBitcoinNodeService.class, "node", "queued")).getValue());
+        assertSame(limited.getRejections(), metrics.getMeters().get(
+                MetricRegistry.name(LimitingBitcoinNodeService.class, "node", "rejections")));
+    }
+
+    private CountDownLatch blockFirstCall() {
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            release.await();
+            return response;
+        });
+        return release;
+    }
+
+    private static void awaitInFlight(LimitingBitcoinNodeService limited) throws InterruptedException {
+        while (limited.getInFlight() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitFailure(Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(ServiceUnavailableException.class, e.getCause().getClass());
+        }
+    }
+}
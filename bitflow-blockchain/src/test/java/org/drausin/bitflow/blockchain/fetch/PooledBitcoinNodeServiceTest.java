@@ -0,0 +1,373 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequestFactory;
+import org.drausin.bitflow.bitcoin.api.responses.BitcoinNodeExampleResponses;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.bitcoin.api.responses.RawBlockResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.config.HedgeConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableHedgeConfig;
+import org.drausin.bitflow.blockchain.config.ImmutablePoolConfig;
+import org.drausin.bitflow.blockchain.config.PoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+public final class PooledBitcoinNodeServiceTest {
+
+    private static final BitcoinNodeRequest REQUEST = BitcoinNodeRequestFactory.createBlockHeaderRequest(
+            Sha256Hash.ZERO_HASH);
+
+    private BitcoinNodeService nodeA;
+    private BitcoinNodeService nodeB;
+    private BitcoinNodeService nodeC;
+    private PooledBitcoinNodeService pool;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        nodeA = mock(BitcoinNodeService.class);
+        nodeB = mock(BitcoinNodeService.class);
+        nodeC = mock(BitcoinNodeService.class);
+        BlockHeaderResponse response = BitcoinNodeExampleResponses.getBlockHeaderResponse();
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenReturn(response);
+        when(nodeB.getBlockHeader(any(BitcoinNodeRequest.class))).thenReturn(response);
+        executor = Executors.newCachedThreadPool();
+        pool = createPool(ImmutableHedgeConfig.builder().enabled(false).build());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTiesSpread() {
+        for (int i = 0; i < 10; i++) {
+            pool.getBlockHeader(REQUEST);
+        }
+        verify(nodeA, times(5)).getBlockHeader(REQUEST);
+        verify(nodeB, times(5)).getBlockHeader(REQUEST);
+        assertEquals(5, pool.getLatency("a").getCount());
+        assertEquals(5, pool.getLatency("b").getCount());
+    }
+
+    @Test
+    public void testFewestInFlight() throws Exception {
+        CountDownLatch called = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return BitcoinNodeExampleResponses.getBlockHeaderResponse();
+        });
+
+        // node a is always tried first, and then stays busy
+        Future<BlockHeaderResponse> slow = executor.submit(() -> pool.getBlockHeader(REQUEST));
+        called.await();
+        assertEquals(1, pool.getInFlight("a"));
+        for (int i = 0; i < 4; i++) {
+            pool.getBlockHeader(REQUEST);
+        }
+        verify(nodeB, times(4)).getBlockHeader(REQUEST);
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        assertEquals(0, pool.getInFlight("a"));
+    }
+
+    @Test
+    public void testLaggingNodeEjected() {
+        mockTip(nodeA, 1000);
+        mockTip(nodeB, 998);
+        pool.checkTips();
+        assertTrue(pool.isHealthy("a"));
+        assertFalse(pool.isHealthy("b"));
+        assertEquals(998, pool.getTipHeight("b"));
+        assertEquals(1, pool.getNumHealthy());
+        for (int i = 0; i < 4; i++) {
+            pool.getBlockHeader(REQUEST);
+        }
+        verify(nodeA, times(4)).getBlockHeader(REQUEST);
+        verify(nodeB, never()).getBlockHeader(REQUEST);
+
+        // within the max lag, the node is readmitted
+        mockTip(nodeB, 999);
+        pool.checkTips();
+        assertTrue(pool.isHealthy("b"));
+    }
+
+    @Test
+    public void testNodeOffCommonTipEjected() {
+        PooledBitcoinNodeService strictPool = new PooledBitcoinNodeService(ImmutableMap.of("a", nodeA, "b", nodeB,
+                "c", nodeC), PoolConfig.of(), ImmutableHedgeConfig.builder().enabled(false).build(),
+                mock(ScheduledExecutorService.class), executor);
+        mockTip(nodeA, 1000, Sha256Hash.of(new byte[] {1}));
+        mockTip(nodeB, 1000, Sha256Hash.of(new byte[] {2}));
+        mockTip(nodeC, 1000, Sha256Hash.of(new byte[] {2}));
+        strictPool.checkTips();
+
+        // at the same height, but on a competing branch to the one most nodes are on
+        assertFalse(strictPool.isHealthy("a"));
+        assertTrue(strictPool.isHealthy("b"));
+        assertTrue(strictPool.isHealthy("c"));
+
+        // with no max lag, a node even one block behind is ejected
+        mockTip(nodeA, 1001, Sha256Hash.of(new byte[] {3}));
+        strictPool.checkTips();
+        assertTrue(strictPool.isHealthy("a"));
+        assertFalse(strictPool.isHealthy("b"));
+        assertFalse(strictPool.isHealthy("c"));
+    }
+
+    @Test
+    public void testUnresponsiveNodeEjected() {
+        mockTip(nodeA, 1000);
+        when(nodeB.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenThrow(new RuntimeException("unreachable"));
+        pool.checkTips();
+        assertTrue(pool.isHealthy("a"));
+        assertFalse(pool.isHealthy("b"));
+        assertEquals(-1, pool.getTipHeight("b"));
+    }
+
+    @Test
+    public void testAllEjected() {
+        when(nodeA.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenThrow(new RuntimeException("unreachable"));
+        when(nodeB.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenThrow(new RuntimeException("unreachable"));
+        pool.checkTips();
+        assertEquals(0, pool.getNumHealthy());
+
+        // requests are still tried on each node in turn
+        pool.getBlockHeader(REQUEST);
+        pool.getBlockHeader(REQUEST);
+        verify(nodeA).getBlockHeader(REQUEST);
+        verify(nodeB).getBlockHeader(REQUEST);
+    }
+
+    @Test
+    public void testStopMainNode() {
+        pool.stop(BitcoinNodeRequestFactory.createStopRequest());
+        verify(nodeA).stop(any(BitcoinNodeRequest.class));
+        verify(nodeB, never()).stop(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testRegisterMetrics() {
+        MetricRegistry metrics = new MetricRegistry();
+        pool.registerMetrics(metrics);
+        pool.getBlockHeader(REQUEST);
+        Gauge<?> healthy = metrics.getGauges().get(MetricRegistry.name(PooledBitcoinNodeService.class, "healthy"));
+        assertEquals(2, healthy.getValue());
+        assertEquals(1, metrics.getTimers().get(MetricRegistry.name(PooledBitcoinNodeService.class, "a", "latency"))
+                .getCount());
+        assertSame(pool.getLatency("b"),
+                metrics.getTimers().get(MetricRegistry.name(PooledBitcoinNodeService.class, "b", "latency")));
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(10)).maxExtraLoad(1).build());
+        CountDownLatch release = new CountDownLatch(1);
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            release.await();
+            return mock(BlockHeaderResponse.class);
+        });
+        BlockHeaderResponse hedgeResponse = mock(BlockHeaderResponse.class);
+        when(nodeB.getBlockHeader(any(BitcoinNodeRequest.class))).thenReturn(hedgeResponse);
+        try {
+            assertSame(hedgeResponse, pool.getBlockHeader(REQUEST));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(1, pool.getHedges().getCount());
+        assertEquals(1, pool.getHedgeWins().getCount());
+    }
+
+    @Test
+    public void testHedgeFailureFallsBack() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(10)).maxExtraLoad(1).build());
+        BlockHeaderResponse slowResponse = mock(BlockHeaderResponse.class);
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return slowResponse;
+        });
+        when(nodeB.getBlockHeader(any(BitcoinNodeRequest.class))).thenThrow(new RuntimeException("unreachable"));
+        assertSame(slowResponse, pool.getBlockHeader(REQUEST));
+        assertEquals(1, pool.getHedges().getCount());
+        assertEquals(0, pool.getHedgeWins().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnhedgedFailure() throws Exception {
+        pool = createPool(HedgeConfig.of());
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenThrow(new IllegalArgumentException("bad"));
+        pool.getBlockHeader(REQUEST);
+    }
+
+    @Test
+    public void testHedgeOverBudget() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(10)).maxExtraLoad(0).build());
+        BlockHeaderResponse slowResponse = mock(BlockHeaderResponse.class);
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return slowResponse;
+        });
+        assertSame(slowResponse, pool.getBlockHeader(REQUEST));
+        verify(nodeB, never()).getBlockHeader(REQUEST);
+        assertEquals(0, pool.getHedges().getCount());
+        assertEquals(1, pool.getHedgesOverBudget().getCount());
+    }
+
+    @Test
+    public void testUnhedgeableOnCallerThread() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().maxExtraLoad(0).build());
+        AtomicReference<Thread> callingThread = new AtomicReference<>();
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            callingThread.set(Thread.currentThread());
+            return BitcoinNodeExampleResponses.getBlockHeaderResponse();
+        });
+        pool.getBlockHeader(REQUEST);
+        assertSame(Thread.currentThread(), callingThread.get());
+    }
+
+    @Test
+    public void testSaturatedExecutorOnCallerThread() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(10)).maxExtraLoad(1).build());
+        executor.shutdownNow();
+        AtomicReference<Thread> callingThread = new AtomicReference<>();
+        BlockHeaderResponse slowResponse = mock(BlockHeaderResponse.class);
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            callingThread.set(Thread.currentThread());
+            Thread.sleep(50);
+            return slowResponse;
+        });
+        assertSame(slowResponse, pool.getBlockHeader(REQUEST));
+        assertSame(Thread.currentThread(), callingThread.get());
+        verify(nodeB, never()).getBlockHeader(REQUEST);
+        assertEquals(0, pool.getHedges().getCount());
+    }
+
+    @Test
+    public void testFastNotHedged() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.seconds(1)).maxExtraLoad(1).build());
+        for (int i = 0; i < 10; i++) {
+            pool.getBlockHeader(REQUEST);
+        }
+        assertEquals(0, pool.getHedges().getCount());
+        pool.updateHedgeDelay();
+        assertEquals(1000, pool.getHedgeDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRawBlockNotHedged() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(10)).maxExtraLoad(1).build());
+        RawBlockResponse slowResponse = RawBlockResponse.of(BitcoinNodeExampleResponses.getRawBlockHex());
+        AtomicInteger numCalls = new AtomicInteger();
+        Answer<RawBlockResponse> slowAnswer = invocation -> {
+            numCalls.incrementAndGet();
+            Thread.sleep(50);
+            return slowResponse;
+        };
+        when(nodeA.getRawBlock(any(BitcoinNodeRequest.class))).thenAnswer(slowAnswer);
+        when(nodeB.getRawBlock(any(BitcoinNodeRequest.class))).thenAnswer(slowAnswer);
+        assertSame(slowResponse, pool.getRawBlock(BitcoinNodeRequestFactory.createRawBlockRequest(
+                Sha256Hash.ZERO_HASH)));
+        assertEquals(1, numCalls.get());
+        assertEquals(0, pool.getHedges().getCount());
+    }
+
+    @Test
+    public void testUpdateHedgeDelay() throws Exception {
+        pool = createPool(ImmutableHedgeConfig.builder().minDelay(Duration.milliseconds(1)).percentile(0.5).build());
+        when(nodeA.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return mock(BlockHeaderResponse.class);
+        });
+        when(nodeB.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return mock(BlockHeaderResponse.class);
+        });
+        assertEquals(1, pool.getHedgeDelay(TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 4; i++) {
+            pool.getBlockHeader(REQUEST);
+        }
+        pool.updateHedgeDelay();
+        assertTrue(pool.getHedgeDelay(TimeUnit.MILLISECONDS) >= 20);
+    }
+
+    @Test
+    public void testRegisterHedgeMetrics() {
+        pool = createPool(HedgeConfig.of());
+        MetricRegistry metrics = new MetricRegistry();
+        pool.registerMetrics(metrics);
+        assertSame(pool.getHedges(), metrics.getMeters().get(
+                MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "hedges")));
+        assertSame(pool.getHedgeWins(), metrics.getMeters().get(
+                MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "wins")));
+        assertEquals(HedgeConfig.DEFAULT_MIN_DELAY.toMilliseconds(), metrics.getGauges().get(
+                MetricRegistry.name(PooledBitcoinNodeService.class, "hedge", "delayMillis")).getValue());
+        assertTrue(metrics.getGauges().containsKey(MetricRegistry.name(PooledBitcoinNodeService.class, "hedge",
+                "rate")));
+    }
+
+    private PooledBitcoinNodeService createPool(HedgeConfig hedgeConfig) {
+        return new PooledBitcoinNodeService(ImmutableMap.of("a", nodeA, "b", nodeB),
+                ImmutablePoolConfig.builder().maxTipLag(1).build(), hedgeConfig, mock(ScheduledExecutorService.class),
+                executor);
+    }
+
+    private static void mockTip(BitcoinNodeService node, long tipHeight) {
+        mockTip(node, tipHeight, Sha256Hash.ZERO_HASH);
+    }
+
+    private static void mockTip(BitcoinNodeService node, long tipHeight, Sha256Hash tipHash) {
+        BlockchainInfo info = mock(BlockchainInfo.class);
+        when(info.getNumBlocks()).thenReturn(tipHeight);
+        when(info.getBestBlockHash()).thenReturn(tipHash);
+        BlockchainInfoResponse response = mock(BlockchainInfoResponse.class);
+        when(response.getResult()).thenReturn(Optional.of(info));
+        when(node.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenReturn(response);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.ImmutablePrefetchConfig;
+import org.drausin.bitflow.blockchain.config.PrefetchConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+public final class ReadAheadPrefetcherTest {
+
+    private static final long TIP_HEIGHT = 100;
+
+    private BitcoinNodeService bitcoinNodeService;
+    private BlockHeaderFetcher fetcher;
+    private PrefetchConfig config;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenAnswer(invocation ->
+                BlockHeaderHashResponse.of(hashAtHeight((Long) ((BitcoinNodeRequest) invocation.getArguments()[0])
+                        .getParams().get(0))));
+        Answer<BlockHeaderResponse> headerAnswer = invocation -> {
+            Sha256Hash hash = (Sha256Hash) ((BitcoinNodeRequest) invocation.getArguments()[0]).getParams().get(0);
+            for (long h = 0; h <= TIP_HEIGHT; h++) {
+                if (hashAtHeight(h).equals(hash)) {
+                    return BlockHeaderResponse.of(mockHeader(h));
+                }
+            }
+            throw new IllegalArgumentException(hash.toString());
+        };
+        when(bitcoinNodeService.getBlockHeader(any(BitcoinNodeRequest.class))).thenAnswer(headerAnswer);
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenAnswer(headerAnswer);
+        fetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of(1)).build();
+        config = ImmutablePrefetchConfig.builder()
+                .initialDepth(4)
+                .maxDepth(16)
+                .build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidDepths() {
+        ImmutablePrefetchConfig.builder()
+                .initialDepth(32)
+                .maxDepth(16)
+                .build();
+    }
+
+    @Test
+    public void testOneOffReads() {
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(fetcher, config, MoreExecutors.directExecutor());
+        prefetcher.onRead(mockHeader(50), true);
+        prefetcher.onRead(mockHeader(70), true);
+        prefetcher.onRead(mockHeader(50), true);
+        assertEquals(0, prefetcher.getSequentialReads());
+        assertEquals(0, prefetcher.getPrefetched());
+    }
+
+    @Test
+    public void testSequentialReads() {
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(fetcher, config, MoreExecutors.directExecutor());
+
+        // the second read confirms the scan, prefetching the initial depth of blocks ahead of it
+        prefetcher.onRead(mockHeader(0), true);
+        prefetcher.onRead(mockHeader(1), true);
+        assertEquals(1, prefetcher.getSequentialReads());
+        assertEquals(4, prefetcher.getPrefetched());
+
+        // reads less than halfway into the prefetched blocks don't prefetch more
+        prefetcher.onRead(mockHeader(2), true);
+        assertEquals(4, prefetcher.getPrefetched());
+
+        // reading halfway into them doubles the depth, prefetching up to 8 blocks ahead of the read
+        prefetcher.onRead(mockHeader(3), true);
+        assertEquals(3, prefetcher.getSequentialReads());
+        assertEquals(10, prefetcher.getPrefetched());
+
+        // the scan stays between half the max depth and the max depth ahead of its reads
+        for (long h = 4; h <= 40; h++) {
+            prefetcher.onRead(mockHeader(h), true);
+            long prefetchedHeight = 1 + prefetcher.getPrefetched();
+            assertTrue(prefetchedHeight - h >= 2 && prefetchedHeight - h <= 16);
+        }
+        assertTrue(1 + prefetcher.getPrefetched() - 40 > 16 / 2);
+    }
+
+    @Test
+    public void testSequentialReadsHeadersOnly() {
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(fetcher, config, MoreExecutors.directExecutor());
+        prefetcher.onRead(mockHeader(0), false);
+        prefetcher.onRead(mockHeader(1), false);
+        assertEquals(4, prefetcher.getPrefetched());
+
+        // the blocks ahead are prefetched without their transaction IDs, like the reads
+        verify(bitcoinNodeService, times(4)).getBlockHeaderOnly(any(BitcoinNodeRequest.class));
+        verify(bitcoinNodeService, never()).getBlockHeader(any(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testPrefetchUpToTip() {
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(fetcher, config, MoreExecutors.directExecutor());
+        prefetcher.onRead(mockHeader(TIP_HEIGHT - 3), true);
+        prefetcher.onRead(mockHeader(TIP_HEIGHT - 2), true);
+        assertEquals(2, prefetcher.getPrefetched());
+
+        // nothing is ahead of the tip
+        prefetcher.onRead(mockHeader(TIP_HEIGHT - 1), true);
+        prefetcher.onRead(mockHeader(TIP_HEIGHT), true);
+        assertEquals(2, prefetcher.getPrefetched());
+    }
+
+    @Test
+    public void testRejectedPrefetch() {
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(fetcher, config, runnable -> {
+            throw new RejectedExecutionException();
+        });
+        prefetcher.onRead(mockHeader(0), true);
+        prefetcher.onRead(mockHeader(1), true);
+        assertEquals(1, prefetcher.getSequentialReads());
+        assertEquals(0, prefetcher.getPrefetched());
+    }
+
+    private static BlockHeader mockHeader(long height) {
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getHeight()).thenReturn(height);
+        when(blockHeader.getHeaderHash()).thenReturn(hashAtHeight(height));
+        when(blockHeader.getNumConfirmations()).thenReturn(TIP_HEIGHT - height + 1);
+        when(blockHeader.getNextBlockHash()).thenReturn(
+                height < TIP_HEIGHT ? Optional.of(hashAtHeight(height + 1)) : Optional.absent());
+        return blockHeader;
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+public final class SubchainCursorTest {
+
+    @Test
+    public void testEncodeDecode() {
+        SubchainCursor cursor = SubchainCursor.of(100, hashAtHeight(100), 200, hashAtHeight(200), hashAtHeight(300));
+        String encoded = cursor.encode();
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+        assertEquals(cursor, SubchainCursor.decode(encoded));
+    }
+
+    @Test
+    public void testGetRemainingBounds() {
+        SubchainCursor cursor = SubchainCursor.of(100, hashAtHeight(100), 200, hashAtHeight(200), hashAtHeight(300));
+        assertEquals(SubchainBounds.of(101, hashAtHeight(101), 200, hashAtHeight(200)),
+                cursor.getRemainingBounds(hashAtHeight(101)));
+        assertEquals(100, cursor.getRemainingBounds(hashAtHeight(101)).getNumBlocks());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLastAtEnd() {
+        SubchainCursor.of(200, hashAtHeight(200), 200, hashAtHeight(200), hashAtHeight(300));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalid() {
+        SubchainCursor.decode("not-a-cursor");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeTruncated() {
+        String encoded = SubchainCursor.of(100, hashAtHeight(100), 200, hashAtHeight(200), hashAtHeight(300))
+                .encode();
+        SubchainCursor.decode(encoded.substring(0, encoded.length() - 8));
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BlockHashIndexTest {
+
+    private BlockHashIndex index;
+
+    @Before
+    public void setUp() {
+        index = new BlockHashIndex();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, index.getSize());
+        assertFalse(index.getHash(0).isPresent());
+        assertFalse(index.getHashes(0, 0).isPresent());
+    }
+
+    @Test
+    public void testExtend() {
+        index.extend(0, hashes(0, 10));
+        index.extend(10, hashes(10, 15));
+        assertEquals(15, index.getSize());
+        for (long h = 0; h < 15; h++) {
+            assertEquals(hashAtHeight(h), index.getHash(h).get());
+        }
+        assertEquals(hashes(5, 12), index.getHashes(5, 11).get());
+        assertFalse(index.getHash(15).isPresent());
+        assertFalse(index.getHash(-1).isPresent());
+        assertFalse(index.getHashes(10, 15).isPresent());
+        assertFalse(index.getHashes(11, 10).isPresent());
+    }
+
+    @Test
+    public void testExtendBeyondInitialCapacity() {
+        int numHashes = 200000;
+        index.extend(0, hashes(0, numHashes));
+        assertEquals(numHashes, index.getSize());
+        assertEquals(hashAtHeight(numHashes - 1), index.getHash(numHashes - 1).get());
+        assertEquals(hashAtHeight(1 << 16), index.getHash(1 << 16).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtendGap() {
+        index.extend(0, hashes(0, 10));
+        index.extend(11, hashes(11, 12));
+    }
+
+    @Test
+    public void testTruncate() {
+        index.extend(0, hashes(0, 10));
+        index.truncate(7);
+        assertEquals(7, index.getSize());
+        assertFalse(index.getHash(7).isPresent());
+
+        // truncating above the tip leaves the index unchanged
+        index.truncate(20);
+        assertEquals(7, index.getSize());
+
+        Sha256Hash otherHash = hashAtHeight(100);
+        index.extend(7, ImmutableList.of(otherHash));
+        assertEquals(otherHash, index.getHash(7).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncateNegative() {
+        index.truncate(-1);
+    }
+
+    private static List<Sha256Hash> hashes(long fromHeight, long toHeight) {
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (long h = fromHeight; h < toHeight; h++) {
+            hashes.add(hashAtHeight(h));
+        }
+        return hashes;
+    }
+
+    private static Sha256Hash hashAtHeight(long height) {
+        return Sha256Hash.of(ByteBuffer.allocate(Long.BYTES).putLong(height).array());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BlockStatsIndexTest {
+
+    private static final double DELTA = 1e-6;
+
+    private BlockStatsIndex index;
+    private List<Long> numTransactions;
+    private List<Double> difficulties;
+
+    @Before
+    public void setUp() {
+        index = new BlockStatsIndex();
+        numTransactions = Lists.newArrayList();
+        difficulties = Lists.newArrayList();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, index.getSize());
+        assertFalse(index.getStats(0, 0).isPresent());
+    }
+
+    @Test
+    public void testGetStats() {
+        index.extend(0, ImmutableList.of(1L, 5L, 3L, 2L), ImmutableList.of(1.0, 1.0, 2.5, 2.0));
+        RangeStats stats = index.getStats(1, 3).get();
+        assertEquals(3, stats.getNumBlocks());
+        assertEquals(Long.valueOf(10), stats.getTotalTransactions().get());
+        assertEquals(Long.valueOf(2), stats.getMinTransactions().get());
+        assertEquals(Long.valueOf(5), stats.getMaxTransactions().get());
+        assertEquals(5.5, stats.getTotalDifficulty(), DELTA);
+        assertEquals(1.0, stats.getMinDifficulty(), DELTA);
+        assertEquals(2.5, stats.getMaxDifficulty(), DELTA);
+
+        assertFalse(index.getStats(2, 4).isPresent());
+        assertFalse(index.getStats(-1, 2).isPresent());
+        assertFalse(index.getStats(3, 2).isPresent());
+    }
+
+    @Test
+    public void testUnknownTransactions() {
+        index.extend(0, ImmutableList.of(1L, -1L, 3L), ImmutableList.of(1.0, 1.0, 1.0));
+        assertFalse(index.getStats(0, 2).get().getTotalTransactions().isPresent());
+        assertFalse(index.getStats(1, 1).get().getMaxTransactions().isPresent());
+        assertEquals(Long.valueOf(3), index.getStats(2, 2).get().getTotalTransactions().get());
+        assertEquals(3.0, index.getStats(0, 2).get().getTotalDifficulty(), DELTA);
+    }
+
+    @Test
+    public void testGetStatsAcrossChunks() {
+        // enough blocks to grow the index beyond its initial capacity
+        extendRandomly(100000, new Random(0));
+        assertEquals(100000, index.getSize());
+        Random random = new Random(1);
+        for (int c = 0; c < 200; c++) {
+            int from = random.nextInt(100000);
+            int to = from + random.nextInt(100000 - from);
+            assertStats(from, to);
+        }
+        assertStats(0, 99999);
+        assertStats(64, 127);
+        assertStats(63, 128);
+    }
+
+    @Test
+    public void testTruncate() {
+        Random random = new Random(0);
+        extendRandomly(1000, random);
+        index.truncate(700);
+        assertEquals(700, index.getSize());
+        assertFalse(index.getStats(0, 700).isPresent());
+        numTransactions = Lists.newArrayList(numTransactions.subList(0, 700));
+        difficulties = Lists.newArrayList(difficulties.subList(0, 700));
+        assertStats(650, 699);
+
+        // blocks of the new branch replace the truncated ones, even where they are smaller or larger
+        extendRandomly(500, random);
+        assertEquals(1200, index.getSize());
+        assertStats(0, 1199);
+        assertStats(650, 750);
+        assertStats(690, 1100);
+
+        index.truncate(2000);
+        assertEquals(1200, index.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtendGap() {
+        index.extend(1, ImmutableList.of(1L), ImmutableList.of(1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtendMismatched() {
+        index.extend(0, ImmutableList.of(1L, 2L), ImmutableList.of(1.0));
+    }
+
+    private void extendRandomly(int numBlocks, Random random) {
+        List<Long> newNumTransactions = Lists.newArrayList();
+        List<Double> newDifficulties = Lists.newArrayList();
+        for (int c = 0; c < numBlocks; c++) {
+            newNumTransactions.add((long) random.nextInt(5000));
+            newDifficulties.add(random.nextDouble() * 1e6);
+        }
+        index.extend(numTransactions.size(), newNumTransactions, newDifficulties);
+        numTransactions.addAll(newNumTransactions);
+        difficulties.addAll(newDifficulties);
+    }
+
+    private void assertStats(int from, int to) {
+        long totalTransactions = 0;
+        long minTransactions = Long.MAX_VALUE;
+        long maxTransactions = Long.MIN_VALUE;
+        double totalDifficulty = 0;
+        double minDifficulty = Double.POSITIVE_INFINITY;
+        double maxDifficulty = Double.NEGATIVE_INFINITY;
+        for (int height = from; height <= to; height++) {
+            totalTransactions += numTransactions.get(height);
+            minTransactions = Math.min(minTransactions, numTransactions.get(height));
+            maxTransactions = Math.max(maxTransactions, numTransactions.get(height));
+            totalDifficulty += difficulties.get(height);
+            minDifficulty = Math.min(minDifficulty, difficulties.get(height));
+            maxDifficulty = Math.max(maxDifficulty, difficulties.get(height));
+        }
+        RangeStats stats = index.getStats(from, to).get();
+        assertEquals(Long.valueOf(totalTransactions), stats.getTotalTransactions().get());
+        assertEquals(Long.valueOf(minTransactions), stats.getMinTransactions().get());
+        assertEquals(Long.valueOf(maxTransactions), stats.getMaxTransactions().get());
+        assertEquals(totalDifficulty, stats.getTotalDifficulty(), totalDifficulty * 1e-9);
+        assertEquals(minDifficulty, stats.getMinDifficulty(), 0);
+        assertEquals(maxDifficulty, stats.getMaxDifficulty(), 0);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class BlockTimeIndexTest {
+
+    private BlockTimeIndex index;
+
+    @Before
+    public void setUp() {
+        index = new BlockTimeIndex();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, index.getSize());
+        assertFalse(index.getTime(0).isPresent());
+        assertFalse(index.getHeightAtOrBefore(100).isPresent());
+        assertFalse(index.getHeightAtOrAfter(100).isPresent());
+    }
+
+    @Test
+    public void testMonotonic() {
+        index.extend(0, ImmutableList.of(100L, 200L, 300L, 400L));
+        assertEquals(Long.valueOf(300), index.getTime(2).get());
+
+        assertFalse(index.getHeightAtOrBefore(99).isPresent());
+        assertEquals(Long.valueOf(0), index.getHeightAtOrBefore(100).get());
+        assertEquals(Long.valueOf(1), index.getHeightAtOrBefore(299).get());
+        assertEquals(Long.valueOf(3), index.getHeightAtOrBefore(1000).get());
+
+        assertEquals(Long.valueOf(0), index.getHeightAtOrAfter(50).get());
+        assertEquals(Long.valueOf(2), index.getHeightAtOrAfter(201).get());
+        assertEquals(Long.valueOf(2), index.getHeightAtOrAfter(300).get());
+        assertFalse(index.getHeightAtOrAfter(401).isPresent());
+    }
+
+    @Test
+    public void testNonMonotonic() {
+        // block 2 is timestamped before block 1, as bitcoin allows
+        index.extend(0, ImmutableList.of(100L, 300L, 250L, 400L));
+
+        // no block before height 1 is after 260, and no block before height 3 is at or after 350
+        assertEquals(Long.valueOf(0), index.getHeightAtOrBefore(260).get());
+        assertEquals(Long.valueOf(3), index.getHeightAtOrAfter(350).get());
+        assertEquals(Long.valueOf(1), index.getHeightAtOrAfter(250).get());
+        assertEquals(Long.valueOf(2), index.getHeightAtOrBefore(399).get());
+    }
+
+    @Test
+    public void testUnsignedTimes() {
+        long lateTime = (1L << 32) - 1;
+        index.extend(0, ImmutableList.of(100L, lateTime));
+        assertEquals(Long.valueOf(lateTime), index.getTime(1).get());
+        assertEquals(Long.valueOf(1), index.getHeightAtOrAfter(lateTime).get());
+        assertEquals(Long.valueOf(0), index.getHeightAtOrBefore(lateTime - 1).get());
+    }
+
+    @Test
+    public void testExtendBeyondInitialCapacity() {
+        List<Long> times = Lists.newArrayList();
+        for (long h = 0; h < 100000; h++) {
+            times.add(h * 600);
+        }
+        index.extend(0, times);
+        assertEquals(Long.valueOf(99999), index.getHeightAtOrAfter(99999 * 600).get());
+        assertEquals(Long.valueOf(70000), index.getHeightAtOrBefore(70000 * 600 + 599).get());
+    }
+
+    @Test
+    public void testTruncate() {
+        index.extend(0, ImmutableList.of(100L, 200L, 300L));
+        index.truncate(2);
+        assertEquals(2, index.getSize());
+        assertFalse(index.getHeightAtOrAfter(250).isPresent());
+
+        index.extend(2, ImmutableList.of(150L));
+        assertEquals(Long.valueOf(2), index.getHeightAtOrBefore(250).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtendGap() {
+        index.extend(1, ImmutableList.of(100L));
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.MainNetParams;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeRestService;
+import org.drausin.bitflow.bitcoin.api.BitcoinNodeService;
+import org.drausin.bitflow.bitcoin.api.requests.BitcoinNodeRequest;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderHashResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockHeaderResponse;
+import org.drausin.bitflow.bitcoin.api.responses.BlockchainInfoResponse;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.BlockchainInfo;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.drausin.bitflow.blockchain.config.FetchConfig;
+import org.drausin.bitflow.blockchain.config.ImmutableIndexConfig;
+import org.drausin.bitflow.blockchain.config.IndexConfig;
+import org.drausin.bitflow.blockchain.fetch.BlockHeaderFetcher;
+import org.drausin.bitflow.blockchain.store.HeaderStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ChainIndexerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BitcoinNodeService bitcoinNodeService;
+    private BlockHashIndex index;
+    private BlockTimeIndex timeIndex;
+    private BlockStatsIndex statsIndex;
+    private List<Sha256Hash> chain;
+    private Map<Sha256Hash, BlockHeader> headers;
+    private Map<Sha256Hash, Block> blocks;
+    private ChainIndexer indexer;
+
+    @Before
+    public void setUp() {
+        bitcoinNodeService = mock(BitcoinNodeService.class);
+        chain = Lists.newArrayList();
+        headers = Maps.newHashMap();
+        blocks = Maps.newHashMap();
+        appendBlocks(0, 50);
+        when(bitcoinNodeService.getBlockchainInfo(any(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            BlockchainInfo blockchainInfo = mock(BlockchainInfo.class);
+            when(blockchainInfo.getNumBlocks()).thenReturn((long) chain.size() - 1);
+            when(blockchainInfo.getBestBlockHash()).thenReturn(chain.get(chain.size() - 1));
+            return BlockchainInfoResponse.of(blockchainInfo);
+        });
+        when(bitcoinNodeService.getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<BitcoinNodeRequest> requests = (List<BitcoinNodeRequest>) invocation.getArguments()[0];
+            List<BlockHeaderHashResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : requests) {
+                Sha256Hash hash = chain.get(((Long) request.getParams().get(0)).intValue());
+                responses.add(BlockHeaderHashResponse.of(Optional.of(hash), Optional.absent(), request.getId()));
+            }
+            return responses;
+        });
+        when(bitcoinNodeService.getBlockHeadersOnly(anyListOf(BitcoinNodeRequest.class))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<BitcoinNodeRequest> requests = (List<BitcoinNodeRequest>) invocation.getArguments()[0];
+            List<BlockHeaderResponse> responses = Lists.newArrayList();
+            for (BitcoinNodeRequest request : requests) {
+                BlockHeader header = headers.get((Sha256Hash) request.getParams().get(0));
+                responses.add(BlockHeaderResponse.of(Optional.of(header), Optional.absent(), request.getId()));
+            }
+            return responses;
+        });
+
+        index = new BlockHashIndex();
+        timeIndex = new BlockTimeIndex();
+        statsIndex = new BlockStatsIndex();
+        IndexConfig config = ImmutableIndexConfig.builder().reorgCheckDepth(4).syncChunkSize(20).build();
+        indexer = new ChainIndexer(bitcoinNodeService,
+                BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build(), index, timeIndex, statsIndex,
+                Optional.absent(), config, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @Test
+    public void testInitialSync() {
+        indexer.sync();
+        assertIndexMatchesChain();
+
+        // fill in 3 chunks of 20, 20, and 10 blocks
+        verify(bitcoinNodeService, times(3)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testSyncUnchanged() {
+        indexer.sync();
+        indexer.sync();
+        assertIndexMatchesChain();
+        verify(bitcoinNodeService, times(3)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+    }
+
+    @Test
+    public void testSyncNewBlocks() {
+        indexer.sync();
+        appendBlocks(50, 55);
+        indexer.sync();
+        assertIndexMatchesChain();
+    }
+
+    @Test
+    public void testSyncShallowReorg() {
+        indexer.sync();
+        reorg(48, 53);
+        indexer.sync();
+        assertIndexMatchesChain();
+    }
+
+    @Test
+    public void testSyncDeepReorg() {
+        indexer.sync();
+        reorg(30, 52);
+        indexer.sync();
+        assertIndexMatchesChain();
+    }
+
+    @Test
+    public void testSyncShorterChain() {
+        indexer.sync();
+        reorg(45, 48);
+        indexer.sync();
+        assertIndexMatchesChain();
+    }
+
+    @Test
+    public void testSyncRestHeadersRejected() {
+        BitcoinNodeRestService bitcoinNodeRestService = mock(BitcoinNodeRestService.class);
+        when(bitcoinNodeRestService.getBlockHeaders(anyInt(), any(Sha256Hash.class))).thenAnswer(invocation -> {
+            int fromHeight = chain.indexOf((Sha256Hash) invocation.getArguments()[1]);
+            int toHeight = Math.min(chain.size(), fromHeight + (Integer) invocation.getArguments()[0]);
+            return Lists.transform(chain.subList(fromHeight, toHeight), blocks::get);
+        });
+        when(bitcoinNodeService.getBlockHeaderHash(any(BitcoinNodeRequest.class))).thenAnswer(invocation ->
+                BlockHeaderHashResponse.of(chain.get(((Long) ((BitcoinNodeRequest) invocation.getArguments()[0])
+                        .getParams().get(0)).intValue())));
+        when(bitcoinNodeService.getBlockHeaderOnly(any(BitcoinNodeRequest.class))).thenAnswer(invocation ->
+                BlockHeaderResponse.of(headers.get((Sha256Hash) ((BitcoinNodeRequest) invocation.getArguments()[0])
+                        .getParams().get(0))));
+        BlockHeaderFetcher restFetcher = BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of())
+                .bitcoinNodeRestService(Optional.of(bitcoinNodeRestService)).build();
+        ChainIndexer restIndexer = new ChainIndexer(bitcoinNodeService, restFetcher, index, timeIndex, statsIndex,
+                Optional.absent(), ImmutableIndexConfig.builder().reorgCheckDepth(4).syncChunkSize(20).build(),
+                Executors.newSingleThreadScheduledExecutor());
+
+        // headers read from the REST interface lack their numbers of transactions, which must not reach the stats
+        try {
+            restIndexer.sync();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(0, statsIndex.getSize());
+        }
+
+        // while the indexer's own fetcher, which reads no headers from the REST interface, gives the right stats
+        indexer.sync();
+        assertIndexMatchesChain();
+        verify(bitcoinNodeRestService).getBlockHeaders(anyInt(), any(Sha256Hash.class));
+    }
+
+    @Test
+    public void testListener() {
+        ChainListener listener = mock(ChainListener.class);
+        indexer.addListener(listener);
+        indexer.sync();
+        verify(listener).onTipChanged(49);
+        verify(listener, never()).onReorganization(anyLong());
+
+        indexer.sync();
+        verify(listener, times(1)).onTipChanged(anyLong());
+
+        reorg(30, 52);
+        indexer.sync();
+        verify(listener).onReorganization(30);
+        verify(listener).onTipChanged(52);
+    }
+
+    @Test
+    public void testStartStop() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ChainIndexer scheduledIndexer = new ChainIndexer(bitcoinNodeService,
+                BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build(), index, timeIndex, statsIndex,
+                Optional.absent(), IndexConfig.of(), scheduler);
+        scheduledIndexer.start();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (index.getSize() < chain.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        scheduledIndexer.stop();
+        scheduler.shutdown();
+        assertIndexMatchesChain();
+    }
+
+    @Test
+    public void testSyncHeaderStore() throws Exception {
+        HeaderStore store = new HeaderStore(folder.getRoot().toPath());
+        store.start();
+        ChainIndexer storeIndexer = createStoreIndexer(store);
+        storeIndexer.sync();
+        assertStoreMatchesChain(store);
+
+        reorg(30, 52);
+        storeIndexer.sync();
+        assertStoreMatchesChain(store);
+        store.stop();
+    }
+
+    @Test
+    public void testStartFromHeaderStore() throws Exception {
+        HeaderStore store = new HeaderStore(folder.getRoot().toPath());
+        store.start();
+        createStoreIndexer(store).sync();
+        store.stop();
+
+        // a restarted indexer loads the stored blocks and only fetches the new ones
+        appendBlocks(50, 55);
+        store = new HeaderStore(folder.getRoot().toPath());
+        store.start();
+        index = new BlockHashIndex();
+        timeIndex = new BlockTimeIndex();
+        statsIndex = new BlockStatsIndex();
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        ChainIndexer storeIndexer = new ChainIndexer(bitcoinNodeService,
+                BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build(), index, timeIndex, statsIndex,
+                Optional.of(store), ImmutableIndexConfig.builder().reorgCheckDepth(4).syncChunkSize(20).build(),
+                scheduler);
+        storeIndexer.start();
+        assertEquals(50, index.getSize());
+        assertEquals(50, timeIndex.getSize());
+        assertEquals(50, statsIndex.getSize());
+        verify(bitcoinNodeService, times(3)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+
+        storeIndexer.sync();
+        assertIndexMatchesChain();
+        assertStoreMatchesChain(store);
+
+        // one reorganization check of the loaded blocks and one chunk of new blocks
+        verify(bitcoinNodeService, times(5)).getBlockHeaderHashes(anyListOf(BitcoinNodeRequest.class));
+        store.stop();
+    }
+
+    private ChainIndexer createStoreIndexer(HeaderStore store) {
+        return new ChainIndexer(bitcoinNodeService,
+                BlockHeaderFetcher.builder(bitcoinNodeService, FetchConfig.of()).build(), index, timeIndex, statsIndex,
+                Optional.of(store),
+                ImmutableIndexConfig.builder().reorgCheckDepth(4).syncChunkSize(20).build(),
+                Executors.newSingleThreadScheduledExecutor());
+    }
+
+    private void assertStoreMatchesChain(HeaderStore store) {
+        assertEquals(chain.size(), store.getSize());
+        assertEquals(chain, store.getHashes(0, chain.size() - 1).get());
+    }
+
+    private void assertIndexMatchesChain() {
+        assertEquals(chain.size(), index.getSize());
+        assertEquals(chain, index.getHashes(0, chain.size() - 1).get());
+        assertEquals(chain.size(), timeIndex.getSize());
+        for (int h = 0; h < chain.size(); h++) {
+            assertEquals(Long.valueOf(timeOf(chain.get(h))), timeIndex.getTime(h).get());
+        }
+        long totalTransactions = 0;
+        for (Sha256Hash hash : chain) {
+            totalTransactions += headers.get(hash).getNumTransactions();
+        }
+        assertEquals(chain.size(), statsIndex.getSize());
+        assertEquals(Long.valueOf(totalTransactions), statsIndex.getStats(0, chain.size() - 1).get()
+                .getTotalTransactions().get());
+    }
+
+    private long timeOf(Sha256Hash hash) {
+        return headers.get(hash).getCreatedTime();
+    }
+
+    /**
+     * Replaces the blocks from a given height with a new branch that ends at another height.
+     */
+    private void reorg(int fromHeight, int newTipHeight) {
+        chain = Lists.newArrayList(chain.subList(0, fromHeight));
+        for (int h = fromHeight; h <= newTipHeight; h++) {
+            addBlock(h, 1);
+        }
+    }
+
+    private void appendBlocks(int fromHeight, int toHeight) {
+        for (int h = fromHeight; h < toHeight; h++) {
+            addBlock(h, 0);
+        }
+    }
+
+    /**
+     * Adds a block with a valid header hash on top of the chain.
+     */
+    private void addBlock(long height, long branch) {
+        Sha256Hash previousHash = chain.isEmpty() ? Sha256Hash.ZERO_HASH : chain.get(chain.size() - 1);
+        Sha256Hash merkleRoot = Sha256Hash.of(ByteBuffer.allocate(2 * Long.BYTES).putLong(height).putLong(branch)
+                .array());
+        long createdTime = 1231006505L + 600 * height + branch;
+        Block block = new Block(MainNetParams.get(), 2, previousHash, merkleRoot, createdTime, 0x1d00ffffL, height,
+                ImmutableList.of());
+        BlockHeader header = ImmutableBlockHeader.copyOf(BlockHeader.of(block.getHash(), 1, -1, height, 2, merkleRoot,
+                ImmutableList.of(), createdTime, height, BigInteger.valueOf(0x1d00ffffL), 1.0,
+                BigInteger.valueOf(height + 1), chain.isEmpty() ? Optional.absent() : Optional.of(previousHash),
+                Optional.absent())).withNumTransactions(height + 1 + branch);
+        headers.put(header.getHeaderHash(), header);
+        blocks.put(header.getHeaderHash(), block);
+        chain.add(header.getHeaderHash());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.store;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import java.math.BigInteger;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.junit.Test;
+
+public final class HeaderCodecTest {
+
+    // block 227252, from https://bitcoin.org/en/developer-reference#getblockheader
+    private static final BlockHeader HEADER = BlockHeader.of(
+            Sha256Hash.wrap("000000000fe549a89848c76070d4132872cfb6efe5315d01d7ef77e4900f2d39"), 88029, -1, 227252, 2,
+            Sha256Hash.wrap("c738fb8e22750b6d3511ed0049a96558b0bc57046f3f77771ec825b22d6a6f4a"), ImmutableList.of(),
+            1398824312, 1883462912, BigInteger.valueOf(0x1d00ffff), 1.0,
+            new BigInteger("083ada4a4009841a", 16),
+            Optional.of(Sha256Hash.wrap("00000000c7f4990e6ebf71ad7e21a47131dfeb22c759505b3998d7a814c011df")),
+            Optional.of(Sha256Hash.wrap("00000000afe1928529ac766f1237657819a11cfcc8ca6d67f119e868ed5b6188")));
+
+    @Test
+    public void testHash() {
+        byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+        HeaderCodec.encode(HEADER, raw);
+        assertEquals(HEADER.getHeaderHash(), HeaderCodec.hash(raw));
+        assertEquals(HEADER.getCreatedTime(), HeaderCodec.getCreatedTime(raw));
+    }
+
+    @Test
+    public void testDecode() {
+        byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+        HeaderCodec.encode(HEADER, raw);
+        BlockHeader decoded = HeaderCodec.decode(raw, HEADER.getHeaderHash(), HEADER.getHeight(),
+                HEADER.getNumConfirmations(), HEADER.getSizeBytes(), 5, HEADER.getChainwork(),
+                HEADER.getNextBlockHash());
+        assertEquals(HEADER.getVersion(), decoded.getVersion());
+        assertEquals(HEADER.getMerkleRoot(), decoded.getMerkleRoot());
+        assertEquals(HEADER.getCreatedTime(), decoded.getCreatedTime());
+        assertEquals(HEADER.getNonce(), decoded.getNonce());
+        assertEquals(HEADER.getDifficultyTarget(), decoded.getDifficultyTarget());
+        assertEquals(HEADER.getDifficulty(), decoded.getDifficulty(), 0.0);
+        assertEquals(HEADER.getPreviousBlockHash(), decoded.getPreviousBlockHash());
+        assertEquals(HEADER.getNextBlockHash(), decoded.getNextBlockHash());
+        assertEquals(5, decoded.getNumTransactions());
+        assertEquals(0, decoded.getTransactionIds().size());
+    }
+
+    @Test
+    public void testDecodeGenesis() {
+        byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+        BlockHeader genesis = ImmutableBlockHeader.copyOf(HEADER).withPreviousBlockHash(Optional.<Sha256Hash>absent());
+        HeaderCodec.encode(genesis, raw);
+        BlockHeader decoded = HeaderCodec.decode(raw, HEADER.getHeaderHash(), 0, 1, -1, 1, BigInteger.ONE,
+                Optional.absent());
+        assertEquals(Optional.absent(), decoded.getPreviousBlockHash());
+    }
+
+    @Test
+    public void testGetDifficulty() {
+        assertEquals(1.0, HeaderCodec.getDifficulty(0x1d00ffff), 0.0);
+        // block 400000, from its getblockheader response
+        assertEquals(163491654908.9593, HeaderCodec.getDifficulty(0x1806b99f), 1.0);
+    }
+}
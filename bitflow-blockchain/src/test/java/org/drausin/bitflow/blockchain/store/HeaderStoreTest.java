@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.blockchain.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.blockchain.api.objects.BlockHeader;
+import org.drausin.bitflow.blockchain.api.objects.ImmutableBlockHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class HeaderStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private HeaderStore store;
+    private List<BlockHeader> chain;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath().resolve("header-store");
+        store = new HeaderStore(directory);
+        store.start();
+        chain = createChain(Optional.absent(), 0, 10, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.stop();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, store.getSize());
+        assertEquals(Optional.absent(), store.getHash(0));
+        assertEquals(Optional.absent(), store.getBlockHeader(0));
+        assertEquals(Optional.absent(), store.getHeight(chain.get(0).getHeaderHash()));
+    }
+
+    @Test
+    public void testAppend() {
+        store.append(chain.subList(0, 4));
+        store.append(chain.subList(4, 10));
+        assertEquals(10, store.getSize());
+        assertStoreMatchesChain(chain);
+    }
+
+    @Test
+    public void testGetBlockHeader() {
+        store.append(chain);
+        for (int h = 0; h < chain.size() - 1; h++) {
+            BlockHeader expected = chain.get(h);
+            BlockHeader stored = store.getBlockHeader(h).get();
+            assertEquals(expected.getHeaderHash(), stored.getHeaderHash());
+            assertEquals(h, stored.getHeight());
+            assertEquals(chain.size() - h, stored.getNumConfirmations());
+            assertEquals(expected.getSizeBytes(), stored.getSizeBytes());
+            assertEquals(expected.getNumTransactions(), stored.getNumTransactions());
+            assertEquals(expected.getCreatedTime(), stored.getCreatedTime());
+            assertEquals(expected.getMerkleRoot(), stored.getMerkleRoot());
+            assertEquals(expected.getChainwork(), stored.getChainwork());
+            assertEquals(expected.getPreviousBlockHash(), stored.getPreviousBlockHash());
+            assertEquals(Optional.of(chain.get(h + 1).getHeaderHash()), stored.getNextBlockHash());
+            assertEquals(stored, store.getBlockHeader(expected.getHeaderHash()).get());
+        }
+
+        // the tip's next block hash isn't known yet
+        assertFalse(store.getBlockHeader(chain.size() - 1).isPresent());
+        assertFalse(store.getBlockHeader(chain.get(chain.size() - 1).getHeaderHash()).isPresent());
+    }
+
+    @Test
+    public void testGetRanges() {
+        store.append(chain);
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        List<Long> times = Lists.newArrayList();
+        List<Long> numTransactions = Lists.newArrayList();
+        List<Double> difficulties = Lists.newArrayList();
+        for (BlockHeader header : chain.subList(2, 6)) {
+            hashes.add(header.getHeaderHash());
+            times.add(header.getCreatedTime());
+            numTransactions.add(header.getNumTransactions());
+            difficulties.add(header.getDifficulty());
+        }
+        assertEquals(hashes, store.getHashes(2, 5).get());
+        assertEquals(times, store.getCreatedTimes(2, 5).get());
+        assertEquals(numTransactions, store.getNumTransactions(2, 5).get());
+        assertEquals(difficulties, store.getDifficulties(2, 5).get());
+        assertFalse(store.getHashes(8, 10).isPresent());
+        assertFalse(store.getCreatedTimes(-1, 2).isPresent());
+        assertFalse(store.getNumTransactions(5, 2).isPresent());
+        assertFalse(store.getDifficulties(8, 10).isPresent());
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        store.append(chain);
+        store.stop();
+        store = new HeaderStore(directory);
+        store.start();
+        assertEquals(chain.size(), store.getSize());
+        assertStoreMatchesChain(chain);
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        store.append(chain);
+        store.truncate(6);
+        assertEquals(6, store.getSize());
+        assertStoreMatchesChain(chain.subList(0, 6));
+        assertEquals(Optional.absent(), store.getHeight(chain.get(7).getHeaderHash()));
+
+        // replace the truncated blocks with another branch, which persists
+        List<BlockHeader> branch = createChain(Optional.of(chain.get(5)), 6, 12, 1);
+        store.append(branch);
+        store.stop();
+        store = new HeaderStore(directory);
+        store.start();
+        List<BlockHeader> expected = Lists.newArrayList(chain.subList(0, 6));
+        expected.addAll(branch);
+        assertStoreMatchesChain(expected);
+        assertEquals(Optional.absent(), store.getHeight(chain.get(7).getHeaderHash()));
+    }
+
+    @Test
+    public void testManySegments() {
+        List<BlockHeader> longChain = createChain(Optional.absent(), 0, (1 << 16) + 100, 0);
+        for (int from = 0; from < longChain.size(); from += 1000) {
+            store.append(longChain.subList(from, Math.min(longChain.size(), from + 1000)));
+        }
+        assertEquals(longChain.size(), store.getSize());
+        for (int h : new int[] {0, 1 << 15, (1 << 16) - 1, 1 << 16, longChain.size() - 1}) {
+            assertEquals(longChain.get(h).getHeaderHash(), store.getHash(h).get());
+            assertEquals(Optional.of((long) h), store.getHeight(longChain.get(h).getHeaderHash()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendWrongHeight() {
+        store.append(chain.subList(1, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendWrongPrevious() {
+        store.append(chain.subList(0, 3));
+        store.append(createChain(Optional.of(chain.get(1)), 3, 4, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendWrongHash() {
+        store.append(ImmutableList.of(ImmutableBlockHeader.copyOf(chain.get(0)).withNonce(1)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartCorrupt() throws Exception {
+        store.stop();
+        Files.write(directory.resolve(HeaderStore.META_FILE_NAME), new byte[64]);
+        store = new HeaderStore(directory);
+        store.start();
+    }
+
+    private void assertStoreMatchesChain(List<BlockHeader> expected) {
+        assertEquals(expected.size(), store.getSize());
+        for (int h = 0; h < expected.size(); h++) {
+            Sha256Hash hash = expected.get(h).getHeaderHash();
+            assertEquals(hash, store.getHash(h).get());
+            assertEquals(Optional.of((long) h), store.getHeight(hash));
+        }
+    }
+
+    /**
+     * Creates a chain of valid block headers from a given height, following a given previous block header.
+     */
+    private static List<BlockHeader> createChain(Optional<BlockHeader> previous, int fromHeight, int toHeight,
+            int branch) {
+        List<BlockHeader> headers = Lists.newArrayList();
+        Optional<Sha256Hash> previousHash = previous.isPresent()
+                ? Optional.of(previous.get().getHeaderHash()) : Optional.absent();
+        byte[] raw = new byte[HeaderCodec.HEADER_LENGTH];
+        for (int h = fromHeight; h < toHeight; h++) {
+            Sha256Hash merkleRoot = Sha256Hash.of(ByteBuffer.allocate(2 * Integer.BYTES).putInt(h).putInt(branch)
+                    .array());
+            BlockHeader header = BlockHeader.of(Sha256Hash.ZERO_HASH, 1, 200 + h, h, 2, merkleRoot,
+                    ImmutableList.of(), 1231006505L + 600 * h + branch, h, BigInteger.valueOf(0x1d00ffff), 1.0,
+                    BigInteger.valueOf(h + 1).shiftLeft(32), previousHash, Optional.absent());
+            HeaderCodec.encode(header, raw);
+            header = ImmutableBlockHeader.copyOf(header).withHeaderHash(HeaderCodec.hash(raw))
+                    .withNumTransactions(h + 1);
+            headers.add(header);
+            previousHash = Optional.of(header.getHeaderHash());
+        }
+        return headers;
+    }
+}
@@ -60,8 +60,8 @@ public abstract class AbstractBitflowClientFactory<C> {
     }
 
     protected static Decoder getDecoder() {
-        return new OptionalAwareDecoder(
-                new TextDelegateDecoder(new JacksonDecoder(BitflowMapperFactory.createMapper())));
+        return new OptionalAwareDecoder(new TextDelegateDecoder(
+                new SmileAwareDecoder(new JacksonDecoder(BitflowMapperFactory.createMapper()))));
     }
 
     protected static ErrorDecoder getErrorDecoder() {
@@ -14,9 +14,18 @@
 
 package org.drausin.bitflow.client;
 
+import com.google.common.collect.ImmutableList;
+import feign.RequestInterceptor;
+
 public final class BitflowClientFactory extends AbstractBitflowClientFactory<String> {
     @Override
     protected String getUri(String config) {
         return config;
     }
+
+    @Override
+    protected Iterable<RequestInterceptor> getRequestInterceptors(String config) {
+        // Bitflow services answer in Smile where they can, which is smaller and cheaper to (de)serialize than JSON
+        return ImmutableList.of(new SmileAcceptInterceptor());
+    }
 }
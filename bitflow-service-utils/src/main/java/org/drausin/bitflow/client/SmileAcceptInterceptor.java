@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.client;
+
+import com.google.common.collect.ImmutableList;
+import feign.RequestInterceptor;
+import feign.RequestTemplate;
+import java.util.Collection;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.drausin.bitflow.service.utils.BitflowService;
+
+/**
+ * Asks for the binary Smile encoding on requests that accept JSON, keeping JSON as a lower-quality fallback so that
+ * endpoints that only produce JSON still answer with it.
+ *
+ * @author dwulsin
+ */
+public final class SmileAcceptInterceptor implements RequestInterceptor {
+
+    static final String SMILE_OR_JSON =
+            BitflowService.APPLICATION_SMILE + ", " + MediaType.APPLICATION_JSON + "; q=0.5";
+
+    @Override
+    public void apply(RequestTemplate template) {
+        Collection<String> accept = template.headers().get(HttpHeaders.ACCEPT);
+        if (accept != null && ImmutableList.copyOf(accept).equals(ImmutableList.of(MediaType.APPLICATION_JSON))) {
+            template.header(HttpHeaders.ACCEPT, SMILE_OR_JSON);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
+import feign.Util;
+import feign.codec.Decoder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.drausin.bitflow.service.utils.BitflowService;
+
+/**
+ * Decodes responses in the binary Smile encoding when the server answered with it, and otherwise hands them to the
+ * delegate decoder. Feign's {@link feign.jackson.JacksonDecoder} reads bodies as characters, so it can't be reused
+ * for Smile.
+ *
+ * @author dwulsin
+ */
+public final class SmileAwareDecoder implements Decoder {
+
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(BitflowService.APPLICATION_SMILE);
+
+    private final Decoder delegate;
+    private final ObjectMapper smileMapper;
+
+    public SmileAwareDecoder(Decoder delegate) {
+        this(delegate, BitflowMapperFactory.createSmileMapper());
+    }
+
+    public SmileAwareDecoder(Decoder delegate, ObjectMapper smileMapper) {
+        this.delegate = delegate;
+        this.smileMapper = smileMapper;
+    }
+
+    @Override
+    public Object decode(Response response, Type type) throws IOException {
+        if (!isSmile(response)) {
+            return delegate.decode(response, type);
+        }
+        if (response.status() == 404) {
+            return Util.emptyValueOf(type);
+        }
+        if (response.body() == null) {
+            return null;
+        }
+        try (InputStream body = response.body().asInputStream()) {
+            return smileMapper.readValue(body, smileMapper.constructType(type));
+        }
+    }
+
+    private static boolean isSmile(Response response) {
+        for (Map.Entry<String, Collection<String>> header : response.headers().entrySet()) {
+            if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getKey())) {
+                for (String value : header.getValue()) {
+                    if (SMILE_TYPE.isCompatible(MediaType.valueOf(value))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -15,13 +15,14 @@
 package org.drausin.bitflow.serde;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import java.io.IOException;
 import java.math.BigInteger;
 
 /**
- * Deserialize BigIntegers from their hex string values.
+ * Deserialize BigIntegers from their hex string values, or from their raw bytes in binary formats like Smile.
  *
  * @author dwulsin
  */
@@ -29,6 +30,9 @@ public final class BigIntegerJsonDeserializer extends JsonDeserializer<BigIntege
     @Override
     public BigInteger deserialize(JsonParser parser, DeserializationContext ctxt)
             throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return new BigInteger(parser.getBinaryValue());
+        }
         return new BigInteger(parser.getValueAsString(), 16);
     }
 
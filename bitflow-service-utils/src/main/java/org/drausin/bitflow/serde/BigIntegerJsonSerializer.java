@@ -24,7 +24,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 
 /**
- * Serialize Sha256Hash objects to their hex string values.
+ * Serialize BigIntegers to their hex string values, or to their raw bytes in binary formats like Smile.
  *
  * @author dwulsin
  */
@@ -32,7 +32,11 @@ public final class BigIntegerJsonSerializer extends JsonSerializer<BigInteger> {
     @Override
     public void serialize(BigInteger value, JsonGenerator gen, SerializerProvider serializers)
             throws IOException {
-        gen.writeString(value.toString(16));
+        if (gen.canWriteBinaryNatively()) {
+            gen.writeBinary(value.toByteArray());
+        } else {
+            gen.writeString(value.toString(16));
+        }
     }
 
     @Override
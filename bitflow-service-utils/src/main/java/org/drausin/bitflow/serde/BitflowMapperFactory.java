@@ -18,6 +18,8 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 import io.dropwizard.jackson.Jackson;
 import java.math.BigInteger;
 import org.bitcoinj.core.Sha256Hash;
@@ -37,6 +39,15 @@ public final class BitflowMapperFactory {
                 .registerModule(createModule());
     }
 
+    /**
+     * Creates a mapper for the binary Smile encoding of the same objects, which writes hashes and big integers as raw
+     * bytes rather than hex strings.
+     */
+    public static ObjectMapper createSmileMapper() {
+        // raw binary is smaller than Smile's default 7-bit encoding, and is flagged in the header for readers
+        return createMapper(new SmileFactory().configure(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT, false));
+    }
+
     private static SimpleModule createModule() {
         return new SimpleModule("BitflowModule", Version.unknownVersion())
                 .addSerializer(Sha256Hash.class, new Sha256HashJsonSerializer())
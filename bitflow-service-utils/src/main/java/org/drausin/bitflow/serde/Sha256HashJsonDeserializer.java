@@ -15,13 +15,15 @@
 package org.drausin.bitflow.serde;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import java.io.IOException;
 import org.bitcoinj.core.Sha256Hash;
 
 /**
- * Deserialize {@link org.bitcoinj.core.Sha256Hash} values from their hex string values.
+ * Deserialize {@link org.bitcoinj.core.Sha256Hash} values from their hex string values, or from their raw bytes in
+ * binary formats like Smile.
  *
  * @author dwulsin
  */
@@ -29,6 +31,9 @@ public final class Sha256HashJsonDeserializer extends JsonDeserializer<Sha256Has
     @Override
     public Sha256Hash deserialize(JsonParser parser, DeserializationContext ctxt)
             throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return Sha256Hash.wrap(parser.getBinaryValue());
+        }
         return Sha256Hash.wrap(parser.getValueAsString());
     }
 
@@ -24,7 +24,7 @@ import java.io.IOException;
 import org.bitcoinj.core.Sha256Hash;
 
 /**
- * Serialize Sha256Hash objects to their hex string values.
+ * Serialize Sha256Hash objects to their hex string values, or to their raw bytes in binary formats like Smile.
  *
  * @author dwulsin
  */
@@ -32,7 +32,11 @@ public final class Sha256HashJsonSerializer extends JsonSerializer<Sha256Hash> {
     @Override
     public void serialize(Sha256Hash value, JsonGenerator gen, SerializerProvider serializers)
             throws IOException {
-        gen.writeString(value.toString());
+        if (gen.canWriteBinaryNatively()) {
+            gen.writeBinary(value.getBytes());
+        } else {
+            gen.writeString(value.toString());
+        }
     }
 
     @Override
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.serde;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import org.drausin.bitflow.service.utils.BitflowService;
+
+/**
+ * Reads and writes entities in the binary Smile encoding for clients that negotiate it via their {@code Accept} or
+ * {@code Content-Type} headers. Endpoints list {@link BitflowService#APPLICATION_SMILE} alongside
+ * {@code application/json} in their {@code @Produces} and {@code @Consumes} to opt in.
+ *
+ * @author dwulsin
+ */
+@Provider
+@Consumes(BitflowService.APPLICATION_SMILE)
+@Produces(BitflowService.APPLICATION_SMILE)
+public final class SmileMessageBodyProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(BitflowService.APPLICATION_SMILE);
+
+    private final ObjectMapper mapper;
+
+    public SmileMessageBodyProvider() {
+        this(BitflowMapperFactory.createSmileMapper());
+    }
+
+    public SmileMessageBodyProvider(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return SMILE_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        return mapper.readerFor(mapper.getTypeFactory().constructType(genericType))
+                .without(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+                .readValue(entityStream);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return SMILE_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public long getSize(Object value, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        mapper.writerFor(mapper.getTypeFactory().constructType(genericType))
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(entityStream, value);
+    }
+}
@@ -41,6 +41,11 @@ import javax.ws.rs.core.MediaType;
  */
 public interface BitflowService {
 
+    /**
+     * Media type of the binary Smile encoding of JSON, which clients may ask for instead of {@code application/json}.
+     */
+    String APPLICATION_SMILE = "application/x-jackson-smile";
+
     @GET
     @Path("/ping")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.client;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import feign.RequestTemplate;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+public class SmileAcceptInterceptorTest {
+
+    @Test
+    public final void testApplyJson() throws Exception {
+        RequestTemplate template = new RequestTemplate().header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+        new SmileAcceptInterceptor().apply(template);
+        assertEquals(ImmutableList.of(SmileAcceptInterceptor.SMILE_OR_JSON),
+                ImmutableList.copyOf(template.headers().get(HttpHeaders.ACCEPT)));
+    }
+
+    @Test
+    public final void testApplyOther() throws Exception {
+        // e.g., streamed newline-delimited JSON is left alone
+        RequestTemplate template = new RequestTemplate().header(HttpHeaders.ACCEPT, "application/x-ndjson");
+        new SmileAcceptInterceptor().apply(template);
+        assertEquals(ImmutableList.of("application/x-ndjson"),
+                ImmutableList.copyOf(template.headers().get(HttpHeaders.ACCEPT)));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import feign.Response;
+import feign.codec.Decoder;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.serde.BitflowMapperFactory;
+import org.drausin.bitflow.service.utils.BitflowService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmileAwareDecoderTest {
+
+    private static final Sha256Hash HASH = Sha256Hash.wrap(
+            "000000000ebb17fb455e897b8f3e343eea1b07d926476d00bc66e2c0342ed50f");
+
+    private Decoder delegate;
+    private SmileAwareDecoder decoder;
+
+    @Before
+    public final void setUp() throws Exception {
+        delegate = mock(Decoder.class);
+        decoder = new SmileAwareDecoder(delegate);
+    }
+
+    @Test
+    public final void testDecodeSmile() throws Exception {
+        byte[] body = BitflowMapperFactory.createSmileMapper().writeValueAsBytes(HASH);
+        Response response = Response.create(200, "OK", headers("content-type", BitflowService.APPLICATION_SMILE),
+                body);
+        assertEquals(HASH, decoder.decode(response, Sha256Hash.class));
+        verify(delegate, never()).decode(any(Response.class), any(Type.class));
+    }
+
+    @Test
+    public final void testDecodeJson() throws Exception {
+        Response response = Response.create(200, "OK", headers("Content-Type", "application/json"),
+                BitflowMapperFactory.createMapper().writeValueAsBytes(HASH));
+        when(delegate.decode(response, Sha256Hash.class)).thenReturn(HASH);
+        assertEquals(HASH, decoder.decode(response, Sha256Hash.class));
+        verify(delegate).decode(response, Sha256Hash.class);
+    }
+
+    private static Map<String, Collection<String>> headers(String name, String value) {
+        return ImmutableMap.of(name, ImmutableList.of(value));
+    }
+}
@@ -19,6 +19,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import java.math.BigInteger;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +44,13 @@ public class BigIntegerJsonDeserializerTest {
         assertEquals(new BigInteger("256", 10), bigIntegerJsonDeserializer.deserialize(parser, null));
     }
 
+    @Test
+    public final void testDeserializeBinary() throws Exception {
+        when(parser.getCurrentToken()).thenReturn(JsonToken.VALUE_EMBEDDED_OBJECT);
+        when(parser.getBinaryValue()).thenReturn(new byte[] {1, 0});
+        assertEquals(new BigInteger("256", 10), bigIntegerJsonDeserializer.deserialize(parser, null));
+    }
+
     @Test
     public final void testHandledType() throws Exception {
         assertEquals(BigInteger.class, bigIntegerJsonDeserializer.handledType());
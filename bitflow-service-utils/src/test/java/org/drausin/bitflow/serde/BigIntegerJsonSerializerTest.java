@@ -17,6 +17,7 @@ package org.drausin.bitflow.serde;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import java.math.BigInteger;
@@ -45,6 +46,13 @@ public class BigIntegerJsonSerializerTest {
         verify(gen, times(1)).writeString("100");
     }
 
+    @Test
+    public final void testSerializeBinary() throws Exception {
+        when(gen.canWriteBinaryNatively()).thenReturn(true);
+        bigIntegerJsonSerializer.serialize(new BigInteger("256", 10), gen, null);
+        verify(gen, times(1)).writeBinary(new byte[] {1, 0});
+    }
+
     @Test
     public final void testHandledType() throws Exception {
         assertEquals(BigInteger.class, bigIntegerJsonSerializer.handledType());
@@ -19,6 +19,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.bitcoinj.core.Sha256Hash;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -37,6 +38,14 @@ public final class Sha256HashJsonDeserializerTest {
         assertEquals(Sha256Hash.wrap(hexHash), deserializer.deserialize(parser, null));
     }
 
+    @Test
+    public void testDeserializeBinary() throws Exception {
+        Sha256Hash hash = Sha256Hash.wrap("000000000ebb17fb455e897b8f3e343eea1b07d926476d00bc66e2c0342ed50f");
+        when(parser.getCurrentToken()).thenReturn(JsonToken.VALUE_EMBEDDED_OBJECT);
+        when(parser.getBinaryValue()).thenReturn(hash.getBytes());
+        assertEquals(hash, deserializer.deserialize(parser, null));
+    }
+
     @Test
     public void testHandledType() throws Exception {
         assertEquals(Sha256Hash.class, deserializer.handledType());
@@ -17,6 +17,7 @@ package org.drausin.bitflow.serde;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import org.bitcoinj.core.Sha256Hash;
@@ -46,6 +47,14 @@ public class Sha256HashJsonSerializerTest {
         verify(gen, times(1)).writeString(hexHash);
     }
 
+    @Test
+    public final void testSerializeBinary() throws Exception {
+        Sha256Hash hash = Sha256Hash.wrap("000000000ebb17fb455e897b8f3e343eea1b07d926476d00bc66e2c0342ed50f");
+        when(gen.canWriteBinaryNatively()).thenReturn(true);
+        sha256HashJsonSerializer.serialize(hash, gen, null);
+        verify(gen, times(1)).writeBinary(hash.getBytes());
+    }
+
     @Test
     public final void testHandledType() throws Exception {
         assertEquals(Sha256Hash.class, sha256HashJsonSerializer.handledType());
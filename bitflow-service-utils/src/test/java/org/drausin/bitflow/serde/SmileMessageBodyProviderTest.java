@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.drausin.bitflow.serde;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.util.List;
+import javax.ws.rs.core.MediaType;
+import org.bitcoinj.core.Sha256Hash;
+import org.drausin.bitflow.service.utils.BitflowService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmileMessageBodyProviderTest {
+
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(BitflowService.APPLICATION_SMILE);
+
+    private SmileMessageBodyProvider provider;
+
+    @Before
+    public final void setUp() throws Exception {
+        provider = new SmileMessageBodyProvider();
+    }
+
+    @Test
+    public final void testIsReadableWriteable() throws Exception {
+        assertTrue(provider.isReadable(Sha256Hash.class, Sha256Hash.class, null, SMILE_TYPE));
+        assertTrue(provider.isWriteable(Sha256Hash.class, Sha256Hash.class, null, SMILE_TYPE));
+        assertFalse(provider.isReadable(Sha256Hash.class, Sha256Hash.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(provider.isWriteable(Sha256Hash.class, Sha256Hash.class, null, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void testWriteRead() throws Exception {
+        List<Sha256Hash> hashes = ImmutableList.of(
+                Sha256Hash.wrap("000000000ebb17fb455e897b8f3e343eea1b07d926476d00bc66e2c0342ed50f"),
+                Sha256Hash.wrap("00000000c7f4990e6ebf71ad7e21a47131dfeb22c759505b3998d7a814c011df"));
+        Type type = new TypeToken<List<Sha256Hash>>() {}.getType();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        provider.writeTo(hashes, List.class, type, null, SMILE_TYPE, null, output);
+        assertEquals(hashes, provider.readFrom((Class) List.class, type, null, SMILE_TYPE, null,
+                new ByteArrayInputStream(output.toByteArray())));
+
+        // hashes are written as raw bytes, so take about half the space of their hex strings
+        assertTrue(output.size() < BitflowMapperFactory.createMapper().writeValueAsBytes(hashes).length * 2 / 3);
+    }
+
+    @Test
+    public final void testWriteReadBigInteger() throws Exception {
+        BigInteger chainwork = new BigInteger("000000000000000000000000000000000000000000000000083ada4a4009841a", 16);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        provider.writeTo(chainwork, BigInteger.class, BigInteger.class, null, SMILE_TYPE, null, output);
+        assertEquals(chainwork, provider.readFrom(Object.class, BigInteger.class, null, SMILE_TYPE, null,
+                new ByteArrayInputStream(output.toByteArray())));
+    }
+}
@@ -77,7 +77,7 @@ public final class StreamResource implements StreamService {
     @Override
     public HydrateBlockHeaderStreamResponse hydrateBlockHeaderStream(String stream, long from, long to) {
         String topic = blockHeaderTopicName(stream);
-        List<BlockHeader> blockHeaders = blockchain.getBlockHeaderHeightSubchain("dummy auth header", from, to);
+        List<BlockHeader> blockHeaders = blockchain.getBlockHeaderHeightSubchain("dummy auth header", from, to, true);
         for (BlockHeader blockHeader : blockHeaders) {
             blockHeaderProducer.send(new ProducerRecord<>(topic, blockHeader.getHeaderHash(), blockHeader));
         }
@@ -16,6 +16,7 @@ package org.drausin.bitflow.streams;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -116,7 +117,8 @@ public final class StreamResourceTest {
             when(blockHeader.getHeaderHash()).thenReturn(Sha256Hash.of(String.valueOf(c).getBytes(Charsets.UTF_8)));
             blockHeaders.add(blockHeader);
         }
-        when(blockchain.getBlockHeaderHeightSubchain(anyString(), anyLong(), anyLong())).thenReturn(blockHeaders);
+        when(blockchain.getBlockHeaderHeightSubchain(anyString(), anyLong(), anyLong(), anyBoolean()))
+                .thenReturn(blockHeaders);
 
         String stream = "stream-1";
         int from = 0;